@@ -17,9 +17,15 @@
 package de.perdian.apps.devlauncher;
 
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +38,13 @@ public class DevLauncher {
     private Integer shutdownPort = Integer.valueOf(8081);
     private Path workingDirectory = null;
     private List<DevLauncherListener> listeners = new CopyOnWriteArrayList<>();
+    private Map<DevLauncherListener, List<DevLauncherListener>> listenerDependencies = new ConcurrentHashMap<>();
+    private int contextStartParallelism = 1;
+    private boolean fastRestart = false;
+    private boolean overlappingRestart = false;
+    private List<DevLauncherRestartHandler> restartHandlers = new CopyOnWriteArrayList<>();
+    private int listenerPreparationParallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private long shutdownDrainTimeout = 10000;
 
     /**
      * Creates a new {@code DevLauncher} instance
@@ -52,7 +65,23 @@ public class DevLauncher {
      */
     public void launch() throws Exception {
 
-        DevLauncherShutdownListener.shutdownExistingServer(this.getShutdownPort());
+        // A server that has been launched with fast restart enabled can
+        // restart the modified contexts in place, in which case there is
+        // nothing left to do for this launcher
+        if (this.isFastRestart() && DevLauncherShutdownListener.restartExistingServer(this.getShutdownPort())) {
+            log.info("Running server has been restarted in place - exiting application");
+            return;
+        }
+
+        // With overlapping restarts the running server is only shutdown once
+        // the new server has started all of its contexts
+        DevLauncherStartupTimeline startupTimeline = new DevLauncherStartupTimeline();
+        AtomicReference<DevLauncherPortHandoff> portHandoffReference = new AtomicReference<>();
+        if (!this.isOverlappingRestart()) {
+            long shutdownStartNanos = System.nanoTime();
+            portHandoffReference.set(DevLauncherShutdownListener.shutdownExistingServer(this.getShutdownPort()));
+            startupTimeline.record("launcher", "shutdown existing server", shutdownStartNanos, null);
+        }
 
         // No create and configure the embedded tomcat webserver
         Tomcat tomcat = new Tomcat();
@@ -60,20 +89,98 @@ public class DevLauncher {
         tomcat.setPort(this.getDefaultPort());
         tomcat.enableNaming();
 
+        // All listeners are prepared concurrently, but the Tomcat is only
+        // customized in the order in which the listeners have been registered
         log.trace("Invoking DevLauncherListener instances");
-        for (DevLauncherListener listener : this.getListeners()) {
-            listener.customizeServer(tomcat, this);
+        long listenersStartNanos = System.nanoTime();
+        try (DevLauncherListenerPreparation listenerPreparation = new DevLauncherListenerPreparation(this.getListenerPreparationParallelism())) {
+            listenerPreparation.start(this.getListeners(), this.getListenerDependencies(), this, startupTimeline);
+            for (int i = 0; i < this.getListeners().size(); i++) {
+                DevLauncherListener listener = this.getListeners().get(i);
+                listenerPreparation.awaitPreparation(listener);
+                long listenerStartNanos = System.nanoTime();
+                listener.customizeServer(tomcat, this);
+                startupTimeline.record("listener", "#" + (i + 1) + " " + listener.getClass().getSimpleName() + " (customize)", listenerStartNanos, null);
+            }
         }
+        startupTimeline.record("launcher", "prepare and customize " + this.getListeners().size() + " listeners", listenersStartNanos, null);
+
+        // Requests are tracked for all contexts, so that a shutdown can wait
+        // for the requests in flight to be completed
+        DevLauncherRequestTracker.install(tomcat);
+
+        // Contexts are started by the host, which can start all of them
+        // concurrently instead of one after another
+        tomcat.getHost().setStartStopThreads(this.getContextStartParallelism());
+        log.info("Starting embedded webserver (starting contexts using {} threads)", DevLauncherStartupTimeline.resolveStartStopThreads(this.getContextStartParallelism()));
+        startupTimeline.instrumentServer(tomcat.getServer(), tomcat.getHost());
 
-        log.info("Starting embedded webserver");
-        tomcat.start();
+        // A server that has just been shutdown might not have released its
+        // ports yet, so we wait for them to become available before letting
+        // the connectors bind them
+        tomcat.getConnector();
+        if (this.isOverlappingRestart()) {
+            this.installOverlappingRestart(tomcat, portHandoffReference, startupTimeline);
+        } else if (portHandoffReference.get() != null) {
+            long portReleaseStartNanos = System.nanoTime();
+            portHandoffReference.get().awaitPortsReleased(tomcat.getService().findConnectors(), DevLauncherPortHandoff.PORT_RELEASE_TIMEOUT);
+            portHandoffReference.get().instrumentConnectors(tomcat.getService(), false);
+            startupTimeline.record("launcher", "await port release", portReleaseStartNanos, null);
+        }
+
+        try {
+            tomcat.start();
+        } finally {
+            this.reportStartupTimeline(startupTimeline);
+        }
+        if (portHandoffReference.get() != null) {
+            portHandoffReference.get().logGap();
+        }
 
         log.trace("Waiting for server shutdown");
-        DevLauncherShutdownListener.installForServer(tomcat, this.getShutdownPort());
+        DevLauncherShutdownListener.installForServer(tomcat, this.getShutdownPort(), this);
         tomcat.getServer().await();
 
     }
 
+    /**
+     * Defers binding the ports of the connectors until the contexts have been
+     * started, and only then shuts down the running server, so that the ports
+     * are taken over right after the running server has released them
+     */
+    private void installOverlappingRestart(Tomcat tomcat, AtomicReference<DevLauncherPortHandoff> portHandoffReference, DevLauncherStartupTimeline startupTimeline) {
+        Connector[] connectors = tomcat.getService().findConnectors();
+        for (Connector connector : connectors) {
+            connector.setProperty("bindOnInit", "false");
+        }
+        tomcat.getEngine().addLifecycleListener(event -> {
+            if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+                long shutdownStartNanos = System.nanoTime();
+                DevLauncherPortHandoff portHandoff = DevLauncherShutdownListener.shutdownExistingServer(this.getShutdownPort(), true);
+                if (portHandoff != null) {
+                    try {
+                        portHandoff.awaitPortsReleased(connectors, DevLauncherPortHandoff.PORT_RELEASE_TIMEOUT);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    portHandoff.instrumentConnectors(tomcat.getService(), true);
+                    portHandoffReference.set(portHandoff);
+                }
+                startupTimeline.record("launcher", "shutdown existing server (overlapping restart)", shutdownStartNanos, null);
+            }
+        });
+    }
+
+    private void reportStartupTimeline(DevLauncherStartupTimeline startupTimeline) {
+        log.info(startupTimeline.formatSummary());
+        Path timelineFile = this.getWorkingDirectory().resolve("startup/startup-timeline.json");
+        try {
+            startupTimeline.writeJson(timelineFile);
+        } catch (Exception e) {
+            log.warn("Cannot write startup timeline into: {}", timelineFile, e);
+        }
+    }
+
     // -------------------------------------------------------------------------
     // --- Property access methods -------------------------------------------
     // -------------------------------------------------------------------------
@@ -127,4 +234,127 @@ public class DevLauncher {
         this.getListeners().add(listener);
     }
 
+    /**
+     * Adds a listener whose preparation may only start after the preparation
+     * of the given dependencies has been completed
+     *
+     * @param listener
+     *      the listener to be added
+     * @param dependencies
+     *      the listeners upon whose preparation the new listener depends.
+     *      All of them must have been added to the launcher before.
+     */
+    public void addListener(DevLauncherListener listener, DevLauncherListener... dependencies) {
+        for (DevLauncherListener dependency : dependencies) {
+            if (!this.getListeners().contains(dependency)) {
+                throw new IllegalArgumentException("Dependency must be added to the launcher before the listener depending upon it: " + dependency);
+            }
+        }
+        this.getListeners().add(listener);
+        if (dependencies.length > 0) {
+            this.getListenerDependencies().put(listener, Arrays.asList(dependencies));
+        }
+    }
+
+    /**
+     * @return
+     *      the listeners whose preparation must be completed before the
+     *      preparation of a listener can be started
+     */
+    Map<DevLauncherListener, List<DevLauncherListener>> getListenerDependencies() {
+        return this.listenerDependencies;
+    }
+    void setListenerDependencies(Map<DevLauncherListener, List<DevLauncherListener>> listenerDependencies) {
+        this.listenerDependencies = listenerDependencies;
+    }
+
+    /**
+     * @return
+     *      the number of threads used to start the web application contexts
+     *      concurrently. Follows the semantics of Tomcat's
+     *      {@code startStopThreads}: A value of zero uses as many threads as
+     *      processors are available, a negative value leaves that many
+     *      processors unused.
+     */
+    public int getContextStartParallelism() {
+        return this.contextStartParallelism;
+    }
+    public void setContextStartParallelism(int contextStartParallelism) {
+        this.contextStartParallelism = contextStartParallelism;
+    }
+
+    /**
+     * @return
+     *      whether a new launch restarts the contexts of an already running
+     *      server in place instead of shutting it down. Only the contexts
+     *      whose classes have been modified are restarted, while the JVM, the
+     *      Tomcat and the library JARs of the contexts are kept. Changes to
+     *      the configuration of the launcher itself are not applied by such
+     *      a restart.
+     */
+    public boolean isFastRestart() {
+        return this.fastRestart;
+    }
+    public void setFastRestart(boolean fastRestart) {
+        this.fastRestart = fastRestart;
+    }
+
+    /**
+     * @return
+     *      whether the new server starts all of its contexts before shutting
+     *      down an already running server. The running server is only asked
+     *      to drain its requests and release its ports when the new server
+     *      is ready to bind them, so that the ports are unavailable for as
+     *      short a time as possible. The running and the new server share
+     *      the working directory while both of them are active.
+     */
+    public boolean isOverlappingRestart() {
+        return this.overlappingRestart;
+    }
+    public void setOverlappingRestart(boolean overlappingRestart) {
+        this.overlappingRestart = overlappingRestart;
+    }
+
+    /**
+     * @return
+     *      the handlers that are invoked when the running server is to be
+     *      restarted in place
+     */
+    List<DevLauncherRestartHandler> getRestartHandlers() {
+        return this.restartHandlers;
+    }
+    void setRestartHandlers(List<DevLauncherRestartHandler> restartHandlers) {
+        this.restartHandlers = restartHandlers;
+    }
+    public void addRestartHandler(DevLauncherRestartHandler restartHandler) {
+        this.getRestartHandlers().add(restartHandler);
+    }
+
+    /**
+     * @return
+     *      the maximum number of listeners being prepared concurrently. Since
+     *      the preparation is mostly waiting for I/O this defaults to at
+     *      least four, even on machines with fewer processors
+     */
+    public int getListenerPreparationParallelism() {
+        return this.listenerPreparationParallelism;
+    }
+    public void setListenerPreparationParallelism(int listenerPreparationParallelism) {
+        this.listenerPreparationParallelism = listenerPreparationParallelism;
+    }
+
+    /**
+     * @return
+     *      the maximum time (in milliseconds) a shutdown waits for the
+     *      requests currently being processed to be completed, after the
+     *      connectors have stopped accepting new requests. A value of zero
+     *      or less stops the server immediately.
+     */
+    public long getShutdownDrainTimeout() {
+        return this.shutdownDrainTimeout;
+    }
+    public void setShutdownDrainTimeout(long shutdownDrainTimeout) {
+        this.shutdownDrainTimeout = shutdownDrainTimeout;
+    }
+
 }
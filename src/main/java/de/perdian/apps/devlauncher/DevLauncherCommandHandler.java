@@ -0,0 +1,226 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Manager;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles the commands sent to the control port of a running server, which
+ * do not shutdown the server as a whole.
+ *
+ * Every command is sent as a single line, the response consists of a first
+ * line that is either {@code ok} or {@code error} followed by a message,
+ * optionally followed by additional lines containing {@code key=value} pairs.
+ * The end of the response is signaled by closing the connection.
+ *
+ * <ul>
+ *   <li>{@code reload <context>} restarts a single context, while all other
+ *   contexts keep their state and sessions</li>
+ *   <li>{@code stop <context>} stops a single context</li>
+ *   <li>{@code start <context>} starts a single context that has been
+ *   stopped before</li>
+ *   <li>{@code status} lists the state of the server, its connectors and
+ *   contexts</li>
+ *   <li>{@code metrics} lists the request statistics of the connectors and
+ *   contexts together with the memory usage of the JVM</li>
+ * </ul>
+ *
+ * @author Christian Robert
+ */
+
+class DevLauncherCommandHandler {
+
+    static final String RELOAD_COMMAND = "reload";
+    static final String STOP_COMMAND = "stop";
+    static final String START_COMMAND = "start";
+    static final String STATUS_COMMAND = "status";
+    static final String METRICS_COMMAND = "metrics";
+    static final String RESPONSE_OK = "ok";
+    static final String RESPONSE_ERROR = "error";
+
+    private static final Logger log = LoggerFactory.getLogger(DevLauncherCommandHandler.class);
+
+    /**
+     * Executes a command
+     *
+     * @param commandLine
+     *      the line containing the command and its arguments
+     * @param tomcat
+     *      the server on which the command is to be executed
+     * @return
+     *      the lines of the response to be sent back to the client
+     */
+    static List<String> handleCommand(String commandLine, Tomcat tomcat) {
+        String[] commandParts = commandLine.trim().split("\\s+", 2);
+        String commandName = commandParts[0].toLowerCase(Locale.ENGLISH);
+        String commandArgument = commandParts.length > 1 ? commandParts[1].trim() : null;
+        try {
+            switch (commandName) {
+                case RELOAD_COMMAND:
+                case STOP_COMMAND:
+                case START_COMMAND:
+                    return DevLauncherCommandHandler.handleContextCommand(commandName, commandArgument, tomcat);
+                case STATUS_COMMAND:
+                    return DevLauncherCommandHandler.handleStatus(tomcat);
+                case METRICS_COMMAND:
+                    return DevLauncherCommandHandler.handleMetrics(tomcat);
+                default:
+                    return Arrays.asList(RESPONSE_ERROR + " Unknown command: " + commandName);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot execute command: {}", commandLine, e);
+            return Arrays.asList(RESPONSE_ERROR + " Cannot execute command '" + commandName + "': " + e);
+        }
+    }
+
+    private static List<String> handleContextCommand(String commandName, String contextName, Tomcat tomcat) throws Exception {
+        if (contextName == null || contextName.isEmpty()) {
+            return Arrays.asList(RESPONSE_ERROR + " Missing context for command: " + commandName);
+        } else {
+            Context context = DevLauncherCommandHandler.resolveContext(contextName, tomcat);
+            if (context == null) {
+                return Arrays.asList(RESPONSE_ERROR + " Unknown context: " + contextName + " (available: " + DevLauncherCommandHandler.findContexts(tomcat).stream().map(DevLauncherCommandHandler::formatContextPath).collect(Collectors.joining(", ")) + ")");
+            } else {
+                String contextPath = DevLauncherCommandHandler.formatContextPath(context);
+                log.info("Command '{}' received for context '{}'", commandName, contextPath);
+                long commandStartNanos = System.nanoTime();
+                if (STOP_COMMAND.equals(commandName)) {
+                    context.stop();
+                } else if (START_COMMAND.equals(commandName)) {
+                    context.start();
+                } else if (context.getState().isAvailable()) {
+                    context.reload();
+                } else {
+                    context.stop();
+                    context.start();
+                }
+                long commandMillis = (System.nanoTime() - commandStartNanos) / 1000000;
+                boolean expectedAvailable = !STOP_COMMAND.equals(commandName);
+                if (context.getState().isAvailable() != expectedAvailable) {
+                    return Arrays.asList(RESPONSE_ERROR + " Context " + contextPath + " is " + context.getStateName() + " after " + commandName + " - see server log for details");
+                } else {
+                    log.info("Command '{}' for context '{}' completed in {} ms", commandName, contextPath, commandMillis);
+                    return Arrays.asList(RESPONSE_OK + " " + commandName + " " + contextPath + " completed in " + commandMillis + " ms");
+                }
+            }
+        }
+    }
+
+    private static List<String> handleStatus(Tomcat tomcat) {
+        List<String> responseLines = new ArrayList<>();
+        responseLines.add(RESPONSE_OK);
+        DevLauncherRequestTracker requestTracker = DevLauncherRequestTracker.lookup(tomcat);
+        responseLines.add("server=" + tomcat.getServer().getStateName() + " uptimeMillis=" + ManagementFactory.getRuntimeMXBean().getUptime() + (requestTracker == null ? "" : " activeRequests=" + requestTracker.getActiveRequests().get()));
+        for (Connector connector : tomcat.getService().findConnectors()) {
+            responseLines.add("connector=" + connector.getScheme() + ":" + connector.getPort() + " protocol=" + connector.getProtocol() + " state=" + connector.getStateName());
+        }
+        for (Context context : DevLauncherCommandHandler.findContexts(tomcat)) {
+            responseLines.add("context=" + DevLauncherCommandHandler.formatContextPath(context) + " state=" + context.getStateName() + " sessions=" + DevLauncherCommandHandler.countActiveSessions(context));
+        }
+        return responseLines;
+    }
+
+    private static List<String> handleMetrics(Tomcat tomcat) throws Exception {
+        List<String> responseLines = new ArrayList<>();
+        responseLines.add(RESPONSE_OK);
+
+        // The connector statistics are only available through the MBeans
+        // registered by the protocol handlers
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> requestProcessorNames = mbeanServer.queryNames(new ObjectName("*:type=GlobalRequestProcessor,*"), null);
+        for (ObjectName requestProcessorName : requestProcessorNames) {
+            StringBuilder connectorLine = new StringBuilder();
+            connectorLine.append("connector=").append(ObjectName.unquote(requestProcessorName.getKeyProperty("name")));
+            for (String attributeName : Arrays.asList("requestCount", "errorCount", "processingTime", "maxTime", "bytesReceived", "bytesSent")) {
+                connectorLine.append(" ").append(attributeName).append("=").append(mbeanServer.getAttribute(requestProcessorName, attributeName));
+            }
+            responseLines.add(connectorLine.toString());
+        }
+
+        for (Context context : DevLauncherCommandHandler.findContexts(tomcat)) {
+            StringBuilder contextLine = new StringBuilder();
+            contextLine.append("context=").append(DevLauncherCommandHandler.formatContextPath(context));
+            if (context instanceof StandardContext) {
+                StandardContext standardContext = (StandardContext)context;
+                contextLine.append(" requestCount=").append(standardContext.getRequestCount());
+                contextLine.append(" errorCount=").append(standardContext.getErrorCount());
+                contextLine.append(" processingTime=").append(standardContext.getProcessingTime());
+                contextLine.append(" startupTime=").append(standardContext.getStartupTime());
+            }
+            contextLine.append(" sessions=").append(DevLauncherCommandHandler.countActiveSessions(context));
+            responseLines.add(contextLine.toString());
+        }
+
+        MemoryUsage heapUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeapUsage = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        responseLines.add("jvm=heap used=" + heapUsage.getUsed() + " committed=" + heapUsage.getCommitted() + " max=" + heapUsage.getMax());
+        responseLines.add("jvm=nonHeap used=" + nonHeapUsage.getUsed() + " committed=" + nonHeapUsage.getCommitted());
+        responseLines.add("jvm=threads live=" + ManagementFactory.getThreadMXBean().getThreadCount() + " peak=" + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        return responseLines;
+    }
+
+    /**
+     * Resolves the context for the given name, which can either be the
+     * context path ({@code /one}), the context name without the leading
+     * slash ({@code one}) or {@code /} and {@code ROOT} for the root context
+     */
+    static Context resolveContext(String contextName, Tomcat tomcat) {
+        String contextPath = "/".equals(contextName) || "ROOT".equals(contextName) ? "" : contextName.startsWith("/") ? contextName : "/" + contextName;
+        Container container = tomcat.getHost().findChild(contextPath);
+        return container instanceof Context ? (Context)container : null;
+    }
+
+    private static List<Context> findContexts(Tomcat tomcat) {
+        List<Context> contexts = new ArrayList<>();
+        for (Container container : tomcat.getHost().findChildren()) {
+            if (container instanceof Context) {
+                contexts.add((Context)container);
+            }
+        }
+        contexts.sort((c1, c2) -> c1.getPath().compareTo(c2.getPath()));
+        return contexts;
+    }
+
+    private static String formatContextPath(Context context) {
+        return context.getPath().isEmpty() ? "/" : context.getPath();
+    }
+
+    private static int countActiveSessions(Context context) {
+        Manager manager = context.getManager();
+        return manager == null || !context.getState().isAvailable() ? 0 : manager.getActiveSessions();
+    }
+
+}
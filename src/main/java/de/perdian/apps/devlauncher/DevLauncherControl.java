@@ -0,0 +1,71 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Sends commands to the control port of a running server, for example to
+ * reload a single context without touching any of the other contexts:
+ *
+ * <pre>
+ * java de.perdian.apps.devlauncher.DevLauncherControl 8081 reload simple
+ * </pre>
+ *
+ * Supported commands are {@code reload <context>}, {@code stop <context>},
+ * {@code start <context>}, {@code status} and {@code metrics}.
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherControl {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: " + DevLauncherControl.class.getName() + " <controlPort> <command> [<context>]");
+            System.exit(-1);
+        } else {
+            List<String> responseLines = DevLauncherControl.sendCommand(Integer.parseInt(args[0]), Arrays.stream(args, 1, args.length).collect(Collectors.joining(" ")));
+            responseLines.forEach(System.out::println);
+            if (responseLines.isEmpty() || !responseLines.get(0).startsWith(DevLauncherCommandHandler.RESPONSE_OK)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Sends a command to a running server
+     *
+     * @param controlPort
+     *      the port on which the running server listens for commands (which
+     *      is the shutdown port of the launcher that started it)
+     * @param commandLine
+     *      the command to be sent together with its arguments
+     * @return
+     *      the lines of the response, the first of which is either {@code ok}
+     *      or {@code error} followed by a message
+     * @throws IOException
+     *      thrown if no server is listening on the given port
+     */
+    public static List<String> sendCommand(int controlPort, String commandLine) throws IOException {
+        return DevLauncherShutdownListener.sendCommand(controlPort, commandLine);
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import org.apache.tomcat.JarScannerCallback;
+
+/**
+ * A {@link JarScannerCallback} wrapping the callback passed by Tomcat into a
+ * {@code JarScanner}, so that other scanners further down the delegation
+ * chain can still determine which kind of scan (for example web fragments or
+ * TLDs) is being performed
+ *
+ * @author Christian Robert
+ */
+
+public interface DevLauncherJarScannerCallback extends JarScannerCallback {
+
+    /**
+     * @return
+     *      the callback that has been wrapped by this instance
+     */
+    JarScannerCallback getWrappedCallback();
+
+    /**
+     * Resolves the callback originally passed by Tomcat, removing all the
+     * wrappers that have been placed around it
+     */
+    static JarScannerCallback unwrap(JarScannerCallback callback) {
+        JarScannerCallback originalCallback = callback;
+        while (originalCallback instanceof DevLauncherJarScannerCallback) {
+            originalCallback = ((DevLauncherJarScannerCallback)originalCallback).getWrappedCallback();
+        }
+        return originalCallback;
+    }
+
+}
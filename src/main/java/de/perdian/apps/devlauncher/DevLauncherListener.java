@@ -23,12 +23,38 @@ import org.apache.catalina.startup.Tomcat;
 /**
  * Receive notifications about lifecycle events during the launch process
  *
+ * The work of a listener is split into two phases: Within the preparation
+ * phase all listeners are executed concurrently and can perform expensive
+ * work that doesn't touch the Tomcat instance (like creating keystores or
+ * copying resources). Within the customization phase the listeners are
+ * executed one after another in the order in which they have been registered
+ * and can modify the Tomcat instance. A listener will only be customizing
+ * the server after its own preparation has been completed, but may start
+ * while other listeners are still preparing.
+ *
  * @author Christian Robert
  */
 
 @FunctionalInterface
 public interface DevLauncherListener {
 
+    /**
+     * Prepares the customization of the Tomcat instance. This method will be
+     * called concurrently with the preparation of all other listeners and
+     * outside of the thread that is customizing the Tomcat, so it must not
+     * access the Tomcat in any way. If a listener depends upon the
+     * preparation of other listeners, it can declare the dependency when
+     * being added to the launcher using
+     * {@link DevLauncher#addListener(DevLauncherListener, DevLauncherListener...)}
+     *
+     * @param devLauncher
+     *      the launcher instance in which the listener is to be executed
+     * @throws IOException
+     *      thrown if the preparation cannot be completed correctly
+     */
+    default void prepareServer(DevLauncher devLauncher) throws IOException {
+    }
+
     /**
      * Customizes the Tomcat instance before it is about to be started
      *
@@ -0,0 +1,160 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the preparation phase of all {@link DevLauncherListener} instances
+ * concurrently, while the customization phase can already wait for the
+ * preparation of the individual listeners in the order in which they have
+ * been registered.
+ *
+ * The preparation of a listener starts as soon as the preparations of all the
+ * listeners it has declared as dependencies have been completed. Since a
+ * dependency must have been registered before the listener depending upon
+ * it, there can never be any cycles between the listeners.
+ *
+ * @author Christian Robert
+ */
+
+class DevLauncherListenerPreparation implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DevLauncherListenerPreparation.class);
+
+    private ExecutorService executorService = null;
+    private Map<DevLauncherListener, CompletableFuture<Void>> preparationFutures = new IdentityHashMap<>();
+
+    DevLauncherListenerPreparation(int parallelism) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.setExecutorService(Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, DevLauncherListenerPreparation.class.getSimpleName() + "[Preparation-" + threadCounter.incrementAndGet() + "]");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Starts the preparation of all the given listeners
+     *
+     * @param listeners
+     *      the listeners to be prepared in the order of their registration
+     * @param listenerDependencies
+     *      the listeners whose preparation must be completed before the
+     *      preparation of a listener can be started
+     * @param devLauncher
+     *      the launcher instance in which the listeners are executed
+     * @param startupTimeline
+     *      the timeline into which to record the preparation of each listener
+     */
+    void start(List<DevLauncherListener> listeners, Map<DevLauncherListener, List<DevLauncherListener>> listenerDependencies, DevLauncher devLauncher, DevLauncherStartupTimeline startupTimeline) {
+        for (int i = 0; i < listeners.size(); i++) {
+            DevLauncherListener listener = listeners.get(i);
+            String listenerName = "#" + (i + 1) + " " + listener.getClass().getSimpleName();
+            List<CompletableFuture<Void>> dependencyFutures = new ArrayList<>();
+            for (DevLauncherListener dependency : listenerDependencies.getOrDefault(listener, Collections.emptyList())) {
+                CompletableFuture<Void> dependencyFuture = this.getPreparationFutures().get(dependency);
+                if (dependencyFuture != null) {
+                    dependencyFutures.add(dependencyFuture);
+                }
+            }
+            CompletableFuture<Void> preparationFuture = CompletableFuture.allOf(dependencyFutures.toArray(new CompletableFuture<?>[dependencyFutures.size()])).thenRunAsync(() -> {
+                long preparationStartNanos = System.nanoTime();
+                try {
+                    log.trace("Preparing DevLauncherListener {}", listenerName);
+                    listener.prepareServer(devLauncher);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    startupTimeline.record("listener", listenerName + " (prepare)", preparationStartNanos, null);
+                }
+            }, this.getExecutorService());
+            this.getPreparationFutures().put(listener, preparationFuture);
+        }
+    }
+
+    /**
+     * Waits until the preparation of the given listener has been completed
+     *
+     * @throws Exception
+     *      the exception thrown by the preparation of the listener or of one
+     *      of the listeners it depends upon
+     */
+    void awaitPreparation(DevLauncherListener listener) throws Exception {
+        CompletableFuture<Void> preparationFuture = this.getPreparationFutures().get(listener);
+        if (preparationFuture != null) {
+            try {
+                preparationFuture.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                while (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException)cause).getCause();
+                } else if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                } else {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels all preparations that haven't been completed yet, which is only
+     * the case if the launch has been aborted
+     */
+    @Override
+    public void close() {
+        for (CompletableFuture<Void> preparationFuture : this.getPreparationFutures().values()) {
+            preparationFuture.cancel(true);
+        }
+        this.getExecutorService().shutdownNow();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private ExecutorService getExecutorService() {
+        return this.executorService;
+    }
+    private void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    private Map<DevLauncherListener, CompletableFuture<Void>> getPreparationFutures() {
+        return this.preparationFutures;
+    }
+
+}
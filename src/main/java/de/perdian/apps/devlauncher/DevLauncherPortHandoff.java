@@ -0,0 +1,199 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates the handoff of the connector ports from a previous server
+ * instance that has been shutdown to the server instance being launched.
+ *
+ * The previous instance reports the time at which its connectors stopped
+ * accepting new requests and the time at which they have been unbound. The
+ * new instance waits until the ports can actually be bound before starting
+ * its own connectors and measures the gap in which nothing was listening on
+ * the ports.
+ *
+ * @author Christian Robert
+ */
+
+class DevLauncherPortHandoff {
+
+    static final String CONNECTORS_UNBOUND = "connectorsUnbound";
+    static final long PORT_RELEASE_TIMEOUT = 10000;
+    static final long PORT_RELEASE_MIN_BACKOFF = 5;
+    static final long PORT_RELEASE_MAX_BACKOFF = 250;
+
+    private static final Logger log = LoggerFactory.getLogger(DevLauncherPortHandoff.class);
+
+    private long pausedMillis = 0;
+    private long unboundMillis = 0;
+    private volatile long boundMillis = 0;
+
+    /**
+     * Creates the line sent by the previous server instance after its
+     * connectors have been unbound
+     */
+    static String formatUnboundLine(long pausedMillis, long unboundMillis) {
+        return CONNECTORS_UNBOUND + " " + pausedMillis + " " + unboundMillis;
+    }
+
+    /**
+     * Evaluates a line received from the previous server instance
+     *
+     * @return
+     *      whether the line has been a report about the connectors being
+     *      unbound
+     */
+    boolean parseUnboundLine(String line) {
+        if (line.startsWith(CONNECTORS_UNBOUND)) {
+            String[] lineParts = line.substring(CONNECTORS_UNBOUND.length()).trim().split(" ");
+            try {
+                this.setPausedMillis(Long.parseLong(lineParts[0]));
+                this.setUnboundMillis(Long.parseLong(lineParts[1]));
+                return true;
+            } catch (RuntimeException e) {
+                log.debug("Invalid port handoff line received from previous server instance: " + line);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until all ports of the given connectors can be bound, probing
+     * them with an exponential backoff
+     *
+     * @return
+     *      whether all ports are available. If the timeout has been exceeded,
+     *      the connectors will most likely fail to bind their ports.
+     */
+    boolean awaitPortsReleased(Connector[] connectors, long timeoutMillis) throws InterruptedException {
+        List<Integer> pendingPorts = new ArrayList<>();
+        for (Connector connector : connectors) {
+            if (connector.getPort() > 0 && !pendingPorts.contains(connector.getPort())) {
+                pendingPorts.add(connector.getPort());
+            }
+        }
+        long awaitStartNanos = System.nanoTime();
+        long backoffMillis = PORT_RELEASE_MIN_BACKOFF;
+        int probeCount = 0;
+        while (true) {
+            probeCount++;
+            pendingPorts.removeIf(DevLauncherPortHandoff::isPortAvailable);
+            long awaitMillis = (System.nanoTime() - awaitStartNanos) / 1000000;
+            if (pendingPorts.isEmpty()) {
+                log.debug("Ports released by previous server instance after waiting {} ms ({} probes)", awaitMillis, probeCount);
+                return true;
+            } else if (awaitMillis >= timeoutMillis) {
+                log.warn("Ports {} still in use after waiting {} ms for the previous server instance to release them", pendingPorts, awaitMillis);
+                return false;
+            }
+            Thread.sleep(Math.min(backoffMillis, timeoutMillis - awaitMillis));
+            backoffMillis = Math.min(backoffMillis * 2, PORT_RELEASE_MAX_BACKOFF);
+        }
+    }
+
+    private static boolean isPortAvailable(int port) {
+        try (ServerSocket probeSocket = new ServerSocket()) {
+            probeSocket.setReuseAddress(true);
+            probeSocket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the time at which the connectors of the new server instance
+     * have bound their ports
+     *
+     * @param bindOnStart
+     *      whether the connectors bind their ports when being started instead
+     *      of when being initialized
+     */
+    void instrumentConnectors(Service service, boolean bindOnStart) {
+        String bindEventType = bindOnStart ? Lifecycle.AFTER_START_EVENT : Lifecycle.AFTER_INIT_EVENT;
+        for (Connector connector : service.findConnectors()) {
+            connector.addLifecycleListener(event -> {
+                if (bindEventType.equals(event.getType())) {
+                    this.setBoundMillis(Math.max(this.getBoundMillis(), System.currentTimeMillis()));
+                }
+            });
+        }
+    }
+
+    /**
+     * Logs the gap between the previous server instance giving up its ports
+     * and the new instance binding them
+     */
+    void logGap() {
+        if (this.getUnboundMillis() > 0 && this.getBoundMillis() > 0) {
+            log.info("Port handoff completed: nothing listening on the ports for {} ms ({} ms since the previous server instance stopped accepting new connections)", this.getBoundMillis() - this.getUnboundMillis(), this.getBoundMillis() - this.getPausedMillis());
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * @return
+     *      the time at which the previous instance stopped accepting new
+     *      requests
+     */
+    long getPausedMillis() {
+        return this.pausedMillis;
+    }
+    private void setPausedMillis(long pausedMillis) {
+        this.pausedMillis = pausedMillis;
+    }
+
+    /**
+     * @return
+     *      the time at which the previous instance unbound its connectors or
+     *      zero if the previous instance didn't report it
+     */
+    long getUnboundMillis() {
+        return this.unboundMillis;
+    }
+    private void setUnboundMillis(long unboundMillis) {
+        this.unboundMillis = unboundMillis;
+    }
+
+    /**
+     * @return
+     *      the time at which the connectors of the new instance have bound
+     *      their ports
+     */
+    long getBoundMillis() {
+        return this.boundMillis;
+    }
+    private void setBoundMillis(long boundMillis) {
+        this.boundMillis = boundMillis;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Valve;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * Counts the requests currently being processed by the server, so that a
+ * shutdown can wait for them to be completed instead of cutting them off.
+ *
+ * Asynchronous requests are counted until the {@code AsyncContext} has been
+ * completed, not just until the thread that started it returns.
+ *
+ * @author Christian Robert
+ */
+
+class DevLauncherRequestTracker extends ValveBase {
+
+    private AtomicInteger activeRequests = new AtomicInteger();
+    private Object idleMonitor = new Object();
+
+    DevLauncherRequestTracker() {
+        super(true);
+    }
+
+    /**
+     * Installs a new tracker into the engine of the given server, so that
+     * it sees the requests for all contexts
+     */
+    static DevLauncherRequestTracker install(Tomcat tomcat) {
+        DevLauncherRequestTracker requestTracker = new DevLauncherRequestTracker();
+        tomcat.getEngine().getPipeline().addValve(requestTracker);
+        return requestTracker;
+    }
+
+    /**
+     * Looks up the tracker that has been installed into the given server
+     *
+     * @return
+     *      the tracker or {@code null} if none has been installed
+     */
+    static DevLauncherRequestTracker lookup(Tomcat tomcat) {
+        for (Valve valve : tomcat.getEngine().getPipeline().getValves()) {
+            if (valve instanceof DevLauncherRequestTracker) {
+                return (DevLauncherRequestTracker)valve;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        this.getActiveRequests().incrementAndGet();
+        boolean asyncStarted = false;
+        try {
+            this.getNext().invoke(request, response);
+            asyncStarted = request.isAsync();
+        } finally {
+            if (asyncStarted) {
+                request.getAsyncContext().addListener(new CompletionListener(), request.getRequest(), response.getResponse());
+            } else {
+                this.requestCompleted();
+            }
+        }
+    }
+
+    private void requestCompleted() {
+        if (this.getActiveRequests().decrementAndGet() <= 0) {
+            synchronized (this.getIdleMonitor()) {
+                this.getIdleMonitor().notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no more requests are being processed
+     *
+     * @param timeoutMillis
+     *      the maximum time to wait
+     * @return
+     *      whether all requests have been completed within the given timeout
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this.getIdleMonitor()) {
+            while (this.getActiveRequests().get() > 0) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                this.getIdleMonitor().wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+            }
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    class CompletionListener implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            DevLauncherRequestTracker.this.requestCompleted();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            // The request will be completed afterwards
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            // The request will be completed afterwards
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // The request has been dispatched and started asynchronous
+            // processing once more, in which case the dispatched request
+            // registers a new listener, since this one is removed
+            DevLauncherRequestTracker.this.requestCompleted();
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * @return
+     *      the number of requests currently being processed
+     */
+    AtomicInteger getActiveRequests() {
+        return this.activeRequests;
+    }
+
+    private Object getIdleMonitor() {
+        return this.idleMonitor;
+    }
+
+}
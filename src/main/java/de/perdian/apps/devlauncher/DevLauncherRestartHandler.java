@@ -0,0 +1,52 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+/**
+ * Restarts a part of a running server in place, instead of shutting down the
+ * whole server and launching a new one
+ *
+ * @author Christian Robert
+ */
+
+@FunctionalInterface
+public interface DevLauncherRestartHandler {
+
+    /**
+     * Restarts the part of the server handled by this instance, if anything
+     * has been modified since it has been started
+     *
+     * @return
+     *      whether a restart has actually been performed
+     * @throws Exception
+     *      thrown if the restart cannot be completed correctly
+     */
+    boolean restart() throws Exception;
+
+    /**
+     * Checks whether the modifications made since the server has been started
+     * can be applied by restarting in place at all
+     *
+     * @return
+     *      {@code false} if any modification requires the whole server to be
+     *      shutdown and launched again
+     */
+    default boolean isRestartPossible() {
+        return true;
+    }
+
+}
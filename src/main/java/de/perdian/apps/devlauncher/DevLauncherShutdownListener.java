@@ -18,15 +18,22 @@ package de.perdian.apps.devlauncher;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +42,10 @@ class DevLauncherShutdownListener {
 
     static final String SHUTDOWN_COMMAND = "shutdown";
     static final String SHUTDOWN_CONFIRMATION = "shutdownConfirmation";
+    static final String RESTART_COMMAND = "restart";
+    static final String RESTART_CONFIRMATION = "restartConfirmation";
+    static final String RESTART_UNAVAILABLE = "restartUnavailable";
+    static final int RESTART_TIMEOUT = 5 * 60 * 1000;
 
     static final Logger log = LoggerFactory.getLogger(DevLauncherShutdownListener.class);
     static final Lock shutdownLock = new ReentrantLock();
@@ -45,13 +56,35 @@ class DevLauncherShutdownListener {
      * @param shutdownPort
      *   the port on which the connection to the already running server will be
      *   initiated
+     * @return
+     *   the handoff of the connector ports from the server that has been
+     *   shutdown or {@code null} if no running server has been detected
      */
-    static void shutdownExistingServer(Integer shutdownPort) {
+    static DevLauncherPortHandoff shutdownExistingServer(Integer shutdownPort) {
+        return DevLauncherShutdownListener.shutdownExistingServer(shutdownPort, false);
+    }
+
+    /**
+     * Shutdown an already running server
+     *
+     * @param shutdownPort
+     *   the port on which the connection to the already running server will be
+     *   initiated
+     * @param returnWhenUnbound
+     *   whether to return as soon as the running server has released its
+     *   ports, instead of waiting for the server to be stopped completely
+     * @return
+     *   the handoff of the connector ports from the server that has been
+     *   shutdown or {@code null} if no running server has been detected
+     */
+    static DevLauncherPortHandoff shutdownExistingServer(Integer shutdownPort, boolean returnWhenUnbound) {
+        DevLauncherPortHandoff portHandoff = null;
         if (shutdownPort != null) {
             log.debug("Try shutting down running server using port: " + shutdownPort);
             try {
                 try (Socket shutdownSocket = new Socket()) {
                     shutdownSocket.connect(new InetSocketAddress(InetAddress.getByName("localhost"), shutdownPort.intValue()), 100);
+                    portHandoff = new DevLauncherPortHandoff();
                     try (BufferedWriter shutdownWriter = new BufferedWriter(new OutputStreamWriter(shutdownSocket.getOutputStream(), "UTF-8"))) {
 
                         // Send the shutdown command
@@ -64,6 +97,11 @@ class DevLauncherShutdownListener {
                             for (String line = confirmationReader.readLine(); line != null; line = confirmationReader.readLine()) {
                                 if (DevLauncherShutdownListener.SHUTDOWN_CONFIRMATION.equals(line)) {
                                     log.debug("Previous server instance confirmed shutdown");
+                                } else if (portHandoff.parseUnboundLine(line)) {
+                                    log.debug("Previous server instance unbound its connectors");
+                                    if (returnWhenUnbound) {
+                                        break;
+                                    }
                                 }
                             }
                         } catch (Exception e) {
@@ -76,6 +114,75 @@ class DevLauncherShutdownListener {
                 log.debug("No running server detected or server could not be shutdown [" + e + "]");
             }
         }
+        return portHandoff;
+    }
+
+    /**
+     * Restart an already running server in place
+     *
+     * @param shutdownPort
+     *   the port on which the connection to the already running server will be
+     *   initiated
+     * @return
+     *   whether the running server has been restarted. If no server is running
+     *   or the running server doesn't support restarting in place, the server
+     *   has to be launched (and an existing one shutdown) as usual.
+     */
+    static boolean restartExistingServer(Integer shutdownPort) {
+        if (shutdownPort != null) {
+            log.debug("Try restarting running server using port: " + shutdownPort);
+            try (Socket restartSocket = new Socket()) {
+                restartSocket.connect(new InetSocketAddress(InetAddress.getByName("localhost"), shutdownPort.intValue()), 100);
+                restartSocket.setSoTimeout(RESTART_TIMEOUT);
+                BufferedWriter restartWriter = new BufferedWriter(new OutputStreamWriter(restartSocket.getOutputStream(), "UTF-8"));
+                restartWriter.write(DevLauncherShutdownListener.RESTART_COMMAND + "\n");
+                restartWriter.flush();
+                BufferedReader confirmationReader = new BufferedReader(new InputStreamReader(restartSocket.getInputStream(), "UTF-8"));
+                for (String line = confirmationReader.readLine(); line != null; line = confirmationReader.readLine()) {
+                    if (line.startsWith(DevLauncherShutdownListener.RESTART_CONFIRMATION)) {
+                        log.info("Previous server instance confirmed restart in place [" + line.substring(DevLauncherShutdownListener.RESTART_CONFIRMATION.length()).trim() + "]");
+                        return true;
+                    } else if (line.startsWith(DevLauncherShutdownListener.RESTART_UNAVAILABLE)) {
+                        log.info("Previous server instance cannot be restarted in place - shutting it down instead");
+                        return false;
+                    }
+                }
+            } catch (Exception e) {
+                log.debug("No running server detected or server could not be restarted [" + e + "]");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a command to an already running server
+     *
+     * @param shutdownPort
+     *   the port on which the connection to the already running server will be
+     *   initiated
+     * @param commandLine
+     *   the command to be sent together with its arguments
+     * @return
+     *   the lines of the response sent by the running server
+     * @throws IOException
+     *   thrown if no server is running or the server didn't respond
+     */
+    static List<String> sendCommand(int shutdownPort, String commandLine) throws IOException {
+        log.debug("Sending command '" + commandLine + "' to running server using port: " + shutdownPort);
+        try (Socket commandSocket = new Socket()) {
+            commandSocket.connect(new InetSocketAddress(InetAddress.getByName("localhost"), shutdownPort), 100);
+            commandSocket.setSoTimeout(RESTART_TIMEOUT);
+            BufferedWriter commandWriter = new BufferedWriter(new OutputStreamWriter(commandSocket.getOutputStream(), "UTF-8"));
+            commandWriter.write(commandLine + "\n");
+            commandWriter.flush();
+            commandSocket.shutdownOutput();
+            List<String> responseLines = new ArrayList<>();
+            BufferedReader responseReader = new BufferedReader(new InputStreamReader(commandSocket.getInputStream(), "UTF-8"));
+            for (String line = responseReader.readLine(); line != null; line = responseReader.readLine()) {
+                responseLines.add(line);
+            }
+            return responseLines;
+        }
     }
 
     /**
@@ -87,8 +194,10 @@ class DevLauncherShutdownListener {
      * @param shutdownPort
      *   the port on which the server will listen to new clients that want to
      *   initiate a shutdown
+     * @param devLauncher
+     *   the launcher providing the handlers for restarting the server in place
      */
-    static void installForServer(final Tomcat tomcat, final Integer shutdownPort) throws Exception {
+    static void installForServer(final Tomcat tomcat, final Integer shutdownPort, final DevLauncher devLauncher) throws Exception {
         if (shutdownPort != null) {
 
             // Start a daemon thread that listens on the shutdown port for
@@ -98,23 +207,32 @@ class DevLauncherShutdownListener {
             // a System.exit call to terminate the virtual machine.
             Thread shutdownThread = new Thread(() -> {
                 log.info("Start listening for shutdown commands on port: " + shutdownPort);
-                try (ServerSocket serverSocket = new ServerSocket(shutdownPort.intValue(), 0, InetAddress.getByName("localhost"))) {
-                    while (serverSocket.isBound()) {
+                try (ServerSocket serverSocket = DevLauncherShutdownListener.bindShutdownSocket(shutdownPort.intValue())) {
+                    while (!serverSocket.isClosed()) {
                         try (Socket clientSocket = serverSocket.accept()) {
-                            DevLauncherShutdownListener.handleShutdownConnection(clientSocket, tomcat);
+                            DevLauncherShutdownListener.handleShutdownConnection(clientSocket, serverSocket, tomcat, devLauncher);
                         } catch (Exception e) {
                             log.trace("Cannot accept shutdown socket connection", e);
                         }
                     }
                 } catch (Exception e) {
-                    log.debug("Cannot install shutdown listener on port: " + shutdownPort, e);
+                    log.warn("Cannot install shutdown listener on port: " + shutdownPort + " - this server cannot be shutdown or restarted by a later launch", e);
                 }
             });
             shutdownThread.setDaemon(true);
             shutdownThread.setName(DevLauncherShutdownListener.class.getSimpleName() + "[" + shutdownPort + "]");
             shutdownThread.start();
 
-            tomcat.getServer().await();
+            // Waiting using Server.await would delay every shutdown by a
+            // second, since the server waits for the thread calling await to
+            // terminate when being stopped
+            CountDownLatch stopLatch = new CountDownLatch(1);
+            tomcat.getServer().addLifecycleListener(event -> {
+                if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+                    stopLatch.countDown();
+                }
+            });
+            stopLatch.await();
             log.info("Embedded webserver has been stopped - exiting application");
             DevLauncherShutdownListener.shutdownLock.lock();
             try {
@@ -126,7 +244,25 @@ class DevLauncherShutdownListener {
         }
     }
 
-    static void handleShutdownConnection(Socket clientSocket, Tomcat tomcat) throws Exception {
+    /**
+     * Binds the shutdown port, which might still be in use by a previous
+     * server instance that is just about to exit
+     */
+    private static ServerSocket bindShutdownSocket(int shutdownPort) throws IOException, InterruptedException {
+        long bindStartNanos = System.nanoTime();
+        for (long backoffMillis = DevLauncherPortHandoff.PORT_RELEASE_MIN_BACKOFF; ; backoffMillis = Math.min(backoffMillis * 2, DevLauncherPortHandoff.PORT_RELEASE_MAX_BACKOFF)) {
+            try {
+                return new ServerSocket(shutdownPort, 0, InetAddress.getByName("localhost"));
+            } catch (BindException e) {
+                if ((System.nanoTime() - bindStartNanos) / 1000000 >= DevLauncherPortHandoff.PORT_RELEASE_TIMEOUT) {
+                    throw e;
+                }
+                Thread.sleep(backoffMillis);
+            }
+        }
+    }
+
+    static void handleShutdownConnection(Socket clientSocket, ServerSocket serverSocket, Tomcat tomcat, DevLauncher devLauncher) throws Exception {
         BufferedReader clientReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"));
         for (String clientLine = clientReader.readLine(); clientLine != null; clientLine = clientReader.readLine()) {
             if (DevLauncherShutdownListener.SHUTDOWN_COMMAND.equalsIgnoreCase(clientLine)) {
@@ -134,12 +270,23 @@ class DevLauncherShutdownListener {
                 try {
 
                     log.info("Shutdown command received - Stopping embedded webserver");
+
+                    // The shutdown port is released right away, so that the
+                    // new server instance can bind it while we're still
+                    // draining the active requests
+                    try {
+                        serverSocket.close();
+                    } catch (IOException e) {
+                        log.debug("Cannot close shutdown socket on port: " + serverSocket.getLocalPort(), e);
+                    }
+                    BufferedWriter confirmationWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"));
                     try {
-                        DevLauncherShutdownListener.handleShutdownServer(tomcat);
+                        DevLauncherShutdownListener.handleShutdownServer(tomcat, devLauncher.getShutdownDrainTimeout(), confirmationWriter);
                     } finally {
-                        try (BufferedWriter confirmationWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"))) {
+                        try {
                             confirmationWriter.write(DevLauncherShutdownListener.SHUTDOWN_CONFIRMATION + "\n");
                             confirmationWriter.flush();
+                            confirmationWriter.close();
                         } catch (Exception e) {
                             log.debug("Could not send shutdown confirmation command", e);
                         }
@@ -151,11 +298,106 @@ class DevLauncherShutdownListener {
                 } finally {
                     DevLauncherShutdownListener.shutdownLock.unlock();
                 }
+            } else if (DevLauncherShutdownListener.RESTART_COMMAND.equalsIgnoreCase(clientLine)) {
+                DevLauncherShutdownListener.shutdownLock.lock();
+                try {
+                    String response = null;
+                    if (devLauncher.getRestartHandlers().isEmpty()) {
+                        log.info("Restart command received - but server has not been launched with fast restart enabled");
+                        response = DevLauncherShutdownListener.RESTART_UNAVAILABLE;
+                    } else if (devLauncher.getRestartHandlers().stream().anyMatch(restartHandler -> !restartHandler.isRestartPossible())) {
+                        log.info("Restart command received - but modifications cannot be applied in place");
+                        response = DevLauncherShutdownListener.RESTART_UNAVAILABLE;
+                    } else {
+                        log.info("Restart command received - Restarting modified contexts in place");
+                        try {
+                            response = DevLauncherShutdownListener.RESTART_CONFIRMATION + " " + DevLauncherShutdownListener.handleRestartServer(devLauncher);
+                        } catch (Exception e) {
+                            log.error("Cannot restart embedded webserver in place", e);
+                            response = DevLauncherShutdownListener.RESTART_UNAVAILABLE;
+                        }
+                    }
+                    BufferedWriter responseWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"));
+                    responseWriter.write(response + "\n");
+                    responseWriter.flush();
+                    return;
+                } finally {
+                    DevLauncherShutdownListener.shutdownLock.unlock();
+                }
+            } else if (!clientLine.trim().isEmpty()) {
+                DevLauncherShutdownListener.shutdownLock.lock();
+                try {
+                    List<String> responseLines = DevLauncherCommandHandler.handleCommand(clientLine, tomcat);
+                    BufferedWriter responseWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"));
+                    for (String responseLine : responseLines) {
+                        responseWriter.write(responseLine + "\n");
+                    }
+                    responseWriter.flush();
+                    return;
+                } finally {
+                    DevLauncherShutdownListener.shutdownLock.unlock();
+                }
+            }
+        }
+    }
+
+    static String handleRestartServer(DevLauncher devLauncher) throws Exception {
+        long restartStartNanos = System.nanoTime();
+        int restartedCount = 0;
+        for (DevLauncherRestartHandler restartHandler : devLauncher.getRestartHandlers()) {
+            if (restartHandler.restart()) {
+                restartedCount++;
             }
         }
+        String restartSummary = "restarted " + restartedCount + " of " + devLauncher.getRestartHandlers().size() + " contexts in " + (System.nanoTime() - restartStartNanos) / 1000000 + " ms";
+        log.info("Completed restart in place: " + restartSummary);
+        return restartSummary;
     }
 
-    static void handleShutdownServer(Tomcat tomcat) throws Exception {
+    static void handleShutdownServer(Tomcat tomcat, long drainTimeout, BufferedWriter handoffWriter) throws Exception {
+
+        // Pausing the connectors makes sure that no new requests are being
+        // accepted, while the requests already in flight are completed
+        long pausedMillis = System.currentTimeMillis();
+        Connector[] connectors = tomcat.getService().findConnectors();
+        for (Connector connector : connectors) {
+            connector.pause();
+        }
+        DevLauncherRequestTracker requestTracker = DevLauncherRequestTracker.lookup(tomcat);
+        if (drainTimeout > 0 && requestTracker != null) {
+            long drainStartNanos = System.nanoTime();
+            int activeRequests = requestTracker.getActiveRequests().get();
+            if (activeRequests > 0) {
+                log.info("Waiting up to " + drainTimeout + " ms for " + activeRequests + " active requests to be completed");
+            }
+            if (requestTracker.awaitIdle(drainTimeout)) {
+                log.info("Drained " + activeRequests + " active requests in " + (System.nanoTime() - drainStartNanos) / 1000000 + " ms");
+            } else {
+                log.warn("Drain timeout of " + drainTimeout + " ms exceeded - stopping embedded webserver with " + requestTracker.getActiveRequests().get() + " requests still active");
+            }
+        }
+
+        // The connectors bind their ports when being initialized, so they are
+        // only released when the connectors are destroyed. Doing so before
+        // stopping the rest of the server allows a new instance to bind the
+        // ports as early as possible.
+        for (Connector connector : connectors) {
+            try {
+                connector.stop();
+                connector.destroy();
+            } catch (Exception e) {
+                log.debug("Cannot unbind connector on port: " + connector.getPort(), e);
+            }
+        }
+        long unboundMillis = System.currentTimeMillis();
+        log.info("Connectors unbound " + (unboundMillis - pausedMillis) + " ms after they stopped accepting new connections");
+        try {
+            handoffWriter.write(DevLauncherPortHandoff.formatUnboundLine(pausedMillis, unboundMillis) + "\n");
+            handoffWriter.flush();
+        } catch (Exception e) {
+            log.debug("Could not report unbound connectors", e);
+        }
+
         tomcat.getServer().stop();
     }
 
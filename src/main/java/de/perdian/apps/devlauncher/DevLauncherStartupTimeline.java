@@ -0,0 +1,525 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.core.StandardContext;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how long the individual steps of launching the webserver take, from
+ * the {@link DevLauncherListener} instances customizing the server to the
+ * lifecycle phases of every web application context.
+ *
+ * For every context the configuration phase (in which web.xml, web fragments
+ * and annotations are processed) is recorded separately from the rest of the
+ * start phase (in which the application listeners, filters and servlets are
+ * initialized). Every scan of the JAR files is recorded on its own, together
+ * with the component that has requested it and the number of scanned JARs.
+ *
+ * @author Christian Robert
+ */
+
+class DevLauncherStartupTimeline {
+
+    private static final Logger log = LoggerFactory.getLogger(DevLauncherStartupTimeline.class);
+
+    private long launchStartMillis = System.currentTimeMillis();
+    private long launchStartNanos = System.nanoTime();
+    private List<Entry> entries = new ArrayList<>();
+    private int contextStartThreads = 1;
+
+    /**
+     * Records a step that has been completed
+     *
+     * @param scope
+     *      the scope in which the step has been executed, like the server or
+     *      the path of a context
+     * @param name
+     *      the name of the step
+     * @param startNanos
+     *      the value of {@link System#nanoTime()} when the step has started
+     * @param details
+     *      additional information about the step or {@code null}
+     */
+    void record(String scope, String name, long startNanos, Map<String, Object> details) {
+        long endNanos = System.nanoTime();
+        Entry entry = new Entry(scope, name, (startNanos - this.getLaunchStartNanos()) / 1000000, (endNanos - startNanos) / 1000000, details);
+        synchronized (this.getEntries()) {
+            this.getEntries().add(entry);
+        }
+    }
+
+    /**
+     * Installs the listeners recording the lifecycle phases of the server
+     * and all the contexts that have been added to the host
+     */
+    void instrumentServer(Server server, Container host) {
+        this.setContextStartThreads(DevLauncherStartupTimeline.resolveStartStopThreads(host.getStartStopThreads()));
+        server.addLifecycleListener(new PhaseListener("server"));
+        for (Container child : host.findChildren()) {
+            if (child instanceof Context) {
+                this.instrumentContext((Context)child);
+            }
+        }
+    }
+
+    /**
+     * Resolves the number of threads actually used by a container to start
+     * its children, following the semantics of
+     * {@link Container#setStartStopThreads(int)}
+     */
+    static int resolveStartStopThreads(int startStopThreads) {
+        if (startStopThreads > 0) {
+            return startStopThreads;
+        } else {
+            return Math.max(1, Runtime.getRuntime().availableProcessors() + startStopThreads);
+        }
+    }
+
+    private void instrumentContext(Context context) {
+        String scope = "context " + (context.getPath() == null || context.getPath().isEmpty() ? "/" : context.getPath());
+
+        // The configuration is performed by the listeners that have been
+        // added while creating the context, so one listener is placed before
+        // and one after them to measure the time they need
+        PhaseListener phaseListener = new PhaseListener(scope);
+        LifecycleListener[] existingListeners = context.findLifecycleListeners();
+        for (LifecycleListener existingListener : existingListeners) {
+            context.removeLifecycleListener(existingListener);
+        }
+        context.addLifecycleListener(phaseListener);
+        for (LifecycleListener existingListener : existingListeners) {
+            context.addLifecycleListener(existingListener);
+        }
+        LifecycleListener configurationListener = phaseListener::configurationCompleted;
+        context.addLifecycleListener(configurationListener);
+
+        if (context.getJarScanner() != null) {
+            context.setJarScanner(new RecordingJarScanner(context.getJarScanner(), scope));
+        }
+
+        // Only the first start of the context is part of the launch, so the
+        // recording is removed once it has been completed (or has failed)
+        // and later reloads don't add any more entries
+        context.addLifecycleListener(new LifecycleListener() {
+            @Override
+            public void lifecycleEvent(LifecycleEvent event) {
+                if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) || Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+                    context.removeLifecycleListener(phaseListener);
+                    context.removeLifecycleListener(configurationListener);
+                    context.removeLifecycleListener(this);
+                    if (context.getJarScanner() instanceof RecordingJarScanner) {
+                        context.setJarScanner(((RecordingJarScanner)context.getJarScanner()).getDelegate());
+                    }
+                }
+            }
+        });
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Reporting -----------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private List<Entry> copyEntries() {
+        List<Entry> sortedEntries = null;
+        synchronized (this.getEntries()) {
+            sortedEntries = new ArrayList<>(this.getEntries());
+        }
+        sortedEntries.sort(Comparator.comparingLong(Entry::getOffsetMillis));
+        return sortedEntries;
+    }
+
+    /**
+     * Compares the time in which all contexts have been started with the sum
+     * of the start times of the individual contexts, which shows how much
+     * has been gained by starting the contexts in parallel
+     *
+     * @return
+     *      the statistics or {@code null} if no context has been started
+     */
+    Map<String, Object> computeContextStartStatistics() {
+        long firstStartMillis = Long.MAX_VALUE;
+        long lastEndMillis = Long.MIN_VALUE;
+        long sumMillis = 0;
+        int contextCount = 0;
+        for (Entry entry : this.copyEntries()) {
+            if (entry.getScope().startsWith("context ") && "start".equals(entry.getName())) {
+                firstStartMillis = Math.min(firstStartMillis, entry.getOffsetMillis());
+                lastEndMillis = Math.max(lastEndMillis, entry.getOffsetMillis() + entry.getDurationMillis());
+                sumMillis += entry.getDurationMillis();
+                contextCount++;
+            }
+        }
+        if (contextCount <= 0) {
+            return null;
+        } else {
+            long wallMillis = lastEndMillis - firstStartMillis;
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("contexts", contextCount);
+            statistics.put("threads", this.getContextStartThreads());
+            statistics.put("wallMillis", wallMillis);
+            statistics.put("sumMillis", sumMillis);
+            statistics.put("speedup", wallMillis <= 0 ? 1d : Math.round(sumMillis * 100d / wallMillis) / 100d);
+            return statistics;
+        }
+    }
+
+    /**
+     * @return
+     *      the timeline as table, ordered by the time at which the steps have
+     *      been started
+     */
+    String formatSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Startup timeline (%d ms in total)%n", (System.nanoTime() - this.getLaunchStartNanos()) / 1000000));
+        summary.append(String.format("  %8s %10s  %-24s %s%n", "offset", "duration", "scope", "step"));
+        for (Entry entry : this.copyEntries()) {
+            summary.append(String.format("  %6d ms %7d ms  %-24s %s%s%n", entry.getOffsetMillis(), entry.getDurationMillis(), entry.getScope(), entry.getName(), entry.getDetails() == null || entry.getDetails().isEmpty() ? "" : " " + entry.getDetails()));
+        }
+        Map<String, Object> contextStartStatistics = this.computeContextStartStatistics();
+        if (contextStartStatistics != null) {
+            summary.append(String.format("Started %d contexts in %d ms using %d threads (%d ms when started one after another, parallel speedup %.2fx)%n", contextStartStatistics.get("contexts"), contextStartStatistics.get("wallMillis"), contextStartStatistics.get("threads"), contextStartStatistics.get("sumMillis"), contextStartStatistics.get("speedup")));
+        }
+        return summary.toString().trim();
+    }
+
+    /**
+     * Writes the timeline as JSON document into the given file
+     */
+    void writeJson(Path timelineFile) throws IOException {
+        Files.createDirectories(timelineFile.getParent());
+        try (BufferedWriter timelineWriter = Files.newBufferedWriter(timelineFile, StandardCharsets.UTF_8)) {
+            timelineWriter.write("{\n");
+            timelineWriter.write("  \"launchedAt\": " + DevLauncherStartupTimeline.toJson(Instant.ofEpochMilli(this.getLaunchStartMillis()).toString()) + ",\n");
+            timelineWriter.write("  \"totalMillis\": " + (System.nanoTime() - this.getLaunchStartNanos()) / 1000000 + ",\n");
+            Map<String, Object> contextStartStatistics = this.computeContextStartStatistics();
+            if (contextStartStatistics != null) {
+                timelineWriter.write("  \"contextStart\": {");
+                int statisticIndex = 0;
+                for (Map.Entry<String, Object> statistic : contextStartStatistics.entrySet()) {
+                    timelineWriter.write((statisticIndex++ == 0 ? " " : ", ") + DevLauncherStartupTimeline.toJson(statistic.getKey()) + ": " + statistic.getValue());
+                }
+                timelineWriter.write(" },\n");
+            }
+            timelineWriter.write("  \"entries\": [");
+            List<Entry> entries = this.copyEntries();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                timelineWriter.write(i == 0 ? "\n" : ",\n");
+                timelineWriter.write("    { \"scope\": " + DevLauncherStartupTimeline.toJson(entry.getScope()));
+                timelineWriter.write(", \"step\": " + DevLauncherStartupTimeline.toJson(entry.getName()));
+                timelineWriter.write(", \"offsetMillis\": " + entry.getOffsetMillis());
+                timelineWriter.write(", \"durationMillis\": " + entry.getDurationMillis());
+                if (entry.getDetails() != null && !entry.getDetails().isEmpty()) {
+                    timelineWriter.write(", \"details\": {");
+                    int detailIndex = 0;
+                    for (Map.Entry<String, Object> detail : entry.getDetails().entrySet()) {
+                        timelineWriter.write((detailIndex++ == 0 ? " " : ", ") + DevLauncherStartupTimeline.toJson(detail.getKey()) + ": " + (detail.getValue() instanceof Number ? detail.getValue() : DevLauncherStartupTimeline.toJson(String.valueOf(detail.getValue()))));
+                    }
+                    timelineWriter.write(" }");
+                }
+                timelineWriter.write(" }");
+            }
+            timelineWriter.write(entries.isEmpty() ? "]\n" : "\n  ]\n");
+            timelineWriter.write("}\n");
+        }
+        log.debug("Wrote startup timeline into: {}", timelineFile);
+    }
+
+    private static String toJson(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int)c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class Entry {
+
+        private String scope = null;
+        private String name = null;
+        private long offsetMillis = 0;
+        private long durationMillis = 0;
+        private Map<String, Object> details = null;
+
+        Entry(String scope, String name, long offsetMillis, long durationMillis, Map<String, Object> details) {
+            this.setScope(scope);
+            this.setName(name);
+            this.setOffsetMillis(offsetMillis);
+            this.setDurationMillis(durationMillis);
+            this.setDetails(details);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        String getScope() {
+            return this.scope;
+        }
+        private void setScope(String scope) {
+            this.scope = scope;
+        }
+
+        String getName() {
+            return this.name;
+        }
+        private void setName(String name) {
+            this.name = name;
+        }
+
+        long getOffsetMillis() {
+            return this.offsetMillis;
+        }
+        private void setOffsetMillis(long offsetMillis) {
+            this.offsetMillis = offsetMillis;
+        }
+
+        long getDurationMillis() {
+            return this.durationMillis;
+        }
+        private void setDurationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+
+        Map<String, Object> getDetails() {
+            return this.details;
+        }
+        private void setDetails(Map<String, Object> details) {
+            this.details = details;
+        }
+
+    }
+
+    /**
+     * Records the init and start phases of a lifecycle component. For
+     * contexts the configuration is recorded separately from the remaining
+     * start phase.
+     */
+    class PhaseListener implements LifecycleListener {
+
+        private String scope = null;
+        private volatile long initStartNanos = 0;
+        private volatile long startStartNanos = 0;
+        private volatile long configureStartNanos = 0;
+        private volatile long configureEndNanos = 0;
+
+        PhaseListener(String scope) {
+            this.setScope(scope);
+        }
+
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+            if (Lifecycle.BEFORE_INIT_EVENT.equals(event.getType())) {
+                this.setInitStartNanos(System.nanoTime());
+            } else if (Lifecycle.AFTER_INIT_EVENT.equals(event.getType()) && this.getInitStartNanos() != 0) {
+                DevLauncherStartupTimeline.this.record(this.getScope(), "init", this.getInitStartNanos(), null);
+            } else if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+                this.setStartStartNanos(System.nanoTime());
+            } else if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                this.setConfigureStartNanos(System.nanoTime());
+            } else if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) && this.getStartStartNanos() != 0) {
+                if (this.getConfigureEndNanos() != 0) {
+                    DevLauncherStartupTimeline.this.record(this.getScope(), "start listeners, filters and servlets", this.getConfigureEndNanos(), null);
+                }
+                Map<String, Object> details = null;
+                if (event.getLifecycle() instanceof StandardContext) {
+                    details = new LinkedHashMap<>();
+                    details.put("tldScanMillis", ((StandardContext)event.getLifecycle()).getTldScanTime());
+                }
+                DevLauncherStartupTimeline.this.record(this.getScope(), "start", this.getStartStartNanos(), details);
+            }
+        }
+
+        void configurationCompleted(LifecycleEvent event) {
+            if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType()) && this.getConfigureStartNanos() != 0) {
+                DevLauncherStartupTimeline.this.record(this.getScope(), "configure (web.xml, fragments, annotations)", this.getConfigureStartNanos(), null);
+                this.setConfigureEndNanos(System.nanoTime());
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        String getScope() {
+            return this.scope;
+        }
+        private void setScope(String scope) {
+            this.scope = scope;
+        }
+
+        long getInitStartNanos() {
+            return this.initStartNanos;
+        }
+        private void setInitStartNanos(long initStartNanos) {
+            this.initStartNanos = initStartNanos;
+        }
+
+        long getStartStartNanos() {
+            return this.startStartNanos;
+        }
+        private void setStartStartNanos(long startStartNanos) {
+            this.startStartNanos = startStartNanos;
+        }
+
+        long getConfigureStartNanos() {
+            return this.configureStartNanos;
+        }
+        private void setConfigureStartNanos(long configureStartNanos) {
+            this.configureStartNanos = configureStartNanos;
+        }
+
+        long getConfigureEndNanos() {
+            return this.configureEndNanos;
+        }
+        private void setConfigureEndNanos(long configureEndNanos) {
+            this.configureEndNanos = configureEndNanos;
+        }
+
+    }
+
+    /**
+     * Delegates all scans to the original scanner and records the time and
+     * the number of JARs of every scan
+     */
+    class RecordingJarScanner implements JarScanner {
+
+        private JarScanner delegate = null;
+        private String scope = null;
+
+        RecordingJarScanner(JarScanner delegate, String scope) {
+            this.setDelegate(delegate);
+            this.setScope(scope);
+        }
+
+        @Override
+        public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback callback, Set<String> jarsToSkip) {
+            long scanStartNanos = System.nanoTime();
+            AtomicInteger scannedJars = new AtomicInteger();
+            try {
+                this.getDelegate().scan(context, classloader, new DevLauncherJarScannerCallback() {
+
+                    @Override
+                    public JarScannerCallback getWrappedCallback() {
+                        return callback;
+                    }
+
+                    @Override
+                    public void scan(JarURLConnection urlConnection) throws IOException {
+                        scannedJars.incrementAndGet();
+                        callback.scan(urlConnection);
+                    }
+
+                    @Override
+                    public void scan(File file) throws IOException {
+                        scannedJars.incrementAndGet();
+                        callback.scan(file);
+                    }
+
+                }, jarsToSkip);
+            } finally {
+                Class<?> callbackClass = DevLauncherJarScannerCallback.unwrap(callback).getClass();
+                Class<?> requestingClass = callbackClass.getEnclosingClass() == null ? callbackClass : callbackClass.getEnclosingClass();
+                Map<String, Object> details = new LinkedHashMap<>();
+                details.put("jars", scannedJars.get());
+                DevLauncherStartupTimeline.this.record(this.getScope(), "jar scan (" + requestingClass.getSimpleName() + ")", scanStartNanos, details);
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        JarScanner getDelegate() {
+            return this.delegate;
+        }
+        private void setDelegate(JarScanner delegate) {
+            this.delegate = delegate;
+        }
+
+        String getScope() {
+            return this.scope;
+        }
+        private void setScope(String scope) {
+            this.scope = scope;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    long getLaunchStartMillis() {
+        return this.launchStartMillis;
+    }
+
+    long getLaunchStartNanos() {
+        return this.launchStartNanos;
+    }
+
+    private List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    int getContextStartThreads() {
+        return this.contextStartThreads;
+    }
+    private void setContextStartThreads(int contextStartThreads) {
+        this.contextStartThreads = contextStartThreads;
+    }
+
+}
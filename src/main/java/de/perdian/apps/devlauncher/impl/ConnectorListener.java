@@ -24,6 +24,7 @@ import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyPair;
@@ -58,6 +59,7 @@ public class ConnectorListener implements DevLauncherListener {
     private static final String KEYSTORE_PASSWORD = "tlsKeystorePassword";
     private static final String TLS_KEY_NAME = "tlsKeyName";
     private static final String TLS_KEY_PASSWORD = "tlsKeyPassword";
+    private static final Object KEYSTORE_LOCK = new Object();
 
     public static final String PROTOCOL_AJP = "AJP/1.3";
 
@@ -66,11 +68,35 @@ public class ConnectorListener implements DevLauncherListener {
     private String protocol = null;
     private String uriEncoding = "UTF-8";
     private boolean secure = false;
+    private Path keystoreFile = null;
 
     public ConnectorListener(int port) {
         this.setPort(Integer.valueOf(port));
     }
 
+    /**
+     * Makes sure the keystore containing the TLS key is available, which
+     * might include generating a new key and is therefore done before the
+     * Tomcat is being customized
+     */
+    @Override
+    public void prepareServer(DevLauncher launcher) {
+        if (this.isSecure()) {
+            try {
+                // Multiple secure connectors are prepared concurrently but
+                // share the same keystore, which must only be created once
+                Path keystoreFile = launcher.getWorkingDirectory().resolve("config/keystore");
+                synchronized (KEYSTORE_LOCK) {
+                    KeyStore keyStore = this.ensureKeyStore(keystoreFile);
+                    this.ensureKeyInStore(keystoreFile, keyStore);
+                }
+                this.setKeystoreFile(keystoreFile);
+            } catch (Exception e) {
+                throw new RuntimeException("Cannot prepare SSL keystore configuration", e);
+            }
+        }
+    }
+
     @Override
     public void customizeServer(Tomcat tomcat, DevLauncher launcher) {
 
@@ -89,17 +115,16 @@ public class ConnectorListener implements DevLauncherListener {
 
         // Special handling for TLS connectors
         if (this.isSecure()) {
+            if (this.getKeystoreFile() == null) {
+                this.prepareServer(launcher);
+            }
             try {
 
-                Path keystoreFile = launcher.getWorkingDirectory().resolve("config/keystore");
-                KeyStore keyStore = this.ensureKeyStore(keystoreFile);
-                this.ensureKeyInStore(keystoreFile, keyStore);
-
                 connector.setSecure(true);
                 connector.setScheme("https");
                 connector.setAttribute("keyAlias", TLS_KEY_NAME);
                 connector.setAttribute("keyPass", TLS_KEY_PASSWORD);
-                connector.setAttribute("keystoreFile", keystoreFile.toFile().getCanonicalPath());
+                connector.setAttribute("keystoreFile", this.getKeystoreFile().toFile().getCanonicalPath());
                 connector.setAttribute("keystorePass", KEYSTORE_PASSWORD);
                 connector.setAttribute("clientAuth", "false");
                 connector.setAttribute("sslProtocol", "TLS");
@@ -162,10 +187,12 @@ public class ConnectorListener implements DevLauncherListener {
             if (!Files.exists(keystoreFile.getParent())) {
                 Files.createDirectories(keystoreFile.getParent());
             }
-            try (OutputStream keyStoreStream = new BufferedOutputStream(Files.newOutputStream(keystoreFile))) {
+            Path temporaryFile = keystoreFile.resolveSibling(keystoreFile.getFileName() + ".tmp");
+            try (OutputStream keyStoreStream = new BufferedOutputStream(Files.newOutputStream(temporaryFile))) {
                 keyStore.store(keyStoreStream, KEYSTORE_PASSWORD.toCharArray());
                 keyStoreStream.flush();
             }
+            Files.move(temporaryFile, keystoreFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
         }
         return key;
@@ -257,4 +284,11 @@ public class ConnectorListener implements DevLauncherListener {
         this.secure = secure;
     }
 
+    private Path getKeystoreFile() {
+        return this.keystoreFile;
+    }
+    private void setKeystoreFile(Path keystoreFile) {
+        this.keystoreFile = keystoreFile;
+    }
+
 }
\ No newline at end of file
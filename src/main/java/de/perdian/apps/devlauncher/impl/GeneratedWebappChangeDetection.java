@@ -0,0 +1,42 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+/**
+ * Defines how changes within the source directory of a copy definition are
+ * detected.
+ *
+ * @author Christian Robert
+ */
+
+public enum GeneratedWebappChangeDetection {
+
+    /**
+     * Changes are reported by the {@link java.nio.file.WatchService} of the
+     * file system
+     */
+    WATCH_SERVICE,
+
+    /**
+     * The source directories are polled and compared to the state found
+     * during the previous poll. This should be used wherever the file system
+     * doesn't report changes reliably, like for directories mounted from the
+     * host into a container or from a network share.
+     */
+    POLLING
+
+}
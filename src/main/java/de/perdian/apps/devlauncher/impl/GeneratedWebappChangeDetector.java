@@ -0,0 +1,69 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Backend detecting the changes within the source directories of copy
+ * handlers. All changes are reported to the handler through
+ * {@link GeneratedWebappCopyHandler#handleWatchEvents}, and the backend is
+ * responsible for applying the pending changes of its handlers once their
+ * quiet period has elapsed.
+ *
+ * @author Christian Robert
+ */
+
+interface GeneratedWebappChangeDetector {
+
+    /**
+     * Registers a source directory for change detection
+     *
+     * @param sourcePath
+     *      the directory to be watched
+     * @param targetPath
+     *      the directory into which changes will be transferred
+     * @param copyHandler
+     *      the handler to which the changes will be routed
+     */
+    void register(Path sourcePath, Path targetPath, GeneratedWebappCopyHandler copyHandler) throws IOException;
+
+    /**
+     * Removes all registrations of the given handler
+     */
+    void unregister(GeneratedWebappCopyHandler copyHandler);
+
+    /**
+     * Releases the reference a handler has acquired on this detector
+     */
+    void release() throws IOException;
+
+    /**
+     * @return
+     *      the number of directories currently being watched
+     */
+    int getWatchCount();
+
+    /**
+     * @return
+     *      a short description of the current state of the detector, to be
+     *      included in log messages
+     */
+    String getSummary();
+
+}
@@ -0,0 +1,69 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.nio.file.Path;
+
+/**
+ * A single resource that has been transferred from a source directory into the
+ * target directory of a generated web application
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappCopiedResource {
+
+    private Path sourcePath = null;
+    private Path targetPath = null;
+
+    public GeneratedWebappCopiedResource(Path sourcePath, Path targetPath) {
+        this.setSourcePath(sourcePath);
+        this.setTargetPath(targetPath);
+    }
+
+    @Override
+    public String toString() {
+        return this.getSourcePath() + " -> " + this.getTargetPath();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * @return
+     *      the file from which the resource has been read
+     */
+    public Path getSourcePath() {
+        return this.sourcePath;
+    }
+    private void setSourcePath(Path sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    /**
+     * @return
+     *      the file into which the resource has been written
+     */
+    public Path getTargetPath() {
+        return this.targetPath;
+    }
+    private void setTargetPath(Path targetPath) {
+        this.targetPath = targetPath;
+    }
+
+}
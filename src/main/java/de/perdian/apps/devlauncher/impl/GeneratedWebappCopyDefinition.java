@@ -18,6 +18,7 @@ package de.perdian.apps.devlauncher.impl;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 
 /**
@@ -30,8 +31,18 @@ public class GeneratedWebappCopyDefinition {
 
     private Path sourceDirectory = null;
     private Predicate<Path> fileFilter = null;
+    private List<String> includes = null;
+    private List<String> excludes = null;
     private String targetDirectoryName = null;
     private List<GeneratedWebappCopyListener> copyListeners = null;
+    private boolean asynchronousListeners = false;
+    private Executor listenerExecutor = null;
+    private int listenerQueueCapacity = 16;
+    private GeneratedWebappCopyListenerOverflowPolicy listenerOverflowPolicy = GeneratedWebappCopyListenerOverflowPolicy.MERGE;
+    private GeneratedWebappMaterialization materialization = GeneratedWebappMaterialization.COPY;
+    private GeneratedWebappChangeDetection changeDetection = GeneratedWebappChangeDetection.WATCH_SERVICE;
+    private long minimumPollInterval = 100;
+    private long maximumPollInterval = 2000;
 
     // ---------------------------------------------------------------------
     // --- Property access methods -----------------------------------------
@@ -61,6 +72,32 @@ public class GeneratedWebappCopyDefinition {
         this.fileFilter = fileFilter;
     }
 
+    /**
+     * @return
+     *      the glob patterns (relative to the source directory) of the files
+     *      and directories that will be copied. If no includes are defined
+     *      everything will be copied that isn't explicitly excluded.
+     */
+    public List<String> getIncludes() {
+        return this.includes;
+    }
+    public void setIncludes(List<String> includes) {
+        this.includes = includes;
+    }
+
+    /**
+     * @return
+     *      the glob patterns (relative to the source directory) of the files
+     *      and directories that will neither be copied nor watched, like
+     *      {@code node_modules} or {@code .git}
+     */
+    public List<String> getExcludes() {
+        return this.excludes;
+    }
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
     /**
      * @return
      *      the name of the target directories (below the webapp directory
@@ -84,4 +121,105 @@ public class GeneratedWebappCopyDefinition {
         this.copyListeners = copyListeners;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return
+     *      whether the listeners will be notified asynchronously, so that a
+     *      slow listener doesn't delay the copy operations following
+     */
+    public boolean isAsynchronousListeners() {
+        return this.asynchronousListeners;
+    }
+    public void setAsynchronousListeners(boolean asynchronousListeners) {
+        this.asynchronousListeners = asynchronousListeners;
+    }
+
+    /**
+     * @return
+     *      the executor on which asynchronous listeners will be notified. If
+     *      no executor is set, a separate thread will be used for every copy
+     *      definition.
+     */
+    public Executor getListenerExecutor() {
+        return this.listenerExecutor;
+    }
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * @return
+     *      the maximum number of batches waiting to be delivered to
+     *      asynchronous listeners
+     */
+    public int getListenerQueueCapacity() {
+        return this.listenerQueueCapacity;
+    }
+    public void setListenerQueueCapacity(int listenerQueueCapacity) {
+        this.listenerQueueCapacity = listenerQueueCapacity;
+    }
+
+    /**
+     * @return
+     *      what happens when the queue of batches waiting to be delivered to
+     *      asynchronous listeners is full. Note that
+     *      {@link GeneratedWebappCopyListenerOverflowPolicy#BLOCK} delays the
+     *      changes of all copy definitions, not only the ones of this
+     *      definition.
+     */
+    public GeneratedWebappCopyListenerOverflowPolicy getListenerOverflowPolicy() {
+        return this.listenerOverflowPolicy;
+    }
+    public void setListenerOverflowPolicy(GeneratedWebappCopyListenerOverflowPolicy listenerOverflowPolicy) {
+        this.listenerOverflowPolicy = listenerOverflowPolicy;
+    }
+
+    /**
+     * @return
+     *      how the resources will be made available within the target
+     *      directory
+     */
+    public GeneratedWebappMaterialization getMaterialization() {
+        return this.materialization;
+    }
+    public void setMaterialization(GeneratedWebappMaterialization materialization) {
+        this.materialization = materialization;
+    }
+
+    /**
+     * @return
+     *      how changes within the source directory will be detected
+     */
+    public GeneratedWebappChangeDetection getChangeDetection() {
+        return this.changeDetection;
+    }
+    public void setChangeDetection(GeneratedWebappChangeDetection changeDetection) {
+        this.changeDetection = changeDetection;
+    }
+
+    /**
+     * @return
+     *      the interval (in milliseconds) in which the source directory is
+     *      polled while changes are happening, if changes are detected by
+     *      {@link GeneratedWebappChangeDetection#POLLING}
+     */
+    public long getMinimumPollInterval() {
+        return this.minimumPollInterval;
+    }
+    public void setMinimumPollInterval(long minimumPollInterval) {
+        this.minimumPollInterval = minimumPollInterval;
+    }
+
+    /**
+     * @return
+     *      the interval (in milliseconds) up to which polling the source
+     *      directory slows down while no changes are happening, if changes are
+     *      detected by {@link GeneratedWebappChangeDetection#POLLING}
+     */
+    public long getMaximumPollInterval() {
+        return this.maximumPollInterval;
+    }
+    public void setMaximumPollInterval(long maximumPollInterval) {
+        this.maximumPollInterval = maximumPollInterval;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transfers resources into the target directory of a generated web
+ * application.
+ *
+ * A resource is never written in place: The content is first written into a
+ * temporary sibling of the target file, which is then atomically moved onto
+ * the target, so that Tomcat never serves or loads a partially written file.
+ * Small files are copied using the default copy implementation of the JDK,
+ * while large files are transferred in chunks using
+ * {@link FileChannel#transferTo}, which allows the operating system to copy
+ * the data without moving it through user space.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappCopyEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappCopyEngine.class);
+
+    static final long LARGE_FILE_THRESHOLD = 1024 * 1024;
+    static final long TRANSFER_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Copies the content and the attributes of the source file to the target
+     *
+     * @return
+     *      the number of bytes that have been copied
+     */
+    static long copy(Path sourcePath, Path targetPath) throws IOException {
+        Path temporaryPath = GeneratedWebappCopyEngine.resolveTemporaryPath(targetPath);
+        try {
+            long sourceSize = Files.size(sourcePath);
+            if (sourceSize < LARGE_FILE_THRESHOLD) {
+                Files.copy(sourcePath, temporaryPath, StandardCopyOption.COPY_ATTRIBUTES);
+            } else {
+                GeneratedWebappCopyEngine.transfer(sourcePath, temporaryPath);
+                GeneratedWebappCopyEngine.copyAttributes(sourcePath, temporaryPath);
+            }
+            GeneratedWebappCopyEngine.replace(temporaryPath, targetPath);
+            return sourceSize;
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Replaces the target with a link to the source file
+     *
+     * @param symbolic
+     *      {@code true} to create a symbolic link, {@code false} to create a
+     *      hard link
+     */
+    static void link(Path sourcePath, Path targetPath, boolean symbolic) throws IOException {
+        Path temporaryPath = GeneratedWebappCopyEngine.resolveTemporaryPath(targetPath);
+        try {
+            if (symbolic) {
+                Files.createSymbolicLink(temporaryPath, sourcePath.toAbsolutePath());
+            } else {
+                Files.createLink(temporaryPath, sourcePath);
+            }
+            GeneratedWebappCopyEngine.replace(temporaryPath, targetPath);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Deletes a file or a directory including all of its content. Symbolic
+     * links are deleted themselves, their targets are never touched.
+     */
+    static void deleteRecursively(Path path) throws IOException {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.deleteIfExists(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+            });
+        } catch (NoSuchFileException e) {
+            log.trace("Path to be deleted no longer exists: {}", e.getFile());
+        }
+    }
+
+    private static void transfer(Path sourcePath, Path targetPath) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(sourcePath, StandardOpenOption.READ)) {
+            try (FileChannel targetChannel = FileChannel.open(targetPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long sourceSize = sourceChannel.size();
+                for (long position = 0; position < sourceSize; ) {
+                    long transferredBytes = sourceChannel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, sourceSize - position), targetChannel);
+                    if (transferredBytes <= 0) {
+                        break;
+                    }
+                    position += transferredBytes;
+                }
+            }
+        }
+    }
+
+    private static void copyAttributes(Path sourcePath, Path targetPath) throws IOException {
+        PosixFileAttributeView targetPosixView = Files.getFileAttributeView(targetPath, PosixFileAttributeView.class);
+        if (targetPosixView != null) {
+            try {
+                targetPosixView.setPermissions(Files.getPosixFilePermissions(sourcePath));
+            } catch (IOException | UnsupportedOperationException e) {
+                log.trace("Cannot copy permissions from {} to {} [{}]", sourcePath, targetPath, e.toString());
+            }
+        }
+        Files.setLastModifiedTime(targetPath, Files.getLastModifiedTime(sourcePath));
+    }
+
+    private static void replace(Path temporaryPath, Path targetPath) throws IOException {
+        try {
+            Files.move(temporaryPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Path resolveTemporaryPath(Path targetPath) {
+        return targetPath.resolveSibling("." + targetPath.getFileName() + ".devlauncher-" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+}
@@ -18,19 +18,26 @@ package de.perdian.apps.devlauncher.impl;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
-import java.util.HashMap;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,122 +45,391 @@ import org.slf4j.LoggerFactory;
 class GeneratedWebappCopyHandler implements Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(GeneratedWebappCopyHandler.class);
+    private static final long MAXIMUM_DELAY_FACTOR = 20;
+    private static final int RESCAN_BATCH_SIZE = 2000;
+    private static final long RESCAN_PAUSE_MILLIS = 20;
 
-    private boolean closed = false;
-    private Map<WatchKey, PathPair> keyToPairMap = null;
-    private WatchService watchService = null;
+    private volatile boolean closed = false;
+    private Path sourceDirectory = null;
+    private Path targetDirectory = null;
+    private GeneratedWebappChangeDetector watchEngine = null;
+    private GeneratedWebappChangeDetection changeDetection = GeneratedWebappChangeDetection.WATCH_SERVICE;
+    private long minimumPollInterval = 0;
+    private long maximumPollInterval = 0;
+    private GeneratedWebappSyncManifest syncManifest = null;
+    private boolean trustDirectoryTimestamps = false;
+    private GeneratedWebappMaterialization materialization = GeneratedWebappMaterialization.COPY;
+    private volatile boolean linkingDisabled = false;
+    private GeneratedWebappFingerprintCache fingerprintCache = null;
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+    private int overlayLayer = 0;
+    private Path overlayDirectory = null;
+    private boolean virtualOverlay = false;
+    private long quietPeriod = 0;
+    private Map<Path, PendingChange> pendingChanges = new LinkedHashMap<>();
+    private long pendingSinceMillis = 0;
+    private long pendingLastEventMillis = 0;
+    private int pendingEventCount = 0;
+    private Deque<PathPair> rescanQueue = new ArrayDeque<>();
+    private Set<Path> rescanQueuedPaths = new HashSet<>();
+    private long rescanResumeMillis = 0;
+    private long rescanStartMillis = 0;
+    private AtomicLong overflows = new AtomicLong();
+    private AtomicLong rescannedDirectories = new AtomicLong();
+    private AtomicLong rescannedCopies = new AtomicLong();
+    private AtomicLong rescannedDeletions = new AtomicLong();
     private Predicate<Path> fileFilter = null;
-    private List<GeneratedWebappCopyListener> copyListeners = null;
-
-    static GeneratedWebappCopyHandler create(GeneratedWebappCopyDefinition copyDefinition, Path targetPath) throws IOException {
+    private GeneratedWebappPathRules pathRules = null;
+    private AtomicInteger watchedDirectories = new AtomicInteger();
+    private AtomicInteger prunedDirectories = new AtomicInteger();
+    private GeneratedWebappCopyListenerDispatcher listenerDispatcher = null;
+    private GeneratedWebappCopyMetrics metrics = null;
+    private List<GeneratedWebappCopiedResource> copiedResources = new ArrayList<>();
 
+    static GeneratedWebappCopyHandler create(GeneratedWebappCopyDefinition copyDefinition, Path targetPath) {
         GeneratedWebappCopyHandler copyHandler = new GeneratedWebappCopyHandler();
+        copyHandler.setSourceDirectory(copyDefinition.getSourceDirectory());
+        copyHandler.setTargetDirectory(targetPath);
         copyHandler.setFileFilter(copyDefinition.getFileFilter() == null ? file -> true : copyDefinition.getFileFilter());
-        copyHandler.setCopyListeners(copyDefinition.getCopyListeners());
-        copyHandler.setKeyToPairMap(new HashMap<>());
-        copyHandler.setWatchService(copyDefinition.getSourceDirectory().getFileSystem().newWatchService());
-
-        // First make sure the initial copy process is complete
-        int copiedResources = copyHandler.copyResources(copyDefinition.getSourceDirectory(), targetPath);
-        if (copiedResources > 0) {
-            log.debug("Copied {} resources from {} to {}", copiedResources, copyDefinition.getSourceDirectory(), targetPath);
-        }
-
-        // Now register the listener for all following copy processes
-        copyHandler.registerWatchServiceOnPath(copyDefinition.getSourceDirectory(), targetPath);
-
-        // Start the processor Thread that will do the actual work of
-        // transfering the files from their source to the target
-        Thread watchServiceProcessorThread = new Thread(copyHandler::handleEvents);
-        watchServiceProcessorThread.setName(GeneratedWebappCopyHandler.class.getSimpleName() + "[ResourceWatcherThread for " + copyDefinition.getSourceDirectory() + "->" + targetPath + "]");
-        watchServiceProcessorThread.start();
-
-        // We're done!
+        copyHandler.setPathRules(GeneratedWebappPathRules.compile(copyDefinition.getIncludes(), copyDefinition.getExcludes()));
+        copyHandler.setMetrics(new GeneratedWebappCopyMetrics(copyDefinition.getSourceDirectory(), targetPath));
+        copyHandler.setListenerDispatcher(GeneratedWebappCopyListenerDispatcher.create(copyDefinition, copyHandler.getMetrics()));
+        copyHandler.setMaterialization(copyDefinition.getMaterialization() == null ? GeneratedWebappMaterialization.COPY : copyDefinition.getMaterialization());
+        copyHandler.setChangeDetection(copyDefinition.getChangeDetection() == null ? GeneratedWebappChangeDetection.WATCH_SERVICE : copyDefinition.getChangeDetection());
+        copyHandler.setMinimumPollInterval(copyDefinition.getMinimumPollInterval());
+        copyHandler.setMaximumPollInterval(copyDefinition.getMaximumPollInterval());
         return copyHandler;
+    }
 
+    /**
+     * Registers the source directories at the launcher wide watch engine (or
+     * polling engine), which will route all following changes to this handler
+     */
+    void startWatching() {
+        if (this.getChangeDetection() == GeneratedWebappChangeDetection.POLLING) {
+            this.setWatchEngine(GeneratedWebappPollingEngine.acquire());
+        } else {
+            this.setWatchEngine(GeneratedWebappWatchEngine.acquire());
+        }
+        this.registerWatchServiceOnPath(this.getSourceDirectory(), this.getTargetDirectory());
     }
 
     @Override
     public synchronized void close() throws IOException {
-        this.setClosed(true);
-        this.getWatchService().close();
+        if (!this.isClosed()) {
+            this.setClosed(true);
+            if (this.getWatchEngine() != null) {
+                this.getWatchEngine().unregister(this);
+                this.getWatchEngine().release();
+            }
+            if (this.getListenerDispatcher() != null) {
+                this.getListenerDispatcher().close();
+            }
+        }
     }
 
     private void registerWatchServiceOnPath(Path sourcePath, Path targetPath) {
         try {
 
-            PathPair pathPair = new PathPair(sourcePath, targetPath);
-            WatchKey watchKey = sourcePath.register(this.getWatchService(), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
-            this.getKeyToPairMap().put(watchKey, pathPair);
+            this.getWatchEngine().register(sourcePath, targetPath, this);
+            this.getWatchedDirectories().incrementAndGet();
 
-            Files.list(sourcePath)
-                .filter(Files::isDirectory)
-                .forEach(sourceChildPath -> {
-                    Path targetChildPath = targetPath.resolve(sourceChildPath.getFileName());
-                    this.registerWatchServiceOnPath(sourceChildPath, targetChildPath);
-                });
+            try (Stream<Path> sourceChildren = Files.list(sourcePath)) {
+                sourceChildren
+                    .filter(Files::isDirectory)
+                    .forEach(sourceChildPath -> {
+                        if (this.isPathIncluded(sourceChildPath, true)) {
+                            Path targetChildPath = targetPath.resolve(sourceChildPath.getFileName());
+                            this.registerWatchServiceOnPath(sourceChildPath, targetChildPath);
+                        } else {
+                            this.getPrunedDirectories().incrementAndGet();
+                        }
+                    });
+            }
 
         } catch (IOException e) {
             log.debug("Cannot process source directory: {}", sourcePath);
         }
     }
 
-    private void handleEvents() {
-        try {
-            while (!this.isClosed()) {
-                WatchKey nextWatchKey = this.getWatchService().take();
-                try {
-                    this.handleWatchKey(nextWatchKey);
-                } catch (Exception e) {
-                    log.debug("Cannot handle WatchKey: {}", nextWatchKey, e);
-                } finally {
-                    if (!nextWatchKey.reset()) {
-                        log.debug("Removing watch key: " + nextWatchKey);
-                        this.getKeyToPairMap().remove(nextWatchKey);
-                    }
-                }
+    /**
+     * Handles the events the watch engine has received for one of the
+     * directories registered by this handler. The events are not applied
+     * directly but collected per target path, so that a burst of events for
+     * the same file results in a single change once the quiet period has
+     * elapsed.
+     *
+     * @param pathPair
+     *      the source directory in which the events occured together with its
+     *      target directory
+     * @param watchEvents
+     *      the events to be handled
+     */
+    void handleWatchEvents(PathPair pathPair, List<WatchEvent<?>> watchEvents) {
+        for (WatchEvent<?> watchEvent : watchEvents) {
+            if (StandardWatchEventKinds.OVERFLOW.equals(watchEvent.kind()) && !this.isClosed()) {
+                log.warn("Lost file system events for {} - rescanning directory (overflow #{})", pathPair.getSourcePath(), this.getOverflows().incrementAndGet());
+                this.enqueueRescan(pathPair);
+            }
+            Path sourceFilePath = this.isClosed() || !(watchEvent.context() instanceof Path) ? null : pathPair.getSourcePath().resolve((Path)watchEvent.context());
+            Path targetFilePath = sourceFilePath == null ? null : pathPair.getTargetPath().resolve(sourceFilePath.getFileName());
+            if (sourceFilePath != null && targetFilePath != null && (this.getPathRules() == null || this.isPathIncluded(sourceFilePath, this.isSourceDirectory(sourceFilePath, targetFilePath)))) {
+                this.enqueueChange(sourceFilePath, targetFilePath, watchEvent.kind());
             }
-        } catch (ClosedWatchServiceException e) {
-            log.trace("File watching service has been closed", e);
-        } catch (InterruptedException e) {
-            log.warn("File watching service has been interrupted", e);
+        }
+        if (this.getQuietPeriod() <= 0) {
+            this.flushPendingChanges();
+        }
+    }
+
+    private synchronized void enqueueChange(Path sourceFilePath, Path targetFilePath, WatchEvent.Kind<?> eventKind) {
+        long currentMillis = System.currentTimeMillis();
+        if (this.getPendingChanges().isEmpty()) {
+            this.setPendingSinceMillis(currentMillis);
+        }
+        this.setPendingLastEventMillis(currentMillis);
+        this.setPendingEventCount(this.getPendingEventCount() + 1);
+        PendingChange pendingChange = this.getPendingChanges().get(targetFilePath);
+        if (pendingChange == null) {
+            this.getPendingChanges().put(targetFilePath, new PendingChange(sourceFilePath, eventKind));
+        } else {
+            pendingChange.merge(eventKind);
         }
     }
 
-    private void handleWatchKey(WatchKey nextWatchKey) {
-        for (WatchEvent<?> watchEvent : nextWatchKey.pollEvents()) {
+    /**
+     * Queues a rescan of a watched directory and all its subdirectories. The
+     * rescan starts once the quiet period has elapsed, since an overflow
+     * usually occurs in the middle of a large operation (like a checkout) and
+     * scanning while files are still being written would only be wasted.
+     */
+    private synchronized void enqueueRescan(PathPair pathPair) {
+        if (this.getRescanQueue().isEmpty()) {
+            this.setRescanStartMillis(System.currentTimeMillis());
+        }
+        if (this.getRescanQueuedPaths().add(pathPair.getSourcePath())) {
+            this.getRescanQueue().addLast(pathPair);
+        }
+        this.setRescanResumeMillis(Math.max(this.getRescanResumeMillis(), System.currentTimeMillis() + this.getQuietPeriod()));
+    }
+
+    /**
+     * @return
+     *      the time (in milliseconds) at which the currently pending changes
+     *      should be applied or {@code -1} if there are no pending changes.
+     *      Changes are applied once no further event has been received during
+     *      the quiet period, but never later than a multiple of the quiet
+     *      period after the first event, so that a continuous stream of events
+     *      cannot delay the changes forever.
+     */
+    synchronized long getPendingChangesDeadline() {
+        long changesDeadline = -1;
+        if (!this.getPendingChanges().isEmpty()) {
+            long quietDeadline = this.getPendingLastEventMillis() + this.getQuietPeriod();
+            long maximumDeadline = this.getPendingSinceMillis() + this.getQuietPeriod() * MAXIMUM_DELAY_FACTOR;
+            changesDeadline = Math.min(quietDeadline, maximumDeadline);
+        }
+        if (!this.getRescanQueue().isEmpty()) {
+            changesDeadline = changesDeadline < 0 ? this.getRescanResumeMillis() : Math.min(changesDeadline, this.getRescanResumeMillis());
+        }
+        return changesDeadline;
+    }
 
-            PathPair pathPair = this.getKeyToPairMap().get(nextWatchKey);
-            Path targetDirectoryPath = pathPair == null ? null : pathPair.getTargetPath();
-            Path sourceFilePath = pathPair == null ? null : pathPair.getSourcePath().resolve((Path)watchEvent.context());
-            Path targetFilePath = targetDirectoryPath == null || sourceFilePath == null ? null : targetDirectoryPath.resolve(sourceFilePath.getFileName());
-            if (sourceFilePath != null && targetFilePath != null) {
+    /**
+     * Applies all the pending changes as one batch. For every target path only
+     * the net result of all the events received for it is applied: If the
+     * source still exists it will be copied, otherwise the target will be
+     * removed.
+     */
+    void flushPendingChanges() {
+        Map<Path, PendingChange> pendingChanges = null;
+        int pendingEventCount = 0;
+        synchronized (this) {
+            pendingChanges = this.getPendingChanges();
+            pendingEventCount = this.getPendingEventCount();
+            this.setPendingChanges(new LinkedHashMap<>());
+            this.setPendingEventCount(0);
+        }
+        if (!pendingChanges.isEmpty() && !this.isClosed()) {
+            this.getMetrics().getQueueDepths().record(pendingChanges.size());
+            for (Map.Entry<Path, PendingChange> pendingChangeEntry : pendingChanges.entrySet()) {
+                Path sourceFilePath = pendingChangeEntry.getValue().getSourcePath();
+                Path targetFilePath = pendingChangeEntry.getKey();
                 try {
-                    if (StandardWatchEventKinds.ENTRY_CREATE.equals(watchEvent.kind())) {
-                        this.handlePathCreated(sourceFilePath, targetFilePath);
-                    } else if (StandardWatchEventKinds.ENTRY_MODIFY.equals(watchEvent.kind())) {
+                    if (Files.isDirectory(sourceFilePath)) {
+                        if (pendingChangeEntry.getValue().isCreated()) {
+                            this.handlePathCreated(sourceFilePath, targetFilePath);
+                        }
+                    } else if (Files.isRegularFile(sourceFilePath)) {
                         this.handlePathModified(sourceFilePath, targetFilePath);
-                    } else if (StandardWatchEventKinds.ENTRY_DELETE.equals(watchEvent.kind())) {
+                    } else if (!Files.exists(sourceFilePath)) {
                         this.handlePathDeleted(sourceFilePath, targetFilePath);
                     }
+                    this.getMetrics().getEventToCopyLatency().record((System.nanoTime() - pendingChangeEntry.getValue().getFirstEventNanos()) / 1000000);
                 } catch (IOException e) {
-                    log.warn("Cannot perform operation for kind {} on target directory: {}", watchEvent.kind(), targetFilePath, e);
+                    log.warn("Cannot perform operation for kind {} on target directory: {}", pendingChangeEntry.getValue().getLastKind(), targetFilePath, e);
                 }
-            } else {
-                this.getKeyToPairMap().remove(nextWatchKey);
             }
+            log.trace("Applied {} changes collected from {} events", pendingChanges.size(), pendingEventCount);
+        }
+        if (!this.isClosed() && this.getRescanResumeMillis() <= System.currentTimeMillis()) {
+            this.processRescanQueue();
+        }
+        this.dispatchCopiedResources();
+    }
+
+    /**
+     * Passes all the resources copied since the last invocation as one batch
+     * to the listeners
+     */
+    void dispatchCopiedResources() {
+        if (this.getListenerDispatcher() != null) {
+            List<GeneratedWebappCopiedResource> copiedResources = null;
+            synchronized (this.getCopiedResources()) {
+                copiedResources = new ArrayList<>(this.getCopiedResources());
+                this.getCopiedResources().clear();
+            }
+            this.getListenerDispatcher().dispatch(copiedResources);
+        }
+    }
+
+    /**
+     * Rescans the queued directories after an overflow. Only a limited number
+     * of entries is processed per invocation, after which the rescan pauses
+     * for a moment, so that even a rescan of a huge tree neither saturates the
+     * disk nor blocks the handling of other events for a long time.
+     */
+    private void processRescanQueue() {
+        int remainingEntries = RESCAN_BATCH_SIZE;
+        while (remainingEntries > 0 && !this.isClosed()) {
+            PathPair pathPair = null;
+            synchronized (this) {
+                pathPair = this.getRescanQueue().pollFirst();
+                if (pathPair != null) {
+                    this.getRescanQueuedPaths().remove(pathPair.getSourcePath());
+                }
+            }
+            if (pathPair == null) {
+                break;
+            }
+            try {
+                remainingEntries -= this.rescanDirectory(pathPair);
+            } catch (IOException e) {
+                log.warn("Cannot rescan source directory: {}", pathPair.getSourcePath(), e);
+            }
+        }
+        synchronized (this) {
+            if (!this.getRescanQueue().isEmpty()) {
+                this.setRescanResumeMillis(System.currentTimeMillis() + RESCAN_PAUSE_MILLIS);
+            } else if (this.getRescanStartMillis() > 0) {
+                log.info("Completed rescan of {} after event overflow ({} directories rescanned, {} resources copied, {} resources removed in total) in {} ms", this.getSourceDirectory(), this.getRescannedDirectories().get(), this.getRescannedCopies().get(), this.getRescannedDeletions().get(), System.currentTimeMillis() - this.getRescanStartMillis());
+                this.setRescanStartMillis(0);
+            }
+        }
+    }
 
+    /**
+     * Brings a single target directory back in sync with its source directory
+     * and queues all subdirectories for rescanning as well
+     *
+     * @return
+     *      the number of entries that have been processed
+     */
+    private int rescanDirectory(PathPair pathPair) throws IOException {
+        Path sourcePath = pathPair.getSourcePath();
+        Path targetPath = pathPair.getTargetPath();
+        this.getRescannedDirectories().incrementAndGet();
+        if (!Files.isDirectory(sourcePath)) {
+            if (!Files.exists(sourcePath) && Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+                this.handlePathDeleted(sourcePath, targetPath);
+                this.getRescannedDeletions().incrementAndGet();
+            }
+            return 1;
         }
+
+        // Make sure directories that have been created while the events were
+        // lost are watched from now on
+        this.getWatchEngine().register(sourcePath, targetPath, this);
+
+        List<String> sourceChildNames = this.listChildNames(sourcePath);
+        for (String sourceChildName : sourceChildNames) {
+            Path sourceChild = sourcePath.resolve(sourceChildName);
+            Path targetChild = targetPath.resolve(sourceChildName);
+            boolean sourceChildDirectory = Files.isDirectory(sourceChild);
+            if (!this.isPathIncluded(sourceChild, sourceChildDirectory) || !this.getFileFilter().test(sourceChild)) {
+                continue;
+            } else if (sourceChildDirectory) {
+                synchronized (this) {
+                    if (this.getRescanQueuedPaths().add(sourceChild)) {
+                        this.getRescanQueue().addLast(new PathPair(sourceChild, targetChild));
+                    }
+                }
+            } else if (Files.isReadable(sourceChild) && this.copyResource(sourceChild, targetChild)) {
+                this.getRescannedCopies().incrementAndGet();
+            }
+        }
+
+        // Resources whose source has been deleted are taken from the overlay
+        // index, since only the index knows which resources within the
+        // target directory have been provided by this handler
+        int processedEntries = sourceChildNames.size() + 1;
+        if (this.getOverlayIndex() != null) {
+            Set<String> sourceChildNameSet = new HashSet<>(sourceChildNames);
+            String overlayPath = this.resolveOverlayPath(targetPath);
+            for (String overlayChildName : this.getOverlayIndex().listChildNames(overlayPath)) {
+                String overlayChildPath = GeneratedWebappSyncManifest.resolveRelativePath(overlayPath, overlayChildName);
+                if (!sourceChildNameSet.contains(overlayChildName) && this.getOverlayIndex().isProvidedBy(this.getOverlayLayer(), overlayChildPath)) {
+                    this.handlePathDeleted(sourcePath.resolve(overlayChildName), targetPath.resolve(overlayChildName));
+                    this.getRescannedDeletions().incrementAndGet();
+                }
+                processedEntries++;
+            }
+        }
+        return processedEntries;
     }
 
     private void handlePathDeleted(Path sourceFilePath, Path targetFilePath) throws IOException {
-        if (Files.isDirectory(targetFilePath)) {
-            GeneratedWebappCopyHandler.deleteRecursively(targetFilePath);
-        } else if (Files.isRegularFile(targetFilePath)) {
+        if (this.getOverlayIndex() != null) {
+            List<String> removedPaths = this.getOverlayIndex().removeResource(this.getOverlayLayer(), this.resolveOverlayPath(targetFilePath));
+            if (!this.isVirtualOverlay()) {
+                for (String removedPath : removedPaths) {
+                    this.restoreOverlayedResource(removedPath);
+                }
+            }
+        } else if (Files.isDirectory(targetFilePath, LinkOption.NOFOLLOW_LINKS)) {
+            GeneratedWebappCopyEngine.deleteRecursively(targetFilePath);
+        } else {
             Files.deleteIfExists(targetFilePath);
         }
     }
 
+    /**
+     * Updates a resource within the target directory after this handler no
+     * longer provides it, which is only called if this handler has been the
+     * one providing the current version of the resource. If another copy
+     * definition provides the resource as well, its version replaces the
+     * current one within the target directory, otherwise the resource is
+     * removed.
+     */
+    private void restoreOverlayedResource(String overlayPath) throws IOException {
+        Path targetPath = this.getOverlayDirectory().resolve(overlayPath);
+        int winningLayer = this.getOverlayIndex().resolveLayer(overlayPath);
+        if (winningLayer < 0) {
+            if (Files.isDirectory(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+                GeneratedWebappCopyEngine.deleteRecursively(targetPath);
+            } else {
+                Files.deleteIfExists(targetPath);
+            }
+        } else if (!this.getOverlayIndex().isDirectory(overlayPath)) {
+            log.debug("Restoring {} from overlayed copy definition at: {}", overlayPath, this.getOverlayIndex().getCopyHandler(winningLayer).getSourceDirectory());
+            GeneratedWebappCopyHandler winningHandler = this.getOverlayIndex().getCopyHandler(winningLayer);
+            winningHandler.replaceResource(this.getOverlayIndex().resolveSourcePath(winningLayer, overlayPath), targetPath);
+            if (winningHandler != this) {
+                winningHandler.dispatchCopiedResources();
+            }
+        }
+    }
+
     private void handlePathModified(Path sourceFilePath, Path targetFilePath) throws IOException {
         if (Files.isRegularFile(sourceFilePath)) {
             this.copyResource(sourceFilePath, targetFilePath);
@@ -163,12 +439,13 @@ class GeneratedWebappCopyHandler implements Closeable {
     private void handlePathCreated(Path sourceFilePath, Path targetFilePath) throws IOException {
         if (Files.isDirectory(sourceFilePath)) {
 
+            // Register for upcoming changes first, so that no file created
+            // while we're copying the existing content gets lost
+            this.registerWatchServiceOnPath(sourceFilePath, targetFilePath);
+
             // Copy any content that may already be inside the directory
             this.copyResources(sourceFilePath, targetFilePath);
 
-            // Register for upcoming changes
-            this.registerWatchServiceOnPath(sourceFilePath, targetFilePath);
-
         }
     }
 
@@ -176,13 +453,34 @@ class GeneratedWebappCopyHandler implements Closeable {
     // --- Copy implementations ------------------------------------------------
     // -------------------------------------------------------------------------
 
+    List<String> listChildNames(Path sourcePath) throws IOException {
+        try (Stream<Path> sourceChildren = Files.list(sourcePath)) {
+            return sourceChildren.map(sourceChild -> sourceChild.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            log.trace("Cannot read attributes of: {} [{}]", path, e.toString());
+            return null;
+        }
+    }
+
     private int copyResources(Path sourcePath, Path targetPath) throws IOException {
         int copiedResources = 0;
-        List<Path> sourceChildren = Files.list(sourcePath).filter(this.getFileFilter()).collect(Collectors.toList());
+        List<Path> sourceChildren = null;
+        try (Stream<Path> sourceChildrenStream = Files.list(sourcePath)) {
+            sourceChildren = sourceChildrenStream.filter(this.getFileFilter()).collect(Collectors.toList());
+        }
         if (sourceChildren != null) {
             for (Path sourceChild : sourceChildren) {
                 Path targetChild = targetPath.resolve(sourceChild.getFileName());
-                if (Files.isDirectory(sourceChild)) {
+                boolean sourceChildDirectory = Files.isDirectory(sourceChild);
+                if (!this.isPathIncluded(sourceChild, sourceChildDirectory)) {
+                    log.trace("Skipping excluded resource: {}", sourceChild);
+                } else if (sourceChildDirectory) {
                     copiedResources += this.copyResources(sourceChild, targetChild);
                 } else if (Files.isReadable(sourceChild)) {
                     if (this.copyResource(sourceChild, targetChild)) {
@@ -194,43 +492,167 @@ class GeneratedWebappCopyHandler implements Closeable {
         return copiedResources;
     }
 
-    private boolean copyResource(Path sourcePath, Path targetPath) throws IOException {
+    /**
+     * Records that this handler provides the given resource without copying
+     * it
+     */
+    void recordResource(Path sourcePath, Path targetPath) {
+        if (this.getOverlayIndex() != null) {
+            this.getOverlayIndex().putResource(this.getOverlayLayer(), this.resolveOverlayPath(targetPath));
+        }
+    }
 
-        boolean targetRequiresUpdate = !Files.exists(targetPath);
-        targetRequiresUpdate = targetRequiresUpdate || Files.size(sourcePath) != Files.size(targetPath);
-        targetRequiresUpdate = targetRequiresUpdate || Files.getLastModifiedTime(sourcePath).toMillis() > Files.getLastModifiedTime(targetPath).toMillis();
+    boolean copyResource(Path sourcePath, Path targetPath) throws IOException {
+        return this.copyResource(sourcePath, targetPath, false);
+    }
 
-        if (targetRequiresUpdate) {
+    /**
+     * Replaces the target with the source even if size and modification time
+     * of the target indicate that it's up to date, which is needed whenever
+     * the target has been written from a different source before. The target
+     * is replaced atomically, so it's never missing in between.
+     */
+    boolean replaceResource(Path sourcePath, Path targetPath) throws IOException {
+        return this.copyResource(sourcePath, targetPath, true);
+    }
+
+    private boolean copyResource(Path sourcePath, Path targetPath, boolean replaceOutdatedTarget) throws IOException {
+        if (this.getOverlayIndex() != null) {
+            String overlayPath = this.resolveOverlayPath(targetPath);
+            boolean overlayAdded = this.getOverlayIndex().putResource(this.getOverlayLayer(), overlayPath);
+            if (this.isVirtualOverlay()) {
+                return overlayAdded;
+            } else if (this.getOverlayIndex().resolveLayer(overlayPath) != this.getOverlayLayer()) {
+                log.trace("Resource {} is overlayed by a later copy definition - skipping copy", sourcePath);
+                return false;
+            }
+        }
+        GeneratedWebappMaterialization materialization = this.isLinkingDisabled() ? GeneratedWebappMaterialization.COPY : this.getMaterialization();
+        if ((replaceOutdatedTarget || !this.isTargetUpToDate(sourcePath, targetPath, materialization)) && !this.isTargetContentEqual(sourcePath, targetPath, materialization)) {
             if (!Files.exists(targetPath.getParent())) {
                 Files.createDirectories(targetPath.getParent());
             }
-            Files.copy(sourcePath, targetPath, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-            if (this.getCopyListeners() != null) {
-                for (GeneratedWebappCopyListener copyListener : this.getCopyListeners()) {
-                    copyListener.resourceCopied(sourcePath, targetPath);
+            long materializeStartNanos = System.nanoTime();
+            long materializedBytes = this.materializeResource(sourcePath, targetPath, materialization);
+            this.getMetrics().getCopyDuration().record((System.nanoTime() - materializeStartNanos) / 1000);
+            this.getMetrics().getCopyByteCounts().record(materializedBytes);
+            if (this.getListenerDispatcher() != null) {
+                synchronized (this.getCopiedResources()) {
+                    this.getCopiedResources().add(new GeneratedWebappCopiedResource(sourcePath, targetPath));
                 }
             }
             return true;
         } else {
             return false;
         }
+    }
 
+    private boolean isTargetUpToDate(Path sourcePath, Path targetPath, GeneratedWebappMaterialization materialization) throws IOException {
+        if (GeneratedWebappMaterialization.HARDLINK.equals(materialization)) {
+            return Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS) && !Files.isSymbolicLink(targetPath) && Files.isSameFile(sourcePath, targetPath);
+        } else if (GeneratedWebappMaterialization.SYMLINK.equals(materialization)) {
+            return Files.isSymbolicLink(targetPath) && Files.readSymbolicLink(targetPath).equals(sourcePath.toAbsolutePath());
+        } else if (!Files.exists(targetPath) || Files.isSymbolicLink(targetPath)) {
+            return false;
+        } else {
+            return Files.size(sourcePath) == Files.size(targetPath) && Files.getLastModifiedTime(sourcePath).toMillis() <= Files.getLastModifiedTime(targetPath).toMillis();
+        }
+    }
+
+    /**
+     * Checks whether a target that looks outdated judging by size and
+     * modification time actually contains the same content as the source,
+     * which happens whenever a build tool rewrites a file without changing
+     * it. In this case neither the file is copied nor any listener notified.
+     */
+    private boolean isTargetContentEqual(Path sourcePath, Path targetPath, GeneratedWebappMaterialization materialization) throws IOException {
+        if (this.getFingerprintCache() == null || !GeneratedWebappMaterialization.COPY.equals(materialization)) {
+            return false;
+        } else if (!Files.isRegularFile(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        } else if (this.getFingerprintCache().isContentEqual(sourcePath, targetPath)) {
+            log.trace("Content of {} is unchanged - skipping copy", sourcePath);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return
+     *      the number of bytes that have been copied, which is zero if the
+     *      resource has been linked
+     */
+    private long materializeResource(Path sourcePath, Path targetPath, GeneratedWebappMaterialization materialization) throws IOException {
+        if (!GeneratedWebappMaterialization.COPY.equals(materialization)) {
+            try {
+                GeneratedWebappCopyEngine.link(sourcePath, targetPath, GeneratedWebappMaterialization.SYMLINK.equals(materialization));
+                return 0;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (IOException | UnsupportedOperationException e) {
+
+                // Most likely source and target are located on different
+                // file systems, so there is no need to try linking any other
+                // resource of this handler again
+                log.info("Cannot create {} links from {} into {} - copying resources instead [{}]", materialization, this.getSourceDirectory(), this.getTargetDirectory(), e.toString());
+                this.setLinkingDisabled(true);
+
+            }
+        }
+        return GeneratedWebappCopyEngine.copy(sourcePath, targetPath);
     }
 
     // -------------------------------------------------------------------------
     // --- Helper methods ------------------------------------------------------
     // -------------------------------------------------------------------------
 
-    static void deleteRecursively(Path path) {
-        try {
-            if (Files.exists(path)) {
-                if (Files.isDirectory(path)) {
-                    Files.list(path).forEach(GeneratedWebappCopyHandler::deleteRecursively);
-                }
-                Files.delete(path);
+    /**
+     * Checks whether the given path within the source directory passes the
+     * include and exclude rules of the copy definition
+     */
+    boolean isPathIncluded(Path sourcePath, boolean directory) {
+        if (this.getPathRules() == null) {
+            return true;
+        } else {
+            StringBuilder relativePath = new StringBuilder();
+            for (Path pathElement : this.getSourceDirectory().relativize(sourcePath)) {
+                relativePath.append(relativePath.length() > 0 ? "/" : "").append(pathElement);
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Cannot delete path: " + path, e);
+            return this.isPathIncluded(relativePath.toString(), directory);
+        }
+    }
+
+    /**
+     * Checks whether the given source path denotes a directory. A source that
+     * has been deleted (or moved away) cannot be asked anymore, so in that
+     * case the resource that has been transferred for it tells us its type.
+     */
+    private boolean isSourceDirectory(Path sourcePath, Path targetPath) {
+        if (Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            return Files.isDirectory(sourcePath);
+        } else if (this.getOverlayIndex() != null) {
+            return this.getOverlayIndex().isDirectory(this.resolveOverlayPath(targetPath));
+        } else {
+            return Files.isDirectory(targetPath, LinkOption.NOFOLLOW_LINKS);
+        }
+    }
+
+    /**
+     * Translates a path within the target directory into the corresponding
+     * path within the overlay index
+     */
+    String resolveOverlayPath(Path targetPath) {
+        return GeneratedWebappOverlayIndex.toRelativePath(this.getOverlayDirectory(), targetPath);
+    }
+
+    boolean isPathIncluded(String relativePath, boolean directory) {
+        if (this.getPathRules() == null) {
+            return true;
+        } else if (directory) {
+            return this.getPathRules().isDirectoryIncluded(relativePath);
+        } else {
+            return this.getPathRules().isFileIncluded(relativePath);
         }
     }
 
@@ -268,22 +690,224 @@ class GeneratedWebappCopyHandler implements Closeable {
 
     }
 
+    static class PendingChange {
+
+        private Path sourcePath = null;
+        private boolean created = false;
+        private WatchEvent.Kind<?> lastKind = null;
+        private long firstEventNanos = System.nanoTime();
+
+        PendingChange(Path sourcePath, WatchEvent.Kind<?> kind) {
+            this.setSourcePath(sourcePath);
+            this.merge(kind);
+        }
+
+        /**
+         * Merges another event for the same path into this change. We only
+         * need to remember whether the path has been created at some point,
+         * since newly created directories must be registered for watching,
+         * everything else is decided when the change is applied.
+         */
+        void merge(WatchEvent.Kind<?> kind) {
+            this.setCreated(this.isCreated() || StandardWatchEventKinds.ENTRY_CREATE.equals(kind));
+            this.setLastKind(kind);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        Path getSourcePath() {
+            return this.sourcePath;
+        }
+        private void setSourcePath(Path sourcePath) {
+            this.sourcePath = sourcePath;
+        }
+
+        boolean isCreated() {
+            return this.created;
+        }
+        private void setCreated(boolean created) {
+            this.created = created;
+        }
+
+        WatchEvent.Kind<?> getLastKind() {
+            return this.lastKind;
+        }
+        private void setLastKind(WatchEvent.Kind<?> lastKind) {
+            this.lastKind = lastKind;
+        }
+
+        long getFirstEventNanos() {
+            return this.firstEventNanos;
+        }
+
+    }
+
     // -------------------------------------------------------------------------
     // --- Property access methods ---------------------------------------------
     // -------------------------------------------------------------------------
 
-    private WatchService getWatchService() {
-        return this.watchService;
+    Path getSourceDirectory() {
+        return this.sourceDirectory;
+    }
+    private void setSourceDirectory(Path sourceDirectory) {
+        this.sourceDirectory = sourceDirectory;
+    }
+
+    Path getTargetDirectory() {
+        return this.targetDirectory;
+    }
+    private void setTargetDirectory(Path targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    GeneratedWebappSyncManifest getSyncManifest() {
+        return this.syncManifest;
+    }
+    void setSyncManifest(GeneratedWebappSyncManifest syncManifest) {
+        this.syncManifest = syncManifest;
+    }
+
+    boolean isTrustDirectoryTimestamps() {
+        return this.trustDirectoryTimestamps;
+    }
+    void setTrustDirectoryTimestamps(boolean trustDirectoryTimestamps) {
+        this.trustDirectoryTimestamps = trustDirectoryTimestamps;
+    }
+
+    GeneratedWebappMaterialization getMaterialization() {
+        return this.materialization;
+    }
+    private void setMaterialization(GeneratedWebappMaterialization materialization) {
+        this.materialization = materialization;
+    }
+
+    private boolean isLinkingDisabled() {
+        return this.linkingDisabled;
+    }
+    private void setLinkingDisabled(boolean linkingDisabled) {
+        this.linkingDisabled = linkingDisabled;
+    }
+
+    GeneratedWebappFingerprintCache getFingerprintCache() {
+        return this.fingerprintCache;
+    }
+    void setFingerprintCache(GeneratedWebappFingerprintCache fingerprintCache) {
+        this.fingerprintCache = fingerprintCache;
+    }
+
+    GeneratedWebappOverlayIndex getOverlayIndex() {
+        return this.overlayIndex;
+    }
+    private void setOverlayIndex(GeneratedWebappOverlayIndex overlayIndex) {
+        this.overlayIndex = overlayIndex;
+    }
+
+    int getOverlayLayer() {
+        return this.overlayLayer;
+    }
+    private void setOverlayLayer(int overlayLayer) {
+        this.overlayLayer = overlayLayer;
+    }
+
+    Path getOverlayDirectory() {
+        return this.overlayDirectory;
+    }
+    private void setOverlayDirectory(Path overlayDirectory) {
+        this.overlayDirectory = overlayDirectory;
+    }
+
+    boolean isVirtualOverlay() {
+        return this.virtualOverlay;
+    }
+    private void setVirtualOverlay(boolean virtualOverlay) {
+        this.virtualOverlay = virtualOverlay;
+    }
+
+    /**
+     * Makes this handler record its resources as a layer of the given index,
+     * so that conflicts with other handlers writing into the same target
+     * directory are resolved consistently
+     *
+     * @param overlayIndex
+     *      the index into which to record the resources
+     * @param overlayLayer
+     *      the layer of this handler within the index
+     * @param overlayDirectory
+     *      the directory to which the paths within the index are relative
+     * @param virtualOverlay
+     *      {@code true} if the resources are only to be recorded in the index
+     *      instead of being transferred into the target directory
+     */
+    void attachOverlay(GeneratedWebappOverlayIndex overlayIndex, int overlayLayer, Path overlayDirectory, boolean virtualOverlay) {
+        this.setOverlayIndex(overlayIndex);
+        this.setOverlayLayer(overlayLayer);
+        this.setOverlayDirectory(overlayDirectory);
+        this.setVirtualOverlay(virtualOverlay);
+    }
+
+    GeneratedWebappChangeDetector getWatchEngine() {
+        return this.watchEngine;
+    }
+    private void setWatchEngine(GeneratedWebappChangeDetector watchEngine) {
+        this.watchEngine = watchEngine;
+    }
+
+    GeneratedWebappChangeDetection getChangeDetection() {
+        return this.changeDetection;
+    }
+    private void setChangeDetection(GeneratedWebappChangeDetection changeDetection) {
+        this.changeDetection = changeDetection;
+    }
+
+    long getMinimumPollInterval() {
+        return this.minimumPollInterval;
+    }
+    private void setMinimumPollInterval(long minimumPollInterval) {
+        this.minimumPollInterval = minimumPollInterval;
+    }
+
+    long getMaximumPollInterval() {
+        return this.maximumPollInterval;
+    }
+    private void setMaximumPollInterval(long maximumPollInterval) {
+        this.maximumPollInterval = maximumPollInterval;
+    }
+
+    long getQuietPeriod() {
+        return this.quietPeriod;
     }
-    private void setWatchService(WatchService watchService) {
-        this.watchService = watchService;
+    void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
     }
 
-    private Map<WatchKey, PathPair> getKeyToPairMap() {
-        return this.keyToPairMap;
+    private Map<Path, PendingChange> getPendingChanges() {
+        return this.pendingChanges;
     }
-    private void setKeyToPairMap(Map<WatchKey, PathPair> keyToPairMap) {
-        this.keyToPairMap = keyToPairMap;
+    private void setPendingChanges(Map<Path, PendingChange> pendingChanges) {
+        this.pendingChanges = pendingChanges;
+    }
+
+    private long getPendingSinceMillis() {
+        return this.pendingSinceMillis;
+    }
+    private void setPendingSinceMillis(long pendingSinceMillis) {
+        this.pendingSinceMillis = pendingSinceMillis;
+    }
+
+    private long getPendingLastEventMillis() {
+        return this.pendingLastEventMillis;
+    }
+    private void setPendingLastEventMillis(long pendingLastEventMillis) {
+        this.pendingLastEventMillis = pendingLastEventMillis;
+    }
+
+    private int getPendingEventCount() {
+        return this.pendingEventCount;
+    }
+    private void setPendingEventCount(int pendingEventCount) {
+        this.pendingEventCount = pendingEventCount;
     }
 
     private boolean isClosed() {
@@ -293,18 +917,130 @@ class GeneratedWebappCopyHandler implements Closeable {
         this.closed = closed;
     }
 
-    private Predicate<Path> getFileFilter() {
+    Predicate<Path> getFileFilter() {
         return this.fileFilter;
     }
     private void setFileFilter(Predicate<Path> fileFilter) {
         this.fileFilter = fileFilter;
     }
 
-    private List<GeneratedWebappCopyListener> getCopyListeners() {
-        return this.copyListeners;
+    GeneratedWebappPathRules getPathRules() {
+        return this.pathRules;
+    }
+    private void setPathRules(GeneratedWebappPathRules pathRules) {
+        this.pathRules = pathRules;
+    }
+
+    /**
+     * @return
+     *      the number of directories that have been registered for watching
+     */
+    int getWatchedDirectoryCount() {
+        return this.getWatchedDirectories().get();
+    }
+    private AtomicInteger getWatchedDirectories() {
+        return this.watchedDirectories;
+    }
+
+    /**
+     * @return
+     *      the number of directories that have been skipped entirely because
+     *      of the include and exclude rules
+     */
+    int getPrunedDirectoryCount() {
+        return this.getPrunedDirectories().get();
     }
-    private void setCopyListeners(List<GeneratedWebappCopyListener> copyListeners) {
-        this.copyListeners = copyListeners;
+    private AtomicInteger getPrunedDirectories() {
+        return this.prunedDirectories;
+    }
+
+    private Deque<PathPair> getRescanQueue() {
+        return this.rescanQueue;
+    }
+
+    private Set<Path> getRescanQueuedPaths() {
+        return this.rescanQueuedPaths;
+    }
+
+    private long getRescanResumeMillis() {
+        return this.rescanResumeMillis;
+    }
+    private void setRescanResumeMillis(long rescanResumeMillis) {
+        this.rescanResumeMillis = rescanResumeMillis;
+    }
+
+    private long getRescanStartMillis() {
+        return this.rescanStartMillis;
+    }
+    private void setRescanStartMillis(long rescanStartMillis) {
+        this.rescanStartMillis = rescanStartMillis;
+    }
+
+    /**
+     * @return
+     *      the number of event overflows that have been detected
+     */
+    long getOverflowCount() {
+        return this.getOverflows().get();
+    }
+    private AtomicLong getOverflows() {
+        return this.overflows;
+    }
+
+    /**
+     * @return
+     *      the number of directories that have been rescanned after an
+     *      overflow
+     */
+    long getRescannedDirectoryCount() {
+        return this.getRescannedDirectories().get();
+    }
+    private AtomicLong getRescannedDirectories() {
+        return this.rescannedDirectories;
+    }
+
+    /**
+     * @return
+     *      the number of resources that have been copied by a rescan
+     */
+    long getRescannedCopyCount() {
+        return this.getRescannedCopies().get();
+    }
+    private AtomicLong getRescannedCopies() {
+        return this.rescannedCopies;
+    }
+
+    /**
+     * @return
+     *      the number of resources that have been removed by a rescan
+     */
+    long getRescannedDeletionCount() {
+        return this.getRescannedDeletions().get();
+    }
+    private AtomicLong getRescannedDeletions() {
+        return this.rescannedDeletions;
+    }
+
+    GeneratedWebappCopyListenerDispatcher getListenerDispatcher() {
+        return this.listenerDispatcher;
+    }
+    private void setListenerDispatcher(GeneratedWebappCopyListenerDispatcher listenerDispatcher) {
+        this.listenerDispatcher = listenerDispatcher;
+    }
+
+    /**
+     * @return
+     *      the metrics collected for the copy definition of this handler
+     */
+    GeneratedWebappCopyMetrics getMetrics() {
+        return this.metrics;
+    }
+    private void setMetrics(GeneratedWebappCopyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private List<GeneratedWebappCopiedResource> getCopiedResources() {
+        return this.copiedResources;
     }
 
 }
\ No newline at end of file
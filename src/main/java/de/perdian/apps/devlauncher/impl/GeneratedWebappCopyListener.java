@@ -18,10 +18,31 @@ package de.perdian.apps.devlauncher.impl;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+
+import org.slf4j.LoggerFactory;
 
 @FunctionalInterface
 public interface GeneratedWebappCopyListener {
 
     void resourceCopied(Path sourcePath, Path targetPath) throws IOException;
 
-}
\ No newline at end of file
+    /**
+     * Gets notified about all the resources that have been copied within one
+     * synchronization cycle. Listeners that can process multiple resources
+     * more efficiently at once (like a compiler that is only to be started
+     * once per change) should override this method. By default every
+     * resource is passed to {@link #resourceCopied(Path, Path)}, a failure
+     * for one resource doesn't prevent the others from being passed.
+     */
+    default void resourcesCopied(List<GeneratedWebappCopiedResource> copiedResources) throws IOException {
+        for (GeneratedWebappCopiedResource copiedResource : copiedResources) {
+            try {
+                this.resourceCopied(copiedResource.getSourcePath(), copiedResource.getTargetPath());
+            } catch (Exception e) {
+                LoggerFactory.getLogger(GeneratedWebappCopyListener.class).warn("Copy listener failed to process copied resource: {}", copiedResource.getTargetPath(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,351 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the resources copied by a copy handler to its listeners.
+ *
+ * In synchronous mode the listeners are invoked directly by the thread that
+ * has performed the copy operations. In asynchronous mode the batches are
+ * placed into a bounded queue, which is drained by a task running on the
+ * configured executor, so a slow listener no longer delays the following copy
+ * operations. Even when the executor provides multiple threads, the batches
+ * of one dispatcher are always delivered one after another and in the order
+ * in which they have been created.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappCopyListenerDispatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappCopyListenerDispatcher.class);
+
+    private volatile boolean closed = false;
+    private List<GeneratedWebappCopyListener> copyListeners = null;
+    private boolean asynchronous = false;
+    private Executor executor = null;
+    private ExecutorService ownedExecutorService = null;
+    private int queueCapacity = 0;
+    private GeneratedWebappCopyListenerOverflowPolicy overflowPolicy = null;
+    private GeneratedWebappCopyMetrics metrics = null;
+    private Deque<List<GeneratedWebappCopiedResource>> queue = new ArrayDeque<>();
+    private boolean draining = false;
+    private long dispatchedBatches = 0;
+    private long dispatchedResources = 0;
+    private long droppedBatches = 0;
+    private long mergedBatches = 0;
+    private int maximumQueueSize = 0;
+
+    /**
+     * Creates the dispatcher for the listeners of the given definition
+     *
+     * @param metrics
+     *      the metrics into which the time needed by the listeners will be
+     *      recorded
+     * @return
+     *      the dispatcher or {@code null} if the definition doesn't contain
+     *      any listeners
+     */
+    static GeneratedWebappCopyListenerDispatcher create(GeneratedWebappCopyDefinition copyDefinition, GeneratedWebappCopyMetrics metrics) {
+        if (copyDefinition.getCopyListeners() == null || copyDefinition.getCopyListeners().isEmpty()) {
+            return null;
+        } else {
+            GeneratedWebappCopyListenerDispatcher dispatcher = new GeneratedWebappCopyListenerDispatcher();
+            dispatcher.setCopyListeners(copyDefinition.getCopyListeners());
+            dispatcher.setMetrics(metrics);
+            dispatcher.setAsynchronous(copyDefinition.isAsynchronousListeners());
+            dispatcher.setQueueCapacity(Math.max(1, copyDefinition.getListenerQueueCapacity()));
+            dispatcher.setOverflowPolicy(copyDefinition.getListenerOverflowPolicy() == null ? GeneratedWebappCopyListenerOverflowPolicy.MERGE : copyDefinition.getListenerOverflowPolicy());
+            if (dispatcher.isAsynchronous()) {
+                if (copyDefinition.getListenerExecutor() != null) {
+                    dispatcher.setExecutor(copyDefinition.getListenerExecutor());
+                } else {
+                    String threadName = GeneratedWebappCopyListener.class.getSimpleName() + "[" + copyDefinition.getSourceDirectory().getFileName() + "]";
+                    ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    dispatcher.setOwnedExecutorService(executorService);
+                    dispatcher.setExecutor(executorService);
+                }
+            }
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Hands the resources copied within one synchronization cycle over to the
+     * listeners
+     */
+    void dispatch(List<GeneratedWebappCopiedResource> copiedResources) {
+        if (copiedResources.isEmpty() || this.isClosed()) {
+            return;
+        } else if (!this.isAsynchronous()) {
+            this.deliver(copiedResources);
+        } else {
+            boolean startDraining = false;
+            synchronized (this) {
+                while (this.getQueue().size() >= this.getQueueCapacity() && GeneratedWebappCopyListenerOverflowPolicy.BLOCK.equals(this.getOverflowPolicy()) && !this.isClosed()) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (this.getQueue().size() < this.getQueueCapacity()) {
+                    this.getQueue().addLast(new ArrayList<>(copiedResources));
+                } else if (GeneratedWebappCopyListenerOverflowPolicy.DROP_OLDEST.equals(this.getOverflowPolicy())) {
+                    List<GeneratedWebappCopiedResource> droppedBatch = this.getQueue().pollFirst();
+                    log.debug("Copy listeners cannot keep up - dropping notification for {} resources", droppedBatch.size());
+                    this.setDroppedBatches(this.getDroppedBatches() + 1);
+                    this.getQueue().addLast(new ArrayList<>(copiedResources));
+                } else {
+                    this.getQueue().addLast(GeneratedWebappCopyListenerDispatcher.merge(this.getQueue().pollLast(), copiedResources));
+                    this.setMergedBatches(this.getMergedBatches() + 1);
+                }
+                this.setMaximumQueueSize(Math.max(this.getMaximumQueueSize(), this.getQueue().size()));
+                if (!this.isDraining()) {
+                    this.setDraining(true);
+                    startDraining = true;
+                }
+            }
+            if (startDraining) {
+                try {
+                    this.getExecutor().execute(this::drainQueue);
+                } catch (RejectedExecutionException e) {
+                    log.warn("Cannot dispatch copied resources to listeners", e);
+                    synchronized (this) {
+                        this.setDraining(false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges two batches. If a resource is contained in both batches only
+     * the latest copy is kept.
+     */
+    private static List<GeneratedWebappCopiedResource> merge(List<GeneratedWebappCopiedResource> olderBatch, List<GeneratedWebappCopiedResource> newerBatch) {
+        Map<Path, GeneratedWebappCopiedResource> mergedResources = new LinkedHashMap<>();
+        for (GeneratedWebappCopiedResource copiedResource : olderBatch) {
+            mergedResources.put(copiedResource.getTargetPath(), copiedResource);
+        }
+        for (GeneratedWebappCopiedResource copiedResource : newerBatch) {
+            mergedResources.remove(copiedResource.getTargetPath());
+            mergedResources.put(copiedResource.getTargetPath(), copiedResource);
+        }
+        return new ArrayList<>(mergedResources.values());
+    }
+
+    private void drainQueue() {
+        while (true) {
+            List<GeneratedWebappCopiedResource> copiedResources = null;
+            synchronized (this) {
+                copiedResources = this.getQueue().pollFirst();
+                if (copiedResources == null) {
+                    this.setDraining(false);
+                    return;
+                }
+                this.notifyAll();
+            }
+            this.deliver(copiedResources);
+        }
+    }
+
+    private void deliver(List<GeneratedWebappCopiedResource> copiedResources) {
+        long deliverStartNanos = System.nanoTime();
+        for (GeneratedWebappCopyListener copyListener : this.getCopyListeners()) {
+            try {
+                copyListener.resourcesCopied(copiedResources);
+            } catch (Exception e) {
+                log.warn("Copy listener failed to process {} copied resources", copiedResources.size(), e);
+            }
+        }
+        if (this.getMetrics() != null) {
+            this.getMetrics().getListenerDuration().record((System.nanoTime() - deliverStartNanos) / 1000);
+        }
+        synchronized (this) {
+            this.setDispatchedBatches(this.getDispatchedBatches() + 1);
+            this.setDispatchedResources(this.getDispatchedResources() + copiedResources.size());
+        }
+    }
+
+    /**
+     * Stops accepting new batches. Batches that have already been queued will
+     * still be delivered.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.setClosed(true);
+            this.notifyAll();
+            log.debug("Dispatched {} batches with {} resources to copy listeners ({} batches merged, {} batches dropped, maximum queue size {})", this.getDispatchedBatches(), this.getDispatchedResources(), this.getMergedBatches(), this.getDroppedBatches(), this.getMaximumQueueSize());
+        }
+        if (this.getOwnedExecutorService() != null) {
+            this.getOwnedExecutorService().shutdown();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private boolean isClosed() {
+        return this.closed;
+    }
+    private void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
+    private List<GeneratedWebappCopyListener> getCopyListeners() {
+        return this.copyListeners;
+    }
+    private void setCopyListeners(List<GeneratedWebappCopyListener> copyListeners) {
+        this.copyListeners = copyListeners;
+    }
+
+    boolean isAsynchronous() {
+        return this.asynchronous;
+    }
+    private void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    private Executor getExecutor() {
+        return this.executor;
+    }
+    private void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private ExecutorService getOwnedExecutorService() {
+        return this.ownedExecutorService;
+    }
+    private void setOwnedExecutorService(ExecutorService ownedExecutorService) {
+        this.ownedExecutorService = ownedExecutorService;
+    }
+
+    private int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+    private void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    private GeneratedWebappCopyListenerOverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+    private void setOverflowPolicy(GeneratedWebappCopyListenerOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    private GeneratedWebappCopyMetrics getMetrics() {
+        return this.metrics;
+    }
+    private void setMetrics(GeneratedWebappCopyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private Deque<List<GeneratedWebappCopiedResource>> getQueue() {
+        return this.queue;
+    }
+
+    private boolean isDraining() {
+        return this.draining;
+    }
+    private void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    /**
+     * @return
+     *      the number of batches that have been delivered to the listeners
+     */
+    synchronized long getDispatchedBatches() {
+        return this.dispatchedBatches;
+    }
+    private void setDispatchedBatches(long dispatchedBatches) {
+        this.dispatchedBatches = dispatchedBatches;
+    }
+
+    /**
+     * @return
+     *      the number of resources that have been delivered to the listeners
+     */
+    synchronized long getDispatchedResources() {
+        return this.dispatchedResources;
+    }
+    private void setDispatchedResources(long dispatchedResources) {
+        this.dispatchedResources = dispatchedResources;
+    }
+
+    /**
+     * @return
+     *      the number of batches that have been discarded because the queue
+     *      was full
+     */
+    synchronized long getDroppedBatches() {
+        return this.droppedBatches;
+    }
+    private void setDroppedBatches(long droppedBatches) {
+        this.droppedBatches = droppedBatches;
+    }
+
+    /**
+     * @return
+     *      the number of batches that have been merged into another batch
+     *      because the queue was full
+     */
+    synchronized long getMergedBatches() {
+        return this.mergedBatches;
+    }
+    private void setMergedBatches(long mergedBatches) {
+        this.mergedBatches = mergedBatches;
+    }
+
+    /**
+     * @return
+     *      the maximum number of batches that have been waiting for delivery
+     *      at the same time
+     */
+    synchronized int getMaximumQueueSize() {
+        return this.maximumQueueSize;
+    }
+    private void setMaximumQueueSize(int maximumQueueSize) {
+        this.maximumQueueSize = maximumQueueSize;
+    }
+
+}
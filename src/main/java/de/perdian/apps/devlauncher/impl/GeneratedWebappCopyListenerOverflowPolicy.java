@@ -0,0 +1,49 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+/**
+ * Defines what happens when a copy listener cannot keep up with the resources
+ * being copied and the queue of pending notifications is full
+ *
+ * @author Christian Robert
+ */
+
+public enum GeneratedWebappCopyListenerOverflowPolicy {
+
+    /**
+     * The copy process waits until the listeners have processed a batch and
+     * there is room in the queue again. Every copy definition has its own
+     * queue, but the changes of all copy definitions are applied by the same
+     * launcher wide thread, so while it is waiting the changes of all other
+     * copy definitions are delayed as well.
+     */
+    BLOCK,
+
+    /**
+     * The oldest pending batch is discarded, so its resources will never be
+     * reported to the listeners
+     */
+    DROP_OLDEST,
+
+    /**
+     * The new batch is merged into the most recently queued batch, so no
+     * notification gets lost but the listeners receive fewer, larger batches
+     */
+    MERGE
+
+}
@@ -0,0 +1,278 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the metrics of a single copy definition, so that the time it
+ * takes until a change within a source directory becomes visible can be
+ * attributed to the file system, the copy operations or the listeners.
+ *
+ * All values are recorded into lock free histograms, so recording a value
+ * costs little more than a few atomic increments. The metrics are exposed as
+ * MXBean and can be written into the working directory of the launcher.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappCopyMetrics implements GeneratedWebappCopyMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappCopyMetrics.class);
+    static final String OBJECT_NAME_DOMAIN = "de.perdian.apps.devlauncher";
+
+    private Path sourceDirectoryPath = null;
+    private Path targetDirectoryPath = null;
+    private Path dumpFile = null;
+    private List<GeneratedWebappCopyMetrics> dumpGroup = null;
+    private ObjectName objectName = null;
+    private volatile long collectingSinceMillis = System.currentTimeMillis();
+    private GeneratedWebappHistogram eventToCopyLatency = new GeneratedWebappHistogram();
+    private GeneratedWebappHistogram copyDuration = new GeneratedWebappHistogram();
+    private GeneratedWebappHistogram copyBytes = new GeneratedWebappHistogram();
+    private GeneratedWebappHistogram queueDepth = new GeneratedWebappHistogram();
+    private GeneratedWebappHistogram listenerDuration = new GeneratedWebappHistogram();
+
+    GeneratedWebappCopyMetrics(Path sourceDirectoryPath, Path targetDirectoryPath) {
+        this.setSourceDirectoryPath(sourceDirectoryPath);
+        this.setTargetDirectoryPath(targetDirectoryPath);
+    }
+
+    /**
+     * Resolves the file into which the metrics of all copy definitions of a
+     * generated web application are written
+     */
+    static Path resolveDumpFile(Path workingDirectory, Path targetDirectory) {
+        return workingDirectory.resolve("generated/metrics/" + targetDirectory.getFileName() + "-copy-metrics.txt");
+    }
+
+    /**
+     * Registers the metrics at the platform MBean server. Failing to do so
+     * doesn't affect copying the resources at all, so any error is only
+     * logged.
+     *
+     * @param dumpFile
+     *      the file into which the metrics will be written
+     * @param dumpGroup
+     *      all the metrics that will be written into the same file
+     */
+    void register(Path dumpFile, List<GeneratedWebappCopyMetrics> dumpGroup) {
+        this.setDumpFile(dumpFile);
+        this.setDumpGroup(dumpGroup);
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME_DOMAIN + ":type=GeneratedWebappCopyMetrics,target=" + ObjectName.quote(this.getTargetDirectory()) + ",source=" + ObjectName.quote(this.getSourceDirectory()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.setObjectName(objectName);
+        } catch (JMException e) {
+            log.debug("Cannot register copy metrics for source directory {} [{}]", this.getSourceDirectory(), e.toString());
+        }
+    }
+
+    void unregister() {
+        ObjectName objectName = this.getObjectName();
+        if (objectName != null) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                if (mbeanServer.isRegistered(objectName)) {
+                    mbeanServer.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                log.debug("Cannot unregister copy metrics for source directory {} [{}]", this.getSourceDirectory(), e.toString());
+            } finally {
+                this.setObjectName(null);
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics of all copy definitions sharing the dump file of
+     * this instance into a single text file
+     */
+    static void dump(Path dumpFile, List<GeneratedWebappCopyMetrics> copyMetrics) throws IOException {
+        Files.createDirectories(dumpFile.getParent());
+        try (BufferedWriter dumpWriter = Files.newBufferedWriter(dumpFile, StandardCharsets.UTF_8)) {
+            dumpWriter.write("# Copy metrics written at " + Instant.now() + "\n");
+            for (GeneratedWebappCopyMetrics metrics : copyMetrics) {
+                dumpWriter.write("\n" + metrics.getSourceDirectory() + " -> " + metrics.getTargetDirectory() + " (since " + Instant.ofEpochMilli(metrics.getCollectingSinceMillis()) + ")\n");
+                dumpWriter.write(String.format("  %-24s %10s %12s %10s %10s %10s %10s%n", "metric", "count", "mean", "p50", "p90", "p99", "max"));
+                for (Map.Entry<String, HistogramSnapshot> snapshotEntry : metrics.createSnapshots().entrySet()) {
+                    HistogramSnapshot snapshot = snapshotEntry.getValue();
+                    dumpWriter.write(String.format("  %-24s %10d %12.1f %10d %10d %10d %10d%n", snapshotEntry.getKey(), snapshot.getCount(), snapshot.getMean(), snapshot.getP50(), snapshot.getP90(), snapshot.getP99(), snapshot.getMax()));
+                }
+            }
+        }
+        log.debug("Wrote copy metrics of {} copy definitions into: {}", copyMetrics.size(), dumpFile);
+    }
+
+    private Map<String, HistogramSnapshot> createSnapshots() {
+        Map<String, HistogramSnapshot> snapshots = new LinkedHashMap<>();
+        snapshots.put("eventToCopyLatencyMillis", this.getEventToCopyLatencyMillis());
+        snapshots.put("copyDurationMicros", this.getCopyDurationMicros());
+        snapshots.put("copyBytes", this.getCopyBytes());
+        snapshots.put("queueDepth", this.getQueueDepth());
+        snapshots.put("listenerMicros", this.getListenerMicros());
+        return snapshots;
+    }
+
+    private static HistogramSnapshot createSnapshot(GeneratedWebappHistogram histogram) {
+        return new HistogramSnapshot(histogram.getCountValue(), histogram.getMeanValue(), histogram.getPercentile(0.5), histogram.getPercentile(0.9), histogram.getPercentile(0.99), histogram.getMaximumValue());
+    }
+
+    // -------------------------------------------------------------------------
+    // --- MXBean implementation -----------------------------------------------
+    // -------------------------------------------------------------------------
+
+    @Override
+    public String getSourceDirectory() {
+        return this.getSourceDirectoryPath().toAbsolutePath().normalize().toString();
+    }
+
+    @Override
+    public String getTargetDirectory() {
+        return this.getTargetDirectoryPath().toAbsolutePath().normalize().toString();
+    }
+
+    @Override
+    public HistogramSnapshot getEventToCopyLatencyMillis() {
+        return GeneratedWebappCopyMetrics.createSnapshot(this.getEventToCopyLatency());
+    }
+
+    @Override
+    public HistogramSnapshot getCopyDurationMicros() {
+        return GeneratedWebappCopyMetrics.createSnapshot(this.getCopyDuration());
+    }
+
+    @Override
+    public HistogramSnapshot getCopyBytes() {
+        return GeneratedWebappCopyMetrics.createSnapshot(this.getCopyByteCounts());
+    }
+
+    @Override
+    public HistogramSnapshot getQueueDepth() {
+        return GeneratedWebappCopyMetrics.createSnapshot(this.getQueueDepths());
+    }
+
+    @Override
+    public HistogramSnapshot getListenerMicros() {
+        return GeneratedWebappCopyMetrics.createSnapshot(this.getListenerDuration());
+    }
+
+    @Override
+    public void resetMetrics() {
+        this.getEventToCopyLatency().reset();
+        this.getCopyDuration().reset();
+        this.getCopyByteCounts().reset();
+        this.getQueueDepths().reset();
+        this.getListenerDuration().reset();
+        this.setCollectingSinceMillis(System.currentTimeMillis());
+    }
+
+    @Override
+    public String dumpMetrics() throws IOException {
+        if (this.getDumpFile() == null) {
+            throw new IllegalStateException("No dump file available for copy metrics of source directory: " + this.getSourceDirectory());
+        } else {
+            GeneratedWebappCopyMetrics.dump(this.getDumpFile(), this.getDumpGroup() == null ? Collections.singletonList(this) : new ArrayList<>(this.getDumpGroup()));
+            return this.getDumpFile().toAbsolutePath().toString();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private Path getSourceDirectoryPath() {
+        return this.sourceDirectoryPath;
+    }
+    private void setSourceDirectoryPath(Path sourceDirectoryPath) {
+        this.sourceDirectoryPath = sourceDirectoryPath;
+    }
+
+    private Path getTargetDirectoryPath() {
+        return this.targetDirectoryPath;
+    }
+    private void setTargetDirectoryPath(Path targetDirectoryPath) {
+        this.targetDirectoryPath = targetDirectoryPath;
+    }
+
+    Path getDumpFile() {
+        return this.dumpFile;
+    }
+    private void setDumpFile(Path dumpFile) {
+        this.dumpFile = dumpFile;
+    }
+
+    private List<GeneratedWebappCopyMetrics> getDumpGroup() {
+        return this.dumpGroup;
+    }
+    private void setDumpGroup(List<GeneratedWebappCopyMetrics> dumpGroup) {
+        this.dumpGroup = dumpGroup;
+    }
+
+    ObjectName getObjectName() {
+        return this.objectName;
+    }
+    private void setObjectName(ObjectName objectName) {
+        this.objectName = objectName;
+    }
+
+    private long getCollectingSinceMillis() {
+        return this.collectingSinceMillis;
+    }
+    private void setCollectingSinceMillis(long collectingSinceMillis) {
+        this.collectingSinceMillis = collectingSinceMillis;
+    }
+
+    GeneratedWebappHistogram getEventToCopyLatency() {
+        return this.eventToCopyLatency;
+    }
+
+    GeneratedWebappHistogram getCopyDuration() {
+        return this.copyDuration;
+    }
+
+    GeneratedWebappHistogram getCopyByteCounts() {
+        return this.copyBytes;
+    }
+
+    GeneratedWebappHistogram getQueueDepths() {
+        return this.queueDepth;
+    }
+
+    GeneratedWebappHistogram getListenerDuration() {
+        return this.listenerDuration;
+    }
+
+}
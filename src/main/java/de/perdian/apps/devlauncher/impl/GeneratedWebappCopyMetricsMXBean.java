@@ -0,0 +1,158 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+
+/**
+ * Management interface exposing the metrics of a single copy definition.
+ *
+ * @author Christian Robert
+ */
+
+public interface GeneratedWebappCopyMetricsMXBean {
+
+    String getSourceDirectory();
+
+    String getTargetDirectory();
+
+    /**
+     * @return
+     *      the time (in milliseconds) between receiving the first event for a
+     *      resource and applying the change to the target directory. This
+     *      includes the quiet period, but not the time the file system needs
+     *      to report the change.
+     */
+    HistogramSnapshot getEventToCopyLatencyMillis();
+
+    /**
+     * @return
+     *      the time (in microseconds) needed to copy or link a single resource
+     */
+    HistogramSnapshot getCopyDurationMicros();
+
+    /**
+     * @return
+     *      the size (in bytes) of the copied resources. Linked resources are
+     *      recorded with a size of zero.
+     */
+    HistogramSnapshot getCopyBytes();
+
+    /**
+     * @return
+     *      the number of changes that have been applied as one batch
+     */
+    HistogramSnapshot getQueueDepth();
+
+    /**
+     * @return
+     *      the time (in microseconds) the copy listeners needed to process a
+     *      batch of copied resources
+     */
+    HistogramSnapshot getListenerMicros();
+
+    /**
+     * Clears all collected values
+     */
+    void resetMetrics();
+
+    /**
+     * Writes the metrics of all copy definitions of the generated web
+     * application into the working directory
+     *
+     * @return
+     *      the file into which the metrics have been written
+     */
+    String dumpMetrics() throws IOException;
+
+    /**
+     * Summary of a histogram at the time it has been requested
+     */
+    class HistogramSnapshot {
+
+        private long count = 0;
+        private double mean = 0;
+        private long p50 = 0;
+        private long p90 = 0;
+        private long p99 = 0;
+        private long max = 0;
+
+        @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+        public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+            this.setCount(count);
+            this.setMean(mean);
+            this.setP50(p50);
+            this.setP90(p90);
+            this.setP99(p99);
+            this.setMax(max);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d", this.getCount(), this.getMean(), this.getP50(), this.getP90(), this.getP99(), this.getMax());
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        public long getCount() {
+            return this.count;
+        }
+        private void setCount(long count) {
+            this.count = count;
+        }
+
+        public double getMean() {
+            return this.mean;
+        }
+        private void setMean(double mean) {
+            this.mean = mean;
+        }
+
+        public long getP50() {
+            return this.p50;
+        }
+        private void setP50(long p50) {
+            this.p50 = p50;
+        }
+
+        public long getP90() {
+            return this.p90;
+        }
+        private void setP90(long p90) {
+            this.p90 = p90;
+        }
+
+        public long getP99() {
+            return this.p99;
+        }
+        private void setP99(long p99) {
+            this.p99 = p99;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+        private void setMax(long max) {
+            this.max = max;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Computes and caches fingerprints of file contents, so that a file that has
+ * been rewritten with identical content can be recognized as unchanged.
+ *
+ * The fingerprint combines a CRC32 and an Adler32 checksum into a single 64
+ * bit value. Both are fast non-cryptographic checksums, which is all we need
+ * to detect accidental changes. Fingerprints are cached by path, size and
+ * modification time, so every version of a file is read at most once.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappFingerprintCache {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong suppressedCopies = new AtomicLong();
+
+    /**
+     * Checks whether source and target have the same content
+     */
+    boolean isContentEqual(Path sourcePath, Path targetPath) throws IOException {
+        BasicFileAttributes sourceAttributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+        BasicFileAttributes targetAttributes = Files.readAttributes(targetPath, BasicFileAttributes.class);
+        if (sourceAttributes.size() != targetAttributes.size()) {
+            return false;
+        } else if (this.lookupFingerprint(sourcePath, sourceAttributes) != this.lookupFingerprint(targetPath, targetAttributes)) {
+            return false;
+        } else {
+            this.getSuppressedCopies().incrementAndGet();
+            return true;
+        }
+    }
+
+    private long lookupFingerprint(Path path, BasicFileAttributes attributes) throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        Fingerprint fingerprint = this.getFingerprints().get(path);
+        if (fingerprint != null && fingerprint.getSize() == attributes.size() && fingerprint.getLastModified() == lastModified) {
+            this.getHits().incrementAndGet();
+        } else {
+            this.getMisses().incrementAndGet();
+            fingerprint = new Fingerprint(attributes.size(), lastModified, GeneratedWebappFingerprintCache.computeFingerprint(path));
+            this.getFingerprints().put(path, fingerprint);
+        }
+        return fingerprint.getValue();
+    }
+
+    static long computeFingerprint(Path path) throws IOException {
+        CRC32 crc32 = new CRC32();
+        Adler32 adler32 = new Adler32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (fileChannel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                crc32.update(buffer.duplicate());
+                adler32.update(buffer);
+                buffer.clear();
+            }
+        }
+        return (crc32.getValue() << 32) | adler32.getValue();
+    }
+
+    /**
+     * @return
+     *      the number of fingerprints that could be taken from the cache
+     */
+    long getHitCount() {
+        return this.getHits().get();
+    }
+
+    /**
+     * @return
+     *      the number of fingerprints that had to be computed
+     */
+    long getMissCount() {
+        return this.getMisses().get();
+    }
+
+    /**
+     * @return
+     *      the number of copies that have been suppressed since the content
+     *      was found to be identical
+     */
+    long getSuppressedCopyCount() {
+        return this.getSuppressedCopies().get();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class Fingerprint {
+
+        private long size = 0;
+        private long lastModified = 0;
+        private long value = 0;
+
+        Fingerprint(long size, long lastModified, long value) {
+            this.setSize(size);
+            this.setLastModified(lastModified);
+            this.setValue(value);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        long getSize() {
+            return this.size;
+        }
+        private void setSize(long size) {
+            this.size = size;
+        }
+
+        long getLastModified() {
+            return this.lastModified;
+        }
+        private void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        long getValue() {
+            return this.value;
+        }
+        private void setValue(long value) {
+            this.value = value;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private Map<Path, Fingerprint> getFingerprints() {
+        return this.fingerprints;
+    }
+
+    private AtomicLong getHits() {
+        return this.hits;
+    }
+
+    private AtomicLong getMisses() {
+        return this.misses;
+    }
+
+    private AtomicLong getSuppressedCopies() {
+        return this.suppressedCopies;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non negative values that can be updated concurrently without
+ * any locking.
+ *
+ * Values are counted in buckets that grow exponentially: Every power of two
+ * is split into four buckets, so that the percentiles derived from the
+ * histogram are never off by more than a quarter of the actual value, while
+ * the whole range of {@code long} values fits into 256 counters.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private LongAdder count = new LongAdder();
+    private LongAdder sum = new LongAdder();
+    private LongAccumulator maximum = new LongAccumulator(Math::max, 0);
+
+    void record(long value) {
+        long recordedValue = Math.max(0, value);
+        this.getBuckets().incrementAndGet(GeneratedWebappHistogram.bucketIndex(recordedValue));
+        this.getCount().increment();
+        this.getSum().add(recordedValue);
+        this.getMaximum().accumulate(recordedValue);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.getBuckets().set(i, 0);
+        }
+        this.getCount().reset();
+        this.getSum().reset();
+        this.getMaximum().reset();
+    }
+
+    /**
+     * @return
+     *      the (approximated) value below which the given fraction of all
+     *      recorded values lies
+     */
+    long getPercentile(double fraction) {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long totalCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = this.getBuckets().get(i);
+            totalCount += bucketCounts[i];
+        }
+        long requiredCount = (long)Math.ceil(totalCount * Math.min(1d, Math.max(0d, fraction)));
+        long cumulatedCount = 0;
+        for (int i = 0; i < BUCKET_COUNT && totalCount > 0; i++) {
+            cumulatedCount += bucketCounts[i];
+            if (cumulatedCount >= Math.max(1, requiredCount)) {
+                return Math.min(GeneratedWebappHistogram.bucketUpperBound(i), this.getMaximumValue());
+            }
+        }
+        return 0;
+    }
+
+    long getCountValue() {
+        return this.getCount().sum();
+    }
+
+    long getSumValue() {
+        return this.getSum().sum();
+    }
+
+    long getMaximumValue() {
+        return this.getMaximum().get();
+    }
+
+    double getMeanValue() {
+        long countValue = this.getCountValue();
+        return countValue <= 0 ? 0d : (double)this.getSumValue() / countValue;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        } else {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+            return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+        }
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        } else {
+            int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+            long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+            long lowerBound = (SUB_BUCKET_COUNT | subBucket) << (exponent - SUB_BUCKET_BITS);
+            long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+            return lowerBound + bucketWidth - 1 < lowerBound ? Long.MAX_VALUE : lowerBound + bucketWidth - 1;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private AtomicLongArray getBuckets() {
+        return this.buckets;
+    }
+
+    private LongAdder getCount() {
+        return this.count;
+    }
+
+    private LongAdder getSum() {
+        return this.sum;
+    }
+
+    private LongAccumulator getMaximum() {
+        return this.maximum;
+    }
+
+}
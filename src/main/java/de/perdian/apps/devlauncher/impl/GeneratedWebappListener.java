@@ -19,16 +19,22 @@ package de.perdian.apps.devlauncher.impl;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Lifecycle;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Tomcat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.perdian.apps.devlauncher.DevLauncher;
+
 /**
  * Generates a valid web application within a temporary directory from a set
  * of source directories. This works a little bit like a Maven overlay, by
@@ -38,6 +44,10 @@ import org.slf4j.LoggerFactory;
  * Any changes to files within the source directories will be recognized and
  * the updated files will be copied into the target web application directory.
  *
+ * Alternatively the source directories can be mounted as a virtual overlay,
+ * in which case nothing is copied at all and the context reads all resources
+ * directly from the source directories.
+ *
  * @author Christian Robert
  */
 
@@ -47,6 +57,17 @@ public class GeneratedWebappListener extends WebappListener {
 
     private Path targetDirectory = null;
     private List<GeneratedWebappCopyDefinition> copyDefinitions = new CopyOnWriteArrayList<>();
+    private List<GeneratedWebappCopyHandler> copyHandlers = new CopyOnWriteArrayList<>();
+    private long quietPeriod = 0;
+    private boolean syncManifest = false;
+    private boolean trustDirectoryTimestamps = false;
+    private int synchronizationParallelism = 1;
+    private boolean contentFingerprints = false;
+    private GeneratedWebappFingerprintCache fingerprintCache = null;
+    private boolean virtualOverlay = false;
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+    private GeneratedWebappOrphanSweep orphanSweep = GeneratedWebappOrphanSweep.DISABLED;
+    private List<String> orphanSweepProtectedPatterns = new ArrayList<>();
 
     public GeneratedWebappListener(String contextName) {
         super(contextName);
@@ -64,34 +85,144 @@ public class GeneratedWebappListener extends WebappListener {
                 throw new RuntimeException("Cannot create target directory at: " + this.getTargetDirectory().getParent());
             }
         }
+        if (this.isVirtualOverlay() && !Files.exists(this.getTargetDirectory())) {
+            Files.createDirectories(this.getTargetDirectory());
+        }
         return this.getTargetDirectory();
     }
 
     @Override
-    protected Context createWebappContext(Tomcat tomcat, Path webappDirectory) {
+    protected List<Path> resolveLibraryJars(Path webappDirectory) throws IOException {
+        if (this.isVirtualOverlay() && this.getOverlayIndex() != null) {
+            List<Path> libraryJars = new ArrayList<>();
+            for (String childName : this.getOverlayIndex().listChildNames("WEB-INF/lib")) {
+                Path libraryJar = this.getOverlayIndex().resolve("WEB-INF/lib/" + childName);
+                if (childName.endsWith(".jar") && libraryJar != null && Files.isRegularFile(libraryJar)) {
+                    libraryJars.add(libraryJar);
+                }
+            }
+            return libraryJars;
+        } else {
+            return super.resolveLibraryJars(webappDirectory);
+        }
+    }
+
+    /**
+     * Synchronizes the source directories into the target directory, so that
+     * the initial copy process runs concurrently with the preparation of
+     * other listeners instead of blocking the customization of the Tomcat
+     */
+    @Override
+    public void prepareServer(DevLauncher devLauncher) throws IOException {
+        this.resolveWebappDirectory();
+        this.initializeCopyDefinitions(devLauncher);
+    }
+
+    @Override
+    public void customizeServer(Tomcat tomcat, DevLauncher devLauncher) throws IOException {
 
         // Make sure the target content has been added to the target directory
-        this.initializeCopyDefinitions(tomcat);
+        // (which usually already happened while preparing the server)
+        if (this.getOverlayIndex() == null) {
+            this.initializeCopyDefinitions(devLauncher);
+        }
+        if (!this.getCopyHandlers().isEmpty()) {
+            this.registerCopyHandlerShutdown(tomcat, devLauncher);
+        }
 
         // Continue with the registration
-        return super.createWebappContext(tomcat, webappDirectory);
+        super.customizeServer(tomcat, devLauncher);
+
+    }
+
+    @Override
+    protected Context createWebappContext(Tomcat tomcat, Path webappDirectory) {
+
+        Context webappContext = super.createWebappContext(tomcat, webappDirectory);
+
+        // Tomcat refuses to serve files that are symbolic links by default,
+        // so it needs to be told explicitly to follow the created links
+        boolean symbolicLinksCreated = this.getCopyDefinitions().stream().anyMatch(copyDefinition -> GeneratedWebappMaterialization.SYMLINK.equals(copyDefinition.getMaterialization()));
+        if (symbolicLinksCreated && webappContext instanceof StandardContext) {
+            ((StandardContext)webappContext).setAllowLinking(true);
+        }
+
+        if (this.isVirtualOverlay() && this.getOverlayIndex() != null) {
+
+            // Resources are read directly from the source directories, so
+            // there is no need for Tomcat to cache them and delay changes
+            if (webappContext instanceof StandardContext) {
+                ((StandardContext)webappContext).setCachingAllowed(false);
+            }
+            webappContext.setResources(new GeneratedWebappOverlayDirContext(this.getOverlayIndex()));
+
+        }
+        return webappContext;
 
     }
 
     /**
      * Make sure the source directories and the target directories are in sync
      *
-     * @param tomcat
-     *     the tomcat instance in which the server will be started
+     * @param devLauncher
+     *     the launcher instance in which the listener is executed
      */
-    protected void initializeCopyDefinitions(Tomcat tomcat) {
+    protected void initializeCopyDefinitions(DevLauncher devLauncher) {
         if (!this.getCopyDefinitions().isEmpty()) {
             try {
+
                 log.info("Synchronizing {} copy definitions", this.getCopyDefinitions().size());
+                this.setFingerprintCache(this.isContentFingerprints() ? new GeneratedWebappFingerprintCache() : null);
+                List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>(this.getCopyDefinitions().size());
                 for (GeneratedWebappCopyDefinition copyDefinition : this.getCopyDefinitions()) {
-                    this.initializeCopyDefinition(copyDefinition, tomcat);
+                    copyHandlers.add(this.createCopyHandler(copyDefinition, devLauncher));
+                }
+                this.setOverlayIndex(new GeneratedWebappOverlayIndex(copyHandlers, this.getTargetDirectory()));
+                Path metricsFile = GeneratedWebappCopyMetrics.resolveDumpFile(devLauncher.getWorkingDirectory(), this.getTargetDirectory());
+                List<GeneratedWebappCopyMetrics> copyMetrics = copyHandlers.stream().map(GeneratedWebappCopyHandler::getMetrics).collect(Collectors.toList());
+                for (GeneratedWebappCopyMetrics metrics : copyMetrics) {
+                    metrics.register(metricsFile, copyMetrics);
                 }
-                log.info("Completed synchronizing {} copy definitions", this.getCopyDefinitions().size());
+                for (int i = 0; i < copyHandlers.size(); i++) {
+                    copyHandlers.get(i).attachOverlay(this.getOverlayIndex(), i, this.getTargetDirectory(), this.isVirtualOverlay());
+                    if (this.isVirtualOverlay() && this.getCopyDefinitions().get(i).getCopyListeners() != null && !this.getCopyDefinitions().get(i).getCopyListeners().isEmpty()) {
+                        log.warn("Copy listeners of source directory {} will not be notified in virtual overlay mode", copyHandlers.get(i).getSourceDirectory());
+                    }
+                }
+
+                // First make sure the initial copy process is complete and
+                // then add a change listener so that whenever a file will
+                // change in the future we'll get notified and can react
+                // accordingly
+                new GeneratedWebappSynchronizer(this.getSynchronizationParallelism()).synchronize(copyHandlers);
+                if (this.getOrphanSweep() != GeneratedWebappOrphanSweep.DISABLED) {
+                    this.sweepOrphans();
+                }
+                for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+                    copyHandler.startWatching();
+                    this.getCopyHandlers().add(copyHandler);
+                }
+
+                String watchSummary = copyHandlers.stream().map(GeneratedWebappCopyHandler::getWatchEngine).distinct().map(GeneratedWebappChangeDetector::getSummary).collect(Collectors.joining(", "));
+                log.info("Completed synchronizing {} copy definitions ({})", this.getCopyDefinitions().size(), watchSummary);
+                int watchedDirectories = copyHandlers.stream().mapToInt(GeneratedWebappCopyHandler::getWatchedDirectoryCount).sum();
+                int prunedDirectories = copyHandlers.stream().mapToInt(GeneratedWebappCopyHandler::getPrunedDirectoryCount).sum();
+                if (prunedDirectories > 0) {
+                    log.info("Watching {} source directories ({} directories pruned by include and exclude rules)", watchedDirectories, prunedDirectories);
+                }
+                if (this.isVirtualOverlay()) {
+                    log.info("Mounted {} copy definitions as virtual overlay", copyHandlers.size());
+                }
+                log.info("Overlay index contains {} paths ({} directories) from {} copy definitions using approximately {} KB", this.getOverlayIndex().size(), this.getOverlayIndex().getDirectoryCount(), copyHandlers.size(), this.getOverlayIndex().estimateMemoryUsage() / 1024);
+                if (this.isSyncManifest() && !this.isVirtualOverlay()) {
+                    long checkedEntries = copyHandlers.stream().mapToLong(handler -> handler.getSyncManifest().getCheckedEntryCount()).sum();
+                    long skippedEntries = copyHandlers.stream().mapToLong(handler -> handler.getSyncManifest().getSkippedEntryCount()).sum();
+                    log.info("Checked {} resources against synchronization manifest ({} skipped as unchanged)", checkedEntries, skippedEntries);
+                }
+                if (this.getFingerprintCache() != null) {
+                    log.info("Content fingerprints suppressed {} copies of unchanged resources ({} cache hits, {} cache misses)", this.getFingerprintCache().getSuppressedCopyCount(), this.getFingerprintCache().getHitCount(), this.getFingerprintCache().getMissCount());
+                }
+
             } catch (IOException e) {
                 throw new RuntimeException("Cannot copy resources into target directory: " + this.getTargetDirectory(), e);
             }
@@ -99,34 +230,76 @@ public class GeneratedWebappListener extends WebappListener {
     }
 
     /**
-     * Make sure the source directories and the target directories are in sync
+     * Make sure the synchronization stops once the tomcat is stopped as well
      *
-     * @param copyDefinition
-     *      the definition to initialize
      * @param tomcat
-     *      the tomcat instance to be configured
-     * @throws IOException
-     *      thrown if the definition cannot initialized correctly
+     *     the tomcat instance in which the server will be started
+     * @param devLauncher
+     *     the launcher instance in which the listener is executed
      */
-    protected void initializeCopyDefinition(GeneratedWebappCopyDefinition copyDefinition, Tomcat tomcat) throws IOException {
-
-        // Now add a change listener so that whenever a file will change in the
-        // future we'll get notified and can react accordingly
-        Path targetDirectoryPath = copyDefinition.getTargetDirectoryName() == null ? this.getTargetDirectory() : this.getTargetDirectory().resolve(copyDefinition.getTargetDirectoryName());
-        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, targetDirectoryPath);
-
-        // Make sure the synchronization stops once the tomcat is stopped as
-        // well
+    private void registerCopyHandlerShutdown(Tomcat tomcat, DevLauncher devLauncher) {
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>(this.getCopyHandlers());
+        Path metricsFile = GeneratedWebappCopyMetrics.resolveDumpFile(devLauncher.getWorkingDirectory(), this.getTargetDirectory());
+        List<GeneratedWebappCopyMetrics> copyMetrics = copyHandlers.stream().map(GeneratedWebappCopyHandler::getMetrics).collect(Collectors.toList());
         tomcat.getServer().addLifecycleListener(event -> {
             if (Lifecycle.STOP_EVENT.equals(event.getType())) {
                 try {
-                    copyHandler.close();
+                    GeneratedWebappCopyMetrics.dump(metricsFile, copyMetrics);
                 } catch (Exception e) {
-                    log.warn("Error occured while closing WatchService", e);
+                    log.debug("Cannot write copy metrics into: {}", metricsFile, e);
+                }
+                for (GeneratedWebappCopyMetrics metrics : copyMetrics) {
+                    metrics.unregister();
+                }
+                for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+                    try {
+                        this.getCopyHandlers().remove(copyHandler);
+                        copyHandler.close();
+                    } catch (Exception e) {
+                        log.warn("Error occured while closing WatchService", e);
+                    }
                 }
             }
         });
+    }
 
+    /**
+     * Removes all the resources from the target directory that are no longer
+     * provided by any copy definition, for example since they have been
+     * deleted from a source directory while the launcher wasn't running
+     */
+    private void sweepOrphans() throws IOException {
+        boolean dryRun = this.getOrphanSweep() == GeneratedWebappOrphanSweep.DRY_RUN;
+        GeneratedWebappOrphanSweeper orphanSweeper = new GeneratedWebappOrphanSweeper(this.getOverlayIndex(), this.getTargetDirectory(), this.getOrphanSweepProtectedPatterns(), dryRun, this.getSynchronizationParallelism());
+        GeneratedWebappOrphanSweeper.Report report = orphanSweeper.sweep();
+        long orphanedPathCount = report.getOrphanedPathCount().get();
+        if (orphanedPathCount <= 0) {
+            log.debug("No orphaned resources found in target directory {} ({} ms)", this.getTargetDirectory(), report.getDurationMillis());
+        } else {
+            log.info("{} {} orphaned files and {} orphaned directories ({} KB) from target directory {} in {} ms", dryRun ? "Dry run would remove" : "Removed", report.getOrphanedFiles().get(), report.getOrphanedDirectories().get(), report.getOrphanedBytes().get() / 1024, this.getTargetDirectory(), report.getDurationMillis());
+            for (String orphanedPath : report.getOrphanedPaths()) {
+                if (dryRun) {
+                    log.info("Orphaned resource: {}", orphanedPath);
+                } else {
+                    log.debug("Removed orphaned resource: {}", orphanedPath);
+                }
+            }
+            if (orphanedPathCount > report.getOrphanedPaths().size()) {
+                log.info("{} further orphaned resources not listed", orphanedPathCount - report.getOrphanedPaths().size());
+            }
+        }
+    }
+
+    GeneratedWebappCopyHandler createCopyHandler(GeneratedWebappCopyDefinition copyDefinition, DevLauncher devLauncher) {
+        Path targetDirectoryPath = copyDefinition.getTargetDirectoryName() == null ? this.getTargetDirectory() : this.getTargetDirectory().resolve(copyDefinition.getTargetDirectoryName());
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, targetDirectoryPath);
+        copyHandler.setQuietPeriod(this.getQuietPeriod());
+        copyHandler.setTrustDirectoryTimestamps(this.isTrustDirectoryTimestamps());
+        copyHandler.setFingerprintCache(this.getFingerprintCache());
+        if (this.isSyncManifest() && !this.isVirtualOverlay()) {
+            copyHandler.setSyncManifest(GeneratedWebappSyncManifest.load(GeneratedWebappSyncManifest.resolveManifestFile(devLauncher.getWorkingDirectory(), copyDefinition.getSourceDirectory(), targetDirectoryPath), GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinition)));
+        }
+        return copyHandler;
     }
 
     // -------------------------------------------------------------------------
@@ -155,9 +328,12 @@ public class GeneratedWebappListener extends WebappListener {
         copyDefinition.setTargetDirectoryName(targetDirectoryName);
         copyDefinition.setFileFilter(fileFilter);
         copyDefinition.setCopyListeners(copyListener);
+        return this.addCopyDefinition(copyDefinition);
+    }
+
+    public GeneratedWebappListener addCopyDefinition(GeneratedWebappCopyDefinition copyDefinition) {
         this.getCopyDefinitions().add(copyDefinition);
         return this;
-
     }
 
     // -------------------------------------------------------------------------
@@ -171,6 +347,182 @@ public class GeneratedWebappListener extends WebappListener {
         this.copyDefinitions = copyDefinitions;
     }
 
+    List<GeneratedWebappCopyHandler> getCopyHandlers() {
+        return this.copyHandlers;
+    }
+
+    public GeneratedWebappListener quietPeriod(long quietPeriod) {
+        this.setQuietPeriod(quietPeriod);
+        return this;
+    }
+    /**
+     * @return
+     *      the time (in milliseconds) that has to pass without any further
+     *      change within a source directory before the collected changes are
+     *      applied to the target directory. A value of zero or less (which
+     *      is the default) applies every change directly.
+     */
+    public long getQuietPeriod() {
+        return this.quietPeriod;
+    }
+    public void setQuietPeriod(long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    public GeneratedWebappListener syncManifest() {
+        this.setSyncManifest(true);
+        return this;
+    }
+    /**
+     * @return
+     *      whether or not a manifest of the synchronized resources will be
+     *      stored within the working directory of the launcher (in
+     *      {@code generated/manifests/}), so that a restart only has to look
+     *      at the resources that have actually changed since the last launch
+     */
+    public boolean isSyncManifest() {
+        return this.syncManifest;
+    }
+    public void setSyncManifest(boolean syncManifest) {
+        this.syncManifest = syncManifest;
+    }
+
+    public GeneratedWebappListener trustDirectoryTimestamps() {
+        this.setTrustDirectoryTimestamps(true);
+        return this;
+    }
+    /**
+     * @return
+     *      whether or not the files within a source directory whose
+     *      modification time hasn't changed since the last launch will be
+     *      skipped without looking at them at all. This requires the
+     *      synchronization manifest to be enabled. Since a file that is
+     *      modified in place doesn't change the modification time of its
+     *      directory, this should only be enabled if the tools writing into
+     *      the source directories always replace files instead of
+     *      rewriting them.
+     */
+    public boolean isTrustDirectoryTimestamps() {
+        return this.trustDirectoryTimestamps;
+    }
+    public void setTrustDirectoryTimestamps(boolean trustDirectoryTimestamps) {
+        this.trustDirectoryTimestamps = trustDirectoryTimestamps;
+    }
+
+    public GeneratedWebappListener synchronizationParallelism(int synchronizationParallelism) {
+        this.setSynchronizationParallelism(synchronizationParallelism);
+        return this;
+    }
+    /**
+     * @return
+     *      the number of threads used to scan the source directories and copy
+     *      the resources during the initial synchronization. Independent of
+     *      this value, whenever multiple copy definitions provide the same
+     *      resource the definition added last wins.
+     */
+    public int getSynchronizationParallelism() {
+        return this.synchronizationParallelism;
+    }
+    public void setSynchronizationParallelism(int synchronizationParallelism) {
+        this.synchronizationParallelism = synchronizationParallelism;
+    }
+
+    public GeneratedWebappListener contentFingerprints() {
+        this.setContentFingerprints(true);
+        return this;
+    }
+    /**
+     * @return
+     *      whether or not the content of a resource that looks modified is
+     *      compared with the current target using a content fingerprint, so
+     *      that resources rewritten with identical content are neither copied
+     *      nor announced to the copy listeners
+     */
+    public boolean isContentFingerprints() {
+        return this.contentFingerprints;
+    }
+    public void setContentFingerprints(boolean contentFingerprints) {
+        this.contentFingerprints = contentFingerprints;
+    }
+
+    /**
+     * @return
+     *      the cache of content fingerprints used by all copy definitions of
+     *      this listener or {@code null} if content fingerprints are disabled
+     */
+    GeneratedWebappFingerprintCache getFingerprintCache() {
+        return this.fingerprintCache;
+    }
+    private void setFingerprintCache(GeneratedWebappFingerprintCache fingerprintCache) {
+        this.fingerprintCache = fingerprintCache;
+    }
+
+    public GeneratedWebappListener virtualOverlay() {
+        this.setVirtualOverlay(true);
+        return this;
+    }
+    /**
+     * @return
+     *      whether or not the source directories are mounted as a virtual
+     *      overlay into the web application context instead of being copied
+     *      into the target directory. Changes become visible immediately and
+     *      no initial copy is required, but resources can only be read using
+     *      the servlet context and not from the target directory.
+     */
+    public boolean isVirtualOverlay() {
+        return this.virtualOverlay;
+    }
+    public void setVirtualOverlay(boolean virtualOverlay) {
+        this.virtualOverlay = virtualOverlay;
+    }
+
+    /**
+     * @return
+     *      the index of the resources provided by the copy definitions
+     */
+    GeneratedWebappOverlayIndex getOverlayIndex() {
+        return this.overlayIndex;
+    }
+    private void setOverlayIndex(GeneratedWebappOverlayIndex overlayIndex) {
+        this.overlayIndex = overlayIndex;
+    }
+
+    public GeneratedWebappListener orphanSweep(GeneratedWebappOrphanSweep orphanSweep) {
+        this.setOrphanSweep(orphanSweep);
+        return this;
+    }
+    /**
+     * @return
+     *      how resources within the target directory that aren't provided by
+     *      any copy definition are handled during startup. Resources that
+     *      are created by copy listeners (or anything else besides the copy
+     *      definitions) need to be protected using
+     *      {@link #getOrphanSweepProtectedPatterns()} before orphans are
+     *      removed.
+     */
+    public GeneratedWebappOrphanSweep getOrphanSweep() {
+        return this.orphanSweep;
+    }
+    public void setOrphanSweep(GeneratedWebappOrphanSweep orphanSweep) {
+        this.orphanSweep = orphanSweep;
+    }
+
+    public GeneratedWebappListener protectFromOrphanSweep(String... patterns) {
+        this.getOrphanSweepProtectedPatterns().addAll(Arrays.asList(patterns));
+        return this;
+    }
+    /**
+     * @return
+     *      glob patterns (relative to the target directory) of the resources
+     *      that are never removed by the orphan sweep
+     */
+    public List<String> getOrphanSweepProtectedPatterns() {
+        return this.orphanSweepProtectedPatterns;
+    }
+    public void setOrphanSweepProtectedPatterns(List<String> orphanSweepProtectedPatterns) {
+        this.orphanSweepProtectedPatterns = orphanSweepProtectedPatterns;
+    }
+
     public GeneratedWebappListener targetDirectory(Path targetDirectory) {
         this.setTargetDirectory(targetDirectory);
         return this;
@@ -0,0 +1,49 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+/**
+ * Defines how a resource from a source directory is made available within the
+ * target directory of a generated web application.
+ *
+ * Whenever a link cannot be created (for example because source and target are
+ * located on different file systems) the resource will be copied instead.
+ *
+ * @author Christian Robert
+ */
+
+public enum GeneratedWebappMaterialization {
+
+    /**
+     * The content of the resource is copied into the target directory
+     */
+    COPY,
+
+    /**
+     * A hard link to the source file is created within the target directory.
+     * Source and target share the same content, so any listener writing into
+     * the target file will modify the source file as well!
+     */
+    HARDLINK,
+
+    /**
+     * A symbolic link pointing to the source file is created within the
+     * target directory
+     */
+    SYMLINK
+
+}
@@ -0,0 +1,44 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+/**
+ * Defines how resources within the target directory of a generated web
+ * application that are no longer provided by any copy definition are handled
+ * during startup
+ *
+ * @author Christian Robert
+ */
+
+public enum GeneratedWebappOrphanSweep {
+
+    /**
+     * The target directory is not checked for orphaned resources
+     */
+    DISABLED,
+
+    /**
+     * Orphaned resources are reported but not removed
+     */
+    DRY_RUN,
+
+    /**
+     * Orphaned resources are removed from the target directory
+     */
+    DELETE
+
+}
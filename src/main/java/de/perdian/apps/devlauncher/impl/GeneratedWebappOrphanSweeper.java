@@ -0,0 +1,353 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes all the resources from the target directory of a generated web
+ * application that are not provided by any of its copy definitions, which
+ * happens whenever a source file is deleted while the launcher isn't running.
+ *
+ * Every directory of the target directory is checked by a separate task, so
+ * that large trees are distributed across the pool, and orphaned directories
+ * are removed as a whole without descending into them any further, unless
+ * they might contain protected resources.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappOrphanSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappOrphanSweeper.class);
+
+    static final int REPORTED_PATHS_LIMIT = 100;
+
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+    private Path targetDirectory = null;
+    private GeneratedWebappPathRules protectedRules = null;
+    private boolean dryRun = false;
+    private int parallelism = 1;
+
+    /**
+     * Creates a new sweeper
+     *
+     * @param overlayIndex
+     *      the index knowing all resources provided by the copy definitions
+     * @param targetDirectory
+     *      the directory to be swept
+     * @param protectedPatterns
+     *      glob patterns of resources within the target directory that are
+     *      never removed, even if they are not provided by a copy definition
+     * @param dryRun
+     *      {@code true} if orphaned resources are only to be reported
+     * @param parallelism
+     *      the number of threads used for the sweep
+     */
+    GeneratedWebappOrphanSweeper(GeneratedWebappOverlayIndex overlayIndex, Path targetDirectory, List<String> protectedPatterns, boolean dryRun, int parallelism) {
+        this.setOverlayIndex(overlayIndex);
+        this.setTargetDirectory(targetDirectory);
+        this.setProtectedRules(GeneratedWebappPathRules.compile(protectedPatterns, null));
+        this.setDryRun(dryRun);
+        this.setParallelism(Math.max(1, parallelism));
+    }
+
+    /**
+     * Sweeps the target directory
+     *
+     * @return
+     *      the report about the orphaned resources that have been found
+     */
+    Report sweep() throws IOException {
+        long startMillis = System.currentTimeMillis();
+        Report report = new Report(this.isDryRun());
+        if (Files.isDirectory(this.getTargetDirectory(), LinkOption.NOFOLLOW_LINKS)) {
+            ForkJoinPool forkJoinPool = new ForkJoinPool(this.getParallelism());
+            try {
+                forkJoinPool.invoke(new SweepTask(this.getTargetDirectory(), "", report));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+        report.setDurationMillis(System.currentTimeMillis() - startMillis);
+        return report;
+    }
+
+    /**
+     * Removes an orphaned file or directory including all of its content and
+     * adds it to the report. In a dry run the content is only counted.
+     */
+    private static void sweepOrphan(Path path, boolean dryRun, Report report) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                report.getOrphanedFiles().incrementAndGet();
+                report.getOrphanedBytes().addAndGet(attributes.size());
+                if (!dryRun) {
+                    Files.deleteIfExists(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                report.getOrphanedDirectories().incrementAndGet();
+                if (!dryRun) {
+                    Files.deleteIfExists(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * Sweeps a single directory and forks a separate task for every child
+     * directory that is still provided by a copy definition
+     */
+    class SweepTask extends RecursiveAction {
+
+        static final long serialVersionUID = 1L;
+
+        private Path directory = null;
+        private String relativePath = null;
+        private Report report = null;
+
+        SweepTask(Path directory, String relativePath, Report report) {
+            this.setDirectory(directory);
+            this.setRelativePath(relativePath);
+            this.setReport(report);
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<SweepTask> childTasks = new ArrayList<>();
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(this.getDirectory())) {
+                    for (Path child : children) {
+                        String childRelativePath = GeneratedWebappSyncManifest.resolveRelativePath(this.getRelativePath(), child.getFileName().toString());
+                        boolean childDirectory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                        GeneratedWebappPathRules protectedRules = GeneratedWebappOrphanSweeper.this.getProtectedRules();
+                        GeneratedWebappOverlayIndex overlayIndex = GeneratedWebappOrphanSweeper.this.getOverlayIndex();
+                        if (protectedRules != null && protectedRules.isFileIncluded(childRelativePath)) {
+                            log.trace("Skipping protected resource: {}", child);
+                        } else if (overlayIndex.resolveLayer(childRelativePath) >= 0 && childDirectory == overlayIndex.isDirectory(childRelativePath)) {
+                            if (childDirectory) {
+                                childTasks.add(new SweepTask(child, childRelativePath, this.getReport()));
+                            }
+                        } else if (childDirectory && protectedRules != null && protectedRules.isDirectoryIncluded(childRelativePath)) {
+
+                            // The directory itself is orphaned but might
+                            // contain protected resources, so we cannot
+                            // remove it as a whole
+                            childTasks.add(new SweepTask(child, childRelativePath, this.getReport()));
+
+                        } else {
+                            this.getReport().addOrphanedPath(childRelativePath);
+                            GeneratedWebappOrphanSweeper.sweepOrphan(child, GeneratedWebappOrphanSweeper.this.isDryRun(), this.getReport());
+                        }
+                    }
+                }
+                ForkJoinTask.invokeAll(childTasks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        Path getDirectory() {
+            return this.directory;
+        }
+        private void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        String getRelativePath() {
+            return this.relativePath;
+        }
+        private void setRelativePath(String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        Report getReport() {
+            return this.report;
+        }
+        private void setReport(Report report) {
+            this.report = report;
+        }
+
+    }
+
+    /**
+     * Summary of the orphaned resources found within the target directory
+     */
+    static class Report {
+
+        private boolean dryRun = false;
+        private AtomicLong orphanedFiles = new AtomicLong();
+        private AtomicLong orphanedDirectories = new AtomicLong();
+        private AtomicLong orphanedBytes = new AtomicLong();
+        private AtomicLong orphanedPathCount = new AtomicLong();
+        private List<String> orphanedPaths = Collections.synchronizedList(new ArrayList<>());
+        private long durationMillis = 0;
+
+        Report(boolean dryRun) {
+            this.setDryRun(dryRun);
+        }
+
+        void addOrphanedPath(String relativePath) {
+            if (this.getOrphanedPathCount().incrementAndGet() <= REPORTED_PATHS_LIMIT) {
+                this.getOrphanedPaths().add(relativePath);
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        boolean isDryRun() {
+            return this.dryRun;
+        }
+        private void setDryRun(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        /**
+         * @return
+         *      the number of files that have been (or in a dry run would
+         *      have been) removed
+         */
+        AtomicLong getOrphanedFiles() {
+            return this.orphanedFiles;
+        }
+
+        /**
+         * @return
+         *      the number of directories that have been (or in a dry run
+         *      would have been) removed
+         */
+        AtomicLong getOrphanedDirectories() {
+            return this.orphanedDirectories;
+        }
+
+        /**
+         * @return
+         *      the size of all the orphaned files
+         */
+        AtomicLong getOrphanedBytes() {
+            return this.orphanedBytes;
+        }
+
+        /**
+         * @return
+         *      the number of topmost orphaned paths, not counting the content
+         *      of orphaned directories
+         */
+        AtomicLong getOrphanedPathCount() {
+            return this.orphanedPathCount;
+        }
+
+        /**
+         * @return
+         *      the first of the topmost orphaned paths, limited to
+         *      {@link GeneratedWebappOrphanSweeper#REPORTED_PATHS_LIMIT}
+         *      entries
+         */
+        List<String> getOrphanedPaths() {
+            return this.orphanedPaths;
+        }
+
+        long getDurationMillis() {
+            return this.durationMillis;
+        }
+        private void setDurationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    GeneratedWebappOverlayIndex getOverlayIndex() {
+        return this.overlayIndex;
+    }
+    private void setOverlayIndex(GeneratedWebappOverlayIndex overlayIndex) {
+        this.overlayIndex = overlayIndex;
+    }
+
+    Path getTargetDirectory() {
+        return this.targetDirectory;
+    }
+    private void setTargetDirectory(Path targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    GeneratedWebappPathRules getProtectedRules() {
+        return this.protectedRules;
+    }
+    private void setProtectedRules(GeneratedWebappPathRules protectedRules) {
+        this.protectedRules = protectedRules;
+    }
+
+    boolean isDryRun() {
+        return this.dryRun;
+    }
+    private void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    int getParallelism() {
+        return this.parallelism;
+    }
+    private void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.apache.naming.NamingEntry;
+import org.apache.naming.resources.FileDirContext;
+
+/**
+ * Resource context that serves the resources of a generated web application
+ * directly from the source directories of its copy definitions instead of
+ * from a target directory into which they have been copied.
+ *
+ * Works like the {@code VirtualDirContext} provided by Tomcat, but instead of
+ * probing a list of directories for every lookup all names are resolved using
+ * the {@link GeneratedWebappOverlayIndex}, which already knows which layer
+ * wins for which path. Anything not contained in the index is looked up
+ * within the document base.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappOverlayDirContext extends FileDirContext {
+
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+    private String overlayPath = null;
+
+    GeneratedWebappOverlayDirContext(GeneratedWebappOverlayIndex overlayIndex) {
+        this.setOverlayIndex(overlayIndex);
+        this.setOverlayPath("");
+    }
+
+    private GeneratedWebappOverlayDirContext(Hashtable<String, Object> env, GeneratedWebappOverlayIndex overlayIndex, String overlayPath) {
+        super(env);
+        this.setOverlayIndex(overlayIndex);
+        this.setOverlayPath(overlayPath);
+    }
+
+    @Override
+    protected File file(String name) {
+        String overlayName = this.resolveOverlayName(name);
+        Path sourcePath = overlayName == null || overlayName.isEmpty() ? null : this.getOverlayIndex().resolve(overlayName);
+        return sourcePath == null ? super.file(name) : sourcePath.toFile();
+    }
+
+    @Override
+    protected Object doLookup(String name) {
+        String overlayName = this.resolveOverlayName(name);
+        if (overlayName != null && this.getOverlayIndex().isDirectory(overlayName)) {
+            File directory = this.file(name);
+            if (directory != null && directory.isDirectory()) {
+                GeneratedWebappOverlayDirContext directoryContext = new GeneratedWebappOverlayDirContext(this.env, this.getOverlayIndex(), overlayName);
+                directoryContext.setDocBase(directory.getPath());
+                directoryContext.setAllowLinking(this.getAllowLinking());
+                return directoryContext;
+            }
+        }
+        return super.doLookup(name);
+    }
+
+    @Override
+    protected List<NamingEntry> doListBindings(String name) throws NamingException {
+        String overlayName = this.resolveOverlayName(name);
+        if (overlayName == null || !this.getOverlayIndex().isDirectory(overlayName)) {
+            return super.doListBindings(name);
+        } else {
+            String directoryName = name.endsWith("/") ? name : name + "/";
+            List<NamingEntry> namingEntries = new ArrayList<>();
+            for (String childName : this.getOverlayIndex().listChildNames(overlayName)) {
+                Object childObject = this.doLookup(directoryName + childName);
+                if (childObject != null) {
+                    namingEntries.add(new NamingEntry(childName, childObject, NamingEntry.ENTRY));
+                }
+            }
+            return namingEntries;
+        }
+    }
+
+    @Override
+    protected String doGetRealPath(String path) {
+        String overlayName = this.resolveOverlayName(path);
+        Path sourcePath = overlayName == null || overlayName.isEmpty() ? null : this.getOverlayIndex().resolve(overlayName);
+        return sourcePath == null ? super.doGetRealPath(path) : sourcePath.toAbsolutePath().toString();
+    }
+
+    /**
+     * Translates a name relative to this context into a path within the
+     * overlay index
+     *
+     * @return
+     *      the path within the index or {@code null} if the name is invalid
+     */
+    private String resolveOverlayName(String name) {
+        String normalizedName = this.normalize(name);
+        if (normalizedName == null) {
+            return null;
+        } else {
+            int beginIndex = 0;
+            int endIndex = normalizedName.length();
+            while (beginIndex < endIndex && normalizedName.charAt(beginIndex) == '/') {
+                beginIndex++;
+            }
+            while (endIndex > beginIndex && normalizedName.charAt(endIndex - 1) == '/') {
+                endIndex--;
+            }
+            String relativeName = normalizedName.substring(beginIndex, endIndex);
+            return this.getOverlayPath().isEmpty() ? relativeName : relativeName.isEmpty() ? this.getOverlayPath() : this.getOverlayPath() + "/" + relativeName;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    GeneratedWebappOverlayIndex getOverlayIndex() {
+        return this.overlayIndex;
+    }
+    private void setOverlayIndex(GeneratedWebappOverlayIndex overlayIndex) {
+        this.overlayIndex = overlayIndex;
+    }
+
+    String getOverlayPath() {
+        return this.overlayPath;
+    }
+    private void setOverlayPath(String overlayPath) {
+        this.overlayPath = overlayPath;
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory index of all the resources that the copy definitions of a
+ * generated web application provide. Every copy definition forms a layer, and
+ * whenever multiple layers provide a resource for the same path the layer of
+ * the later copy definition wins, just as if the resources had been copied
+ * into the target directory one definition after the other. If the resource
+ * disappears from the winning layer, the next layer providing it takes over.
+ *
+ * All paths within the index are relative to the target directory and use
+ * {@code /} as separator, the empty path denoting the target directory
+ * itself. For every path only a bit mask of the layers providing it is
+ * stored, so the winning layer can be determined in constant time and the
+ * source file is derived from the source directory of that layer. The masks
+ * of the first 64 layers are stored as {@code long} values, only paths that
+ * are provided by any further layer need an additional {@link BitSet}.
+ * Lookups don't require any locking, modifications are serialized.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappOverlayIndex {
+
+    static final int MASK_LAYERS = Long.SIZE;
+
+    private List<GeneratedWebappCopyHandler> copyHandlers = null;
+    private List<String> layerPaths = null;
+    private Map<String, Long> entries = new ConcurrentHashMap<>();
+    private Map<String, BitSet> extendedEntries = new ConcurrentHashMap<>();
+    private Map<String, Set<String>> directoryChildren = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new index
+     *
+     * @param copyHandlers
+     *      the handlers providing the layers, the last one having the highest
+     *      priority
+     * @param overlayDirectory
+     *      the directory to which all paths within the index are relative
+     */
+    GeneratedWebappOverlayIndex(List<GeneratedWebappCopyHandler> copyHandlers, Path overlayDirectory) {
+        List<String> layerPaths = new ArrayList<>(copyHandlers.size());
+        for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+            layerPaths.add(GeneratedWebappOverlayIndex.toRelativePath(overlayDirectory, copyHandler.getTargetDirectory()));
+        }
+        this.setCopyHandlers(new ArrayList<>(copyHandlers));
+        this.setLayerPaths(layerPaths);
+        this.getDirectoryChildren().put("", ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Records that a layer provides a file for the given path. All parent
+     * directories are recorded for the layer as well.
+     *
+     * @return
+     *      {@code true} if the layer didn't provide this file before
+     */
+    synchronized boolean putResource(int layer, String relativePath) {
+        boolean added = this.contribute(layer, relativePath);
+        for (String path = relativePath; !path.isEmpty(); path = GeneratedWebappOverlayIndex.parentOf(path)) {
+            String parentPath = GeneratedWebappOverlayIndex.parentOf(path);
+            this.getDirectoryChildren().computeIfAbsent(parentPath, key -> ConcurrentHashMap.newKeySet()).add(GeneratedWebappOverlayIndex.nameOf(path));
+            if (!parentPath.isEmpty() && !this.contribute(layer, parentPath)) {
+                break;
+            }
+        }
+        return added;
+    }
+
+    private boolean contribute(int layer, String relativePath) {
+        if (this.isProvidedBy(layer, relativePath)) {
+            return false;
+        } else if (layer < MASK_LAYERS) {
+            Long layerMask = this.getEntries().get(relativePath);
+            this.getEntries().put(relativePath, layerMask == null ? 1L << layer : layerMask | (1L << layer));
+            return true;
+        } else {
+            BitSet extendedLayers = this.getExtendedEntries().get(relativePath);
+            BitSet newExtendedLayers = extendedLayers == null ? new BitSet() : (BitSet)extendedLayers.clone();
+            newExtendedLayers.set(layer - MASK_LAYERS);
+            this.getEntries().putIfAbsent(relativePath, 0L);
+            this.getExtendedEntries().put(relativePath, newExtendedLayers);
+            return true;
+        }
+    }
+
+    /**
+     * Records that a layer no longer provides the given path. If the path is
+     * a directory, the layer no longer provides anything below it either.
+     *
+     * @return
+     *      all the paths that are no longer provided by the layer and for
+     *      which the layer has been the winning layer before, children always
+     *      preceding their parent directory. Paths for which a layer with a
+     *      higher priority still wins are not affected by the removal and
+     *      therefore not returned.
+     */
+    synchronized List<String> removeResource(int layer, String relativePath) {
+        List<String> removedPaths = new ArrayList<>();
+        this.removeResource(layer, relativePath, removedPaths);
+        return removedPaths;
+    }
+
+    private void removeResource(int layer, String relativePath, List<String> removedPaths) {
+        if (this.isProvidedBy(layer, relativePath)) {
+            Set<String> childNames = this.getDirectoryChildren().get(relativePath);
+            if (childNames != null) {
+                for (String childName : new ArrayList<>(childNames)) {
+                    this.removeResource(layer, GeneratedWebappSyncManifest.resolveRelativePath(relativePath, childName), removedPaths);
+                }
+            }
+            boolean winningLayer = this.resolveLayer(relativePath) == layer;
+            long layerMask = this.getEntries().get(relativePath);
+            BitSet extendedLayers = this.getExtendedEntries().get(relativePath);
+            if (layer < MASK_LAYERS) {
+                layerMask &= ~(1L << layer);
+            } else {
+                extendedLayers = (BitSet)extendedLayers.clone();
+                extendedLayers.clear(layer - MASK_LAYERS);
+            }
+            if (layerMask == 0 && (extendedLayers == null || extendedLayers.isEmpty())) {
+                this.getEntries().remove(relativePath);
+                this.getExtendedEntries().remove(relativePath);
+                this.getDirectoryChildren().remove(relativePath);
+                Set<String> parentChildNames = this.getDirectoryChildren().get(GeneratedWebappOverlayIndex.parentOf(relativePath));
+                if (parentChildNames != null) {
+                    parentChildNames.remove(GeneratedWebappOverlayIndex.nameOf(relativePath));
+                }
+            } else if (extendedLayers == null || extendedLayers.isEmpty()) {
+                this.getEntries().put(relativePath, layerMask);
+                this.getExtendedEntries().remove(relativePath);
+            } else {
+                this.getEntries().put(relativePath, layerMask);
+                this.getExtendedEntries().put(relativePath, extendedLayers);
+            }
+            if (winningLayer) {
+                removedPaths.add(relativePath);
+            }
+        }
+    }
+
+    /**
+     * @return
+     *      the layer with the highest priority providing the given path or
+     *      {@code -1} if no layer provides the path
+     */
+    int resolveLayer(String relativePath) {
+        BitSet extendedLayers = this.getExtendedEntries().get(relativePath);
+        if (extendedLayers != null) {
+            return MASK_LAYERS + extendedLayers.length() - 1;
+        } else {
+            Long layerMask = this.getEntries().get(relativePath);
+            return layerMask == null || layerMask == 0 ? -1 : Long.SIZE - 1 - Long.numberOfLeadingZeros(layerMask);
+        }
+    }
+
+    /**
+     * @return
+     *      the source of the layer with the highest priority providing the
+     *      given path or {@code null} if no layer provides the path
+     */
+    Path resolve(String relativePath) {
+        int layer = this.resolveLayer(relativePath);
+        return layer < 0 ? null : this.resolveSourcePath(layer, relativePath);
+    }
+
+    /**
+     * @return
+     *      the file within the source directory of the given layer that
+     *      corresponds to the given path
+     */
+    Path resolveSourcePath(int layer, String relativePath) {
+        String layerPath = this.getLayerPaths().get(layer);
+        Path sourceDirectory = this.getCopyHandlers().get(layer).getSourceDirectory();
+        if (layerPath.isEmpty()) {
+            return relativePath.isEmpty() ? sourceDirectory : sourceDirectory.resolve(relativePath);
+        } else if (relativePath.startsWith(layerPath + "/")) {
+            return sourceDirectory.resolve(relativePath.substring(layerPath.length() + 1));
+        } else {
+            return sourceDirectory;
+        }
+    }
+
+    /**
+     * @return
+     *      whether the given layer provides the given path
+     */
+    boolean isProvidedBy(int layer, String relativePath) {
+        if (layer < MASK_LAYERS) {
+            Long layerMask = this.getEntries().get(relativePath);
+            return layerMask != null && (layerMask & (1L << layer)) != 0;
+        } else {
+            BitSet extendedLayers = this.getExtendedEntries().get(relativePath);
+            return extendedLayers != null && extendedLayers.get(layer - MASK_LAYERS);
+        }
+    }
+
+    boolean isDirectory(String relativePath) {
+        return this.getDirectoryChildren().containsKey(relativePath);
+    }
+
+    /**
+     * @return
+     *      the names of all the children of the given directory provided by
+     *      any of the layers, sorted alphabetically
+     */
+    List<String> listChildNames(String relativePath) {
+        Set<String> childNames = this.getDirectoryChildren().get(relativePath);
+        if (childNames == null) {
+            return Collections.emptyList();
+        } else {
+            List<String> sortedChildNames = new ArrayList<>(childNames);
+            Collections.sort(sortedChildNames);
+            return sortedChildNames;
+        }
+    }
+
+    GeneratedWebappCopyHandler getCopyHandler(int layer) {
+        return this.getCopyHandlers().get(layer);
+    }
+
+    /**
+     * @return
+     *      the number of paths (files and directories) within the index
+     */
+    int size() {
+        return this.getEntries().size();
+    }
+
+    /**
+     * @return
+     *      the number of directories within the index
+     */
+    int getDirectoryCount() {
+        return this.getDirectoryChildren().size();
+    }
+
+    /**
+     * Estimates the heap memory occupied by the index, assuming a 64 bit JVM
+     * with compressed object pointers
+     *
+     * @return
+     *      the estimated number of bytes
+     */
+    long estimateMemoryUsage() {
+        long memoryUsage = 0;
+        for (Map.Entry<String, Long> entry : this.getEntries().entrySet()) {
+            memoryUsage += 32 + 4 + GeneratedWebappOverlayIndex.estimateStringSize(entry.getKey());
+            memoryUsage += entry.getValue() >= -128 && entry.getValue() <= 127 ? 0 : 16;
+        }
+        for (Map.Entry<String, BitSet> extendedEntry : this.getExtendedEntries().entrySet()) {
+            memoryUsage += 32 + 4 + 24 + 16 + extendedEntry.getValue().size() / 8;
+        }
+        for (Map.Entry<String, Set<String>> directoryEntry : this.getDirectoryChildren().entrySet()) {
+            memoryUsage += 32 + 4 + 16 + 64;
+            for (String childName : directoryEntry.getValue()) {
+                memoryUsage += 32 + 4 + GeneratedWebappOverlayIndex.estimateStringSize(childName);
+            }
+        }
+        return memoryUsage;
+    }
+
+    private static long estimateStringSize(String value) {
+        return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+    }
+
+    static String toRelativePath(Path baseDirectory, Path path) {
+        StringBuilder relativePath = new StringBuilder();
+        for (Path pathElement : baseDirectory.relativize(path)) {
+            if (!pathElement.toString().isEmpty()) {
+                relativePath.append(relativePath.length() > 0 ? "/" : "").append(pathElement);
+            }
+        }
+        return relativePath.toString();
+    }
+
+    static String parentOf(String relativePath) {
+        int separatorIndex = relativePath.lastIndexOf('/');
+        return separatorIndex < 0 ? "" : relativePath.substring(0, separatorIndex);
+    }
+
+    static String nameOf(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private List<GeneratedWebappCopyHandler> getCopyHandlers() {
+        return this.copyHandlers;
+    }
+    private void setCopyHandlers(List<GeneratedWebappCopyHandler> copyHandlers) {
+        this.copyHandlers = copyHandlers;
+    }
+
+    private List<String> getLayerPaths() {
+        return this.layerPaths;
+    }
+    private void setLayerPaths(List<String> layerPaths) {
+        this.layerPaths = layerPaths;
+    }
+
+    private Map<String, Long> getEntries() {
+        return this.entries;
+    }
+
+    private Map<String, BitSet> getExtendedEntries() {
+        return this.extendedEntries;
+    }
+
+    private Map<String, Set<String>> getDirectoryChildren() {
+        return this.directoryChildren;
+    }
+
+}
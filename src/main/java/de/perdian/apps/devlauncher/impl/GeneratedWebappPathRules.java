@@ -0,0 +1,353 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled set of glob based include and exclude rules for the paths within a
+ * source directory.
+ *
+ * All patterns are relative to the source directory and use {@code /} as
+ * separator. Within a path segment {@code *} matches any number of characters
+ * and {@code ?} a single character, while a {@code **} segment matches any
+ * number of segments. A pattern that doesn't contain a {@code /} matches on
+ * any level, so {@code node_modules} is equivalent to
+ * {@code **}{@code /node_modules}. If a directory matches a rule, the rule
+ * applies to everything below that directory as well.
+ *
+ * The patterns are compiled into a tree of path segments, so that a path is
+ * evaluated by walking its segments once, and a directory can be pruned
+ * before it is ever listed or registered for watching.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappPathRules {
+
+    private Node includeRoot = null;
+    private Node excludeRoot = null;
+
+    /**
+     * Compiles the given rules. Blank patterns are ignored.
+     *
+     * @return
+     *      the compiled rules or {@code null} if neither includes nor
+     *      excludes have been defined
+     */
+    static GeneratedWebappPathRules compile(List<String> includes, List<String> excludes) {
+        boolean includesAvailable = includes != null && includes.stream().anyMatch(include -> include != null && !include.trim().isEmpty());
+        boolean excludesAvailable = excludes != null && excludes.stream().anyMatch(exclude -> exclude != null && !exclude.trim().isEmpty());
+        if (!includesAvailable && !excludesAvailable) {
+            return null;
+        } else {
+            GeneratedWebappPathRules pathRules = new GeneratedWebappPathRules();
+            pathRules.setIncludeRoot(includesAvailable ? GeneratedWebappPathRules.compilePatterns(includes) : null);
+            pathRules.setExcludeRoot(excludesAvailable ? GeneratedWebappPathRules.compilePatterns(excludes) : null);
+            return pathRules;
+        }
+    }
+
+    /**
+     * Checks whether a directory needs to be descended into
+     *
+     * @param relativePath
+     *      the path of the directory relative to the source directory
+     */
+    boolean isDirectoryIncluded(String relativePath) {
+        if (relativePath.isEmpty()) {
+            return true;
+        } else {
+            String[] segments = relativePath.split("/");
+            if (this.getExcludeRoot() != null && GeneratedWebappPathRules.evaluate(this.getExcludeRoot(), segments) == Evaluation.MATCH) {
+                return false;
+            } else if (this.getIncludeRoot() != null) {
+                return GeneratedWebappPathRules.evaluate(this.getIncludeRoot(), segments) != Evaluation.NO_MATCH;
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file is to be transferred into the target directory
+     *
+     * @param relativePath
+     *      the path of the file relative to the source directory
+     */
+    boolean isFileIncluded(String relativePath) {
+        String[] segments = relativePath.split("/");
+        if (this.getExcludeRoot() != null && GeneratedWebappPathRules.evaluate(this.getExcludeRoot(), segments) == Evaluation.MATCH) {
+            return false;
+        } else if (this.getIncludeRoot() != null) {
+            return GeneratedWebappPathRules.evaluate(this.getIncludeRoot(), segments) == Evaluation.MATCH;
+        } else {
+            return true;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Evaluation ----------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    enum Evaluation {
+
+        /**
+         * The path (or one of its parent directories) matches a pattern
+         */
+        MATCH,
+
+        /**
+         * The path doesn't match a pattern but some of its children might
+         */
+        PARTIAL_MATCH,
+
+        /**
+         * Neither the path nor any of its children can match a pattern
+         */
+        NO_MATCH
+
+    }
+
+    private static Evaluation evaluate(Node rootNode, String[] segments) {
+        Set<Node> currentNodes = GeneratedWebappPathRules.expand(Collections.singleton(rootNode));
+        for (String segment : segments) {
+            Set<Node> nextNodes = new LinkedHashSet<>();
+            for (Node currentNode : currentNodes) {
+                if (currentNode.isAnySegments()) {
+                    nextNodes.add(currentNode);
+                }
+                Node literalChild = currentNode.getLiteralChildren().get(segment);
+                if (literalChild != null) {
+                    nextNodes.add(literalChild);
+                }
+                for (WildcardChild wildcardChild : currentNode.getWildcardChildren()) {
+                    if (wildcardChild.getPattern().matcher(segment).matches()) {
+                        nextNodes.add(wildcardChild.getNode());
+                    }
+                }
+            }
+            currentNodes = GeneratedWebappPathRules.expand(nextNodes);
+            if (currentNodes.isEmpty()) {
+                return Evaluation.NO_MATCH;
+            }
+            for (Node currentNode : currentNodes) {
+                if (currentNode.isTerminal()) {
+                    return Evaluation.MATCH;
+                }
+            }
+        }
+        return Evaluation.PARTIAL_MATCH;
+    }
+
+    /**
+     * Adds all the nodes that can be reached without consuming a segment,
+     * which is the case for {@code **} segments matching zero segments
+     */
+    private static Set<Node> expand(Set<Node> nodes) {
+        Set<Node> expandedNodes = new LinkedHashSet<>(nodes);
+        List<Node> pendingNodes = new ArrayList<>(nodes);
+        while (!pendingNodes.isEmpty()) {
+            Node anySegmentsChild = pendingNodes.remove(pendingNodes.size() - 1).getAnySegmentsChild();
+            if (anySegmentsChild != null && expandedNodes.add(anySegmentsChild)) {
+                pendingNodes.add(anySegmentsChild);
+            }
+        }
+        return expandedNodes;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Compilation ---------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private static Node compilePatterns(List<String> patterns) {
+        Node rootNode = new Node();
+        for (String pattern : patterns) {
+            String normalizedPattern = pattern == null ? "" : pattern.trim().replace('\\', '/');
+            while (normalizedPattern.endsWith("/")) {
+                normalizedPattern = normalizedPattern.substring(0, normalizedPattern.length() - 1);
+            }
+            if (normalizedPattern.startsWith("/")) {
+                normalizedPattern = normalizedPattern.substring(1);
+            } else if (!normalizedPattern.isEmpty() && normalizedPattern.indexOf('/') < 0) {
+                normalizedPattern = "**/" + normalizedPattern;
+            }
+            if (!normalizedPattern.isEmpty()) {
+                Node currentNode = rootNode;
+                for (String segment : normalizedPattern.split("/")) {
+                    currentNode = currentNode.resolveChild(segment);
+                }
+                currentNode.setTerminal(true);
+            }
+        }
+        return rootNode;
+    }
+
+    private static Pattern compileSegment(String segment) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : segment.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class Node {
+
+        private boolean terminal = false;
+        private boolean anySegments = false;
+        private Node anySegmentsChild = null;
+        private Map<String, Node> literalChildren = new HashMap<>();
+        private List<WildcardChild> wildcardChildren = new ArrayList<>();
+
+        Node resolveChild(String segment) {
+            if ("**".equals(segment)) {
+                if (this.getAnySegmentsChild() == null) {
+                    Node anySegmentsChild = new Node();
+                    anySegmentsChild.setAnySegments(true);
+                    this.setAnySegmentsChild(anySegmentsChild);
+                }
+                return this.getAnySegmentsChild();
+            } else if (segment.indexOf('*') < 0 && segment.indexOf('?') < 0) {
+                return this.getLiteralChildren().computeIfAbsent(segment, key -> new Node());
+            } else {
+                for (WildcardChild wildcardChild : this.getWildcardChildren()) {
+                    if (wildcardChild.getSegment().equals(segment)) {
+                        return wildcardChild.getNode();
+                    }
+                }
+                WildcardChild wildcardChild = new WildcardChild(segment, GeneratedWebappPathRules.compileSegment(segment), new Node());
+                this.getWildcardChildren().add(wildcardChild);
+                return wildcardChild.getNode();
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        boolean isTerminal() {
+            return this.terminal;
+        }
+        void setTerminal(boolean terminal) {
+            this.terminal = terminal;
+        }
+
+        boolean isAnySegments() {
+            return this.anySegments;
+        }
+        void setAnySegments(boolean anySegments) {
+            this.anySegments = anySegments;
+        }
+
+        Node getAnySegmentsChild() {
+            return this.anySegmentsChild;
+        }
+        void setAnySegmentsChild(Node anySegmentsChild) {
+            this.anySegmentsChild = anySegmentsChild;
+        }
+
+        Map<String, Node> getLiteralChildren() {
+            return this.literalChildren;
+        }
+
+        List<WildcardChild> getWildcardChildren() {
+            return this.wildcardChildren;
+        }
+
+    }
+
+    static class WildcardChild {
+
+        private String segment = null;
+        private Pattern pattern = null;
+        private Node node = null;
+
+        WildcardChild(String segment, Pattern pattern, Node node) {
+            this.setSegment(segment);
+            this.setPattern(pattern);
+            this.setNode(node);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        String getSegment() {
+            return this.segment;
+        }
+        private void setSegment(String segment) {
+            this.segment = segment;
+        }
+
+        Pattern getPattern() {
+            return this.pattern;
+        }
+        private void setPattern(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        Node getNode() {
+            return this.node;
+        }
+        private void setNode(Node node) {
+            this.node = node;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private Node getIncludeRoot() {
+        return this.includeRoot;
+    }
+    private void setIncludeRoot(Node includeRoot) {
+        this.includeRoot = includeRoot;
+    }
+
+    private Node getExcludeRoot() {
+        return this.excludeRoot;
+    }
+    private void setExcludeRoot(Node excludeRoot) {
+        this.excludeRoot = excludeRoot;
+    }
+
+}
@@ -0,0 +1,539 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.devlauncher.impl.GeneratedWebappCopyHandler.PathPair;
+
+/**
+ * Launcher wide engine that detects changes within the source directories of
+ * copy definitions by polling them, for all the file systems on which the
+ * {@link java.nio.file.WatchService} reports changes late or not at all.
+ *
+ * For every registered directory a snapshot of the name, the size and the
+ * modification time of all its children is kept. Each poll takes a new
+ * snapshot and compares it to the previous one, which is done by walking
+ * both (sorted) snapshots once. The differences are reported to the handler
+ * as regular watch events.
+ *
+ * Each directory is polled using its own interval, which drops to the minimum
+ * interval of its handler as soon as a change has been detected and doubles
+ * with every poll that didn't find any change, up to the maximum interval. So
+ * the directories that are currently being worked on are polled frequently,
+ * while the rest of the tree is polled rarely. Additionally the engine pauses
+ * for a multiple of the time it took to poll all the due directories, so that
+ * even a change affecting a huge tree only uses a small fraction of a single
+ * CPU.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappPollingEngine implements GeneratedWebappChangeDetector, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappPollingEngine.class);
+    private static final long IDLE_POLL_MILLIS = 1000;
+    private static final long POLL_DURATION_FACTOR = 10;
+
+    private static GeneratedWebappPollingEngine sharedEngine = null;
+    private static int sharedEngineReferences = 0;
+
+    private volatile boolean closed = false;
+    private Thread pollerThread = null;
+    private Map<GeneratedWebappCopyHandler, PollingGroup> pollingGroups = new ConcurrentHashMap<>();
+    private AtomicLong polls = new AtomicLong();
+    private AtomicLong detectedChanges = new AtomicLong();
+
+    /**
+     * Gets the engine shared by all copy handlers, creating it if necessary.
+     * Every call must be balanced by a call to {@link #release}.
+     */
+    static synchronized GeneratedWebappPollingEngine acquire() {
+        if (sharedEngine == null) {
+            sharedEngine = new GeneratedWebappPollingEngine();
+        }
+        sharedEngineReferences++;
+        return sharedEngine;
+    }
+
+    /**
+     * Releases a reference to the shared engine. Once the last reference has
+     * been released the poller thread is stopped.
+     */
+    static synchronized void release(GeneratedWebappPollingEngine engine) {
+        if (engine == sharedEngine && --sharedEngineReferences <= 0) {
+            sharedEngine = null;
+            sharedEngineReferences = 0;
+            engine.close();
+        }
+    }
+
+    @Override
+    public void release() {
+        GeneratedWebappPollingEngine.release(this);
+    }
+
+    @Override
+    public synchronized void close() {
+        this.setClosed(true);
+        this.getPollingGroups().clear();
+        this.notifyAll();
+    }
+
+    @Override
+    public void register(Path sourcePath, Path targetPath, GeneratedWebappCopyHandler copyHandler) throws IOException {
+        if (this.isClosed()) {
+            throw new IllegalStateException("Polling engine has already been closed");
+        }
+        PollingGroup pollingGroup = this.getPollingGroups().computeIfAbsent(copyHandler, PollingGroup::new);
+        if (!pollingGroup.getDirectories().containsKey(sourcePath)) {
+
+            // The initial snapshot is taken directly, so that every change
+            // happening after the registration will be detected
+            PolledDirectory polledDirectory = new PolledDirectory(new PathPair(sourcePath, targetPath), DirectorySnapshot.take(sourcePath));
+            polledDirectory.adjustInterval(true, copyHandler.getMinimumPollInterval(), copyHandler.getMaximumPollInterval());
+            pollingGroup.getDirectories().putIfAbsent(sourcePath, polledDirectory);
+
+        }
+        this.ensurePollerThread();
+    }
+
+    @Override
+    public void unregister(GeneratedWebappCopyHandler copyHandler) {
+        this.getPollingGroups().remove(copyHandler);
+    }
+
+    private synchronized void ensurePollerThread() {
+        if (this.getPollerThread() == null) {
+            Thread pollerThread = new Thread(this::pollDirectories);
+            pollerThread.setName(GeneratedWebappPollingEngine.class.getSimpleName() + "[Poller]");
+            pollerThread.setDaemon(true);
+            pollerThread.start();
+            this.setPollerThread(pollerThread);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Polling -------------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private void pollDirectories() {
+        while (!this.isClosed()) {
+            long cycleStartNanos = System.nanoTime();
+            long nextWakeupMillis = System.currentTimeMillis() + IDLE_POLL_MILLIS;
+            for (PollingGroup pollingGroup : this.getPollingGroups().values()) {
+                GeneratedWebappCopyHandler copyHandler = pollingGroup.getCopyHandler();
+                for (PolledDirectory polledDirectory : pollingGroup.getDirectories().values()) {
+                    if (this.isClosed()) {
+                        return;
+                    } else if (polledDirectory.getNextPollMillis() <= System.currentTimeMillis()) {
+                        boolean changesDetected = this.pollDirectory(pollingGroup, polledDirectory);
+                        polledDirectory.adjustInterval(changesDetected, copyHandler.getMinimumPollInterval(), copyHandler.getMaximumPollInterval());
+                    }
+                    nextWakeupMillis = Math.min(nextWakeupMillis, polledDirectory.getNextPollMillis());
+                }
+                long flushMillis = copyHandler.getPendingChangesDeadline();
+                if (flushMillis >= 0 && flushMillis <= System.currentTimeMillis()) {
+                    try {
+                        copyHandler.flushPendingChanges();
+                    } catch (Exception e) {
+                        log.debug("Cannot apply pending changes", e);
+                    }
+                    flushMillis = copyHandler.getPendingChangesDeadline();
+                }
+                if (flushMillis >= 0) {
+                    nextWakeupMillis = Math.min(nextWakeupMillis, flushMillis);
+                }
+            }
+            try {
+                long cycleMillis = (System.nanoTime() - cycleStartNanos) / 1000000;
+                long waitMillis = Math.max(nextWakeupMillis - System.currentTimeMillis(), cycleMillis * (POLL_DURATION_FACTOR - 1));
+                synchronized (this) {
+                    if (!this.isClosed()) {
+                        this.wait(Math.max(1, waitMillis));
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.warn("File polling has been interrupted", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compares the current state of a directory with its last snapshot and
+     * reports all the differences to the handler
+     *
+     * @return
+     *      whether or not any changes have been detected
+     */
+    private boolean pollDirectory(PollingGroup pollingGroup, PolledDirectory polledDirectory) {
+        Path sourcePath = polledDirectory.getPathPair().getSourcePath();
+        this.getPolls().incrementAndGet();
+        try {
+            DirectorySnapshot currentSnapshot = DirectorySnapshot.take(sourcePath);
+            List<WatchEvent<?>> watchEvents = polledDirectory.getSnapshot().compareTo(currentSnapshot, sourcePath.getFileSystem());
+            polledDirectory.setSnapshot(currentSnapshot);
+            if (!watchEvents.isEmpty()) {
+                this.getDetectedChanges().addAndGet(watchEvents.size());
+                pollingGroup.getCopyHandler().handleWatchEvents(polledDirectory.getPathPair(), watchEvents);
+                return true;
+            }
+        } catch (NoSuchFileException | NotDirectoryException e) {
+
+            // The deletion itself has already been reported by the parent
+            // directory, so all we have to do is stop polling
+            log.debug("Removing deleted directory from polling: {}", sourcePath);
+            pollingGroup.getDirectories().remove(sourcePath);
+
+        } catch (Exception e) {
+            log.debug("Cannot poll source directory: {}", sourcePath, e);
+        }
+        return false;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Statistics ----------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int getWatchCount() {
+        return this.getPollingGroups().values().stream().mapToInt(pollingGroup -> pollingGroup.getDirectories().size()).sum();
+    }
+
+    @Override
+    public String getSummary() {
+        return "polling " + this.getWatchCount() + " directories of " + this.getPollingGroups().size() + " copy definitions";
+    }
+
+    /**
+     * @return
+     *      the number of times a directory has been polled
+     */
+    long getPollCount() {
+        return this.getPolls().get();
+    }
+
+    /**
+     * @return
+     *      the number of changes that have been detected by comparing
+     *      snapshots
+     */
+    long getDetectedChangeCount() {
+        return this.getDetectedChanges().get();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * All the directories registered by a single handler
+     */
+    static class PollingGroup {
+
+        private GeneratedWebappCopyHandler copyHandler = null;
+        private Map<Path, PolledDirectory> directories = new ConcurrentHashMap<>();
+
+        PollingGroup(GeneratedWebappCopyHandler copyHandler) {
+            this.setCopyHandler(copyHandler);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        GeneratedWebappCopyHandler getCopyHandler() {
+            return this.copyHandler;
+        }
+        private void setCopyHandler(GeneratedWebappCopyHandler copyHandler) {
+            this.copyHandler = copyHandler;
+        }
+
+        Map<Path, PolledDirectory> getDirectories() {
+            return this.directories;
+        }
+
+    }
+
+    static class PolledDirectory {
+
+        private PathPair pathPair = null;
+        private DirectorySnapshot snapshot = null;
+        private long interval = 0;
+        private long nextPollMillis = 0;
+
+        PolledDirectory(PathPair pathPair, DirectorySnapshot snapshot) {
+            this.setPathPair(pathPair);
+            this.setSnapshot(snapshot);
+        }
+
+        void adjustInterval(boolean changesDetected, long minimumInterval, long maximumInterval) {
+            long effectiveMinimumInterval = Math.max(1, minimumInterval);
+            long nextInterval = changesDetected ? effectiveMinimumInterval : Math.min(Math.max(effectiveMinimumInterval, maximumInterval), this.getInterval() * 2);
+            if (nextInterval != this.getInterval()) {
+                log.trace("Polling {} every {} ms", this.getPathPair().getSourcePath(), nextInterval);
+            }
+            this.setInterval(nextInterval);
+            this.setNextPollMillis(System.currentTimeMillis() + nextInterval);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        PathPair getPathPair() {
+            return this.pathPair;
+        }
+        private void setPathPair(PathPair pathPair) {
+            this.pathPair = pathPair;
+        }
+
+        DirectorySnapshot getSnapshot() {
+            return this.snapshot;
+        }
+        void setSnapshot(DirectorySnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        long getInterval() {
+            return this.interval;
+        }
+        private void setInterval(long interval) {
+            this.interval = interval;
+        }
+
+        long getNextPollMillis() {
+            return this.nextPollMillis;
+        }
+        private void setNextPollMillis(long nextPollMillis) {
+            this.nextPollMillis = nextPollMillis;
+        }
+
+    }
+
+    /**
+     * The state of the children of a directory at a given point in time. The
+     * children are stored sorted by name in parallel arrays instead of one
+     * object per child, which keeps the snapshots of large trees small.
+     */
+    static class DirectorySnapshot {
+
+        static final long DIRECTORY_SIZE = -1;
+
+        private String[] names = null;
+        private long[] sizes = null;
+        private long[] lastModifiedTimes = null;
+
+        private DirectorySnapshot(String[] names, long[] sizes, long[] lastModifiedTimes) {
+            this.setNames(names);
+            this.setSizes(sizes);
+            this.setLastModifiedTimes(lastModifiedTimes);
+        }
+
+        static DirectorySnapshot take(Path directory) throws IOException {
+            List<String> childNames = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    childNames.add(child.getFileName().toString());
+                }
+            }
+            String[] names = childNames.toArray(new String[childNames.size()]);
+            Arrays.sort(names);
+            long[] sizes = new long[names.length];
+            long[] lastModifiedTimes = new long[names.length];
+            int childCount = 0;
+            for (int i = 0; i < names.length; i++) {
+                try {
+                    BasicFileAttributes childAttributes = Files.readAttributes(directory.resolve(names[i]), BasicFileAttributes.class);
+                    names[childCount] = names[i];
+                    sizes[childCount] = childAttributes.isDirectory() ? DIRECTORY_SIZE : childAttributes.size();
+                    lastModifiedTimes[childCount] = childAttributes.lastModifiedTime().toMillis();
+                    childCount++;
+                } catch (IOException e) {
+                    // The child has been removed since the directory has
+                    // been listed (or is a broken link), so we ignore it
+                }
+            }
+            if (childCount == names.length) {
+                return new DirectorySnapshot(names, sizes, lastModifiedTimes);
+            } else {
+                return new DirectorySnapshot(Arrays.copyOf(names, childCount), Arrays.copyOf(sizes, childCount), Arrays.copyOf(lastModifiedTimes, childCount));
+            }
+        }
+
+        /**
+         * Compares this snapshot to a more recent snapshot of the same
+         * directory. Changes to the modification time of child directories
+         * are ignored, since they only reflect changes within the directory,
+         * which are detected by polling the child directory itself.
+         *
+         * @return
+         *      the events describing the changes between the two snapshots
+         */
+        List<WatchEvent<?>> compareTo(DirectorySnapshot currentSnapshot, FileSystem fileSystem) {
+            List<WatchEvent<?>> watchEvents = new ArrayList<>();
+            int previousIndex = 0;
+            int currentIndex = 0;
+            while (previousIndex < this.getNames().length || currentIndex < currentSnapshot.getNames().length) {
+                int comparison = previousIndex >= this.getNames().length ? 1 : currentIndex >= currentSnapshot.getNames().length ? -1 : this.getNames()[previousIndex].compareTo(currentSnapshot.getNames()[currentIndex]);
+                if (comparison < 0) {
+                    watchEvents.add(new PolledEvent(StandardWatchEventKinds.ENTRY_DELETE, fileSystem.getPath(this.getNames()[previousIndex++])));
+                } else if (comparison > 0) {
+                    watchEvents.add(new PolledEvent(StandardWatchEventKinds.ENTRY_CREATE, fileSystem.getPath(currentSnapshot.getNames()[currentIndex++])));
+                } else {
+                    boolean previousDirectory = this.getSizes()[previousIndex] == DIRECTORY_SIZE;
+                    boolean currentDirectory = currentSnapshot.getSizes()[currentIndex] == DIRECTORY_SIZE;
+                    if (previousDirectory != currentDirectory) {
+                        watchEvents.add(new PolledEvent(StandardWatchEventKinds.ENTRY_DELETE, fileSystem.getPath(this.getNames()[previousIndex])));
+                        watchEvents.add(new PolledEvent(StandardWatchEventKinds.ENTRY_CREATE, fileSystem.getPath(currentSnapshot.getNames()[currentIndex])));
+                    } else if (!currentDirectory && (this.getSizes()[previousIndex] != currentSnapshot.getSizes()[currentIndex] || this.getLastModifiedTimes()[previousIndex] != currentSnapshot.getLastModifiedTimes()[currentIndex])) {
+                        watchEvents.add(new PolledEvent(StandardWatchEventKinds.ENTRY_MODIFY, fileSystem.getPath(currentSnapshot.getNames()[currentIndex])));
+                    }
+                    previousIndex++;
+                    currentIndex++;
+                }
+            }
+            return watchEvents;
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        String[] getNames() {
+            return this.names;
+        }
+        private void setNames(String[] names) {
+            this.names = names;
+        }
+
+        long[] getSizes() {
+            return this.sizes;
+        }
+        private void setSizes(long[] sizes) {
+            this.sizes = sizes;
+        }
+
+        long[] getLastModifiedTimes() {
+            return this.lastModifiedTimes;
+        }
+        private void setLastModifiedTimes(long[] lastModifiedTimes) {
+            this.lastModifiedTimes = lastModifiedTimes;
+        }
+
+    }
+
+    /**
+     * Change detected by comparing two snapshots, reported in the same way
+     * as an event received from a watch service
+     */
+    static class PolledEvent implements WatchEvent<Path> {
+
+        private Kind<Path> kind = null;
+        private Path context = null;
+
+        PolledEvent(Kind<Path> kind, Path context) {
+            this.setKind(kind);
+            this.setContext(context);
+        }
+
+        @Override
+        public Kind<Path> kind() {
+            return this.getKind();
+        }
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+        @Override
+        public Path context() {
+            return this.getContext();
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        Kind<Path> getKind() {
+            return this.kind;
+        }
+        private void setKind(Kind<Path> kind) {
+            this.kind = kind;
+        }
+
+        Path getContext() {
+            return this.context;
+        }
+        private void setContext(Path context) {
+            this.context = context;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private boolean isClosed() {
+        return this.closed;
+    }
+    private void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
+    private Thread getPollerThread() {
+        return this.pollerThread;
+    }
+    private void setPollerThread(Thread pollerThread) {
+        this.pollerThread = pollerThread;
+    }
+
+    private Map<GeneratedWebappCopyHandler, PollingGroup> getPollingGroups() {
+        return this.pollingGroups;
+    }
+
+    private AtomicLong getPolls() {
+        return this.polls;
+    }
+
+    private AtomicLong getDetectedChanges() {
+        return this.detectedChanges;
+    }
+
+}
@@ -0,0 +1,337 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent record of the source files that have been transferred into the
+ * target directory during the last synchronization. For every file the size,
+ * the modification time and the file key (the inode on most systems) of the
+ * source are stored, for every directory its modification time and the names
+ * of its children. Using this information a restart only needs to look at
+ * what has actually changed since the last launch.
+ *
+ * The names of the children are recorded before any filter or path rule has
+ * been applied. Instead the manifest stores a key computed from the
+ * configuration of the copy definition and is dropped completely as soon as
+ * that configuration has been changed.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappSyncManifest {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappSyncManifest.class);
+    private static final int MANIFEST_VERSION = 2;
+
+    private Path manifestFile = null;
+    private String configurationKey = null;
+    private Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private AtomicLong checkedEntries = new AtomicLong();
+    private AtomicLong skippedEntries = new AtomicLong();
+
+    /**
+     * Resolves the file in which the manifest for the transfer of a source
+     * directory into a target directory is stored
+     */
+    static Path resolveManifestFile(Path workingDirectory, Path sourceDirectory, Path targetDirectory) {
+        String manifestKey = sourceDirectory.toAbsolutePath().normalize() + "->" + targetDirectory.toAbsolutePath().normalize();
+        return workingDirectory.resolve("generated/manifests/" + UUID.nameUUIDFromBytes(manifestKey.getBytes(StandardCharsets.UTF_8)) + ".manifest");
+    }
+
+    /**
+     * Computes the key describing everything within a copy definition that
+     * decides which files are transferred and how. Filters are identified by
+     * their class, since there is no other way to tell whether they have been
+     * changed.
+     */
+    static String resolveConfigurationKey(GeneratedWebappCopyDefinition copyDefinition) {
+        StringBuilder configuration = new StringBuilder();
+        configuration.append("includes=").append(copyDefinition.getIncludes());
+        configuration.append(";excludes=").append(copyDefinition.getExcludes());
+        configuration.append(";materialization=").append(copyDefinition.getMaterialization() == null ? GeneratedWebappMaterialization.COPY : copyDefinition.getMaterialization());
+        if (copyDefinition.getFileFilter() != null) {
+
+            // Lambda classes contain a suffix that changes with every launch
+            String fileFilterClassName = copyDefinition.getFileFilter().getClass().getName();
+            int lambdaSuffixIndex = fileFilterClassName.indexOf('/');
+            configuration.append(";fileFilter=").append(lambdaSuffixIndex < 0 ? fileFilterClassName : fileFilterClassName.substring(0, lambdaSuffixIndex));
+
+        }
+        return UUID.nameUUIDFromBytes(configuration.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Loads the manifest from the given file. If the file doesn't exist,
+     * cannot be read or has been written for a different configuration an
+     * empty manifest is returned, which simply means that all files will be
+     * checked again.
+     */
+    static GeneratedWebappSyncManifest load(Path manifestFile, String configurationKey) {
+        GeneratedWebappSyncManifest manifest = new GeneratedWebappSyncManifest();
+        manifest.setManifestFile(manifestFile);
+        manifest.setConfigurationKey(configurationKey);
+        if (Files.exists(manifestFile)) {
+            try (DataInputStream manifestStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+                if (manifestStream.readInt() != MANIFEST_VERSION) {
+                    log.debug("Ignoring manifest with unsupported version at: {}", manifestFile);
+                } else if (!configurationKey.equals(manifestStream.readUTF())) {
+                    log.debug("Ignoring manifest written for a different configuration at: {}", manifestFile);
+                } else {
+                    for (int i = manifestStream.readInt(); i > 0; i--) {
+                        String relativePath = manifestStream.readUTF();
+                        Entry entry = new Entry();
+                        entry.setDirectory(manifestStream.readBoolean());
+                        entry.setSize(manifestStream.readLong());
+                        entry.setLastModified(manifestStream.readLong());
+                        String fileKey = manifestStream.readUTF();
+                        entry.setFileKey(fileKey.isEmpty() ? null : fileKey);
+                        if (entry.isDirectory()) {
+                            List<String> children = new ArrayList<>();
+                            for (int j = manifestStream.readInt(); j > 0; j--) {
+                                children.add(manifestStream.readUTF());
+                            }
+                            entry.setChildren(Collections.unmodifiableList(children));
+                        }
+                        manifest.getEntries().put(relativePath, entry);
+                    }
+                    log.trace("Loaded {} manifest entries from: {}", manifest.getEntries().size(), manifestFile);
+                }
+            } catch (IOException e) {
+                log.debug("Cannot read manifest from: {} [{}]", manifestFile, e.toString());
+                manifest.getEntries().clear();
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest into its file. Only the entries reachable from the
+     * root directory are written, so entries of files and directories that
+     * have been removed in the meantime are dropped automatically.
+     */
+    void save() throws IOException {
+        List<String> reachablePaths = new ArrayList<>();
+        this.collectReachablePaths("", reachablePaths);
+        Path manifestFile = this.getManifestFile();
+        Path temporaryFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        Files.createDirectories(manifestFile.getParent());
+        try (DataOutputStream manifestStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            manifestStream.writeInt(MANIFEST_VERSION);
+            manifestStream.writeUTF(this.getConfigurationKey());
+            manifestStream.writeInt(reachablePaths.size());
+            for (String relativePath : reachablePaths) {
+                Entry entry = this.getEntries().get(relativePath);
+                manifestStream.writeUTF(relativePath);
+                manifestStream.writeBoolean(entry.isDirectory());
+                manifestStream.writeLong(entry.getSize());
+                manifestStream.writeLong(entry.getLastModified());
+                manifestStream.writeUTF(entry.getFileKey() == null ? "" : entry.getFileKey());
+                if (entry.isDirectory()) {
+                    manifestStream.writeInt(entry.getChildren().size());
+                    for (String childName : entry.getChildren()) {
+                        manifestStream.writeUTF(childName);
+                    }
+                }
+            }
+        }
+        Files.move(temporaryFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.trace("Stored {} manifest entries into: {}", reachablePaths.size(), manifestFile);
+    }
+
+    private void collectReachablePaths(String relativePath, List<String> reachablePaths) {
+        Entry entry = this.getEntries().get(relativePath);
+        if (entry != null) {
+            reachablePaths.add(relativePath);
+            if (entry.isDirectory()) {
+                for (String childName : entry.getChildren()) {
+                    this.collectReachablePaths(GeneratedWebappSyncManifest.resolveRelativePath(relativePath, childName), reachablePaths);
+                }
+            }
+        }
+    }
+
+    static String resolveRelativePath(String parentRelativePath, String childName) {
+        return parentRelativePath.isEmpty() ? childName : parentRelativePath + "/" + childName;
+    }
+
+    Entry getEntry(String relativePath) {
+        return this.getEntries().get(relativePath);
+    }
+
+    void putEntry(String relativePath, Entry entry) {
+        this.getEntries().put(relativePath, entry);
+    }
+
+    void removeEntry(String relativePath) {
+        this.getEntries().remove(relativePath);
+    }
+
+    void recordChecked(boolean skipped) {
+        this.getCheckedEntries().incrementAndGet();
+        if (skipped) {
+            this.getSkippedEntries().incrementAndGet();
+        }
+    }
+
+    /**
+     * @return
+     *      the number of file entries that have been checked during the
+     *      synchronization
+     */
+    long getCheckedEntryCount() {
+        return this.getCheckedEntries().get();
+    }
+
+    /**
+     * @return
+     *      the number of file entries that could be skipped because the
+     *      manifest proved them to be unchanged
+     */
+    long getSkippedEntryCount() {
+        return this.getSkippedEntries().get();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class Entry {
+
+        private boolean directory = false;
+        private long size = 0;
+        private long lastModified = 0;
+        private String fileKey = null;
+        private List<String> children = null;
+
+        static Entry forFile(BasicFileAttributes attributes) {
+            Entry entry = new Entry();
+            entry.setSize(attributes.size());
+            entry.setLastModified(attributes.lastModifiedTime().toMillis());
+            entry.setFileKey(attributes.fileKey() == null ? null : attributes.fileKey().toString());
+            return entry;
+        }
+
+        static Entry forDirectory(BasicFileAttributes attributes, List<String> children) {
+            Entry entry = Entry.forFile(attributes);
+            entry.setDirectory(true);
+            entry.setSize(0);
+            entry.setChildren(Collections.unmodifiableList(children));
+            return entry;
+        }
+
+        /**
+         * Checks whether the given attributes still describe the file that
+         * has been recorded in this entry
+         */
+        boolean matches(BasicFileAttributes attributes) {
+            String fileKey = attributes.fileKey() == null ? null : attributes.fileKey().toString();
+            return this.getSize() == attributes.size() && this.getLastModified() == attributes.lastModifiedTime().toMillis() && (this.getFileKey() == null ? fileKey == null : this.getFileKey().equals(fileKey));
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        boolean isDirectory() {
+            return this.directory;
+        }
+        private void setDirectory(boolean directory) {
+            this.directory = directory;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+        private void setSize(long size) {
+            this.size = size;
+        }
+
+        long getLastModified() {
+            return this.lastModified;
+        }
+        private void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        String getFileKey() {
+            return this.fileKey;
+        }
+        private void setFileKey(String fileKey) {
+            this.fileKey = fileKey;
+        }
+
+        List<String> getChildren() {
+            return this.children;
+        }
+        private void setChildren(List<String> children) {
+            this.children = children;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    Path getManifestFile() {
+        return this.manifestFile;
+    }
+    private void setManifestFile(Path manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    String getConfigurationKey() {
+        return this.configurationKey;
+    }
+    private void setConfigurationKey(String configurationKey) {
+        this.configurationKey = configurationKey;
+    }
+
+    private Map<String, Entry> getEntries() {
+        return this.entries;
+    }
+
+    private AtomicLong getCheckedEntries() {
+        return this.checkedEntries;
+    }
+
+    private AtomicLong getSkippedEntries() {
+        return this.skippedEntries;
+    }
+
+}
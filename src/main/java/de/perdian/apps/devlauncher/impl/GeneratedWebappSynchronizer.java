@@ -0,0 +1,448 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Performs the initial synchronization of a series of copy handlers into
+ * their target directories.
+ *
+ * The synchronization runs in three steps: First all source directories are
+ * scanned (in parallel per copy handler and per directory). Then the scan
+ * results are merged in the order of the copy handlers, so that whenever
+ * multiple handlers provide the same target file the last one wins, no
+ * matter in which order the scans have been completed. Finally all the
+ * winning resources that need to be updated are copied (again in parallel).
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappSynchronizer {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappSynchronizer.class);
+    private static final int COPY_BATCH_SIZE = 64;
+
+    private int parallelism = 1;
+
+    GeneratedWebappSynchronizer(int parallelism) {
+        this.setParallelism(Math.max(1, parallelism));
+    }
+
+    /**
+     * Synchronizes the source directories of all the given handlers into
+     * their target directories
+     *
+     * @param copyHandlers
+     *      the handlers to synchronize. If multiple handlers provide the same
+     *      target file, the handler with the highest index wins.
+     * @return
+     *      the number of resources that have been copied
+     */
+    int synchronize(List<GeneratedWebappCopyHandler> copyHandlers) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(this.getParallelism());
+        try {
+
+            // Scan all the source directories
+            List<ScanTask> scanTasks = new ArrayList<>(copyHandlers.size());
+            for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+                scanTasks.add(new ScanTask(copyHandler, copyHandler.getSourceDirectory(), copyHandler.getTargetDirectory(), ""));
+            }
+            forkJoinPool.invoke(new RecursiveAction() {
+                static final long serialVersionUID = 1L;
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(scanTasks);
+                }
+            });
+
+            // Now resolve which handler will provide which target file
+            Map<Path, SyncItem> winningItems = new LinkedHashMap<>();
+            for (ScanTask scanTask : scanTasks) {
+                for (SyncItem syncItem : GeneratedWebappSynchronizer.joinScanTask(scanTask)) {
+
+                    // The overlay index needs to know every layer providing a
+                    // resource, so that a lower layer can take over once the
+                    // resource is removed from the higher layer
+                    syncItem.getCopyHandler().recordResource(syncItem.getSourcePath(), syncItem.getTargetPath());
+
+                    SyncItem replacedItem = winningItems.put(syncItem.getTargetPath(), syncItem);
+                    if (replacedItem != null && replacedItem.getCopyHandler().getSyncManifest() != null) {
+
+                        // The resource from the previous handler is overlayed
+                        // by the current handler, so we cannot treat it as
+                        // being in sync with the target
+                        replacedItem.getCopyHandler().getSyncManifest().removeEntry(replacedItem.getRelativePath());
+
+                    }
+                }
+            }
+
+            // Copy everything that has changed
+            List<SyncItem> copyItems = new ArrayList<>();
+            for (SyncItem syncItem : winningItems.values()) {
+                if (!syncItem.isUnchanged()) {
+                    copyItems.add(syncItem);
+                }
+            }
+            AtomicInteger copiedResources = new AtomicInteger();
+            forkJoinPool.invoke(new CopyTask(copyItems, 0, copyItems.size(), copiedResources));
+            for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+                copyHandler.dispatchCopiedResources();
+            }
+
+            // Store the manifests for the next run
+            for (GeneratedWebappCopyHandler copyHandler : copyHandlers) {
+                if (copyHandler.getSyncManifest() != null) {
+                    try {
+                        copyHandler.getSyncManifest().save();
+                    } catch (IOException e) {
+                        log.warn("Cannot store synchronization manifest at: {}", copyHandler.getSyncManifest().getManifestFile(), e);
+                    }
+                }
+            }
+
+            log.debug("Synchronized {} resources ({} copied) from {} copy definitions using {} threads in {} ms", winningItems.size(), copiedResources.get(), copyHandlers.size(), this.getParallelism(), System.currentTimeMillis() - startMillis);
+            return copiedResources.get();
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private static List<SyncItem> joinScanTask(ScanTask scanTask) throws IOException {
+        try {
+            return scanTask.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * Scans a single source directory. Every child directory is scanned by a
+     * separate task, so that large trees are distributed across the pool.
+     */
+    static class ScanTask extends RecursiveTask<List<SyncItem>> {
+
+        static final long serialVersionUID = 1L;
+
+        private GeneratedWebappCopyHandler copyHandler = null;
+        private Path sourcePath = null;
+        private Path targetPath = null;
+        private String relativePath = null;
+
+        ScanTask(GeneratedWebappCopyHandler copyHandler, Path sourcePath, Path targetPath, String relativePath) {
+            this.setCopyHandler(copyHandler);
+            this.setSourcePath(sourcePath);
+            this.setTargetPath(targetPath);
+            this.setRelativePath(relativePath);
+        }
+
+        @Override
+        protected List<SyncItem> compute() {
+            try {
+                return this.scan();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<SyncItem> scan() throws IOException {
+
+            // If neither the source directory itself nor the target directory
+            // have changed since the last synchronization we can reuse the
+            // recorded list of children instead of listing the directory again
+            GeneratedWebappSyncManifest syncManifest = this.getCopyHandler().getSyncManifest();
+            BasicFileAttributes sourceAttributes = Files.readAttributes(this.getSourcePath(), BasicFileAttributes.class);
+            GeneratedWebappSyncManifest.Entry recordedEntry = syncManifest == null ? null : syncManifest.getEntry(this.getRelativePath());
+            boolean targetExists = syncManifest != null && Files.isDirectory(this.getTargetPath());
+            boolean directoryUnchanged = targetExists && recordedEntry != null && recordedEntry.isDirectory() && recordedEntry.getLastModified() == sourceAttributes.lastModifiedTime().toMillis();
+            List<String> childNames = directoryUnchanged ? recordedEntry.getChildren() : this.getCopyHandler().listChildNames(this.getSourcePath());
+
+            // A recorded entry can only be trusted if the file still exists
+            // within the target directory, so a single listing of the target
+            // directory tells us which entries are usable at all
+            Set<String> targetChildNames = targetExists ? new HashSet<>(this.getCopyHandler().listChildNames(this.getTargetPath())) : Collections.emptySet();
+
+            List<SyncItem> syncItems = new ArrayList<>();
+            List<ScanTask> childTasks = new ArrayList<>();
+            List<String> recordedChildNames = new ArrayList<>(childNames.size());
+            for (String childName : childNames) {
+                Path sourceChild = this.getSourcePath().resolve(childName);
+                if (!this.getCopyHandler().getFileFilter().test(sourceChild)) {
+                    recordedChildNames.add(childName);
+                } else {
+                    Path targetChild = this.getTargetPath().resolve(childName);
+                    String childRelativePath = GeneratedWebappSyncManifest.resolveRelativePath(this.getRelativePath(), childName);
+                    GeneratedWebappSyncManifest.Entry recordedChildEntry = syncManifest == null ? null : syncManifest.getEntry(childRelativePath);
+                    boolean targetChildExists = targetChildNames.contains(childName);
+                    if (this.getCopyHandler().getPathRules() != null && !this.getCopyHandler().isPathIncluded(childRelativePath, recordedChildEntry != null && directoryUnchanged ? recordedChildEntry.isDirectory() : Files.isDirectory(sourceChild))) {
+                        log.trace("Skipping excluded resource: {}", sourceChild);
+                        recordedChildNames.add(childName);
+                    } else if (directoryUnchanged && targetChildExists && this.getCopyHandler().isTrustDirectoryTimestamps() && recordedChildEntry != null && !recordedChildEntry.isDirectory()) {
+                        syncManifest.recordChecked(true);
+                        recordedChildNames.add(childName);
+                        syncItems.add(new SyncItem(this.getCopyHandler(), sourceChild, targetChild, childRelativePath, null, true));
+                    } else {
+                        BasicFileAttributes sourceChildAttributes = this.getCopyHandler().readAttributes(sourceChild);
+                        if (sourceChildAttributes != null) {
+                            recordedChildNames.add(childName);
+                            if (sourceChildAttributes.isDirectory()) {
+                                childTasks.add(new ScanTask(this.getCopyHandler(), sourceChild, targetChild, childRelativePath));
+                            } else if (Files.isReadable(sourceChild)) {
+                                boolean sourceChildUnchanged = targetChildExists && recordedChildEntry != null && !recordedChildEntry.isDirectory() && recordedChildEntry.matches(sourceChildAttributes);
+                                if (syncManifest != null) {
+                                    syncManifest.recordChecked(sourceChildUnchanged);
+                                }
+                                syncItems.add(new SyncItem(this.getCopyHandler(), sourceChild, targetChild, childRelativePath, sourceChildAttributes, sourceChildUnchanged));
+                            }
+                        }
+                    }
+                }
+            }
+            if (syncManifest != null) {
+                syncManifest.putEntry(this.getRelativePath(), GeneratedWebappSyncManifest.Entry.forDirectory(sourceAttributes, recordedChildNames));
+            }
+
+            if (!childTasks.isEmpty()) {
+                ForkJoinTask.invokeAll(childTasks);
+                for (ScanTask childTask : childTasks) {
+                    syncItems.addAll(GeneratedWebappSynchronizer.joinScanTask(childTask));
+                }
+            }
+            return syncItems;
+
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        GeneratedWebappCopyHandler getCopyHandler() {
+            return this.copyHandler;
+        }
+        private void setCopyHandler(GeneratedWebappCopyHandler copyHandler) {
+            this.copyHandler = copyHandler;
+        }
+
+        Path getSourcePath() {
+            return this.sourcePath;
+        }
+        private void setSourcePath(Path sourcePath) {
+            this.sourcePath = sourcePath;
+        }
+
+        Path getTargetPath() {
+            return this.targetPath;
+        }
+        private void setTargetPath(Path targetPath) {
+            this.targetPath = targetPath;
+        }
+
+        String getRelativePath() {
+            return this.relativePath;
+        }
+        private void setRelativePath(String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+    }
+
+    /**
+     * Copies a range of resources, splitting the range into smaller batches
+     * that are copied in parallel
+     */
+    static class CopyTask extends RecursiveAction {
+
+        static final long serialVersionUID = 1L;
+
+        private List<SyncItem> syncItems = null;
+        private int fromIndex = 0;
+        private int toIndex = 0;
+        private AtomicInteger copiedResources = null;
+
+        CopyTask(List<SyncItem> syncItems, int fromIndex, int toIndex, AtomicInteger copiedResources) {
+            this.setSyncItems(syncItems);
+            this.setFromIndex(fromIndex);
+            this.setToIndex(toIndex);
+            this.setCopiedResources(copiedResources);
+        }
+
+        @Override
+        protected void compute() {
+            if (this.getToIndex() - this.getFromIndex() > COPY_BATCH_SIZE) {
+                int middleIndex = (this.getFromIndex() + this.getToIndex()) >>> 1;
+                ForkJoinTask.invokeAll(new CopyTask(this.getSyncItems(), this.getFromIndex(), middleIndex, this.getCopiedResources()), new CopyTask(this.getSyncItems(), middleIndex, this.getToIndex(), this.getCopiedResources()));
+            } else {
+                for (SyncItem syncItem : this.getSyncItems().subList(this.getFromIndex(), this.getToIndex())) {
+                    GeneratedWebappCopyHandler copyHandler = syncItem.getCopyHandler();
+                    try {
+                        if (copyHandler.copyResource(syncItem.getSourcePath(), syncItem.getTargetPath())) {
+                            this.getCopiedResources().incrementAndGet();
+                        }
+                        if (copyHandler.getSyncManifest() != null && syncItem.getSourceAttributes() != null) {
+                            copyHandler.getSyncManifest().putEntry(syncItem.getRelativePath(), GeneratedWebappSyncManifest.Entry.forFile(syncItem.getSourceAttributes()));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        List<SyncItem> getSyncItems() {
+            return this.syncItems;
+        }
+        private void setSyncItems(List<SyncItem> syncItems) {
+            this.syncItems = syncItems;
+        }
+
+        int getFromIndex() {
+            return this.fromIndex;
+        }
+        private void setFromIndex(int fromIndex) {
+            this.fromIndex = fromIndex;
+        }
+
+        int getToIndex() {
+            return this.toIndex;
+        }
+        private void setToIndex(int toIndex) {
+            this.toIndex = toIndex;
+        }
+
+        AtomicInteger getCopiedResources() {
+            return this.copiedResources;
+        }
+        private void setCopiedResources(AtomicInteger copiedResources) {
+            this.copiedResources = copiedResources;
+        }
+
+    }
+
+    /**
+     * A single file within a source directory that is to be transferred into
+     * the target directory
+     */
+    static class SyncItem {
+
+        private GeneratedWebappCopyHandler copyHandler = null;
+        private Path sourcePath = null;
+        private Path targetPath = null;
+        private String relativePath = null;
+        private BasicFileAttributes sourceAttributes = null;
+        private boolean unchanged = false;
+
+        SyncItem(GeneratedWebappCopyHandler copyHandler, Path sourcePath, Path targetPath, String relativePath, BasicFileAttributes sourceAttributes, boolean unchanged) {
+            this.setCopyHandler(copyHandler);
+            this.setSourcePath(sourcePath);
+            this.setTargetPath(targetPath);
+            this.setRelativePath(relativePath);
+            this.setSourceAttributes(sourceAttributes);
+            this.setUnchanged(unchanged);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        GeneratedWebappCopyHandler getCopyHandler() {
+            return this.copyHandler;
+        }
+        private void setCopyHandler(GeneratedWebappCopyHandler copyHandler) {
+            this.copyHandler = copyHandler;
+        }
+
+        Path getSourcePath() {
+            return this.sourcePath;
+        }
+        private void setSourcePath(Path sourcePath) {
+            this.sourcePath = sourcePath;
+        }
+
+        Path getTargetPath() {
+            return this.targetPath;
+        }
+        private void setTargetPath(Path targetPath) {
+            this.targetPath = targetPath;
+        }
+
+        String getRelativePath() {
+            return this.relativePath;
+        }
+        private void setRelativePath(String relativePath) {
+            this.relativePath = relativePath;
+        }
+
+        BasicFileAttributes getSourceAttributes() {
+            return this.sourceAttributes;
+        }
+        private void setSourceAttributes(BasicFileAttributes sourceAttributes) {
+            this.sourceAttributes = sourceAttributes;
+        }
+
+        boolean isUnchanged() {
+            return this.unchanged;
+        }
+        private void setUnchanged(boolean unchanged) {
+            this.unchanged = unchanged;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    int getParallelism() {
+        return this.parallelism;
+    }
+    private void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+}
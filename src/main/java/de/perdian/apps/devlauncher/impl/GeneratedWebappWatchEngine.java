@@ -0,0 +1,349 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.devlauncher.impl.GeneratedWebappCopyHandler.PathPair;
+
+/**
+ * Launcher wide engine that watches the source directories of all copy
+ * definitions. Only a single {@link WatchService} is opened per file system
+ * and all events are processed by one dispatcher thread, which routes every
+ * {@link WatchKey} to the handlers that have registered the watched directory.
+ *
+ * @author Christian Robert
+ */
+
+class GeneratedWebappWatchEngine implements GeneratedWebappChangeDetector, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedWebappWatchEngine.class);
+    private static final long DISPATCHER_POLL_MILLIS = 500;
+    private static final long DISPATCHER_MULTIPLE_POLL_MILLIS = 50;
+
+    private static GeneratedWebappWatchEngine sharedEngine = null;
+    private static int sharedEngineReferences = 0;
+
+    private volatile boolean closed = false;
+    private Thread dispatcherThread = null;
+    private Map<FileSystem, WatchService> watchServices = new ConcurrentHashMap<>();
+    private Map<WatchKey, List<WatchRegistration>> watchRegistrations = new ConcurrentHashMap<>();
+    private Set<GeneratedWebappCopyHandler> copyHandlers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Gets the engine shared by all copy handlers, creating it if necessary.
+     * Every call must be balanced by a call to {@link #release}.
+     */
+    static synchronized GeneratedWebappWatchEngine acquire() {
+        if (sharedEngine == null) {
+            sharedEngine = new GeneratedWebappWatchEngine();
+        }
+        sharedEngineReferences++;
+        return sharedEngine;
+    }
+
+    /**
+     * Releases a reference to the shared engine. Once the last reference has
+     * been released all the underlying watch services are closed.
+     */
+    static synchronized void release(GeneratedWebappWatchEngine engine) throws IOException {
+        if (engine == sharedEngine && --sharedEngineReferences <= 0) {
+            sharedEngine = null;
+            sharedEngineReferences = 0;
+            engine.close();
+        }
+    }
+
+    @Override
+    public void release() throws IOException {
+        GeneratedWebappWatchEngine.release(this);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.setClosed(true);
+        for (WatchService watchService : this.getWatchServices().values()) {
+            watchService.close();
+        }
+        this.getWatchServices().clear();
+        this.getWatchRegistrations().clear();
+        this.getCopyHandlers().clear();
+    }
+
+    /**
+     * Registers the given directory. The key is registered and mapped to the
+     * handler while holding the lock of the engine, which the dispatcher also
+     * takes before looking up the handlers of a key, so that events arriving
+     * right after the registration are never dropped.
+     */
+    @Override
+    public synchronized void register(Path sourcePath, Path targetPath, GeneratedWebappCopyHandler copyHandler) throws IOException {
+        WatchService watchService = this.ensureWatchService(sourcePath.getFileSystem());
+        WatchKey watchKey = sourcePath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        WatchRegistration watchRegistration = new WatchRegistration(copyHandler, new PathPair(sourcePath, targetPath));
+        this.getCopyHandlers().add(copyHandler);
+        this.getWatchRegistrations().compute(watchKey, (key, registrations) -> {
+            List<WatchRegistration> newRegistrations = new ArrayList<>();
+            if (registrations != null) {
+                registrations.stream().filter(registration -> registration.getCopyHandler() != copyHandler).forEach(newRegistrations::add);
+            }
+            newRegistrations.add(watchRegistration);
+            return newRegistrations;
+        });
+    }
+
+    /**
+     * Removes all registrations of the given handler and cancels all watch
+     * keys that are no longer used by any handler
+     */
+    @Override
+    public synchronized void unregister(GeneratedWebappCopyHandler copyHandler) {
+        this.getCopyHandlers().remove(copyHandler);
+        for (WatchKey watchKey : this.getWatchRegistrations().keySet()) {
+            List<WatchRegistration> remainingRegistrations = this.getWatchRegistrations().computeIfPresent(watchKey, (key, registrations) -> {
+                List<WatchRegistration> newRegistrations = registrations.stream().filter(registration -> registration.getCopyHandler() != copyHandler).collect(Collectors.toList());
+                return newRegistrations.isEmpty() ? null : newRegistrations;
+            });
+            if (remainingRegistrations == null) {
+                watchKey.cancel();
+            }
+        }
+    }
+
+    private synchronized WatchService ensureWatchService(FileSystem fileSystem) throws IOException {
+        if (this.isClosed()) {
+            throw new ClosedWatchServiceException();
+        }
+        WatchService watchService = this.getWatchServices().get(fileSystem);
+        if (watchService == null) {
+            log.debug("Opening WatchService for file system: {}", fileSystem);
+            watchService = fileSystem.newWatchService();
+            this.getWatchServices().put(fileSystem, watchService);
+        }
+        if (this.getDispatcherThread() == null) {
+            Thread dispatcherThread = new Thread(this::dispatchEvents);
+            dispatcherThread.setName(GeneratedWebappWatchEngine.class.getSimpleName() + "[Dispatcher]");
+            dispatcherThread.setDaemon(true);
+            dispatcherThread.start();
+            this.setDispatcherThread(dispatcherThread);
+        }
+        return watchService;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Event dispatching ---------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private void dispatchEvents() {
+        while (!this.isClosed()) {
+            try {
+                long nextFlushMillis = this.flushPendingChanges();
+                long pollMillis = nextFlushMillis < 0 ? DISPATCHER_POLL_MILLIS : Math.max(1, Math.min(DISPATCHER_POLL_MILLIS, nextFlushMillis - System.currentTimeMillis()));
+                WatchKey watchKey = this.pollWatchKey(pollMillis);
+                if (watchKey != null) {
+                    this.dispatchWatchKey(watchKey);
+                }
+            } catch (ClosedWatchServiceException e) {
+                log.trace("File watching service has been closed", e);
+            } catch (InterruptedException e) {
+                log.warn("File watching service has been interrupted", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the pending changes of all handlers whose quiet period has
+     * elapsed
+     *
+     * @return
+     *      the time (in milliseconds) at which the next handler will have to
+     *      be flushed or {@code -1} if no more changes are pending
+     */
+    private long flushPendingChanges() {
+        long currentMillis = System.currentTimeMillis();
+        long nextFlushMillis = -1;
+        for (GeneratedWebappCopyHandler copyHandler : this.getCopyHandlers()) {
+            long handlerFlushMillis = copyHandler.getPendingChangesDeadline();
+            if (handlerFlushMillis >= 0 && handlerFlushMillis <= currentMillis) {
+                try {
+                    copyHandler.flushPendingChanges();
+                } catch (Exception e) {
+                    log.debug("Cannot apply pending changes", e);
+                }
+            } else if (handlerFlushMillis >= 0) {
+                nextFlushMillis = nextFlushMillis < 0 ? handlerFlushMillis : Math.min(nextFlushMillis, handlerFlushMillis);
+            }
+        }
+        return nextFlushMillis;
+    }
+
+    private WatchKey pollWatchKey(long timeoutMillis) throws InterruptedException {
+        Collection<WatchService> watchServices = this.getWatchServices().values();
+        if (watchServices.size() == 1) {
+            return watchServices.iterator().next().poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+            for (WatchService watchService : watchServices) {
+                WatchKey watchKey = watchService.poll();
+                if (watchKey != null) {
+                    return watchKey;
+                }
+            }
+            Thread.sleep(watchServices.isEmpty() ? timeoutMillis : Math.min(timeoutMillis, DISPATCHER_MULTIPLE_POLL_MILLIS));
+            return null;
+        }
+    }
+
+    private void dispatchWatchKey(WatchKey watchKey) {
+        try {
+            List<WatchEvent<?>> watchEvents = watchKey.pollEvents();
+            List<WatchRegistration> registrations = null;
+            synchronized (this) {
+                registrations = this.getWatchRegistrations().get(watchKey);
+            }
+            if (registrations != null) {
+                for (WatchRegistration registration : registrations) {
+                    try {
+                        registration.getCopyHandler().handleWatchEvents(registration.getPathPair(), watchEvents);
+                    } catch (Exception e) {
+                        log.debug("Cannot handle WatchKey: {}", watchKey, e);
+                    }
+                }
+            }
+        } finally {
+            if (!watchKey.reset()) {
+                log.debug("Removing watch key: " + watchKey);
+                this.getWatchRegistrations().remove(watchKey);
+            }
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Statistics ----------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    @Override
+    public int getWatchCount() {
+        return this.getWatchRegistrations().size();
+    }
+
+    @Override
+    public String getSummary() {
+        return "watching " + this.getWatchCount() + " directories using " + this.getWatchServiceCount() + " watch services and " + this.getDispatcherThreadCount() + " dispatcher threads";
+    }
+
+    /**
+     * @return
+     *      the number of underlying watch services (one per file system)
+     */
+    int getWatchServiceCount() {
+        return this.getWatchServices().size();
+    }
+
+    /**
+     * @return
+     *      the number of threads used to dispatch the watch events
+     */
+    int getDispatcherThreadCount() {
+        Thread dispatcherThread = this.getDispatcherThread();
+        return dispatcherThread != null && dispatcherThread.isAlive() ? 1 : 0;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class WatchRegistration {
+
+        private GeneratedWebappCopyHandler copyHandler = null;
+        private PathPair pathPair = null;
+
+        WatchRegistration(GeneratedWebappCopyHandler copyHandler, PathPair pathPair) {
+            this.setCopyHandler(copyHandler);
+            this.setPathPair(pathPair);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        GeneratedWebappCopyHandler getCopyHandler() {
+            return this.copyHandler;
+        }
+        private void setCopyHandler(GeneratedWebappCopyHandler copyHandler) {
+            this.copyHandler = copyHandler;
+        }
+
+        PathPair getPathPair() {
+            return this.pathPair;
+        }
+        private void setPathPair(PathPair pathPair) {
+            this.pathPair = pathPair;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private boolean isClosed() {
+        return this.closed;
+    }
+    private void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
+    private Thread getDispatcherThread() {
+        return this.dispatcherThread;
+    }
+    private void setDispatcherThread(Thread dispatcherThread) {
+        this.dispatcherThread = dispatcherThread;
+    }
+
+    private Map<FileSystem, WatchService> getWatchServices() {
+        return this.watchServices;
+    }
+
+    private Map<WatchKey, List<WatchRegistration>> getWatchRegistrations() {
+        return this.watchRegistrations;
+    }
+
+    private Set<GeneratedWebappCopyHandler> getCopyHandlers() {
+        return this.copyHandlers;
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.deploy.WebXml;
+import org.apache.catalina.startup.ContextConfig;
+import org.apache.catalina.startup.TldConfig;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.devlauncher.DevLauncherJarScannerCallback;
+
+/**
+ * Customizes how the JARs of a context are scanned while the context is being
+ * started.
+ *
+ * JARs can be excluded from the scan for annotations and TLDs using include
+ * and exclude patterns, which are matched against the file name of the JAR.
+ * Excluded JARs are still scanned for web fragments, so their
+ * {@code web-fragment.xml} and their static resources are available as
+ * before. Unchanged JARs in which a previous scan hasn't found anything are
+ * skipped using the {@link WebappScanCache}. The time spent scanning every
+ * JAR is recorded, so that the most expensive JARs can be reported once the
+ * context has been started.
+ *
+ * @author Christian Robert
+ */
+
+class WebappJarScanCustomizer {
+
+    private static final Logger log = LoggerFactory.getLogger(WebappJarScanCustomizer.class);
+    private static final int REPORTED_JARS_LIMIT = 10;
+
+    private WebappScanCache scanCache = null;
+    private GeneratedWebappPathRules jarRules = null;
+    private Map<Path, ScanCost> scanCosts = new ConcurrentHashMap<>();
+    private Set<Path> excludedJarFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a new customizer
+     *
+     * @param scanCache
+     *      the cache in which the results of previous scans are stored or
+     *      {@code null} if every JAR should be scanned
+     * @param jarRules
+     *      the rules defining which JARs are scanned for annotations and TLDs
+     *      or {@code null} if every JAR should be scanned
+     */
+    WebappJarScanCustomizer(WebappScanCache scanCache, GeneratedWebappPathRules jarRules) {
+        this.setScanCache(scanCache);
+        this.setJarRules(jarRules);
+    }
+
+    /**
+     * Installs the customizations into the given context
+     */
+    void install(Context context) {
+
+        // The scan for annotations is performed by the ContextConfig, so the
+        // original instance created by Tomcat is replaced by our own one
+        LifecycleListener[] existingListeners = context.findLifecycleListeners();
+        for (LifecycleListener existingListener : existingListeners) {
+            context.removeLifecycleListener(existingListener);
+        }
+        for (LifecycleListener existingListener : existingListeners) {
+            if (existingListener.getClass().equals(ContextConfig.class)) {
+                CustomizedContextConfig customizedContextConfig = new CustomizedContextConfig();
+                customizedContextConfig.setDefaultWebXml(((ContextConfig)existingListener).getDefaultWebXml());
+                context.addLifecycleListener(customizedContextConfig);
+            } else {
+                context.addLifecycleListener(existingListener);
+            }
+        }
+
+        context.setJarScanner(new CustomizedJarScanner(context.getJarScanner() == null ? new StandardJarScanner() : context.getJarScanner()));
+        context.addLifecycleListener(event -> {
+            if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+                this.getScanCosts().clear();
+                this.getExcludedJarFiles().clear();
+                if (this.getScanCache() != null) {
+                    this.getScanCache().resetScanCounts();
+                }
+            } else if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+                log.info(this.formatScanCostSummary(context.getPath()));
+                if (this.getScanCache() != null) {
+                    try {
+                        this.getScanCache().save();
+                    } catch (Exception e) {
+                        log.debug("Cannot write scan cache for context: {}", context.getPath(), e);
+                    }
+                }
+            }
+        });
+
+    }
+
+    private boolean isJarExcluded(Path jarFile) {
+        if (this.getJarRules() != null && !this.getJarRules().isFileIncluded(jarFile.getFileName().toString())) {
+            this.getExcludedJarFiles().add(jarFile);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void recordScanCost(Path jarFile, ScanType scanType, long startNanos) {
+        this.getScanCosts().computeIfAbsent(jarFile, key -> new ScanCost()).getNanos(scanType).addAndGet(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return
+     *      the summary of the time spent scanning the JARs, listing the most
+     *      expensive JARs first
+     */
+    String formatScanCostSummary(String contextPath) {
+        List<Map.Entry<Path, ScanCost>> sortedScanCosts = this.getScanCosts().entrySet().stream().sorted(Comparator.comparingLong((Map.Entry<Path, ScanCost> entry) -> entry.getValue().getTotalNanos()).reversed()).collect(Collectors.toList());
+        long totalNanos = sortedScanCosts.stream().mapToLong(entry -> entry.getValue().getTotalNanos()).sum();
+        StringBuilder summary = new StringBuilder();
+        summary.append("Scanned ").append(sortedScanCosts.size()).append(" JARs for context '").append(contextPath).append("' in ").append(totalNanos / 1000000).append(" ms");
+        summary.append(" (").append(this.getExcludedJarFiles().size()).append(" JARs excluded from annotation and TLD scan");
+        if (this.getScanCache() != null) {
+            summary.append(", ").append(this.getScanCache().getSkippedScanCount()).append(" scans of unchanged JARs skipped");
+        }
+        summary.append(")");
+        for (Map.Entry<Path, ScanCost> scanCostEntry : sortedScanCosts.subList(0, Math.min(REPORTED_JARS_LIMIT, sortedScanCosts.size()))) {
+            ScanCost scanCost = scanCostEntry.getValue();
+            summary.append(String.format("%n  %6d ms  %s (", scanCost.getTotalNanos() / 1000000, scanCostEntry.getKey()));
+            summary.append(Arrays.stream(ScanType.values()).map(scanType -> scanType.getDisplayName() + " " + scanCost.getNanos(scanType).get() / 1000000 + " ms").collect(Collectors.joining(", ")));
+            summary.append(")");
+        }
+        return summary.toString();
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    enum ScanType {
+
+        FRAGMENTS("fragments"),
+        ANNOTATIONS("annotations"),
+        TLDS("TLDs");
+
+        private String displayName = null;
+
+        private ScanType(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String getDisplayName() {
+            return this.displayName;
+        }
+
+    }
+
+    static class ScanCost {
+
+        private AtomicLong[] nanos = new AtomicLong[] { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+
+        AtomicLong getNanos(ScanType scanType) {
+            return this.nanos[scanType.ordinal()];
+        }
+
+        long getTotalNanos() {
+            return Arrays.stream(this.nanos).mapToLong(AtomicLong::get).sum();
+        }
+
+    }
+
+    /**
+     * Applies the include and exclude rules and the scan cache to the
+     * annotation scan of every JAR
+     */
+    class CustomizedContextConfig extends ContextConfig {
+
+        @Override
+        protected void processAnnotationsJar(URL url, WebXml fragment, boolean handlesTypesOnly) {
+            Path jarFile = WebappScanCache.resolveJarFile(url);
+            if (jarFile == null) {
+                super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+            } else if (WebappJarScanCustomizer.this.isJarExcluded(jarFile)) {
+                log.trace("Skipping annotation scan of excluded JAR: {}", jarFile);
+            } else {
+                long scanStartNanos = System.nanoTime();
+                try {
+                    if (WebappJarScanCustomizer.this.getScanCache() == null) {
+                        super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+                    } else {
+                        this.processAnnotationsJarCached(jarFile, url, fragment, handlesTypesOnly);
+                    }
+                } finally {
+                    WebappJarScanCustomizer.this.recordScanCost(jarFile, ScanType.ANNOTATIONS, scanStartNanos);
+                }
+            }
+        }
+
+        private void processAnnotationsJarCached(Path jarFile, URL url, WebXml fragment, boolean handlesTypesOnly) {
+            WebappScanCache scanCache = WebappJarScanCustomizer.this.getScanCache();
+            try {
+                String handlesTypesSignature = this.computeHandlesTypesSignature();
+                String annotationsScanType = "annotations:" + handlesTypesSignature;
+                String handlesTypesScanType = "handlesTypes:" + handlesTypesSignature;
+                if (scanCache.isScanEmpty(jarFile, annotationsScanType) || (handlesTypesOnly && scanCache.isScanEmpty(jarFile, handlesTypesScanType))) {
+                    log.trace("Skipping annotation scan of unchanged JAR: {}", jarFile);
+                } else {
+
+                    // The fragment passed by Tomcat is created freshly for
+                    // every JAR, so everything it contains after the scan
+                    // has been found within the JAR
+                    int initializerClassCount = this.countInitializerClasses();
+                    super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+                    boolean scanEmpty = fragment.getServlets().isEmpty() && fragment.getServletMappings().isEmpty() && fragment.getFilters().isEmpty() && fragment.getFilterMappings().isEmpty() && fragment.getListeners().isEmpty() && this.countInitializerClasses() == initializerClassCount;
+                    scanCache.recordScan(jarFile, handlesTypesOnly ? handlesTypesScanType : annotationsScanType, scanEmpty);
+
+                }
+            } catch (IOException e) {
+                log.debug("Cannot consult scan cache for JAR: {}", jarFile, e);
+                super.processAnnotationsJar(url, fragment, handlesTypesOnly);
+            }
+        }
+
+        private String computeHandlesTypesSignature() {
+            String handledTypes = this.typeInitializerMap.keySet().stream().map(Class::getName).sorted().collect(Collectors.joining(","));
+            return UUID.nameUUIDFromBytes(handledTypes.getBytes(StandardCharsets.UTF_8)).toString();
+        }
+
+        private int countInitializerClasses() {
+            return this.initializerClassMap.values().stream().mapToInt(initializerClasses -> initializerClasses == null ? 0 : initializerClasses.size()).sum();
+        }
+
+    }
+
+    /**
+     * Applies the include and exclude rules and the scan cache to the TLD
+     * scan of every JAR and records the time spent in all scans
+     */
+    class CustomizedJarScanner implements JarScanner {
+
+        private JarScanner delegate = null;
+
+        CustomizedJarScanner(JarScanner delegate) {
+            this.setDelegate(delegate);
+        }
+
+        @Override
+        public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback callback, Set<String> jarsToSkip) {
+            // The callback may already have been wrapped by another scanner,
+            // so the kind of scan is determined by the callback originally
+            // passed by Tomcat
+            boolean tldScan = TldConfig.class.equals(DevLauncherJarScannerCallback.unwrap(callback).getClass().getEnclosingClass());
+            this.getDelegate().scan(context, classloader, new DevLauncherJarScannerCallback() {
+
+                @Override
+                public JarScannerCallback getWrappedCallback() {
+                    return callback;
+                }
+
+                @Override
+                public void scan(JarURLConnection urlConnection) throws IOException {
+                    Path jarFile = WebappScanCache.resolveJarFile(urlConnection.getJarFileURL());
+                    if (jarFile == null) {
+                        callback.scan(urlConnection);
+                    } else if (!tldScan) {
+                        long scanStartNanos = System.nanoTime();
+                        try {
+                            callback.scan(urlConnection);
+                        } finally {
+                            WebappJarScanCustomizer.this.recordScanCost(jarFile, ScanType.FRAGMENTS, scanStartNanos);
+                        }
+                    } else if (WebappJarScanCustomizer.this.isJarExcluded(jarFile)) {
+                        log.trace("Skipping TLD scan of excluded JAR: {}", jarFile);
+                    } else {
+                        long scanStartNanos = System.nanoTime();
+                        try {
+                            WebappScanCache scanCache = WebappJarScanCustomizer.this.getScanCache();
+                            if (scanCache == null) {
+                                callback.scan(urlConnection);
+                            } else if (scanCache.isScanEmpty(jarFile, WebappScanCache.SCAN_TYPE_TLD)) {
+                                log.trace("Skipping TLD scan of unchanged JAR: {}", jarFile);
+                            } else {
+                                scanCache.recordScan(jarFile, WebappScanCache.SCAN_TYPE_TLD, !WebappScanCache.containsTlds(jarFile));
+                                callback.scan(urlConnection);
+                            }
+                        } finally {
+                            WebappJarScanCustomizer.this.recordScanCost(jarFile, ScanType.TLDS, scanStartNanos);
+                        }
+                    }
+                }
+
+                @Override
+                public void scan(File file) throws IOException {
+                    callback.scan(file);
+                }
+
+            }, jarsToSkip);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        JarScanner getDelegate() {
+            return this.delegate;
+        }
+        private void setDelegate(JarScanner delegate) {
+            this.delegate = delegate;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    WebappScanCache getScanCache() {
+        return this.scanCache;
+    }
+    private void setScanCache(WebappScanCache scanCache) {
+        this.scanCache = scanCache;
+    }
+
+    GeneratedWebappPathRules getJarRules() {
+        return this.jarRules;
+    }
+    private void setJarRules(GeneratedWebappPathRules jarRules) {
+        this.jarRules = jarRules;
+    }
+
+    private Map<Path, ScanCost> getScanCosts() {
+        return this.scanCosts;
+    }
+
+    private Set<Path> getExcludedJarFiles() {
+        return this.excludedJarFiles;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the library JARs of a web application and is kept alive across
+ * restarts of the web application, so that the library classes don't have to
+ * be loaded and compiled by the JIT again after every restart.
+ *
+ * Classes are loaded from the JARs before asking the parent, the same way the
+ * web application class loader does, except for the classes of the JRE and
+ * of the servlet container, which are always taken from the parent.
+ *
+ * @author Christian Robert
+ */
+
+class WebappLibraryClassLoader extends URLClassLoader {
+
+    private static final String[] CONTAINER_PACKAGES = { "javax.servlet.", "javax.el.", "javax.websocket.", "org.apache.catalina.", "org.apache.coyote.", "org.apache.el.", "org.apache.jasper.", "org.apache.juli.", "org.apache.naming.", "org.apache.tomcat." };
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private List<String> jarSignatures = null;
+    private ClassLoader javaseClassLoader = null;
+
+    WebappLibraryClassLoader(List<Path> jarFiles, ClassLoader parent) throws IOException {
+        super(WebappLibraryClassLoader.toUrls(jarFiles), parent);
+        this.setJarSignatures(WebappLibraryClassLoader.computeJarSignatures(jarFiles));
+        this.setJavaseClassLoader(ClassLoader.getSystemClassLoader().getParent() == null ? ClassLoader.getSystemClassLoader() : ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    private static URL[] toUrls(List<Path> jarFiles) throws MalformedURLException {
+        URL[] urls = new URL[jarFiles.size()];
+        for (int i = 0; i < jarFiles.size(); i++) {
+            urls[i] = jarFiles.get(i).toUri().toURL();
+        }
+        return urls;
+    }
+
+    private static List<String> computeJarSignatures(List<Path> jarFiles) throws IOException {
+        List<String> jarSignatures = new ArrayList<>(jarFiles.size());
+        for (Path jarFile : jarFiles) {
+            jarSignatures.add(jarFile + ":" + Files.size(jarFile) + ":" + Files.getLastModifiedTime(jarFile).toMillis());
+        }
+        return jarSignatures;
+    }
+
+    /**
+     * Checks whether the JARs loaded by this instance are still the current
+     * library JARs of the web application
+     */
+    boolean isStale(List<Path> currentJarFiles) throws IOException {
+        return !this.getJarSignatures().equals(WebappLibraryClassLoader.computeJarSignatures(currentJarFiles));
+    }
+
+    /**
+     * Loads a class from the library JARs only
+     *
+     * @return
+     *      the class or {@code null} if the class is not contained in any of
+     *      the library JARs or must be loaded by the servlet container
+     */
+    Class<?> loadLibraryClass(String name) {
+        if (WebappLibraryClassLoader.isContainerClass(name)) {
+            return null;
+        } else {
+            synchronized (this.getClassLoadingLock(name)) {
+                Class<?> libraryClass = this.findLoadedClass(name);
+                if (libraryClass == null) {
+                    try {
+                        libraryClass = this.findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return null;
+                    }
+                }
+                return libraryClass;
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> javaseClass = null;
+        try {
+            javaseClass = this.getJavaseClassLoader().loadClass(name);
+        } catch (ClassNotFoundException e) {
+            // Not a class of the JRE, so continue with the library JARs
+        }
+        Class<?> resultClass = javaseClass != null ? javaseClass : this.loadLibraryClass(name);
+        if (resultClass == null) {
+            return super.loadClass(name, resolve);
+        } else {
+            if (resolve) {
+                this.resolveClass(resultClass);
+            }
+            return resultClass;
+        }
+    }
+
+    private static boolean isContainerClass(String name) {
+        if (name.startsWith("java.")) {
+            return true;
+        } else {
+            for (String containerPackage : CONTAINER_PACKAGES) {
+                if (name.startsWith(containerPackage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private List<String> getJarSignatures() {
+        return this.jarSignatures;
+    }
+    private void setJarSignatures(List<String> jarSignatures) {
+        this.jarSignatures = jarSignatures;
+    }
+
+    private ClassLoader getJavaseClassLoader() {
+        return this.javaseClassLoader;
+    }
+    private void setJavaseClassLoader(ClassLoader javaseClassLoader) {
+        this.javaseClassLoader = javaseClassLoader;
+    }
+
+}
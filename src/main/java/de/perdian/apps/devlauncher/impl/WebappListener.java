@@ -19,6 +19,11 @@ package de.perdian.apps.devlauncher.impl;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
@@ -41,6 +46,10 @@ public abstract class WebappListener implements DevLauncherListener {
     private String contextName = null;
     private Path contextConfigurationFile = null;
     private String contextConfigurationFileName = null;
+    private boolean scanCache = true;
+    private List<String> jarScanIncludes = new ArrayList<>();
+    private List<String> jarScanExcludes = new ArrayList<>();
+    private List<String> reloadedJars = new ArrayList<>();
 
     public WebappListener(String contextName) {
         this.setContextName(contextName);
@@ -53,6 +62,7 @@ public abstract class WebappListener implements DevLauncherListener {
         log.info("Resolved webapp directory for webapp context '" + this.getContextName() + "' to: " + webappDirectory);
 
         Context webappContext = this.createWebappContext(tomcat, webappDirectory);
+        this.customizeWebappContext(webappContext, webappDirectory, devLauncher);
         Path contextConfigurationFile = this.resolveContextConfigurationFile();
         if (contextConfigurationFile != null) {
             if (!Files.exists(contextConfigurationFile)) {
@@ -87,8 +97,49 @@ public abstract class WebappListener implements DevLauncherListener {
         }
     }
 
+    /**
+     * Installs the JAR scan cache and the in place restart support into the
+     * created web application context
+     *
+     * @param webappContext
+     *      the context created by {@link #createWebappContext(Tomcat, Path)}
+     * @param webappDirectory
+     *      the web application directory used as root for the context
+     * @param devLauncher
+     *      the launcher instance in which the listener is executed
+     */
+    protected void customizeWebappContext(Context webappContext, Path webappDirectory, DevLauncher devLauncher) throws IOException {
+        WebappScanCache scanCache = this.isScanCache() ? WebappScanCache.load(WebappScanCache.resolveCacheFile(devLauncher.getWorkingDirectory(), this.getContextName())) : null;
+        new WebappJarScanCustomizer(scanCache, GeneratedWebappPathRules.compile(this.getJarScanIncludes(), this.getJarScanExcludes())).install(webappContext);
+        if (devLauncher.isFastRestart()) {
+            WebappRestartSupport restartSupport = new WebappRestartSupport(webappContext, () -> this.resolveLibraryJars(webappDirectory), GeneratedWebappPathRules.compile(this.getReloadedJars(), null));
+            restartSupport.install();
+            devLauncher.addRestartHandler(restartSupport);
+        }
+    }
+
     protected abstract Path resolveWebappDirectory() throws IOException;
 
+    /**
+     * Resolves the library JARs of the web application, which are kept loaded
+     * when the context is restarted in place
+     *
+     * @param webappDirectory
+     *      the web application directory used as root for the context
+     * @return
+     *      the JAR files within the {@code WEB-INF/lib} directory
+     */
+    protected List<Path> resolveLibraryJars(Path webappDirectory) throws IOException {
+        Path libraryDirectory = webappDirectory.resolve("WEB-INF/lib");
+        if (!Files.isDirectory(libraryDirectory)) {
+            return new ArrayList<>();
+        } else {
+            try (Stream<Path> libraryFiles = Files.list(libraryDirectory)) {
+                return libraryFiles.filter(libraryFile -> libraryFile.getFileName().toString().endsWith(".jar") && Files.isRegularFile(libraryFile)).sorted().collect(Collectors.toList());
+            }
+        }
+    }
+
     protected Path resolveContextConfigurationFile() throws IOException {
         return this.getContextConfigurationFile();
     }
@@ -126,4 +177,73 @@ public abstract class WebappListener implements DevLauncherListener {
         this.contextConfigurationFileName = contextConfigurationFileName;
     }
 
+    public WebappListener scanCache(boolean scanCache) {
+        this.setScanCache(scanCache);
+        return this;
+    }
+
+    /**
+     * @return
+     *      whether the JARs of the web application that didn't contain any
+     *      annotations or TLDs during the last launch are skipped when
+     *      scanning, as long as they haven't been changed
+     */
+    public boolean isScanCache() {
+        return this.scanCache;
+    }
+    public void setScanCache(boolean scanCache) {
+        this.scanCache = scanCache;
+    }
+
+    public WebappListener includeInJarScan(String... patterns) {
+        this.getJarScanIncludes().addAll(Arrays.asList(patterns));
+        return this;
+    }
+    /**
+     * @return
+     *      glob patterns of the JAR file names (like {@code spring-*.jar})
+     *      that are scanned for annotations and TLDs. If no includes are
+     *      defined every JAR will be scanned that isn't explicitly excluded.
+     */
+    public List<String> getJarScanIncludes() {
+        return this.jarScanIncludes;
+    }
+    public void setJarScanIncludes(List<String> jarScanIncludes) {
+        this.jarScanIncludes = jarScanIncludes;
+    }
+
+    public WebappListener excludeFromJarScan(String... patterns) {
+        this.getJarScanExcludes().addAll(Arrays.asList(patterns));
+        return this;
+    }
+    /**
+     * @return
+     *      glob patterns of the JAR file names (like {@code bcprov-*.jar})
+     *      that are never scanned for annotations and TLDs. Excluded JARs
+     *      are still scanned for web fragments.
+     */
+    public List<String> getJarScanExcludes() {
+        return this.jarScanExcludes;
+    }
+    public void setJarScanExcludes(List<String> jarScanExcludes) {
+        this.jarScanExcludes = jarScanExcludes;
+    }
+
+    public WebappListener reloadJarsOnRestart(String... patterns) {
+        this.getReloadedJars().addAll(Arrays.asList(patterns));
+        return this;
+    }
+    /**
+     * @return
+     *      glob patterns of the JAR file names (like {@code myproject-*.jar})
+     *      that are loaded again together with the project classes when the
+     *      context is restarted in place, instead of being kept loaded
+     */
+    public List<String> getReloadedJars() {
+        return this.reloadedJars;
+    }
+    public void setReloadedJars(List<String> reloadedJars) {
+        this.reloadedJars = reloadedJars;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.loader.ResourceEntry;
+import org.apache.catalina.loader.WebappClassLoader;
+
+/**
+ * Throwaway class loader for the classes of a web application that is
+ * restarted in place. Classes available within the library JARs are taken
+ * from the {@link WebappLibraryClassLoader} that has been set as parent and
+ * that survives the restart, so that only the classes of the project itself
+ * are loaded again.
+ *
+ * Tomcat instantiates the class loader by name, so it needs to be public.
+ *
+ * @author Christian Robert
+ */
+
+public class WebappRestartClassLoader extends WebappClassLoader {
+
+    public WebappRestartClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    @Override
+    public synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (this.getParent() instanceof WebappLibraryClassLoader) {
+            Class<?> libraryClass = ((WebappLibraryClassLoader)this.getParent()).loadLibraryClass(name);
+            if (libraryClass != null) {
+                if (resolve) {
+                    this.resolveClass(libraryClass);
+                }
+                return libraryClass;
+            }
+        }
+        return super.loadClass(name, resolve);
+    }
+
+    /**
+     * Checks whether any of the classes and resources loaded by this class
+     * loader have been modified since they have been loaded
+     */
+    boolean isModifiedSinceLoaded() {
+        List<ResourceEntry> resourceEntries = null;
+        synchronized (this.resourceEntries) {
+            resourceEntries = new ArrayList<>(this.resourceEntries.values());
+        }
+        for (ResourceEntry resourceEntry : resourceEntries) {
+            URL resourceSource = resourceEntry.source;
+            if (resourceSource != null && "file".equals(resourceSource.getProtocol())) {
+                try {
+                    Path resourceFile = Paths.get(resourceSource.toURI());
+                    if (!Files.exists(resourceFile) || Files.getLastModifiedTime(resourceFile).toMillis() != resourceEntry.lastModified) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    return true;
+                }
+            }
+        }
+        return this.modified();
+    }
+
+}
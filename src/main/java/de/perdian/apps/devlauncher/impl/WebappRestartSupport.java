@@ -0,0 +1,294 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.Loader;
+import org.apache.catalina.loader.WebappLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.perdian.apps.devlauncher.DevLauncherRestartHandler;
+
+/**
+ * Restarts a single context in place, using a throwaway class loader for the
+ * project classes and a {@link WebappLibraryClassLoader} for the library JARs
+ * that survives the restart.
+ *
+ * A restart is only performed if any of the classes or resources loaded by
+ * the context have been modified, or if the library JARs have been changed.
+ * In the latter case the library class loader is replaced as well.
+ *
+ * Only classes within the {@code WEB-INF/classes} directory of the web
+ * application are loaded by the throwaway class loader. If any class directory
+ * on the classpath of the launcher itself has been modified, the restart in
+ * place is refused, since these classes can only be replaced by launching a
+ * new server.
+ *
+ * @author Christian Robert
+ */
+
+class WebappRestartSupport implements DevLauncherRestartHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(WebappRestartSupport.class);
+
+    private Context context = null;
+    private LibraryJarResolver libraryJarResolver = null;
+    private GeneratedWebappPathRules reloadedJarRules = null;
+    private WebappLibraryClassLoader libraryClassLoader = null;
+    private List<Path> launcherClassDirectories = null;
+    private long launcherClassesFingerprint = 0;
+
+    /**
+     * Creates a new instance
+     *
+     * @param context
+     *      the context to be restarted
+     * @param libraryJarResolver
+     *      resolves the library JARs of the web application
+     * @param reloadedJarRules
+     *      the rules defining the JARs that are loaded by the throwaway class
+     *      loader together with the project classes or {@code null} if all
+     *      JARs are kept in the library class loader
+     */
+    WebappRestartSupport(Context context, LibraryJarResolver libraryJarResolver, GeneratedWebappPathRules reloadedJarRules) {
+        this.setContext(context);
+        this.setLibraryJarResolver(libraryJarResolver);
+        this.setReloadedJarRules(reloadedJarRules);
+        this.setLauncherClassDirectories(this.resolveLauncherClassDirectories());
+        this.setLauncherClassesFingerprint(this.computeLauncherClassesFingerprint());
+    }
+
+    /**
+     * Resolves the class directories on the classpath of the launcher, except
+     * for the ones inside the web application directory, which are already
+     * handled by the throwaway class loader
+     */
+    private List<Path> resolveLauncherClassDirectories() {
+        Path webappDirectory = this.getContext().getDocBase() == null ? null : Paths.get(this.getContext().getDocBase()).toAbsolutePath().normalize();
+        String classPath = System.getProperty("java.class.path", "");
+        return Arrays.stream(classPath.split(File.pathSeparator)).filter(entry -> !entry.trim().isEmpty()).map(entry -> Paths.get(entry).toAbsolutePath().normalize()).filter(Files::isDirectory).filter(directory -> webappDirectory == null || !directory.startsWith(webappDirectory)).distinct().collect(Collectors.toList());
+    }
+
+    private long computeLauncherClassesFingerprint() {
+        return WebappRestartSupport.computeFingerprint(this.getLauncherClassDirectories());
+    }
+
+    /**
+     * Computes a fingerprint from the names, sizes and modification times of
+     * all files within the given directories, so that any file being added,
+     * removed or changed will lead to a different value. Every file
+     * contributes a well mixed 64 bit hash and the hashes are combined using
+     * XOR, so the result doesn't depend on the order in which the files are
+     * listed and changes of different files cannot cancel each other out.
+     */
+    static long computeFingerprint(List<Path> directories) {
+        long fingerprint = 0;
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                fingerprint ^= files.mapToLong(file -> {
+                    try {
+                        BasicFileAttributes fileAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        if (!fileAttributes.isRegularFile()) {
+                            return 0L;
+                        } else {
+                            long fileHash = WebappRestartSupport.mix(WebappRestartSupport.hash(file.toString()) ^ fileAttributes.size());
+                            return WebappRestartSupport.mix(fileHash ^ fileAttributes.lastModifiedTime().toMillis());
+                        }
+                    } catch (NoSuchFileException e) {
+                        return 0L;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }).reduce(0L, (left, right) -> left ^ right);
+            } catch (IOException | UncheckedIOException e) {
+                log.debug("Cannot compute fingerprint of launcher class directory: {}", directory, e);
+                fingerprint ^= WebappRestartSupport.mix(WebappRestartSupport.hash(directory.toString()));
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the 64 bit FNV-1a hash of the given value
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of the given value over the complete result (using the
+     * finalizer of SplitMix64)
+     */
+    private static long mix(long value) {
+        long mixedValue = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        mixedValue = (mixedValue ^ (mixedValue >>> 27)) * 0x94d049bb133111ebL;
+        return mixedValue ^ (mixedValue >>> 31);
+    }
+
+    /**
+     * Installs the class loaders into the context
+     */
+    void install() throws IOException {
+        this.installLoader();
+        this.getContext().addLifecycleListener(event -> {
+            if (Lifecycle.AFTER_DESTROY_EVENT.equals(event.getType())) {
+                this.closeLibraryClassLoader();
+            }
+        });
+    }
+
+    private void installLoader() throws IOException {
+        List<Path> libraryJars = this.resolveLibraryJars();
+        ClassLoader parentClassLoader = this.getContext().getParentClassLoader() == null ? WebappRestartSupport.class.getClassLoader() : this.getContext().getParentClassLoader();
+        WebappLibraryClassLoader libraryClassLoader = new WebappLibraryClassLoader(libraryJars, parentClassLoader);
+        WebappLoader webappLoader = new WebappLoader(libraryClassLoader);
+        webappLoader.setLoaderClass(WebappRestartClassLoader.class.getName());
+        this.getContext().setLoader(webappLoader);
+        this.setLibraryClassLoader(libraryClassLoader);
+        log.debug("Loading {} library JARs of context '{}' using class loader surviving restarts", libraryJars.size(), this.getContext().getPath());
+    }
+
+    private List<Path> resolveLibraryJars() throws IOException {
+        return this.getLibraryJarResolver().resolveLibraryJars().stream().filter(jarFile -> this.getReloadedJarRules() == null || !this.getReloadedJarRules().isFileIncluded(jarFile.getFileName().toString())).collect(Collectors.toList());
+    }
+
+    private void closeLibraryClassLoader() {
+        if (this.getLibraryClassLoader() != null) {
+            try {
+                this.getLibraryClassLoader().close();
+            } catch (IOException e) {
+                log.debug("Cannot close library class loader of context '{}'", this.getContext().getPath(), e);
+            }
+            this.setLibraryClassLoader(null);
+        }
+    }
+
+    @Override
+    public boolean isRestartPossible() {
+        if (this.computeLauncherClassesFingerprint() != this.getLauncherClassesFingerprint()) {
+            log.info("Classes on the launcher classpath used by context '{}' have been modified - restart in place not possible", this.getContext().getPath());
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    @Override
+    public boolean restart() throws Exception {
+        Loader loader = this.getContext().getLoader();
+        boolean contextAvailable = this.getContext().getState().isAvailable();
+        boolean librariesModified = this.getLibraryClassLoader() == null || this.getLibraryClassLoader().isStale(this.resolveLibraryJars());
+        boolean classesModified = loader == null || !(loader.getClassLoader() instanceof WebappRestartClassLoader) || ((WebappRestartClassLoader)loader.getClassLoader()).isModifiedSinceLoaded();
+        if (contextAvailable && !librariesModified && !classesModified) {
+            log.debug("No modifications found in context '{}' - skipping restart", this.getContext().getPath());
+            return false;
+        } else {
+            long restartStartNanos = System.nanoTime();
+            if (librariesModified) {
+                this.getContext().stop();
+                this.closeLibraryClassLoader();
+                this.installLoader();
+                this.getContext().start();
+            } else if (contextAvailable) {
+                this.getContext().reload();
+            } else {
+                this.getContext().stop();
+                this.getContext().start();
+            }
+            String reason = librariesModified ? "library JARs modified" : classesModified ? "classes modified" : "context unavailable";
+            log.info("Restarted context '{}' in place in {} ms ({})", this.getContext().getPath(), (System.nanoTime() - restartStartNanos) / 1000000, reason);
+            return true;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    @FunctionalInterface
+    interface LibraryJarResolver {
+
+        List<Path> resolveLibraryJars() throws IOException;
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    Context getContext() {
+        return this.context;
+    }
+    private void setContext(Context context) {
+        this.context = context;
+    }
+
+    LibraryJarResolver getLibraryJarResolver() {
+        return this.libraryJarResolver;
+    }
+    private void setLibraryJarResolver(LibraryJarResolver libraryJarResolver) {
+        this.libraryJarResolver = libraryJarResolver;
+    }
+
+    GeneratedWebappPathRules getReloadedJarRules() {
+        return this.reloadedJarRules;
+    }
+    private void setReloadedJarRules(GeneratedWebappPathRules reloadedJarRules) {
+        this.reloadedJarRules = reloadedJarRules;
+    }
+
+    WebappLibraryClassLoader getLibraryClassLoader() {
+        return this.libraryClassLoader;
+    }
+    private void setLibraryClassLoader(WebappLibraryClassLoader libraryClassLoader) {
+        this.libraryClassLoader = libraryClassLoader;
+    }
+
+    List<Path> getLauncherClassDirectories() {
+        return this.launcherClassDirectories;
+    }
+    private void setLauncherClassDirectories(List<Path> launcherClassDirectories) {
+        this.launcherClassDirectories = launcherClassDirectories;
+    }
+
+    long getLauncherClassesFingerprint() {
+        return this.launcherClassesFingerprint;
+    }
+    private void setLauncherClassesFingerprint(long launcherClassesFingerprint) {
+        this.launcherClassesFingerprint = launcherClassesFingerprint;
+    }
+
+}
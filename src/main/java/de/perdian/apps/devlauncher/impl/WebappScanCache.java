@@ -0,0 +1,331 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent record of the JAR files in which the scans performed while
+ * starting a context haven't found anything. Unchanged JARs are skipped in
+ * these scans during subsequent launches.
+ *
+ * Two scans are cached (see {@link WebappJarScanCustomizer}): The annotation
+ * scan, in which every class within a JAR is checked for servlet annotations
+ * and for types handled by a {@code ServletContainerInitializer}, and the TLD
+ * scan, in which every JAR is searched for tag library descriptors. As the
+ * result of the annotation scan depends upon the types handled by the
+ * initializers, these types are part of the scan type. The scan for web
+ * fragments isn't cached, since the fragments are needed for the further
+ * configuration of the context anyway.
+ *
+ * A JAR is identified by its path, its size and a fingerprint of its content.
+ * As long as size and modification time are unchanged the fingerprint is not
+ * computed again.
+ *
+ * @author Christian Robert
+ */
+
+class WebappScanCache {
+
+    private static final Logger log = LoggerFactory.getLogger(WebappScanCache.class);
+    private static final int CACHE_VERSION = 1;
+    static final String SCAN_TYPE_TLD = "tld";
+
+    private Path cacheFile = null;
+    private Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private Set<Path> usedJarFiles = ConcurrentHashMap.newKeySet();
+    private AtomicLong skippedScans = new AtomicLong();
+    private AtomicLong performedScans = new AtomicLong();
+
+    /**
+     * Resolves the file in which the scan results for a context are stored
+     */
+    static Path resolveCacheFile(Path workingDirectory, String contextName) {
+        return workingDirectory.resolve("scancache/" + UUID.nameUUIDFromBytes(contextName.getBytes(StandardCharsets.UTF_8)) + ".cache");
+    }
+
+    /**
+     * Loads the cache from the given file. If the file doesn't exist or
+     * cannot be read an empty cache is returned, which simply means that all
+     * JARs will be scanned again.
+     */
+    static WebappScanCache load(Path cacheFile) {
+        WebappScanCache scanCache = new WebappScanCache();
+        scanCache.setCacheFile(cacheFile);
+        if (Files.exists(cacheFile)) {
+            try (DataInputStream cacheStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+                if (cacheStream.readInt() != CACHE_VERSION) {
+                    log.debug("Ignoring scan cache with unsupported version at: {}", cacheFile);
+                } else {
+                    for (int i = cacheStream.readInt(); i > 0; i--) {
+                        Path jarFile = Paths.get(cacheStream.readUTF());
+                        Entry entry = new Entry(cacheStream.readLong(), cacheStream.readLong(), cacheStream.readLong());
+                        for (int j = cacheStream.readInt(); j > 0; j--) {
+                            entry.getEmptyScanTypes().add(cacheStream.readUTF());
+                        }
+                        scanCache.getEntries().put(jarFile, entry);
+                    }
+                    log.trace("Loaded {} scan cache entries from: {}", scanCache.getEntries().size(), cacheFile);
+                }
+            } catch (IOException e) {
+                log.debug("Cannot read scan cache from: {} [{}]", cacheFile, e.toString());
+                scanCache.getEntries().clear();
+            }
+        }
+        return scanCache;
+    }
+
+    /**
+     * Writes the cache into its file. Only the entries of JARs that have been
+     * scanned during this launch are written, so JARs that have been removed
+     * from the web application in the meantime are dropped automatically.
+     */
+    void save() throws IOException {
+        List<Path> usedJarFiles = this.getUsedJarFiles().stream().filter(this.getEntries()::containsKey).collect(Collectors.toList());
+        Path cacheFile = this.getCacheFile();
+        Path temporaryFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        Files.createDirectories(cacheFile.getParent());
+        try (DataOutputStream cacheStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            cacheStream.writeInt(CACHE_VERSION);
+            cacheStream.writeInt(usedJarFiles.size());
+            for (Path jarFile : usedJarFiles) {
+                Entry entry = this.getEntries().get(jarFile);
+                cacheStream.writeUTF(jarFile.toString());
+                cacheStream.writeLong(entry.getSize());
+                cacheStream.writeLong(entry.getLastModified());
+                cacheStream.writeLong(entry.getFingerprint());
+                cacheStream.writeInt(entry.getEmptyScanTypes().size());
+                for (String emptyScanType : entry.getEmptyScanTypes()) {
+                    cacheStream.writeUTF(emptyScanType);
+                }
+            }
+        }
+        Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.trace("Stored {} scan cache entries into: {}", usedJarFiles.size(), cacheFile);
+    }
+
+    /**
+     * Checks whether a previous scan of the given type didn't find anything
+     * within the given JAR, which can therefore be skipped
+     */
+    boolean isScanEmpty(Path jarFile, String scanType) throws IOException {
+        boolean scanEmpty = this.validateEntry(jarFile).getEmptyScanTypes().contains(scanType);
+        if (scanEmpty) {
+            this.getSkippedScans().incrementAndGet();
+        }
+        return scanEmpty;
+    }
+
+    /**
+     * Records the result of a scan of the given type within the given JAR
+     */
+    void recordScan(Path jarFile, String scanType, boolean scanEmpty) throws IOException {
+        this.getPerformedScans().incrementAndGet();
+        if (scanEmpty) {
+            this.validateEntry(jarFile).getEmptyScanTypes().add(scanType);
+        } else {
+            this.validateEntry(jarFile).getEmptyScanTypes().remove(scanType);
+        }
+    }
+
+    private Entry validateEntry(Path jarFile) throws IOException {
+        this.getUsedJarFiles().add(jarFile);
+        BasicFileAttributes jarAttributes = Files.readAttributes(jarFile, BasicFileAttributes.class);
+        long lastModified = jarAttributes.lastModifiedTime().toMillis();
+        Entry entry = this.getEntries().get(jarFile);
+        if (entry != null && entry.getSize() == jarAttributes.size()) {
+            if (entry.getLastModified() == lastModified) {
+                return entry;
+            } else if (entry.getFingerprint() == GeneratedWebappFingerprintCache.computeFingerprint(jarFile)) {
+                entry.setLastModified(lastModified);
+                return entry;
+            }
+        }
+        Entry newEntry = new Entry(jarAttributes.size(), lastModified, GeneratedWebappFingerprintCache.computeFingerprint(jarFile));
+        this.getEntries().put(jarFile, newEntry);
+        return newEntry;
+    }
+
+    /**
+     * Resolves the JAR file referenced by the given URL
+     *
+     * @return
+     *      the JAR file or {@code null} if the URL doesn't point to a JAR
+     *      within the local filesystem
+     */
+    static Path resolveJarFile(URL url) {
+        try {
+            URL jarFileUrl = url;
+            if ("jar".equals(url.getProtocol())) {
+                String jarFileSpec = url.getFile();
+                int separatorIndex = jarFileSpec.indexOf("!/");
+                jarFileUrl = new URL(separatorIndex < 0 ? jarFileSpec : jarFileSpec.substring(0, separatorIndex));
+            }
+            if ("file".equals(jarFileUrl.getProtocol())) {
+                Path jarFile = Paths.get(jarFileUrl.toURI()).toAbsolutePath().normalize();
+                return Files.isRegularFile(jarFile) ? jarFile : null;
+            } else {
+                return null;
+            }
+        } catch (Exception e) {
+            log.trace("Cannot resolve JAR file from URL: {}", url, e);
+            return null;
+        }
+    }
+
+    static boolean containsTlds(Path jarFile) throws IOException {
+        try (JarFile jar = new JarFile(jarFile.toFile())) {
+            for (Enumeration<JarEntry> jarEntries = jar.entries(); jarEntries.hasMoreElements(); ) {
+                String entryName = jarEntries.nextElement().getName();
+                if (entryName.startsWith("META-INF/") && entryName.endsWith(".tld")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    static class Entry {
+
+        private long size = 0;
+        private long lastModified = 0;
+        private long fingerprint = 0;
+        private Set<String> emptyScanTypes = ConcurrentHashMap.newKeySet();
+
+        Entry(long size, long lastModified, long fingerprint) {
+            this.setSize(size);
+            this.setLastModified(lastModified);
+            this.setFingerprint(fingerprint);
+        }
+
+        // ---------------------------------------------------------------------
+        // --- Property access methods -----------------------------------------
+        // ---------------------------------------------------------------------
+
+        long getSize() {
+            return this.size;
+        }
+        private void setSize(long size) {
+            this.size = size;
+        }
+
+        long getLastModified() {
+            return this.lastModified;
+        }
+        void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        long getFingerprint() {
+            return this.fingerprint;
+        }
+        private void setFingerprint(long fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return
+         *      the types of scans that haven't found anything in the JAR
+         */
+        Set<String> getEmptyScanTypes() {
+            return this.emptyScanTypes;
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Property access methods ---------------------------------------------
+    // -------------------------------------------------------------------------
+
+    private Path getCacheFile() {
+        return this.cacheFile;
+    }
+    private void setCacheFile(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    private Map<Path, Entry> getEntries() {
+        return this.entries;
+    }
+
+    private Set<Path> getUsedJarFiles() {
+        return this.usedJarFiles;
+    }
+
+    /**
+     * Resets the number of skipped and performed scans, when the context is
+     * about to be started again
+     */
+    void resetScanCounts() {
+        this.getSkippedScans().set(0);
+        this.getPerformedScans().set(0);
+    }
+
+    /**
+     * @return
+     *      the number of scans that have been skipped since the JAR has been
+     *      found unchanged
+     */
+    long getSkippedScanCount() {
+        return this.getSkippedScans().get();
+    }
+
+    /**
+     * @return
+     *      the number of scans that had to be performed
+     */
+    long getPerformedScanCount() {
+        return this.getPerformedScans().get();
+    }
+
+    private AtomicLong getSkippedScans() {
+        return this.skippedScans;
+    }
+
+    private AtomicLong getPerformedScans() {
+        return this.performedScans;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for executing the commands received on the control port using the
+ * {@link DevLauncherCommandHandler}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherCommandHandlerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Tomcat tomcat = null;
+    private Context rootContext = null;
+    private Context oneContext = null;
+
+    @Before
+    public void setUp() throws Exception {
+        String documentBase = this.temporaryFolder.newFolder("webapp").getAbsolutePath();
+        this.tomcat = new Tomcat();
+        this.tomcat.setBaseDir(this.temporaryFolder.newFolder("tomcat").getAbsolutePath());
+        this.tomcat.setPort(0);
+        this.rootContext = this.tomcat.addContext("", documentBase);
+        this.oneContext = this.tomcat.addContext("/one", documentBase);
+        this.tomcat.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.tomcat.stop();
+        this.tomcat.destroy();
+    }
+
+    @Test
+    public void resolveContext() {
+        assertSame(this.oneContext, DevLauncherCommandHandler.resolveContext("/one", this.tomcat));
+        assertSame(this.oneContext, DevLauncherCommandHandler.resolveContext("one", this.tomcat));
+        assertSame(this.rootContext, DevLauncherCommandHandler.resolveContext("/", this.tomcat));
+        assertSame(this.rootContext, DevLauncherCommandHandler.resolveContext("ROOT", this.tomcat));
+        assertNull(DevLauncherCommandHandler.resolveContext("two", this.tomcat));
+    }
+
+    @Test
+    public void unknownCommand() {
+        assertEquals("error Unknown command: restart", this.handleSingleLine("RESTART /one"));
+    }
+
+    @Test
+    public void missingContext() {
+        assertEquals("error Missing context for command: reload", this.handleSingleLine("reload  "));
+    }
+
+    @Test
+    public void unknownContext() {
+        assertEquals("error Unknown context: two (available: /, /one)", this.handleSingleLine("reload two"));
+    }
+
+    @Test
+    public void stopAndStartContext() {
+        assertTrue(this.handleSingleLine("stop one"), this.handleSingleLine("stop one").startsWith("ok stop /one completed in "));
+        assertFalse(this.oneContext.getState().isAvailable());
+        assertTrue(this.rootContext.getState().isAvailable());
+        assertTrue(this.handleSingleLine("start /one").startsWith("ok start /one completed in "));
+        assertTrue(this.oneContext.getState().isAvailable());
+    }
+
+    @Test
+    public void reloadContext() {
+        assertTrue(this.handleSingleLine("reload /one").startsWith("ok reload /one completed in "));
+        assertTrue(this.oneContext.getState().isAvailable());
+        this.handleSingleLine("stop /one");
+        assertTrue(this.handleSingleLine("reload /one").startsWith("ok reload /one completed in "));
+        assertTrue(this.oneContext.getState().isAvailable());
+    }
+
+    @Test
+    public void status() {
+        List<String> responseLines = DevLauncherCommandHandler.handleCommand("status", this.tomcat);
+        assertEquals("ok", responseLines.get(0));
+        assertTrue(responseLines.get(1), responseLines.get(1).startsWith("server=STARTED uptimeMillis="));
+        assertTrue(responseLines.get(2), responseLines.get(2).startsWith("connector=http:0 "));
+        assertEquals("context=/ state=STARTED sessions=0", responseLines.get(3));
+        assertEquals("context=/one state=STARTED sessions=0", responseLines.get(4));
+    }
+
+    @Test
+    public void metrics() {
+        List<String> responseLines = DevLauncherCommandHandler.handleCommand("metrics", this.tomcat);
+        assertEquals("ok", responseLines.get(0));
+        assertTrue(responseLines.stream().anyMatch(line -> line.startsWith("context=/one requestCount=0 errorCount=0 ")));
+        assertTrue(responseLines.stream().anyMatch(line -> line.startsWith("jvm=heap used=")));
+        assertTrue(responseLines.get(responseLines.size() - 1).startsWith("jvm=threads live="));
+    }
+
+    private String handleSingleLine(String commandLine) {
+        List<String> responseLines = DevLauncherCommandHandler.handleCommand(commandLine, this.tomcat);
+        assertEquals(responseLines.toString(), 1, responseLines.size());
+        return responseLines.get(0);
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.startup.Tomcat;
+import org.junit.Test;
+
+/**
+ * Tests for preparing listeners concurrently using the
+ * {@link DevLauncherListenerPreparation}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherListenerPreparationTest {
+
+    @Test
+    public void prepareListenersConcurrently() throws Exception {
+        CountDownLatch preparationLatch = new CountDownLatch(2);
+        PreparingListener firstListener = new PreparingListener(() -> this.awaitLatch(preparationLatch, true));
+        PreparingListener secondListener = new PreparingListener(() -> this.awaitLatch(preparationLatch, true));
+        try (DevLauncherListenerPreparation preparation = new DevLauncherListenerPreparation(2)) {
+            preparation.start(Arrays.asList(firstListener, secondListener), Collections.emptyMap(), null, new DevLauncherStartupTimeline());
+            preparation.awaitPreparation(firstListener);
+            preparation.awaitPreparation(secondListener);
+        }
+        assertTrue(firstListener.isPrepared());
+        assertTrue(secondListener.isPrepared());
+    }
+
+    @Test
+    public void prepareDependenciesFirst() throws Exception {
+        List<String> preparedNames = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch dependencyLatch = new CountDownLatch(1);
+        PreparingListener dependency = new PreparingListener(() -> {
+            this.awaitLatch(dependencyLatch, false);
+            preparedNames.add("dependency");
+        });
+        PreparingListener dependentListener = new PreparingListener(() -> preparedNames.add("dependent"));
+        PreparingListener independentListener = new PreparingListener(() -> preparedNames.add("independent"));
+        Map<DevLauncherListener, List<DevLauncherListener>> listenerDependencies = new HashMap<>();
+        listenerDependencies.put(dependentListener, Collections.singletonList(dependency));
+        try (DevLauncherListenerPreparation preparation = new DevLauncherListenerPreparation(3)) {
+            preparation.start(Arrays.asList(dependency, dependentListener, independentListener), listenerDependencies, null, new DevLauncherStartupTimeline());
+            preparation.awaitPreparation(independentListener);
+            assertEquals(Collections.singletonList("independent"), new ArrayList<>(preparedNames));
+            dependencyLatch.countDown();
+            preparation.awaitPreparation(dependentListener);
+        }
+        assertEquals(Arrays.asList("independent", "dependency", "dependent"), preparedNames);
+    }
+
+    @Test
+    public void propagatePreparationFailure() throws Exception {
+        IOException preparationException = new IOException("Cannot prepare");
+        PreparingListener failingListener = new PreparingListener(() -> {
+            throw preparationException;
+        });
+        PreparingListener dependentListener = new PreparingListener(() -> {});
+        Map<DevLauncherListener, List<DevLauncherListener>> listenerDependencies = new HashMap<>();
+        listenerDependencies.put(dependentListener, Collections.singletonList(failingListener));
+        try (DevLauncherListenerPreparation preparation = new DevLauncherListenerPreparation(1)) {
+            preparation.start(Arrays.asList(failingListener, dependentListener), listenerDependencies, null, new DevLauncherStartupTimeline());
+            try {
+                preparation.awaitPreparation(failingListener);
+                fail("Exception expected");
+            } catch (IOException e) {
+                assertSame(preparationException, e);
+            }
+            try {
+                preparation.awaitPreparation(dependentListener);
+                fail("Exception expected");
+            } catch (IOException e) {
+                assertSame(preparationException, e);
+            }
+        }
+        assertTrue(!dependentListener.isPrepared());
+    }
+
+    @Test
+    public void awaitUnknownListener() throws Exception {
+        try (DevLauncherListenerPreparation preparation = new DevLauncherListenerPreparation(1)) {
+            preparation.awaitPreparation(new PreparingListener(() -> {}));
+        }
+    }
+
+    private void awaitLatch(CountDownLatch latch, boolean countDown) throws IOException {
+        if (countDown) {
+            latch.countDown();
+        }
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("Timeout while waiting for latch");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    @FunctionalInterface
+    interface Preparation {
+
+        void prepare() throws IOException;
+
+    }
+
+    static class PreparingListener implements DevLauncherListener {
+
+        private Preparation preparation = null;
+        private volatile boolean prepared = false;
+
+        PreparingListener(Preparation preparation) {
+            this.preparation = preparation;
+        }
+
+        @Override
+        public void prepareServer(DevLauncher devLauncher) throws IOException {
+            this.preparation.prepare();
+            this.prepared = true;
+        }
+
+        @Override
+        public void customizeServer(Tomcat tomcat, DevLauncher devLauncher) {
+        }
+
+        boolean isPrepared() {
+            return this.prepared;
+        }
+
+    }
+
+}
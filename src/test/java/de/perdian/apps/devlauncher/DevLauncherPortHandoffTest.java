@@ -0,0 +1,126 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for handing over the connector ports between two server instances
+ * using the {@link DevLauncherPortHandoff}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherPortHandoffTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void parseUnboundLine() {
+        DevLauncherPortHandoff portHandoff = new DevLauncherPortHandoff();
+        assertTrue(portHandoff.parseUnboundLine(DevLauncherPortHandoff.formatUnboundLine(1000, 1250)));
+        assertEquals(1000, portHandoff.getPausedMillis());
+        assertEquals(1250, portHandoff.getUnboundMillis());
+    }
+
+    @Test
+    public void parseInvalidLine() {
+        DevLauncherPortHandoff portHandoff = new DevLauncherPortHandoff();
+        assertFalse(portHandoff.parseUnboundLine("Server stopped"));
+        assertFalse(portHandoff.parseUnboundLine(DevLauncherPortHandoff.CONNECTORS_UNBOUND + " 1000"));
+        assertFalse(portHandoff.parseUnboundLine(DevLauncherPortHandoff.CONNECTORS_UNBOUND + " a b"));
+        assertEquals(0, portHandoff.getUnboundMillis());
+    }
+
+    @Test
+    public void awaitAvailablePorts() throws Exception {
+        int port = this.findAvailablePort();
+        assertTrue(new DevLauncherPortHandoff().awaitPortsReleased(new Connector[] { this.createConnector(port), this.createConnector(port), this.createConnector(0) }, 1000));
+    }
+
+    @Test
+    public void awaitPortsInUse() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            long awaitStartMillis = System.currentTimeMillis();
+            assertFalse(new DevLauncherPortHandoff().awaitPortsReleased(new Connector[] { this.createConnector(serverSocket.getLocalPort()) }, 200));
+            assertTrue(System.currentTimeMillis() - awaitStartMillis >= 200);
+        }
+    }
+
+    @Test
+    public void awaitPortsReleasedWhileWaiting() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+        try {
+            executorService.schedule(() -> {
+                serverSocket.close();
+                return null;
+            }, 100, TimeUnit.MILLISECONDS);
+            assertTrue(new DevLauncherPortHandoff().awaitPortsReleased(new Connector[] { this.createConnector(serverSocket.getLocalPort()) }, DevLauncherPortHandoff.PORT_RELEASE_TIMEOUT));
+        } finally {
+            executorService.shutdownNow();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void recordBoundTime() throws Exception {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(this.temporaryFolder.getRoot().getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        DevLauncherPortHandoff portHandoff = new DevLauncherPortHandoff();
+        portHandoff.instrumentConnectors(tomcat.getService(), false);
+        long initStartMillis = System.currentTimeMillis();
+        try {
+            tomcat.init();
+            assertTrue(portHandoff.getBoundMillis() >= initStartMillis);
+        } finally {
+            tomcat.destroy();
+        }
+    }
+
+    private Connector createConnector(int port) {
+        Connector connector = new Connector();
+        connector.setPort(port);
+        return connector;
+    }
+
+    private int findAvailablePort() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(0));
+            return serverSocket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for counting the requests in flight using the
+ * {@link DevLauncherRequestTracker}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherRequestTrackerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Tomcat tomcat = null;
+    private DevLauncherRequestTracker requestTracker = null;
+    private CountDownLatch requestStartedLatch = new CountDownLatch(1);
+    private CountDownLatch requestReleaseLatch = new CountDownLatch(1);
+    private volatile AsyncContext asyncContext = null;
+    private ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() throws Exception {
+        this.tomcat = new Tomcat();
+        this.tomcat.setBaseDir(this.temporaryFolder.newFolder("tomcat").getAbsolutePath());
+        this.tomcat.setPort(0);
+        Context context = this.tomcat.addContext("", this.temporaryFolder.newFolder("webapp").getAbsolutePath());
+        Tomcat.addServlet(context, "blocking", new HttpServlet() {
+            static final long serialVersionUID = 1L;
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                DevLauncherRequestTrackerTest.this.requestStartedLatch.countDown();
+                try {
+                    DevLauncherRequestTrackerTest.this.requestReleaseLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                response.getWriter().write("blocking");
+            }
+        });
+        context.addServletMapping("/blocking", "blocking");
+        Wrapper asyncWrapper = Tomcat.addServlet(context, "async", new HttpServlet() {
+            static final long serialVersionUID = 1L;
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+                DevLauncherRequestTrackerTest.this.asyncContext = request.startAsync();
+                DevLauncherRequestTrackerTest.this.asyncContext.setTimeout(TIMEOUT_MILLIS);
+                DevLauncherRequestTrackerTest.this.requestStartedLatch.countDown();
+            }
+        });
+        asyncWrapper.setAsyncSupported(true);
+        context.addServletMapping("/async", "async");
+        this.requestTracker = DevLauncherRequestTracker.install(this.tomcat);
+        this.tomcat.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.requestReleaseLatch.countDown();
+        this.executorService.shutdownNow();
+        this.tomcat.stop();
+        this.tomcat.destroy();
+    }
+
+    @Test
+    public void lookupInstalledTracker() {
+        assertSame(this.requestTracker, DevLauncherRequestTracker.lookup(this.tomcat));
+        assertNull(DevLauncherRequestTracker.lookup(new Tomcat()));
+    }
+
+    @Test
+    public void awaitIdleWithoutRequests() throws Exception {
+        assertTrue(this.requestTracker.awaitIdle(0));
+    }
+
+    @Test
+    public void trackSynchronousRequest() throws Exception {
+        Future<Integer> responseCode = this.executorService.submit(() -> this.sendRequest("/blocking"));
+        assertTrue(this.requestStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, this.requestTracker.getActiveRequests().get());
+        assertFalse(this.requestTracker.awaitIdle(50));
+        this.requestReleaseLatch.countDown();
+        assertTrue(this.requestTracker.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(200, responseCode.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(0, this.requestTracker.getActiveRequests().get());
+    }
+
+    @Test
+    public void trackAsynchronousRequestUntilCompleted() throws Exception {
+        Future<Integer> responseCode = this.executorService.submit(() -> this.sendRequest("/async"));
+        assertTrue(this.requestStartedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // The servlet has returned, but the request is still in flight
+        assertFalse(this.requestTracker.awaitIdle(100));
+        assertEquals(1, this.requestTracker.getActiveRequests().get());
+        this.asyncContext.complete();
+        assertTrue(this.requestTracker.awaitIdle(TIMEOUT_MILLIS));
+        assertEquals(200, responseCode.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).intValue());
+    }
+
+    private int sendRequest(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + this.tomcat.getConnector().getLocalPort() + path).openConnection();
+        try {
+            connection.setReadTimeout((int)TIMEOUT_MILLIS);
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+}
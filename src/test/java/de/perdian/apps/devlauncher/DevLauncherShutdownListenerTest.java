@@ -0,0 +1,132 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for handing over a running server to a new instance using the
+ * {@link DevLauncherShutdownListener}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherShutdownListenerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Tomcat tomcat = null;
+    private int connectorPort = 0;
+    private ServerSocket controlSocket = null;
+    private Future<?> controlFuture = null;
+    private ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setUp() throws Exception {
+        DevLauncher devLauncher = new DevLauncher(this.temporaryFolder.newFolder("launcher").toPath());
+        devLauncher.setShutdownDrainTimeout(1000);
+        this.tomcat = new Tomcat();
+        this.tomcat.setBaseDir(this.temporaryFolder.newFolder("tomcat").getAbsolutePath());
+        this.tomcat.setPort(0);
+        this.tomcat.addContext("", this.temporaryFolder.newFolder("webapp").getAbsolutePath());
+        DevLauncherRequestTracker.install(this.tomcat);
+        this.tomcat.start();
+        this.connectorPort = this.tomcat.getConnector().getLocalPort();
+
+        // The control port is served the same way as by the thread installed
+        // by the shutdown listener (which ignores the connection being closed
+        // once the shutdown has been confirmed), but without exiting the JVM
+        this.controlSocket = new ServerSocket(0, 0, InetAddress.getByName("localhost"));
+        this.controlFuture = this.executorService.submit(() -> {
+            try (Socket clientSocket = this.controlSocket.accept()) {
+                DevLauncherShutdownListener.handleShutdownConnection(clientSocket, this.controlSocket, this.tomcat, devLauncher);
+            } catch (SocketException e) {
+                // Connection closed after the shutdown has been confirmed
+            }
+            return null;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.executorService.shutdownNow();
+        this.controlSocket.close();
+        if (this.tomcat.getServer().getState() != LifecycleState.DESTROYED) {
+            this.tomcat.stop();
+            this.tomcat.destroy();
+        }
+    }
+
+    @Test
+    public void shutdownExistingServer() throws Exception {
+        DevLauncherPortHandoff portHandoff = DevLauncherShutdownListener.shutdownExistingServer(this.controlSocket.getLocalPort());
+        assertNotNull(portHandoff);
+        this.controlFuture.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertTrue(portHandoff.getPausedMillis() > 0);
+        assertTrue(portHandoff.getUnboundMillis() >= portHandoff.getPausedMillis());
+        assertEquals(LifecycleState.STOPPED, this.tomcat.getServer().getState());
+        assertTrue(this.controlSocket.isClosed());
+    }
+
+    @Test
+    public void returnWhenConnectorsUnbound() throws Exception {
+        DevLauncherPortHandoff portHandoff = DevLauncherShutdownListener.shutdownExistingServer(this.controlSocket.getLocalPort(), true);
+        assertNotNull(portHandoff);
+        assertTrue(portHandoff.getUnboundMillis() > 0);
+
+        // Both the control port and the connector port can be taken over by
+        // the new instance, even if the previous one is still stopping
+        assertTrue(this.controlSocket.isClosed());
+        Connector connector = new Connector();
+        connector.setPort(this.connectorPort);
+        assertTrue(portHandoff.awaitPortsReleased(new Connector[] { connector }, 0));
+        this.controlFuture.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shutdownWithoutRunningServer() throws Exception {
+        int unusedPort = this.controlSocket.getLocalPort();
+        this.controlSocket.close();
+        assertNull(DevLauncherShutdownListener.shutdownExistingServer(unusedPort));
+        assertNull(DevLauncherShutdownListener.shutdownExistingServer(null));
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for recording and reporting the steps of a launch using the
+ * {@link DevLauncherStartupTimeline}
+ *
+ * @author Christian Robert
+ */
+
+public class DevLauncherStartupTimelineTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void resolveStartStopThreads() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        assertEquals(4, DevLauncherStartupTimeline.resolveStartStopThreads(4));
+        assertEquals(processors, DevLauncherStartupTimeline.resolveStartStopThreads(0));
+        assertEquals(Math.max(1, processors - 1), DevLauncherStartupTimeline.resolveStartStopThreads(-1));
+        assertEquals(1, DevLauncherStartupTimeline.resolveStartStopThreads(-processors - 10));
+    }
+
+    @Test
+    public void instrumentServerUsesHostStartThreads() {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(this.temporaryFolder.getRoot().getAbsolutePath());
+        tomcat.getHost().setStartStopThreads(3);
+        Context context = tomcat.addContext("/a", this.temporaryFolder.getRoot().getAbsolutePath());
+        DevLauncherStartupTimeline timeline = new DevLauncherStartupTimeline();
+        timeline.instrumentServer(tomcat.getServer(), tomcat.getHost());
+        assertEquals(3, timeline.getContextStartThreads());
+        assertTrue(context.findLifecycleListeners()[0] instanceof DevLauncherStartupTimeline.PhaseListener);
+    }
+
+    @Test
+    public void contextStartStatisticsWithoutContexts() {
+        DevLauncherStartupTimeline timeline = new DevLauncherStartupTimeline();
+        timeline.record("server", "customize", System.nanoTime(), null);
+        assertNull(timeline.computeContextStartStatistics());
+    }
+
+    @Test
+    public void contextStartStatisticsForOverlappingContexts() {
+        DevLauncherStartupTimeline timeline = new DevLauncherStartupTimeline();
+        long startNanos = System.nanoTime() - 200 * 1000000L;
+        timeline.record("context /a", "start", startNanos, null);
+        timeline.record("context /b", "start", startNanos, null);
+        timeline.record("context /b", "configure (web.xml, fragments, annotations)", startNanos, null);
+        timeline.record("listener", "start", startNanos - 500 * 1000000L, null);
+        Map<String, Object> statistics = timeline.computeContextStartStatistics();
+        assertEquals(2, statistics.get("contexts"));
+        assertEquals(1, statistics.get("threads"));
+        long wallMillis = (Long)statistics.get("wallMillis");
+        long sumMillis = (Long)statistics.get("sumMillis");
+        assertTrue(wallMillis >= 200);
+        assertTrue(sumMillis >= 2 * wallMillis - 2);
+        assertTrue((Double)statistics.get("speedup") >= 1.9d);
+    }
+
+    @Test
+    public void recordContextPhases() {
+        DevLauncherStartupTimeline timeline = new DevLauncherStartupTimeline();
+        StandardContext context = new StandardContext();
+        DevLauncherStartupTimeline.PhaseListener phaseListener = timeline.new PhaseListener("context /a");
+        phaseListener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.BEFORE_INIT_EVENT, null));
+        phaseListener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.AFTER_INIT_EVENT, null));
+        phaseListener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.BEFORE_START_EVENT, null));
+        phaseListener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.CONFIGURE_START_EVENT, null));
+        phaseListener.configurationCompleted(new LifecycleEvent(context, Lifecycle.CONFIGURE_START_EVENT, null));
+        phaseListener.lifecycleEvent(new LifecycleEvent(context, Lifecycle.AFTER_START_EVENT, null));
+
+        String summary = timeline.formatSummary();
+        assertTrue(summary, summary.startsWith("Startup timeline ("));
+        assertTrue(summary, summary.contains("context /a"));
+        assertTrue(summary, summary.contains(" init"));
+        assertTrue(summary, summary.contains(" configure (web.xml, fragments, annotations)"));
+        assertTrue(summary, summary.contains(" start listeners, filters and servlets"));
+        assertTrue(summary, summary.contains(" start {tldScanMillis="));
+        assertTrue(summary, summary.contains("Started 1 contexts in "));
+    }
+
+    @Test
+    public void writeJson() throws Exception {
+        DevLauncherStartupTimeline timeline = new DevLauncherStartupTimeline();
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("jars", 3);
+        details.put("requestedBy", "Tld\"Config\"");
+        timeline.record("context /a", "jar scan", System.nanoTime(), details);
+        Path timelineFile = this.temporaryFolder.getRoot().toPath().resolve("timeline/startup.json");
+        timeline.writeJson(timelineFile);
+
+        String json = new String(Files.readAllBytes(timelineFile), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"launchedAt\": \""));
+        assertTrue(json, json.contains("{ \"scope\": \"context /a\", \"step\": \"jar scan\", \"offsetMillis\": "));
+        assertTrue(json, json.contains("\"details\": { \"jars\": 3, \"requestedBy\": \"Tld\\\"Config\\\"\" }"));
+        assertTrue(json, !json.contains("\"contextStart\""));
+    }
+
+    @Test
+    public void writeJsonWithoutEntries() throws Exception {
+        Path timelineFile = this.temporaryFolder.getRoot().toPath().resolve("startup.json");
+        new DevLauncherStartupTimeline().writeJson(timelineFile);
+        String json = new String(Files.readAllBytes(timelineFile), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"entries\": []"));
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for transferring resources into the target directory using the
+ * {@link GeneratedWebappCopyEngine}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappCopyEngineTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path sourceDirectory = null;
+    private Path targetDirectory = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.sourceDirectory = this.temporaryFolder.newFolder("source").toPath();
+        this.targetDirectory = this.temporaryFolder.newFolder("target").toPath();
+    }
+
+    @Test
+    public void copySmallFile() throws IOException {
+        Path sourceFile = this.writeFile(this.sourceDirectory.resolve("a.txt"), "source");
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(1400000000000L));
+        Path targetFile = this.targetDirectory.resolve("a.txt");
+        assertEquals(6, GeneratedWebappCopyEngine.copy(sourceFile, targetFile));
+        assertEquals("source", this.readFile(targetFile));
+        assertEquals(Files.getLastModifiedTime(sourceFile), Files.getLastModifiedTime(targetFile));
+        this.assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void copyLargeFile() throws IOException {
+        byte[] content = new byte[(int)GeneratedWebappCopyEngine.LARGE_FILE_THRESHOLD * 3 + 17];
+        new Random(42).nextBytes(content);
+        Path sourceFile = Files.write(this.sourceDirectory.resolve("large.bin"), content);
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(1400000000000L));
+        Path targetFile = this.targetDirectory.resolve("large.bin");
+        assertEquals(content.length, GeneratedWebappCopyEngine.copy(sourceFile, targetFile));
+        assertArrayEquals(content, Files.readAllBytes(targetFile));
+        assertEquals(Files.getLastModifiedTime(sourceFile), Files.getLastModifiedTime(targetFile));
+        this.assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void copyReplacesTargetAtomically() throws IOException {
+        Path sourceFile = this.writeFile(this.sourceDirectory.resolve("a.txt"), "new content");
+        Path targetFile = this.writeFile(this.targetDirectory.resolve("a.txt"), "old content");
+        Object targetFileKey = Files.readAttributes(targetFile, BasicFileAttributes.class).fileKey();
+        Path observerFile = Files.createLink(this.temporaryFolder.getRoot().toPath().resolve("observer.txt"), targetFile);
+
+        GeneratedWebappCopyEngine.copy(sourceFile, targetFile);
+
+        // The old file has been replaced by a new one instead of being
+        // rewritten, so anyone still reading the old file sees its content
+        // completely
+        assertEquals("new content", this.readFile(targetFile));
+        assertEquals("old content", this.readFile(observerFile));
+        assertNotEquals(targetFileKey, Files.readAttributes(targetFile, BasicFileAttributes.class).fileKey());
+        this.assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void copyMissingSourceKeepsTarget() throws IOException {
+        Path targetFile = this.writeFile(this.targetDirectory.resolve("a.txt"), "old content");
+        try {
+            GeneratedWebappCopyEngine.copy(this.sourceDirectory.resolve("missing.txt"), targetFile);
+            fail("Copying a missing source must fail");
+        } catch (NoSuchFileException e) {
+            assertEquals("old content", this.readFile(targetFile));
+            this.assertNoTemporaryFiles();
+        }
+    }
+
+    @Test
+    public void linkSymbolic() throws IOException {
+        Path sourceFile = this.writeFile(this.sourceDirectory.resolve("a.txt"), "source");
+        Path targetFile = this.writeFile(this.targetDirectory.resolve("a.txt"), "outdated");
+        GeneratedWebappCopyEngine.link(sourceFile, targetFile, true);
+        assertTrue(Files.isSymbolicLink(targetFile));
+        assertEquals(sourceFile.toAbsolutePath(), Files.readSymbolicLink(targetFile));
+        assertEquals("source", this.readFile(targetFile));
+        this.assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void linkHard() throws IOException {
+        Path sourceFile = this.writeFile(this.sourceDirectory.resolve("a.txt"), "source");
+        Path targetFile = this.targetDirectory.resolve("a.txt");
+        GeneratedWebappCopyEngine.link(sourceFile, targetFile, false);
+        assertFalse(Files.isSymbolicLink(targetFile));
+        assertTrue(Files.isSameFile(sourceFile, targetFile));
+        this.assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void deleteRecursivelyKeepsLinkTargets() throws IOException {
+        Path sourceFile = this.writeFile(this.sourceDirectory.resolve("dir/a.txt"), "source");
+        Path targetDirectory = this.targetDirectory.resolve("dir");
+        Files.createDirectories(targetDirectory);
+        GeneratedWebappCopyEngine.link(sourceFile, targetDirectory.resolve("a.txt"), true);
+        Files.createSymbolicLink(targetDirectory.resolve("linked"), this.sourceDirectory.resolve("dir"));
+        GeneratedWebappCopyEngine.deleteRecursively(targetDirectory);
+        assertFalse(Files.exists(targetDirectory));
+        assertEquals("source", this.readFile(sourceFile));
+    }
+
+    @Test
+    public void materializeAsSymbolicLinks() throws IOException {
+        this.assertMaterialization(GeneratedWebappMaterialization.SYMLINK);
+        assertTrue(Files.isSymbolicLink(this.targetDirectory.resolve("dir/a.txt")));
+    }
+
+    @Test
+    public void materializeAsHardLinks() throws IOException {
+        this.assertMaterialization(GeneratedWebappMaterialization.HARDLINK);
+        assertTrue(Files.isSameFile(this.sourceDirectory.resolve("dir/a.txt"), this.targetDirectory.resolve("dir/a.txt")));
+    }
+
+    private void assertMaterialization(GeneratedWebappMaterialization materialization) throws IOException {
+        this.writeFile(this.sourceDirectory.resolve("dir/a.txt"), "source");
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(this.sourceDirectory);
+        copyDefinition.setMaterialization(materialization);
+        assertEquals(1, new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory))));
+        assertEquals(0, new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory))));
+        assertEquals("source", this.readFile(this.targetDirectory.resolve("dir/a.txt")));
+    }
+
+    private void assertNoTemporaryFiles() throws IOException {
+        try (Stream<Path> targetFiles = Files.walk(this.targetDirectory)) {
+            assertEquals(0, targetFiles.filter(file -> file.getFileName().toString().endsWith(".tmp")).count());
+        }
+    }
+
+    private Path writeFile(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String readFile(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+}
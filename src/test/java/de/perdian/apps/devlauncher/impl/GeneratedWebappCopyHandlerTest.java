@@ -0,0 +1,279 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for applying file system events within overlayed copy definitions
+ * using the {@link GeneratedWebappCopyHandler}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappCopyHandlerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path lowerDirectory = null;
+    private Path upperDirectory = null;
+    private Path targetDirectory = null;
+    private List<Path> copiedTargetPaths = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.lowerDirectory = this.temporaryFolder.newFolder("lower").toPath();
+        this.upperDirectory = this.temporaryFolder.newFolder("upper").toPath();
+        this.targetDirectory = this.temporaryFolder.getRoot().toPath().resolve("target");
+    }
+
+    @Test
+    public void deleteFromOverlayedLayerKeepsWinner() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "lower");
+        this.writeFile(this.upperDirectory.resolve("a.txt"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+        Path targetFile = this.targetDirectory.resolve("a.txt");
+        Object targetFileKey = Files.readAttributes(targetFile, BasicFileAttributes.class).fileKey();
+        this.copiedTargetPaths.clear();
+
+        Files.delete(this.lowerDirectory.resolve("a.txt"));
+        this.deliverEvent(copyHandlers.get(0), this.lowerDirectory, "a.txt", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertEquals("upper", this.readFile(targetFile));
+        assertEquals(targetFileKey, Files.readAttributes(targetFile, BasicFileAttributes.class).fileKey());
+        assertEquals(Collections.emptyList(), this.copiedTargetPaths);
+    }
+
+    @Test
+    public void deleteFromWinningLayerRestoresOverlayed() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "lower");
+        this.writeFile(this.upperDirectory.resolve("a.txt"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+        Path targetFile = this.targetDirectory.resolve("a.txt");
+        this.copiedTargetPaths.clear();
+
+        Files.delete(this.upperDirectory.resolve("a.txt"));
+        this.deliverEvent(copyHandlers.get(1), this.upperDirectory, "a.txt", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertEquals("lower", this.readFile(targetFile));
+        assertEquals(Collections.singletonList(targetFile), this.copiedTargetPaths);
+    }
+
+    @Test
+    public void deleteFromSingleLayerRemovesTarget() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "lower");
+        this.writeFile(this.upperDirectory.resolve("b.txt"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+
+        Files.delete(this.upperDirectory.resolve("b.txt"));
+        this.deliverEvent(copyHandlers.get(1), this.upperDirectory, "b.txt", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertFalse(Files.exists(this.targetDirectory.resolve("b.txt")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("a.txt")));
+    }
+
+    @Test
+    public void deleteDirectoryRestoresOverlayedChildren() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("dir/a.txt"), "lower");
+        this.writeFile(this.upperDirectory.resolve("dir/a.txt"), "upper");
+        this.writeFile(this.upperDirectory.resolve("dir/b.txt"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+
+        this.deleteDirectory(this.upperDirectory.resolve("dir"));
+        this.deliverEvent(copyHandlers.get(1), this.upperDirectory, "dir", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertEquals("lower", this.readFile(this.targetDirectory.resolve("dir/a.txt")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("dir/b.txt")));
+    }
+
+    @Test
+    public void deleteDirectoryNotMatchingFileIncludes() throws IOException {
+        this.writeFile(this.upperDirectory.resolve("dir/page.jsp"), "upper");
+        this.writeFile(this.upperDirectory.resolve("dir/sub/other.jsp"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(Collections.singletonList("**/*.jsp"));
+        assertTrue(Files.exists(this.targetDirectory.resolve("dir/sub/other.jsp")));
+
+        this.deleteDirectory(this.upperDirectory.resolve("dir"));
+        this.deliverEvent(copyHandlers.get(1), this.upperDirectory, "dir", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertFalse(Files.exists(this.targetDirectory.resolve("dir")));
+    }
+
+    @Test
+    public void deleteDirectoryNotMatchingFileIncludesWithoutOverlay() throws IOException {
+        this.writeFile(this.upperDirectory.resolve("dir/page.jsp"), "upper");
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(this.upperDirectory);
+        copyDefinition.setIncludes(Collections.singletonList("**/*.jsp"));
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory);
+        new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(copyHandler));
+        assertTrue(Files.exists(this.targetDirectory.resolve("dir/page.jsp")));
+
+        this.deleteDirectory(this.upperDirectory.resolve("dir"));
+        this.deliverEvent(copyHandler, this.upperDirectory, "dir", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertFalse(Files.exists(this.targetDirectory.resolve("dir")));
+    }
+
+    @Test
+    public void deleteExcludedFileIsIgnored() throws IOException {
+        this.writeFile(this.upperDirectory.resolve("page.jsp"), "upper");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(Collections.singletonList("**/*.jsp"));
+        this.writeFile(this.targetDirectory.resolve("notes.txt"), "foreign");
+
+        this.deliverEvent(copyHandlers.get(1), this.upperDirectory, "notes.txt", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertTrue(Files.exists(this.targetDirectory.resolve("notes.txt")));
+    }
+
+    @Test
+    public void changesAppliedImmediatelyWithoutQuietPeriod() throws IOException {
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+        assertEquals(-1, copyHandlers.get(0).getPendingChangesDeadline());
+
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "lower");
+        this.deliverEvent(copyHandlers.get(0), this.lowerDirectory, "a.txt", StandardWatchEventKinds.ENTRY_CREATE);
+
+        assertEquals("lower", this.readFile(this.targetDirectory.resolve("a.txt")));
+        assertEquals(-1, copyHandlers.get(0).getPendingChangesDeadline());
+    }
+
+    @Test
+    public void changesCoalescedWithinQuietPeriod() throws IOException {
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+        GeneratedWebappCopyHandler copyHandler = copyHandlers.get(0);
+        copyHandler.setQuietPeriod(60000);
+        long startMillis = System.currentTimeMillis();
+
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "first");
+        this.deliverEvent(copyHandler, this.lowerDirectory, "a.txt", StandardWatchEventKinds.ENTRY_CREATE);
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "second");
+        this.deliverEvent(copyHandler, this.lowerDirectory, "a.txt", StandardWatchEventKinds.ENTRY_MODIFY);
+        this.writeFile(this.lowerDirectory.resolve("b.txt"), "transient");
+        this.deliverEvent(copyHandler, this.lowerDirectory, "b.txt", StandardWatchEventKinds.ENTRY_CREATE);
+        Files.delete(this.lowerDirectory.resolve("b.txt"));
+        this.deliverEvent(copyHandler, this.lowerDirectory, "b.txt", StandardWatchEventKinds.ENTRY_DELETE);
+
+        assertFalse(Files.exists(this.targetDirectory.resolve("a.txt")));
+        assertTrue(copyHandler.getPendingChangesDeadline() >= startMillis + 60000);
+
+        copyHandler.flushPendingChanges();
+        assertEquals("second", this.readFile(this.targetDirectory.resolve("a.txt")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("b.txt")));
+        assertEquals(Collections.singletonList(this.targetDirectory.resolve("a.txt")), this.copiedTargetPaths);
+        assertEquals(-1, copyHandler.getPendingChangesDeadline());
+    }
+
+    @Test
+    public void overflowRescansDirectory() throws IOException {
+        this.writeFile(this.upperDirectory.resolve("dir/a.txt"), "a");
+        this.writeFile(this.upperDirectory.resolve("dir/b.txt"), "b");
+        List<GeneratedWebappCopyHandler> copyHandlers = this.synchronize(null);
+        GeneratedWebappCopyHandler copyHandler = copyHandlers.get(1);
+        copyHandler.startWatching();
+        try {
+
+            // Changes whose events have been lost
+            this.writeFile(this.upperDirectory.resolve("dir/a.txt"), "modified");
+            this.writeFile(this.upperDirectory.resolve("dir/sub/c.txt"), "c");
+            Files.delete(this.upperDirectory.resolve("dir/b.txt"));
+
+            this.deliverEvent(copyHandler, this.upperDirectory, null, StandardWatchEventKinds.OVERFLOW);
+            while (copyHandler.getPendingChangesDeadline() >= 0) {
+                copyHandler.flushPendingChanges();
+            }
+
+            assertEquals("modified", this.readFile(this.targetDirectory.resolve("dir/a.txt")));
+            assertEquals("c", this.readFile(this.targetDirectory.resolve("dir/sub/c.txt")));
+            assertFalse(Files.exists(this.targetDirectory.resolve("dir/b.txt")));
+
+        } finally {
+            copyHandler.close();
+        }
+    }
+
+    private List<GeneratedWebappCopyHandler> synchronize(List<String> includes) throws IOException {
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+        for (Path sourceDirectory : Arrays.asList(this.lowerDirectory, this.upperDirectory)) {
+            GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+            copyDefinition.setSourceDirectory(sourceDirectory);
+            copyDefinition.setIncludes(includes);
+            copyDefinition.setCopyListeners(Collections.singletonList((sourcePath, targetPath) -> this.copiedTargetPaths.add(targetPath)));
+            copyHandlers.add(GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory));
+        }
+        GeneratedWebappOverlayIndex overlayIndex = new GeneratedWebappOverlayIndex(copyHandlers, this.targetDirectory);
+        for (int i = 0; i < copyHandlers.size(); i++) {
+            copyHandlers.get(i).attachOverlay(overlayIndex, i, this.targetDirectory, false);
+        }
+        new GeneratedWebappSynchronizer(1).synchronize(copyHandlers);
+        return copyHandlers;
+    }
+
+    private void deliverEvent(GeneratedWebappCopyHandler copyHandler, Path sourceDirectory, String fileName, WatchEvent.Kind<?> eventKind) {
+        WatchEvent<Path> watchEvent = new WatchEvent<Path>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Kind<Path> kind() {
+                return (Kind<Path>)eventKind;
+            }
+            @Override
+            public int count() {
+                return 1;
+            }
+            @Override
+            public Path context() {
+                return fileName == null ? null : sourceDirectory.getFileSystem().getPath(fileName);
+            }
+        };
+        copyHandler.handleWatchEvents(new GeneratedWebappCopyHandler.PathPair(sourceDirectory, this.targetDirectory), Collections.singletonList(watchEvent));
+    }
+
+    private void writeFile(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String readFile(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private void deleteDirectory(Path directory) throws IOException {
+        GeneratedWebappCopyEngine.deleteRecursively(directory);
+    }
+
+}
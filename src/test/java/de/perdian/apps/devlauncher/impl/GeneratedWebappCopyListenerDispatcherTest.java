@@ -0,0 +1,185 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for delivering copied resources to the listeners using the
+ * {@link GeneratedWebappCopyListenerDispatcher}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappCopyListenerDispatcherTest {
+
+    private List<List<String>> deliveredBatches = new CopyOnWriteArrayList<>();
+    private List<Runnable> pendingTasks = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void createWithoutListeners() {
+        assertNull(GeneratedWebappCopyListenerDispatcher.create(new GeneratedWebappCopyDefinition(), null));
+    }
+
+    @Test
+    public void dispatchSynchronously() {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(false, GeneratedWebappCopyListenerOverflowPolicy.MERGE);
+        dispatcher.dispatch(this.createBatch("a", "b"));
+        dispatcher.dispatch(Collections.emptyList());
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), this.deliveredBatches);
+        assertEquals(1, dispatcher.getDispatchedBatches());
+        assertEquals(2, dispatcher.getDispatchedResources());
+    }
+
+    @Test
+    public void dispatchAfterCloseIsIgnored() {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(false, GeneratedWebappCopyListenerOverflowPolicy.MERGE);
+        dispatcher.close();
+        dispatcher.dispatch(this.createBatch("a"));
+        assertEquals(Collections.emptyList(), this.deliveredBatches);
+    }
+
+    @Test
+    public void defaultBatchDeliveryContinuesAfterFailure() throws IOException {
+        List<Path> notifiedPaths = new ArrayList<>();
+        GeneratedWebappCopyListener copyListener = (sourcePath, targetPath) -> {
+            notifiedPaths.add(targetPath);
+            if (targetPath.endsWith("b")) {
+                throw new IOException("Failure for b");
+            }
+        };
+        copyListener.resourcesCopied(this.createBatch("a", "b", "c"));
+        assertEquals(Arrays.asList(Paths.get("target/a"), Paths.get("target/b"), Paths.get("target/c")), notifiedPaths);
+    }
+
+    @Test
+    public void dispatchAsynchronouslyInOrder() {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(true, GeneratedWebappCopyListenerOverflowPolicy.MERGE, 4);
+        dispatcher.dispatch(this.createBatch("a"));
+        dispatcher.dispatch(this.createBatch("b"));
+        assertEquals(Collections.emptyList(), this.deliveredBatches);
+        assertEquals(1, this.pendingTasks.size());
+        this.runPendingTasks();
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b")), this.deliveredBatches);
+    }
+
+    @Test
+    public void overflowDropOldest() {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(true, GeneratedWebappCopyListenerOverflowPolicy.DROP_OLDEST);
+        dispatcher.dispatch(this.createBatch("a"));
+        dispatcher.dispatch(this.createBatch("b"));
+        dispatcher.dispatch(this.createBatch("c"));
+        this.runPendingTasks();
+        assertEquals(Collections.singletonList(Collections.singletonList("c")), this.deliveredBatches);
+        assertEquals(2, dispatcher.getDroppedBatches());
+        assertEquals(1, dispatcher.getMaximumQueueSize());
+    }
+
+    @Test
+    public void overflowMerge() {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(true, GeneratedWebappCopyListenerOverflowPolicy.MERGE);
+        dispatcher.dispatch(this.createBatch("a", "b"));
+        dispatcher.dispatch(this.createBatch("c", "a"));
+        this.runPendingTasks();
+        assertEquals(Collections.singletonList(Arrays.asList("b", "c", "a")), this.deliveredBatches);
+        assertEquals(1, dispatcher.getMergedBatches());
+    }
+
+    @Test
+    public void overflowBlock() throws InterruptedException {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(true, GeneratedWebappCopyListenerOverflowPolicy.BLOCK);
+        dispatcher.dispatch(this.createBatch("a"));
+        Thread dispatchThread = new Thread(() -> dispatcher.dispatch(this.createBatch("b")));
+        dispatchThread.start();
+        dispatchThread.join(200);
+        assertTrue(dispatchThread.isAlive());
+
+        this.runPendingTasks();
+        dispatchThread.join(TimeUnit.SECONDS.toMillis(5));
+        this.runPendingTasks();
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b")), this.deliveredBatches);
+    }
+
+    @Test
+    public void closeReleasesBlockedDispatch() throws InterruptedException {
+        GeneratedWebappCopyListenerDispatcher dispatcher = this.createDispatcher(true, GeneratedWebappCopyListenerOverflowPolicy.BLOCK);
+        dispatcher.dispatch(this.createBatch("a"));
+        Thread dispatchThread = new Thread(() -> dispatcher.dispatch(this.createBatch("b")));
+        dispatchThread.start();
+        dispatcher.close();
+        dispatchThread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(dispatchThread.isAlive());
+    }
+
+    private GeneratedWebappCopyListenerDispatcher createDispatcher(boolean asynchronous, GeneratedWebappCopyListenerOverflowPolicy overflowPolicy) {
+        return this.createDispatcher(asynchronous, overflowPolicy, 1);
+    }
+
+    private GeneratedWebappCopyListenerDispatcher createDispatcher(boolean asynchronous, GeneratedWebappCopyListenerOverflowPolicy overflowPolicy, int queueCapacity) {
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(Paths.get("source"));
+        copyDefinition.setCopyListeners(Collections.singletonList(new GeneratedWebappCopyListener() {
+            @Override
+            public void resourceCopied(Path sourcePath, Path targetPath) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public void resourcesCopied(List<GeneratedWebappCopiedResource> copiedResources) {
+                List<String> fileNames = new ArrayList<>();
+                for (GeneratedWebappCopiedResource copiedResource : copiedResources) {
+                    fileNames.add(copiedResource.getTargetPath().getFileName().toString());
+                }
+                GeneratedWebappCopyListenerDispatcherTest.this.deliveredBatches.add(fileNames);
+            }
+        }));
+        copyDefinition.setAsynchronousListeners(asynchronous);
+        copyDefinition.setListenerExecutor(this.pendingTasks::add);
+        copyDefinition.setListenerQueueCapacity(queueCapacity);
+        copyDefinition.setListenerOverflowPolicy(overflowPolicy);
+        return GeneratedWebappCopyListenerDispatcher.create(copyDefinition, null);
+    }
+
+    private void runPendingTasks() {
+        while (!this.pendingTasks.isEmpty()) {
+            this.pendingTasks.remove(0).run();
+        }
+    }
+
+    private List<GeneratedWebappCopiedResource> createBatch(String... fileNames) {
+        List<GeneratedWebappCopiedResource> copiedResources = new ArrayList<>();
+        for (String fileName : fileNames) {
+            copiedResources.add(new GeneratedWebappCopiedResource(Paths.get("source", fileName), Paths.get("target", fileName)));
+        }
+        return copiedResources;
+    }
+
+}
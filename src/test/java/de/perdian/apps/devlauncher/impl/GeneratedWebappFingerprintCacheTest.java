@@ -0,0 +1,130 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for recognizing unchanged content using the
+ * {@link GeneratedWebappFingerprintCache}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappFingerprintCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void equalContent() throws IOException {
+        GeneratedWebappFingerprintCache fingerprintCache = new GeneratedWebappFingerprintCache();
+        assertTrue(fingerprintCache.isContentEqual(this.writeFile("a.txt", "content", 1000), this.writeFile("b.txt", "content", 2000)));
+        assertEquals(1, fingerprintCache.getSuppressedCopyCount());
+        assertEquals(2, fingerprintCache.getMissCount());
+    }
+
+    @Test
+    public void differentContentOfSameSize() throws IOException {
+        GeneratedWebappFingerprintCache fingerprintCache = new GeneratedWebappFingerprintCache();
+        assertFalse(fingerprintCache.isContentEqual(this.writeFile("a.txt", "content1", 1000), this.writeFile("b.txt", "content2", 1000)));
+        assertEquals(0, fingerprintCache.getSuppressedCopyCount());
+    }
+
+    @Test
+    public void differentSizeWithoutReading() throws IOException {
+        GeneratedWebappFingerprintCache fingerprintCache = new GeneratedWebappFingerprintCache();
+        assertFalse(fingerprintCache.isContentEqual(this.writeFile("a.txt", "content", 1000), this.writeFile("b.txt", "other content", 1000)));
+        assertEquals(0, fingerprintCache.getMissCount());
+    }
+
+    @Test
+    public void reuseCachedFingerprints() throws IOException {
+        GeneratedWebappFingerprintCache fingerprintCache = new GeneratedWebappFingerprintCache();
+        Path sourceFile = this.writeFile("a.txt", "content", 1000);
+        Path targetFile = this.writeFile("b.txt", "content", 1000);
+        fingerprintCache.isContentEqual(sourceFile, targetFile);
+        fingerprintCache.isContentEqual(sourceFile, targetFile);
+        assertEquals(2, fingerprintCache.getMissCount());
+        assertEquals(2, fingerprintCache.getHitCount());
+
+        this.writeFile("a.txt", "changed", 3000);
+        assertFalse(fingerprintCache.isContentEqual(sourceFile, targetFile));
+        assertEquals(3, fingerprintCache.getMissCount());
+    }
+
+    @Test
+    public void fingerprintOfLargeFile() throws IOException {
+        byte[] content = new byte[200 * 1024 + 5];
+        new Random(42).nextBytes(content);
+        Path firstFile = Files.write(this.temporaryFolder.getRoot().toPath().resolve("first.bin"), content);
+        Path secondFile = Files.write(this.temporaryFolder.getRoot().toPath().resolve("second.bin"), content);
+        assertEquals(GeneratedWebappFingerprintCache.computeFingerprint(firstFile), GeneratedWebappFingerprintCache.computeFingerprint(secondFile));
+        content[content.length - 1]++;
+        Files.write(secondFile, content);
+        assertNotEquals(GeneratedWebappFingerprintCache.computeFingerprint(firstFile), GeneratedWebappFingerprintCache.computeFingerprint(secondFile));
+    }
+
+    @Test
+    public void rewrittenResourceNeitherCopiedNorAnnounced() throws IOException {
+        Path sourceDirectory = this.temporaryFolder.newFolder("source").toPath();
+        Path targetDirectory = this.temporaryFolder.getRoot().toPath().resolve("target");
+        Path sourceFile = Files.write(sourceDirectory.resolve("a.txt"), "content".getBytes(StandardCharsets.UTF_8));
+        List<Path> copiedTargetPaths = new CopyOnWriteArrayList<>();
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(sourceDirectory);
+        copyDefinition.setCopyListeners(Collections.singletonList((sourcePath, targetPath) -> copiedTargetPaths.add(targetPath)));
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, targetDirectory);
+        copyHandler.setFingerprintCache(new GeneratedWebappFingerprintCache());
+        new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(copyHandler));
+        assertEquals(Collections.singletonList(targetDirectory.resolve("a.txt")), copiedTargetPaths);
+
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(Files.getLastModifiedTime(sourceFile).toMillis() + 5000));
+        assertEquals(0, new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(copyHandler)));
+        assertEquals(1, copyHandler.getFingerprintCache().getSuppressedCopyCount());
+        assertEquals(1, copiedTargetPaths.size());
+
+        Files.write(sourceFile, "changed".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(sourceFile, FileTime.fromMillis(Files.getLastModifiedTime(sourceFile).toMillis() + 10000));
+        assertEquals(1, new GeneratedWebappSynchronizer(1).synchronize(Collections.singletonList(copyHandler)));
+        assertEquals(2, copiedTargetPaths.size());
+    }
+
+    private Path writeFile(String fileName, String content, long modificationMillis) throws IOException {
+        Path file = Files.write(this.temporaryFolder.getRoot().toPath().resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1400000000000L + modificationMillis));
+        return file;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bucket layout and the derived values of
+ * {@link GeneratedWebappHistogram}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        assertEquals(0, histogram.getCountValue());
+        assertEquals(0, histogram.getSumValue());
+        assertEquals(0, histogram.getMaximumValue());
+        assertEquals(0d, histogram.getMeanValue(), 0d);
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 4; value++) {
+            assertEquals(value, GeneratedWebappHistogram.bucketUpperBound(GeneratedWebappHistogram.bucketIndex(value)));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirValues() {
+        List<Long> values = new ArrayList<>();
+        for (long value = 0; value < 10000; value++) {
+            values.add(value);
+        }
+        for (int exponent = 14; exponent < 63; exponent++) {
+            values.add((1L << exponent) - 1);
+            values.add(1L << exponent);
+            values.add((1L << exponent) + 1);
+        }
+        values.add(Long.MAX_VALUE);
+        for (long value : values) {
+            int bucketIndex = GeneratedWebappHistogram.bucketIndex(value);
+            long upperBound = GeneratedWebappHistogram.bucketUpperBound(bucketIndex);
+            assertTrue("Value " + value + " above upper bound " + upperBound, value <= upperBound);
+            assertTrue("Value " + value + " more than 25% below upper bound " + upperBound, upperBound - value <= value / 4);
+            if (bucketIndex > 0) {
+                assertTrue("Value " + value + " belongs to previous bucket", GeneratedWebappHistogram.bucketUpperBound(bucketIndex - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void largestValueFitsIntoLastBucket() {
+        assertEquals(Long.MAX_VALUE, GeneratedWebappHistogram.bucketUpperBound(GeneratedWebappHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void recordValues() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCountValue());
+        assertEquals(5050, histogram.getSumValue());
+        assertEquals(100, histogram.getMaximumValue());
+        assertEquals(50.5d, histogram.getMeanValue(), 0.0001d);
+    }
+
+    @Test
+    public void percentilesAreApproximated() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        long median = histogram.getPercentile(0.5);
+        assertTrue("Median " + median, median >= 500 && median <= 625);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue("99th percentile " + p99, p99 >= 990 && p99 <= 1000);
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void percentilesDontExceedMaximum() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(1));
+        assertEquals(1000, histogram.getPercentile(2));
+    }
+
+    @Test
+    public void negativeValuesAreRecordedAsZero() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCountValue());
+        assertEquals(0, histogram.getSumValue());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void reset() {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCountValue());
+        assertEquals(0, histogram.getMaximumValue());
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void recordConcurrently() throws Exception {
+        GeneratedWebappHistogram histogram = new GeneratedWebappHistogram();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (long value = 1; value <= 10000; value++) {
+                        histogram.record(value);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(40000, histogram.getCountValue());
+        assertEquals(4 * 50005000L, histogram.getSumValue());
+        assertEquals(10000, histogram.getMaximumValue());
+        assertEquals(10000, histogram.getPercentile(1));
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for removing orphaned resources using the
+ * {@link GeneratedWebappOrphanSweeper}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappOrphanSweeperTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path targetDirectory = null;
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+
+    @Before
+    public void setUp() throws IOException {
+        Path rootDirectory = this.temporaryFolder.getRoot().toPath();
+        this.targetDirectory = this.temporaryFolder.newFolder("target").toPath();
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+        for (int layer = 0; layer < 2; layer++) {
+            GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+            copyDefinition.setSourceDirectory(rootDirectory.resolve("source" + layer));
+            copyHandlers.add(GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory));
+        }
+        this.overlayIndex = new GeneratedWebappOverlayIndex(copyHandlers, this.targetDirectory);
+        this.overlayIndex.putResource(0, "index.html");
+        this.overlayIndex.putResource(0, "css/site.css");
+        this.overlayIndex.putResource(1, "WEB-INF/web.xml");
+        this.writeFile("index.html", "index");
+        this.writeFile("css/site.css", "site");
+        this.writeFile("WEB-INF/web.xml", "web");
+    }
+
+    @Test
+    public void sweepOrphanedFiles() throws IOException {
+        this.writeFile("removed.html", "12345");
+        this.writeFile("css/removed.css", "123");
+        GeneratedWebappOrphanSweeper.Report report = this.createSweeper(null, false).sweep();
+        assertFalse(report.isDryRun());
+        assertEquals(2, report.getOrphanedFiles().get());
+        assertEquals(0, report.getOrphanedDirectories().get());
+        assertEquals(8, report.getOrphanedBytes().get());
+        assertEquals(Arrays.asList("css/removed.css", "removed.html"), this.sortedPaths(report));
+        assertFalse(Files.exists(this.targetDirectory.resolve("removed.html")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("css/removed.css")));
+        this.assertProvidedResourcesExist();
+    }
+
+    @Test
+    public void sweepOrphanedDirectoryAsWhole() throws IOException {
+        this.writeFile("old/a.txt", "a");
+        this.writeFile("old/nested/b.txt", "b");
+        GeneratedWebappOrphanSweeper.Report report = this.createSweeper(null, false).sweep();
+        assertEquals(Collections.singletonList("old"), report.getOrphanedPaths());
+        assertEquals(1, report.getOrphanedPathCount().get());
+        assertEquals(2, report.getOrphanedFiles().get());
+        assertEquals(2, report.getOrphanedDirectories().get());
+        assertFalse(Files.exists(this.targetDirectory.resolve("old")));
+        this.assertProvidedResourcesExist();
+    }
+
+    @Test
+    public void sweepResourceOfDifferentType() throws IOException {
+        Files.delete(this.targetDirectory.resolve("index.html"));
+        this.writeFile("index.html/stale.txt", "stale");
+        GeneratedWebappOrphanSweeper.Report report = this.createSweeper(null, false).sweep();
+        assertEquals(Collections.singletonList("index.html"), report.getOrphanedPaths());
+        assertFalse(Files.exists(this.targetDirectory.resolve("index.html")));
+    }
+
+    @Test
+    public void dryRunKeepsOrphans() throws IOException {
+        this.writeFile("removed.html", "12345");
+        this.writeFile("old/a.txt", "a");
+        GeneratedWebappOrphanSweeper.Report report = this.createSweeper(null, true).sweep();
+        assertTrue(report.isDryRun());
+        assertEquals(Arrays.asList("old", "removed.html"), this.sortedPaths(report));
+        assertEquals(2, report.getOrphanedFiles().get());
+        assertEquals(1, report.getOrphanedDirectories().get());
+        assertTrue(Files.exists(this.targetDirectory.resolve("removed.html")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("old/a.txt")));
+    }
+
+    @Test
+    public void protectedResourcesKept() throws IOException {
+        this.writeFile("server.log", "log");
+        this.writeFile("logs/current.log", "log");
+        this.writeFile("logs/removed.txt", "removed");
+        this.writeFile("uploads/image.png", "png");
+        GeneratedWebappOrphanSweeper.Report report = this.createSweeper(Arrays.asList("*.log", "/uploads"), false).sweep();
+        assertEquals(Collections.singletonList("logs/removed.txt"), report.getOrphanedPaths());
+        assertTrue(Files.exists(this.targetDirectory.resolve("server.log")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("logs/current.log")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("logs/removed.txt")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("uploads/image.png")));
+        this.assertProvidedResourcesExist();
+    }
+
+    @Test
+    public void reportedPathsLimited() throws IOException {
+        int orphanCount = GeneratedWebappOrphanSweeper.REPORTED_PATHS_LIMIT + 10;
+        for (int i = 0; i < orphanCount; i++) {
+            this.writeFile("orphan" + i + ".txt", "x");
+        }
+        GeneratedWebappOrphanSweeper.Report report = new GeneratedWebappOrphanSweeper(this.overlayIndex, this.targetDirectory, null, false, 4).sweep();
+        assertEquals(orphanCount, report.getOrphanedPathCount().get());
+        assertEquals(orphanCount, report.getOrphanedFiles().get());
+        assertEquals(GeneratedWebappOrphanSweeper.REPORTED_PATHS_LIMIT, report.getOrphanedPaths().size());
+        this.assertProvidedResourcesExist();
+    }
+
+    @Test
+    public void sweepMissingTargetDirectory() throws IOException {
+        Path missingDirectory = this.temporaryFolder.getRoot().toPath().resolve("missing");
+        GeneratedWebappOrphanSweeper.Report report = new GeneratedWebappOrphanSweeper(this.overlayIndex, missingDirectory, null, false, 1).sweep();
+        assertEquals(0, report.getOrphanedPathCount().get());
+        assertFalse(Files.exists(missingDirectory));
+    }
+
+    private GeneratedWebappOrphanSweeper createSweeper(List<String> protectedPatterns, boolean dryRun) {
+        return new GeneratedWebappOrphanSweeper(this.overlayIndex, this.targetDirectory, protectedPatterns, dryRun, 2);
+    }
+
+    private List<String> sortedPaths(GeneratedWebappOrphanSweeper.Report report) {
+        List<String> orphanedPaths = new ArrayList<>(report.getOrphanedPaths());
+        Collections.sort(orphanedPaths);
+        return orphanedPaths;
+    }
+
+    private void assertProvidedResourcesExist() {
+        assertTrue(Files.exists(this.targetDirectory.resolve("index.html")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("css/site.css")));
+        assertTrue(Files.exists(this.targetDirectory.resolve("WEB-INF/web.xml")));
+    }
+
+    private void writeFile(String relativePath, String content) throws IOException {
+        Path file = this.targetDirectory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.NameClassPair;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+import org.apache.naming.resources.Resource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for serving the resources of a virtual overlay using the
+ * {@link GeneratedWebappOverlayDirContext}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappOverlayDirContextTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path lowerDirectory = null;
+    private Path upperDirectory = null;
+    private Path targetDirectory = null;
+    private GeneratedWebappOverlayIndex overlayIndex = null;
+    private GeneratedWebappOverlayDirContext dirContext = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.lowerDirectory = this.temporaryFolder.newFolder("lower").toPath();
+        this.upperDirectory = this.temporaryFolder.newFolder("upper").toPath();
+        this.targetDirectory = this.temporaryFolder.newFolder("target").toPath();
+        this.writeFile(this.lowerDirectory.resolve("index.html"), "lower index");
+        this.writeFile(this.lowerDirectory.resolve("css/lower.css"), "lower css");
+        this.writeFile(this.upperDirectory.resolve("index.html"), "upper index");
+        this.writeFile(this.upperDirectory.resolve("css/upper.css"), "upper css");
+        this.writeFile(this.targetDirectory.resolve("docbase.txt"), "docbase");
+
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+        for (Path sourceDirectory : Arrays.asList(this.lowerDirectory, this.upperDirectory)) {
+            GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+            copyDefinition.setSourceDirectory(sourceDirectory);
+            copyHandlers.add(GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory));
+        }
+        this.overlayIndex = new GeneratedWebappOverlayIndex(copyHandlers, this.targetDirectory);
+        for (int i = 0; i < copyHandlers.size(); i++) {
+            copyHandlers.get(i).attachOverlay(this.overlayIndex, i, this.targetDirectory, true);
+        }
+        new GeneratedWebappSynchronizer(1).synchronize(copyHandlers);
+
+        this.dirContext = new GeneratedWebappOverlayDirContext(this.overlayIndex);
+        this.dirContext.setDocBase(this.targetDirectory.toString());
+        this.dirContext.allocate();
+    }
+
+    @Test
+    public void nothingCopiedIntoTarget() {
+        assertFalse(Files.exists(this.targetDirectory.resolve("index.html")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("css")));
+    }
+
+    @Test
+    public void lookupWinningLayer() throws Exception {
+        assertEquals("upper index", this.readResource(this.dirContext.lookup("/index.html")));
+        assertEquals("lower css", this.readResource(this.dirContext.lookup("/css/lower.css")));
+        assertEquals(this.upperDirectory.resolve("index.html").toAbsolutePath().toString(), this.dirContext.getRealPath("/index.html"));
+    }
+
+    @Test
+    public void lookupDocumentBase() throws Exception {
+        assertEquals("docbase", this.readResource(this.dirContext.lookup("/docbase.txt")));
+    }
+
+    @Test
+    public void lookupDirectory() throws Exception {
+        Object directory = this.dirContext.lookup("/css");
+        assertTrue(directory instanceof DirContext);
+        assertEquals("upper css", this.readResource(((DirContext)directory).lookup("upper.css")));
+        assertEquals("lower css", this.readResource(((DirContext)directory).lookup("lower.css")));
+    }
+
+    @Test
+    public void listMergedDirectory() throws Exception {
+        assertEquals(Arrays.asList("lower.css", "upper.css"), this.listNames("/css"));
+    }
+
+    @Test
+    public void lookupAfterRemovalFromWinningLayer() throws Exception {
+        assertEquals(Collections.singletonList("index.html"), this.overlayIndex.removeResource(1, "index.html"));
+        assertEquals("lower index", this.readResource(this.dirContext.lookup("/index.html")));
+    }
+
+    @Test(expected = NamingException.class)
+    public void lookupMissing() throws Exception {
+        this.dirContext.lookup("/missing.html");
+    }
+
+    private List<String> listNames(String name) throws NamingException {
+        List<String> names = new ArrayList<>();
+        NamingEnumeration<NameClassPair> entries = this.dirContext.list(name);
+        while (entries.hasMore()) {
+            names.add(entries.next().getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private String readResource(Object resource) throws IOException {
+        try (InputStream resourceStream = ((Resource)resource).streamContent()) {
+            byte[] buffer = new byte[1024];
+            int bufferLength = resourceStream.read(buffer);
+            return new String(buffer, 0, Math.max(0, bufferLength), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void writeFile(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
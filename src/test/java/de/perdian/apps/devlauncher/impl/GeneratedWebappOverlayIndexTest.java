@@ -0,0 +1,153 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for resolving resources within the {@link GeneratedWebappOverlayIndex}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappOverlayIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void resolveHighestLayer() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(3);
+        overlayIndex.putResource(0, "a.txt");
+        overlayIndex.putResource(2, "a.txt");
+        overlayIndex.putResource(1, "b.txt");
+        assertEquals(2, overlayIndex.resolveLayer("a.txt"));
+        assertEquals(1, overlayIndex.resolveLayer("b.txt"));
+        assertEquals(-1, overlayIndex.resolveLayer("c.txt"));
+        assertEquals(this.temporaryFolder.getRoot().toPath().resolve("source2/a.txt"), overlayIndex.resolve("a.txt"));
+    }
+
+    @Test
+    public void putResourceRecordsParentDirectories() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(1);
+        assertTrue(overlayIndex.putResource(0, "a/b/c.txt"));
+        assertFalse(overlayIndex.putResource(0, "a/b/c.txt"));
+        assertTrue(overlayIndex.isProvidedBy(0, "a"));
+        assertTrue(overlayIndex.isProvidedBy(0, "a/b"));
+        assertTrue(overlayIndex.isDirectory("a/b"));
+        assertFalse(overlayIndex.isDirectory("a/b/c.txt"));
+        assertEquals(Collections.singletonList("a"), overlayIndex.listChildNames(""));
+        assertEquals(Collections.singletonList("c.txt"), overlayIndex.listChildNames("a/b"));
+        assertEquals(3, overlayIndex.size());
+    }
+
+    @Test
+    public void removeResourceFromWinningLayer() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(2);
+        overlayIndex.putResource(0, "a.txt");
+        overlayIndex.putResource(1, "a.txt");
+        assertEquals(Collections.singletonList("a.txt"), overlayIndex.removeResource(1, "a.txt"));
+        assertEquals(0, overlayIndex.resolveLayer("a.txt"));
+    }
+
+    @Test
+    public void removeResourceFromOverlayedLayer() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(2);
+        overlayIndex.putResource(0, "a.txt");
+        overlayIndex.putResource(1, "a.txt");
+        assertEquals(Collections.emptyList(), overlayIndex.removeResource(0, "a.txt"));
+        assertEquals(1, overlayIndex.resolveLayer("a.txt"));
+        assertFalse(overlayIndex.isProvidedBy(0, "a.txt"));
+    }
+
+    @Test
+    public void removeDirectoryReturnsChildrenFirst() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(2);
+        overlayIndex.putResource(0, "dir/a.txt");
+        overlayIndex.putResource(0, "dir/b.txt");
+        overlayIndex.putResource(1, "dir/b.txt");
+        List<String> removedPaths = overlayIndex.removeResource(0, "dir");
+        assertEquals(Collections.singletonList("dir/a.txt"), removedPaths);
+        assertEquals(-1, overlayIndex.resolveLayer("dir/a.txt"));
+        assertEquals(1, overlayIndex.resolveLayer("dir/b.txt"));
+        assertEquals(1, overlayIndex.resolveLayer("dir"));
+        assertEquals(Collections.singletonList("b.txt"), overlayIndex.listChildNames("dir"));
+    }
+
+    @Test
+    public void removeLastLayerRemovesPath() {
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(1);
+        overlayIndex.putResource(0, "dir/a.txt");
+        assertEquals(Arrays.asList("dir/a.txt", "dir"), overlayIndex.removeResource(0, "dir"));
+        assertEquals(0, overlayIndex.size());
+        assertEquals(Collections.emptyList(), overlayIndex.listChildNames(""));
+    }
+
+    @Test
+    public void moreLayersThanMaskBits() {
+        int layerCount = GeneratedWebappOverlayIndex.MASK_LAYERS + 6;
+        GeneratedWebappOverlayIndex overlayIndex = this.createIndex(layerCount);
+        for (int layer = 0; layer < layerCount; layer++) {
+            overlayIndex.putResource(layer, "shared.txt");
+            overlayIndex.putResource(layer, "layer" + layer + ".txt");
+        }
+        assertEquals(layerCount - 1, overlayIndex.resolveLayer("shared.txt"));
+        assertEquals(69, overlayIndex.resolveLayer("layer69.txt"));
+        assertEquals(5, overlayIndex.resolveLayer("layer5.txt"));
+        assertTrue(overlayIndex.isProvidedBy(65, "shared.txt"));
+        assertFalse(overlayIndex.isProvidedBy(65, "layer64.txt"));
+
+        assertEquals(Collections.emptyList(), overlayIndex.removeResource(65, "shared.txt"));
+        assertEquals(Collections.singletonList("shared.txt"), overlayIndex.removeResource(layerCount - 1, "shared.txt"));
+        assertEquals(layerCount - 2, overlayIndex.resolveLayer("shared.txt"));
+        for (int layer = layerCount - 2; layer >= GeneratedWebappOverlayIndex.MASK_LAYERS; layer--) {
+            if (layer != 65) {
+                overlayIndex.removeResource(layer, "shared.txt");
+            }
+        }
+        assertEquals(GeneratedWebappOverlayIndex.MASK_LAYERS - 1, overlayIndex.resolveLayer("shared.txt"));
+
+        assertEquals(Collections.singletonList("layer66.txt"), overlayIndex.removeResource(66, "layer66.txt"));
+        assertEquals(-1, overlayIndex.resolveLayer("layer66.txt"));
+        assertFalse(overlayIndex.listChildNames("").contains("layer66.txt"));
+    }
+
+    private GeneratedWebappOverlayIndex createIndex(int layerCount) {
+        Path rootDirectory = this.temporaryFolder.getRoot().toPath();
+        Path targetDirectory = rootDirectory.resolve("target");
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>(layerCount);
+        for (int layer = 0; layer < layerCount; layer++) {
+            GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+            copyDefinition.setSourceDirectory(rootDirectory.resolve("source" + layer));
+            copyHandlers.add(GeneratedWebappCopyHandler.create(copyDefinition, targetDirectory));
+        }
+        return new GeneratedWebappOverlayIndex(copyHandlers, targetDirectory);
+    }
+
+}
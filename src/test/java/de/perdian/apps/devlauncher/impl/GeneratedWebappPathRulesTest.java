@@ -0,0 +1,164 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests for the evaluation of include and exclude rules by
+ * {@link GeneratedWebappPathRules}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappPathRulesTest {
+
+    @Test
+    public void compileWithoutRules() {
+        assertNull(GeneratedWebappPathRules.compile(null, null));
+        assertNull(GeneratedWebappPathRules.compile(Collections.emptyList(), Collections.emptyList()));
+    }
+
+    @Test
+    public void compileWithBlankPatternsOnly() {
+        assertNull(GeneratedWebappPathRules.compile(Arrays.asList("", "  "), Arrays.asList(" ")));
+    }
+
+    @Test
+    public void blankPatternsAreIgnored() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("", "*.css", "  "), null);
+        assertNotNull(pathRules);
+        assertTrue(pathRules.isFileIncluded("styles/main.css"));
+        assertFalse(pathRules.isFileIncluded("index.html"));
+    }
+
+    @Test
+    public void patternWithoutSeparatorMatchesOnAnyLevel() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(null, Arrays.asList("*.tmp"));
+        assertFalse(pathRules.isFileIncluded("a.tmp"));
+        assertFalse(pathRules.isFileIncluded("x/y/a.tmp"));
+        assertTrue(pathRules.isFileIncluded("a.tmpx"));
+        assertTrue(pathRules.isFileIncluded("x/a.txt"));
+    }
+
+    @Test
+    public void patternWithLeadingSeparatorIsAnchored() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("/static/*.css"), null);
+        assertTrue(pathRules.isFileIncluded("static/main.css"));
+        assertFalse(pathRules.isFileIncluded("other/static/main.css"));
+        assertFalse(pathRules.isFileIncluded("main.css"));
+    }
+
+    @Test
+    public void singleSegmentWildcards() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("/a*/b?.txt"), null);
+        assertTrue(pathRules.isFileIncluded("a/b1.txt"));
+        assertTrue(pathRules.isFileIncluded("abc/b1.txt"));
+        assertFalse(pathRules.isFileIncluded("abc/b12.txt"));
+        assertFalse(pathRules.isFileIncluded("abc/b.txt"));
+        assertFalse(pathRules.isFileIncluded("ab/c/b1.txt"));
+        assertFalse(pathRules.isFileIncluded("xa/b1.txt"));
+    }
+
+    @Test
+    public void wildcardsMatchLiteralCharactersOnly() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("/file.(1)+*"), null);
+        assertTrue(pathRules.isFileIncluded("file.(1)+.txt"));
+        assertFalse(pathRules.isFileIncluded("fileX(1)+.txt"));
+        assertFalse(pathRules.isFileIncluded("file.1+.txt"));
+    }
+
+    @Test
+    public void anySegmentsMatchesZeroSegments() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("WEB-INF/**/*.xml"), null);
+        assertTrue(pathRules.isFileIncluded("WEB-INF/web.xml"));
+        assertTrue(pathRules.isFileIncluded("WEB-INF/spring/context.xml"));
+        assertTrue(pathRules.isFileIncluded("WEB-INF/a/b/c/context.xml"));
+        assertFalse(pathRules.isFileIncluded("META-INF/context.xml"));
+        assertFalse(pathRules.isFileIncluded("WEB-INF/lib/a.jar"));
+    }
+
+    @Test
+    public void anySegmentsAtTheEnd() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(null, Arrays.asList("/build/**"));
+        assertFalse(pathRules.isFileIncluded("build/a.txt"));
+        assertFalse(pathRules.isFileIncluded("build/x/y/a.txt"));
+        assertFalse(pathRules.isDirectoryIncluded("build"));
+        assertTrue(pathRules.isFileIncluded("src/build/a.txt"));
+    }
+
+    @Test
+    public void matchingDirectoryAppliesToEverythingBelow() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("/static"), null);
+        assertTrue(pathRules.isFileIncluded("static/css/main.css"));
+        assertFalse(pathRules.isFileIncluded("dynamic/index.jsp"));
+    }
+
+    @Test
+    public void excludedDirectoriesArePruned() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(null, Arrays.asList("node_modules"));
+        assertTrue(pathRules.isDirectoryIncluded(""));
+        assertTrue(pathRules.isDirectoryIncluded("src"));
+        assertFalse(pathRules.isDirectoryIncluded("node_modules"));
+        assertFalse(pathRules.isDirectoryIncluded("src/js/node_modules"));
+        assertFalse(pathRules.isFileIncluded("src/node_modules/lib/index.js"));
+    }
+
+    @Test
+    public void directoriesOutsideOfIncludesArePruned() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("/static/css/*.css"), null);
+        assertTrue(pathRules.isDirectoryIncluded(""));
+        assertTrue(pathRules.isDirectoryIncluded("static"));
+        assertTrue(pathRules.isDirectoryIncluded("static/css"));
+        assertFalse(pathRules.isDirectoryIncluded("static/js"));
+        assertFalse(pathRules.isDirectoryIncluded("WEB-INF"));
+    }
+
+    @Test
+    public void directoriesAreDescendedForIncludesOnAnyLevel() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("**/*.css"), null);
+        assertTrue(pathRules.isDirectoryIncluded("a"));
+        assertTrue(pathRules.isDirectoryIncluded("a/b/c"));
+        assertTrue(pathRules.isFileIncluded("a/b/c/main.css"));
+        assertFalse(pathRules.isFileIncluded("a/b/c/main.js"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(Arrays.asList("*.js"), Arrays.asList("/vendor"));
+        assertTrue(pathRules.isFileIncluded("app/main.js"));
+        assertFalse(pathRules.isFileIncluded("vendor/jquery.js"));
+        assertFalse(pathRules.isDirectoryIncluded("vendor"));
+    }
+
+    @Test
+    public void patternsAreNormalized() {
+        GeneratedWebappPathRules pathRules = GeneratedWebappPathRules.compile(null, Arrays.asList(" target\\classes/ "));
+        assertFalse(pathRules.isDirectoryIncluded("target/classes"));
+        assertTrue(pathRules.isDirectoryIncluded("target"));
+        assertTrue(pathRules.isFileIncluded("target/a.txt"));
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.perdian.apps.devlauncher.impl.GeneratedWebappCopyHandler.PathPair;
+import de.perdian.apps.devlauncher.impl.GeneratedWebappPollingEngine.DirectorySnapshot;
+import de.perdian.apps.devlauncher.impl.GeneratedWebappPollingEngine.PolledDirectory;
+
+/**
+ * Tests for detecting changes by comparing the snapshots taken by the
+ * {@link GeneratedWebappPollingEngine}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappPollingEngineTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (GeneratedWebappCopyHandler copyHandler : this.copyHandlers) {
+            copyHandler.close();
+        }
+    }
+
+    @Test
+    public void takeSnapshotSorted() throws IOException {
+        Path directory = this.temporaryFolder.newFolder("source").toPath();
+        this.writeFile(directory.resolve("c.txt"), "ccc", 1000);
+        this.writeFile(directory.resolve("a.txt"), "a", 2000);
+        Files.createDirectory(directory.resolve("b"));
+        DirectorySnapshot snapshot = DirectorySnapshot.take(directory);
+        assertEquals(Arrays.asList("a.txt", "b", "c.txt"), Arrays.asList(snapshot.getNames()));
+        assertEquals(1, snapshot.getSizes()[0]);
+        assertEquals(DirectorySnapshot.DIRECTORY_SIZE, snapshot.getSizes()[1]);
+        assertEquals(3, snapshot.getSizes()[2]);
+        assertEquals(2000, snapshot.getLastModifiedTimes()[0]);
+    }
+
+    @Test
+    public void compareUnchangedSnapshots() throws IOException {
+        Path directory = this.temporaryFolder.newFolder("source").toPath();
+        this.writeFile(directory.resolve("a.txt"), "a", 1000);
+        Files.createDirectory(directory.resolve("dir"));
+        DirectorySnapshot previousSnapshot = DirectorySnapshot.take(directory);
+        assertEquals(Collections.emptyList(), this.describe(previousSnapshot.compareTo(DirectorySnapshot.take(directory), directory.getFileSystem())));
+    }
+
+    @Test
+    public void compareChangedSnapshots() throws IOException {
+        Path directory = this.temporaryFolder.newFolder("source").toPath();
+        this.writeFile(directory.resolve("deleted.txt"), "deleted", 1000);
+        this.writeFile(directory.resolve("resized.txt"), "a", 1000);
+        this.writeFile(directory.resolve("touched.txt"), "a", 1000);
+        this.writeFile(directory.resolve("unchanged.txt"), "a", 1000);
+        this.writeFile(directory.resolve("retyped"), "a", 1000);
+        Files.createDirectory(directory.resolve("dir"));
+        DirectorySnapshot previousSnapshot = DirectorySnapshot.take(directory);
+
+        Files.delete(directory.resolve("deleted.txt"));
+        this.writeFile(directory.resolve("created.txt"), "created", 1000);
+        this.writeFile(directory.resolve("resized.txt"), "abc", 1000);
+        this.writeFile(directory.resolve("touched.txt"), "b", 2000);
+        Files.delete(directory.resolve("retyped"));
+        Files.createDirectory(directory.resolve("retyped"));
+        this.writeFile(directory.resolve("dir/child.txt"), "child", 1000);
+        Files.setLastModifiedTime(directory.resolve("dir"), FileTime.fromMillis(5000));
+
+        List<String> events = this.describe(previousSnapshot.compareTo(DirectorySnapshot.take(directory), directory.getFileSystem()));
+        assertEquals(Arrays.asList("ENTRY_CREATE created.txt", "ENTRY_DELETE deleted.txt", "ENTRY_MODIFY resized.txt", "ENTRY_DELETE retyped", "ENTRY_CREATE retyped", "ENTRY_MODIFY touched.txt"), events);
+    }
+
+    @Test
+    public void adjustIntervalBackoff() {
+        PolledDirectory polledDirectory = new PolledDirectory(new PathPair(null, null), null);
+        polledDirectory.adjustInterval(true, 100, 1000);
+        assertEquals(100, polledDirectory.getInterval());
+        polledDirectory.adjustInterval(false, 100, 1000);
+        assertEquals(200, polledDirectory.getInterval());
+        polledDirectory.adjustInterval(false, 100, 1000);
+        polledDirectory.adjustInterval(false, 100, 1000);
+        assertEquals(800, polledDirectory.getInterval());
+        polledDirectory.adjustInterval(false, 100, 1000);
+        assertEquals(1000, polledDirectory.getInterval());
+        polledDirectory.adjustInterval(true, 100, 1000);
+        assertEquals(100, polledDirectory.getInterval());
+        assertTrue(polledDirectory.getNextPollMillis() <= System.currentTimeMillis() + 100);
+    }
+
+    @Test
+    public void synchronizeChangesByPolling() throws Exception {
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(this.temporaryFolder.newFolder("source").toPath());
+        copyDefinition.setChangeDetection(GeneratedWebappChangeDetection.POLLING);
+        copyDefinition.setMinimumPollInterval(10);
+        copyDefinition.setMaximumPollInterval(50);
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, this.temporaryFolder.getRoot().toPath().resolve("target"));
+        copyHandler.startWatching();
+        this.copyHandlers.add(copyHandler);
+        assertTrue(copyHandler.getWatchEngine() instanceof GeneratedWebappPollingEngine);
+
+        Path sourceDirectory = copyHandler.getSourceDirectory();
+        Path targetDirectory = copyHandler.getTargetDirectory();
+        Files.createDirectories(sourceDirectory.resolve("dir"));
+        this.writeFile(sourceDirectory.resolve("dir/a.txt"), "created", System.currentTimeMillis());
+        this.awaitFile(targetDirectory.resolve("dir/a.txt"), "created");
+        this.writeFile(sourceDirectory.resolve("dir/a.txt"), "modified content", System.currentTimeMillis());
+        this.awaitFile(targetDirectory.resolve("dir/a.txt"), "modified content");
+        Files.delete(sourceDirectory.resolve("dir/a.txt"));
+        this.awaitFile(targetDirectory.resolve("dir/a.txt"), null);
+        assertFalse(Files.exists(targetDirectory.resolve("dir/a.txt")));
+        assertTrue(((GeneratedWebappPollingEngine)copyHandler.getWatchEngine()).getDetectedChangeCount() >= 3);
+    }
+
+    private List<String> describe(List<WatchEvent<?>> watchEvents) {
+        List<String> descriptions = new ArrayList<>(watchEvents.size());
+        for (WatchEvent<?> watchEvent : watchEvents) {
+            descriptions.add(watchEvent.kind().name() + " " + watchEvent.context());
+        }
+        return descriptions;
+    }
+
+    private void writeFile(Path file, String content, long lastModifiedMillis) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedMillis));
+    }
+
+    private void awaitFile(Path file, String expectedContent) throws Exception {
+        long timeoutMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String content = null;
+        while (System.currentTimeMillis() < timeoutMillis) {
+            content = Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null;
+            if (expectedContent == null ? content == null : expectedContent.equals(content)) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        assertEquals(expectedContent, content);
+    }
+
+}
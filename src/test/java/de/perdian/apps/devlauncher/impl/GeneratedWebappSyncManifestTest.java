@@ -0,0 +1,177 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for storing and loading the {@link GeneratedWebappSyncManifest}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappSyncManifestTest {
+
+    private static final String CONFIGURATION_KEY = "configuration";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path sourceDirectory = null;
+    private Path manifestFile = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.sourceDirectory = this.temporaryFolder.newFolder("source").toPath();
+        this.manifestFile = this.temporaryFolder.getRoot().toPath().resolve("manifests/test.manifest");
+    }
+
+    @Test
+    public void loadMissingManifest() {
+        GeneratedWebappSyncManifest manifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        assertNull(manifest.getEntry(""));
+        assertEquals(this.manifestFile, manifest.getManifestFile());
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        Path file = this.createFile("a.txt", "content");
+        GeneratedWebappSyncManifest manifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        manifest.putEntry("", GeneratedWebappSyncManifest.Entry.forDirectory(this.readAttributes(this.sourceDirectory), Arrays.asList("a.txt", "excluded.txt")));
+        manifest.putEntry("a.txt", GeneratedWebappSyncManifest.Entry.forFile(this.readAttributes(file)));
+        manifest.save();
+
+        GeneratedWebappSyncManifest loadedManifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        GeneratedWebappSyncManifest.Entry directoryEntry = loadedManifest.getEntry("");
+        assertNotNull(directoryEntry);
+        assertTrue(directoryEntry.isDirectory());
+        assertEquals(Arrays.asList("a.txt", "excluded.txt"), directoryEntry.getChildren());
+        GeneratedWebappSyncManifest.Entry fileEntry = loadedManifest.getEntry("a.txt");
+        assertNotNull(fileEntry);
+        assertFalse(fileEntry.isDirectory());
+        assertTrue(fileEntry.matches(this.readAttributes(file)));
+        assertNull(loadedManifest.getEntry("excluded.txt"));
+    }
+
+    @Test
+    public void unreachableEntriesAreDropped() throws IOException {
+        Path file = this.createFile("a.txt", "content");
+        GeneratedWebappSyncManifest manifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        manifest.putEntry("", GeneratedWebappSyncManifest.Entry.forDirectory(this.readAttributes(this.sourceDirectory), Collections.emptyList()));
+        manifest.putEntry("a.txt", GeneratedWebappSyncManifest.Entry.forFile(this.readAttributes(file)));
+        manifest.save();
+        assertNull(GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY).getEntry("a.txt"));
+    }
+
+    @Test
+    public void manifestOfDifferentConfigurationIsDropped() throws IOException {
+        GeneratedWebappSyncManifest manifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        manifest.putEntry("", GeneratedWebappSyncManifest.Entry.forDirectory(this.readAttributes(this.sourceDirectory), Collections.emptyList()));
+        manifest.save();
+        assertNotNull(GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY).getEntry(""));
+        assertNull(GeneratedWebappSyncManifest.load(this.manifestFile, "otherConfiguration").getEntry(""));
+    }
+
+    @Test
+    public void corruptManifestIsDropped() throws IOException {
+        Files.createDirectories(this.manifestFile.getParent());
+        Files.write(this.manifestFile, new byte[] { 0, 0, 0, 2, 0 });
+        GeneratedWebappSyncManifest manifest = GeneratedWebappSyncManifest.load(this.manifestFile, CONFIGURATION_KEY);
+        assertNull(manifest.getEntry(""));
+    }
+
+    @Test
+    public void entryDetectsModifiedFile() throws IOException {
+        Path file = this.createFile("a.txt", "content");
+        GeneratedWebappSyncManifest.Entry entry = GeneratedWebappSyncManifest.Entry.forFile(this.readAttributes(file));
+        assertTrue(entry.matches(this.readAttributes(file)));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 10000));
+        assertFalse(entry.matches(this.readAttributes(file)));
+        GeneratedWebappSyncManifest.Entry updatedEntry = GeneratedWebappSyncManifest.Entry.forFile(this.readAttributes(file));
+        Files.write(file, "modified content".getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(updatedEntry.getLastModified()));
+        assertFalse(updatedEntry.matches(this.readAttributes(file)));
+    }
+
+    @Test
+    public void manifestFileDependsOnSourceAndTarget() {
+        Path workingDirectory = this.temporaryFolder.getRoot().toPath();
+        Path manifestFile = GeneratedWebappSyncManifest.resolveManifestFile(workingDirectory, this.sourceDirectory, workingDirectory.resolve("target"));
+        assertEquals(manifestFile, GeneratedWebappSyncManifest.resolveManifestFile(workingDirectory, this.sourceDirectory, workingDirectory.resolve("target")));
+        assertNotEquals(manifestFile, GeneratedWebappSyncManifest.resolveManifestFile(workingDirectory, this.sourceDirectory, workingDirectory.resolve("otherTarget")));
+        assertNotEquals(manifestFile, GeneratedWebappSyncManifest.resolveManifestFile(workingDirectory, workingDirectory.resolve("otherSource"), workingDirectory.resolve("target")));
+    }
+
+    @Test
+    public void configurationKeyDependsOnRulesAndMaterialization() {
+        GeneratedWebappCopyDefinition copyDefinition = this.createCopyDefinition();
+        String configurationKey = GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinition);
+        assertEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(this.createCopyDefinition()));
+
+        GeneratedWebappCopyDefinition copyDefinitionWithMaterialization = this.createCopyDefinition();
+        copyDefinitionWithMaterialization.setMaterialization(GeneratedWebappMaterialization.COPY);
+        assertEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinitionWithMaterialization));
+        copyDefinitionWithMaterialization.setMaterialization(GeneratedWebappMaterialization.HARDLINK);
+        assertNotEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinitionWithMaterialization));
+
+        GeneratedWebappCopyDefinition copyDefinitionWithExcludes = this.createCopyDefinition();
+        copyDefinitionWithExcludes.setExcludes(Arrays.asList("*.tmp", "*.bak"));
+        assertNotEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinitionWithExcludes));
+
+        GeneratedWebappCopyDefinition copyDefinitionWithIncludes = this.createCopyDefinition();
+        copyDefinitionWithIncludes.setIncludes(Arrays.asList("*.css"));
+        assertNotEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinitionWithIncludes));
+
+        GeneratedWebappCopyDefinition copyDefinitionWithFilter = this.createCopyDefinition();
+        copyDefinitionWithFilter.setFileFilter(path -> !path.toString().endsWith(".tmp"));
+        assertNotEquals(configurationKey, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinitionWithFilter));
+    }
+
+    private GeneratedWebappCopyDefinition createCopyDefinition() {
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(this.sourceDirectory);
+        copyDefinition.setExcludes(Arrays.asList("*.tmp"));
+        return copyDefinition;
+    }
+
+    private Path createFile(String fileName, String content) throws IOException {
+        return Files.write(this.sourceDirectory.resolve(fileName), content.getBytes());
+    }
+
+    private BasicFileAttributes readAttributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the initial synchronization of copy definitions performed by the
+ * {@link GeneratedWebappSynchronizer}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappSynchronizerTest {
+
+    private static final int FILE_COUNT = 120;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path lowerDirectory = null;
+    private Path upperDirectory = null;
+    private Path targetDirectory = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.lowerDirectory = this.temporaryFolder.newFolder("lower").toPath();
+        this.upperDirectory = this.temporaryFolder.newFolder("upper").toPath();
+        this.targetDirectory = this.temporaryFolder.getRoot().toPath().resolve("target");
+    }
+
+    @Test
+    public void synchronizeNestedDirectories() throws IOException {
+        for (int i = 0; i < FILE_COUNT; i++) {
+            this.writeFile(this.lowerDirectory.resolve("dir" + (i % 7) + "/sub" + (i % 3) + "/file" + i + ".txt"), "content" + i);
+        }
+        int copiedResources = new GeneratedWebappSynchronizer(4).synchronize(this.createHandlers(this.lowerDirectory));
+        assertEquals(FILE_COUNT, copiedResources);
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertEquals("content" + i, this.readFile(this.targetDirectory.resolve("dir" + (i % 7) + "/sub" + (i % 3) + "/file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    public void laterDefinitionWinsSequential() throws IOException {
+        this.assertLaterDefinitionWins(1);
+    }
+
+    @Test
+    public void laterDefinitionWinsParallel() throws IOException {
+        this.assertLaterDefinitionWins(4);
+    }
+
+    private void assertLaterDefinitionWins(int parallelism) throws IOException {
+        for (int i = 0; i < FILE_COUNT; i++) {
+            this.writeFile(this.lowerDirectory.resolve("dir" + (i % 5) + "/file" + i + ".txt"), "lower");
+            if (i % 2 == 0) {
+                this.writeFile(this.upperDirectory.resolve("dir" + (i % 5) + "/file" + i + ".txt"), "upper");
+            }
+        }
+        int copiedResources = new GeneratedWebappSynchronizer(parallelism).synchronize(this.createHandlers(this.lowerDirectory, this.upperDirectory));
+        assertEquals(FILE_COUNT, copiedResources);
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertEquals(i % 2 == 0 ? "upper" : "lower", this.readFile(this.targetDirectory.resolve("dir" + (i % 5) + "/file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    public void synchronizeAgainCopiesNothing() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("a.txt"), "a");
+        this.writeFile(this.lowerDirectory.resolve("dir/b.txt"), "b");
+        assertEquals(2, new GeneratedWebappSynchronizer(2).synchronize(this.createHandlers(this.lowerDirectory)));
+        assertEquals(0, new GeneratedWebappSynchronizer(2).synchronize(this.createHandlers(this.lowerDirectory)));
+    }
+
+    @Test
+    public void synchronizeIncludedResourcesOnly() throws IOException {
+        this.writeFile(this.lowerDirectory.resolve("pages/a.jsp"), "a");
+        this.writeFile(this.lowerDirectory.resolve("pages/a.txt"), "a");
+        this.writeFile(this.lowerDirectory.resolve("other/b.txt"), "b");
+        GeneratedWebappCopyDefinition copyDefinition = this.createDefinition(this.lowerDirectory);
+        copyDefinition.setIncludes(Collections.singletonList("**/*.jsp"));
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory);
+        assertEquals(1, new GeneratedWebappSynchronizer(2).synchronize(Collections.singletonList(copyHandler)));
+        assertTrue(Files.exists(this.targetDirectory.resolve("pages/a.jsp")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("pages/a.txt")));
+        assertFalse(Files.exists(this.targetDirectory.resolve("other")));
+    }
+
+    @Test
+    public void synchronizeWithManifest() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            this.writeFile(this.lowerDirectory.resolve("dir/file" + i + ".txt"), "content" + i);
+        }
+        Path manifestFile = this.temporaryFolder.getRoot().toPath().resolve("manifests/lower.manifest");
+        assertEquals(10, new GeneratedWebappSynchronizer(2).synchronize(this.createManifestHandlers(manifestFile, this.lowerDirectory)));
+
+        List<GeneratedWebappCopyHandler> copyHandlers = this.createManifestHandlers(manifestFile, this.lowerDirectory);
+        assertEquals(0, new GeneratedWebappSynchronizer(2).synchronize(copyHandlers));
+        assertEquals(10, copyHandlers.get(0).getSyncManifest().getSkippedEntryCount());
+
+        Path modifiedFile = this.lowerDirectory.resolve("dir/file3.txt");
+        this.writeFile(modifiedFile, "modified");
+        Files.setLastModifiedTime(modifiedFile, FileTime.fromMillis(Files.getLastModifiedTime(modifiedFile).toMillis() + 2000));
+        copyHandlers = this.createManifestHandlers(manifestFile, this.lowerDirectory);
+        assertEquals(1, new GeneratedWebappSynchronizer(2).synchronize(copyHandlers));
+        assertEquals(9, copyHandlers.get(0).getSyncManifest().getSkippedEntryCount());
+        assertEquals("modified", this.readFile(this.targetDirectory.resolve("dir/file3.txt")));
+    }
+
+    private List<GeneratedWebappCopyHandler> createHandlers(Path... sourceDirectories) {
+        return this.createManifestHandlers(null, sourceDirectories);
+    }
+
+    private List<GeneratedWebappCopyHandler> createManifestHandlers(Path manifestFile, Path... sourceDirectories) {
+        List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+        for (Path sourceDirectory : Arrays.asList(sourceDirectories)) {
+            GeneratedWebappCopyDefinition copyDefinition = this.createDefinition(sourceDirectory);
+            GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, this.targetDirectory);
+            if (manifestFile != null) {
+                copyHandler.setSyncManifest(GeneratedWebappSyncManifest.load(manifestFile, GeneratedWebappSyncManifest.resolveConfigurationKey(copyDefinition)));
+            }
+            copyHandlers.add(copyHandler);
+        }
+        return copyHandlers;
+    }
+
+    private GeneratedWebappCopyDefinition createDefinition(Path sourceDirectory) {
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(sourceDirectory);
+        return copyDefinition;
+    }
+
+    private void writeFile(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String readFile(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for routing the file system events of multiple copy definitions
+ * through the shared {@link GeneratedWebappWatchEngine}
+ *
+ * @author Christian Robert
+ */
+
+public class GeneratedWebappWatchEngineTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<GeneratedWebappCopyHandler> copyHandlers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (GeneratedWebappCopyHandler copyHandler : this.copyHandlers) {
+            copyHandler.close();
+        }
+    }
+
+    @Test
+    public void shareEngineBetweenHandlers() throws IOException {
+        GeneratedWebappCopyHandler firstHandler = this.startWatching("first");
+        GeneratedWebappCopyHandler secondHandler = this.startWatching("second");
+        assertSame(firstHandler.getWatchEngine(), secondHandler.getWatchEngine());
+        GeneratedWebappWatchEngine watchEngine = (GeneratedWebappWatchEngine)firstHandler.getWatchEngine();
+        assertEquals(1, watchEngine.getWatchServiceCount());
+        assertEquals(1, watchEngine.getDispatcherThreadCount());
+        assertEquals(2, watchEngine.getWatchCount());
+    }
+
+    @Test
+    public void routeEventsToRegisteredHandler() throws Exception {
+        GeneratedWebappCopyHandler firstHandler = this.startWatching("first");
+        GeneratedWebappCopyHandler secondHandler = this.startWatching("second");
+        this.writeFile(firstHandler.getSourceDirectory().resolve("a.txt"), "first");
+        this.writeFile(secondHandler.getSourceDirectory().resolve("b.txt"), "second");
+        this.awaitFile(firstHandler.getTargetDirectory().resolve("a.txt"), "first");
+        this.awaitFile(secondHandler.getTargetDirectory().resolve("b.txt"), "second");
+        assertFalse(Files.exists(secondHandler.getTargetDirectory().resolve("a.txt")));
+    }
+
+    @Test
+    public void watchCreatedDirectories() throws Exception {
+        GeneratedWebappCopyHandler copyHandler = this.startWatching("first");
+        Files.createDirectories(copyHandler.getSourceDirectory().resolve("dir/sub"));
+        this.writeFile(copyHandler.getSourceDirectory().resolve("dir/sub/a.txt"), "created");
+        this.awaitFile(copyHandler.getTargetDirectory().resolve("dir/sub/a.txt"), "created");
+        this.writeFile(copyHandler.getSourceDirectory().resolve("dir/sub/a.txt"), "modified");
+        this.awaitFile(copyHandler.getTargetDirectory().resolve("dir/sub/a.txt"), "modified");
+    }
+
+    @Test
+    public void releaseEngineWithLastHandler() throws IOException {
+        GeneratedWebappCopyHandler firstHandler = this.startWatching("first");
+        GeneratedWebappCopyHandler secondHandler = this.startWatching("second");
+        GeneratedWebappWatchEngine watchEngine = (GeneratedWebappWatchEngine)firstHandler.getWatchEngine();
+        firstHandler.close();
+        assertEquals(1, watchEngine.getWatchCount());
+        secondHandler.close();
+        assertEquals(0, watchEngine.getWatchServiceCount());
+
+        GeneratedWebappWatchEngine newWatchEngine = GeneratedWebappWatchEngine.acquire();
+        try {
+            assertNotSame(watchEngine, newWatchEngine);
+        } finally {
+            newWatchEngine.release();
+        }
+    }
+
+    private GeneratedWebappCopyHandler startWatching(String name) throws IOException {
+        GeneratedWebappCopyDefinition copyDefinition = new GeneratedWebappCopyDefinition();
+        copyDefinition.setSourceDirectory(this.temporaryFolder.newFolder(name + "-source").toPath());
+        GeneratedWebappCopyHandler copyHandler = GeneratedWebappCopyHandler.create(copyDefinition, this.temporaryFolder.getRoot().toPath().resolve(name + "-target"));
+        copyHandler.startWatching();
+        this.copyHandlers.add(copyHandler);
+        return copyHandler;
+    }
+
+    private void writeFile(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void awaitFile(Path file, String expectedContent) throws Exception {
+        long timeoutMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String content = null;
+        while (System.currentTimeMillis() < timeoutMillis) {
+            content = Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null;
+            if (expectedContent.equals(content)) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        assertEquals(expectedContent, content);
+    }
+
+}
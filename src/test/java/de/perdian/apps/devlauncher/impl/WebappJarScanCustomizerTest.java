@@ -0,0 +1,215 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.ContextConfig;
+import org.apache.catalina.startup.TldConfig;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.perdian.apps.devlauncher.DevLauncherJarScannerCallback;
+
+/**
+ * Tests for filtering and caching the JAR scans of a context using the
+ * {@link WebappJarScanCustomizer}
+ *
+ * @author Christian Robert
+ */
+
+public class WebappJarScanCustomizerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void installCustomizedContextConfig() {
+        StandardContext context = new StandardContext();
+        ContextConfig contextConfig = new ContextConfig();
+        contextConfig.setDefaultWebXml("default-web.xml");
+        LifecycleListener otherListener = event -> {};
+        context.addLifecycleListener(contextConfig);
+        context.addLifecycleListener(otherListener);
+        new WebappJarScanCustomizer(null, null).install(context);
+
+        LifecycleListener[] listeners = context.findLifecycleListeners();
+        assertTrue(listeners[0] instanceof WebappJarScanCustomizer.CustomizedContextConfig);
+        assertEquals("default-web.xml", ((ContextConfig)listeners[0]).getDefaultWebXml());
+        assertSame(otherListener, listeners[1]);
+        assertTrue(context.getJarScanner() instanceof WebappJarScanCustomizer.CustomizedJarScanner);
+    }
+
+    @Test
+    public void fragmentScanIncludesExcludedJars() throws Exception {
+        Path includedJar = this.createJar("included.jar", "de/example/Included.class");
+        Path excludedJar = this.createJar("excluded-library.jar", "de/example/Excluded.class");
+        WebappJarScanCustomizer customizer = new WebappJarScanCustomizer(null, GeneratedWebappPathRules.compile(null, Collections.singletonList("excluded-*.jar")));
+        RecordingCallback callback = new RecordingCallback(this.createFragmentCallback());
+        this.scan(customizer, callback, includedJar, excludedJar);
+        assertEquals(Arrays.asList(includedJar, excludedJar), callback.getScannedJarFiles());
+        assertTrue(customizer.formatScanCostSummary("/simple"), customizer.formatScanCostSummary("/simple").startsWith("Scanned 2 JARs for context '/simple' in "));
+    }
+
+    @Test
+    public void tldScanSkipsExcludedJars() throws Exception {
+        Path includedJar = this.createJar("included.jar", "META-INF/included.tld");
+        Path excludedJar = this.createJar("excluded-library.jar", "META-INF/excluded.tld");
+        WebappJarScanCustomizer customizer = new WebappJarScanCustomizer(null, GeneratedWebappPathRules.compile(null, Collections.singletonList("excluded-*.jar")));
+        RecordingCallback callback = new RecordingCallback(this.createTldCallback());
+        this.scan(customizer, callback, includedJar, excludedJar);
+        assertEquals(Collections.singletonList(includedJar), callback.getScannedJarFiles());
+        String summary = customizer.formatScanCostSummary("/simple");
+        assertTrue(summary, summary.contains("(1 JARs excluded from annotation and TLD scan)"));
+        assertTrue(summary, summary.contains(includedJar.toString() + " (fragments 0 ms, annotations 0 ms, TLDs "));
+    }
+
+    @Test
+    public void tldScanSkipsUnchangedEmptyJars() throws Exception {
+        Path emptyJar = this.createJar("empty.jar", "de/example/Empty.class");
+        Path tldJar = this.createJar("tld.jar", "META-INF/example.tld");
+        Path cacheFile = WebappScanCache.resolveCacheFile(this.temporaryFolder.getRoot().toPath(), "/simple");
+
+        WebappScanCache scanCache = WebappScanCache.load(cacheFile);
+        RecordingCallback firstCallback = new RecordingCallback(this.createTldCallback());
+        this.scan(new WebappJarScanCustomizer(scanCache, null), firstCallback, emptyJar, tldJar);
+        assertEquals(Arrays.asList(emptyJar, tldJar), firstCallback.getScannedJarFiles());
+        scanCache.save();
+
+        WebappScanCache reloadedCache = WebappScanCache.load(cacheFile);
+        WebappJarScanCustomizer customizer = new WebappJarScanCustomizer(reloadedCache, null);
+        RecordingCallback secondCallback = new RecordingCallback(this.createTldCallback());
+        this.scan(customizer, secondCallback, emptyJar, tldJar);
+        assertEquals(Collections.singletonList(tldJar), secondCallback.getScannedJarFiles());
+        String summary = customizer.formatScanCostSummary("/simple");
+        assertTrue(summary, summary.contains("1 scans of unchanged JARs skipped"));
+    }
+
+    private void scan(WebappJarScanCustomizer customizer, JarScannerCallback callback, Path... jarFiles) {
+        JarScanner delegateScanner = new JarScanner() {
+            @Override
+            public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback scannerCallback, Set<String> jarsToSkip) {
+                try {
+                    for (Path jarFile : jarFiles) {
+                        scannerCallback.scan((JarURLConnection)new URL("jar:" + jarFile.toUri().toURL() + "!/").openConnection());
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        customizer.new CustomizedJarScanner(delegateScanner).scan(null, null, callback, Collections.emptySet());
+    }
+
+    private JarScannerCallback createFragmentCallback() {
+        return new JarScannerCallback() {
+
+            @Override
+            public void scan(JarURLConnection urlConnection) {
+            }
+
+            @Override
+            public void scan(File file) {
+            }
+
+        };
+    }
+
+    /**
+     * Creates the callback used by Tomcat for the TLD scan, which is the only
+     * way to let the scanner know which kind of scan is being performed
+     */
+    private JarScannerCallback createTldCallback() throws Exception {
+        Class<?> callbackClass = Class.forName(TldConfig.class.getName() + "$TldJarScannerCallback");
+        Constructor<?> callbackConstructor = callbackClass.getDeclaredConstructor(TldConfig.class);
+        callbackConstructor.setAccessible(true);
+        return (JarScannerCallback)callbackConstructor.newInstance(new TldConfig());
+    }
+
+    private Path createJar(String fileName, String entryName) throws IOException {
+        Path jarFile = this.temporaryFolder.getRoot().toPath().resolve(fileName).toAbsolutePath().normalize();
+        try (OutputStream fileStream = Files.newOutputStream(jarFile); JarOutputStream jarStream = new JarOutputStream(fileStream)) {
+            jarStream.putNextEntry(new JarEntry(entryName));
+            jarStream.write(entryName.getBytes(StandardCharsets.UTF_8));
+            jarStream.closeEntry();
+        }
+        return jarFile;
+    }
+
+    // -------------------------------------------------------------------------
+    // --- Inner classes -------------------------------------------------------
+    // -------------------------------------------------------------------------
+
+    /**
+     * Records the JARs passed into the callback without scanning them
+     */
+    static class RecordingCallback implements DevLauncherJarScannerCallback {
+
+        private JarScannerCallback wrappedCallback = null;
+        private List<Path> scannedJarFiles = new ArrayList<>();
+
+        RecordingCallback(JarScannerCallback wrappedCallback) {
+            this.wrappedCallback = wrappedCallback;
+        }
+
+        @Override
+        public JarScannerCallback getWrappedCallback() {
+            return this.wrappedCallback;
+        }
+
+        @Override
+        public void scan(JarURLConnection urlConnection) throws IOException {
+            this.scannedJarFiles.add(WebappScanCache.resolveJarFile(urlConnection.getJarFileURL()));
+        }
+
+        @Override
+        public void scan(File file) throws IOException {
+        }
+
+        List<Path> getScannedJarFiles() {
+            return this.scannedJarFiles;
+        }
+
+    }
+
+}
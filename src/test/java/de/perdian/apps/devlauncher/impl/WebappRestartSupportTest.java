@@ -0,0 +1,119 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the fingerprint of the launcher classes computed by the
+ * {@link WebappRestartSupport}
+ *
+ * @author Christian Robert
+ */
+
+public class WebappRestartSupportTest {
+
+    private static final long MODIFICATION_MILLIS = 1400000000000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path classDirectory = null;
+    private List<Path> classDirectories = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.classDirectory = this.temporaryFolder.newFolder("classes").toPath();
+        this.classDirectories = Collections.singletonList(this.classDirectory);
+        this.writeFile("a/A.class", "A", MODIFICATION_MILLIS);
+        this.writeFile("a/B.class", "B", MODIFICATION_MILLIS);
+    }
+
+    @Test
+    public void fingerprintStableWithoutChanges() {
+        assertEquals(WebappRestartSupport.computeFingerprint(this.classDirectories), WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    @Test
+    public void fingerprintIndependentOfDirectoryOrder() throws IOException {
+        Path otherDirectory = this.temporaryFolder.newFolder("other").toPath();
+        Files.write(otherDirectory.resolve("C.class"), "C".getBytes(StandardCharsets.UTF_8));
+        assertEquals(WebappRestartSupport.computeFingerprint(Arrays.asList(this.classDirectory, otherDirectory)), WebappRestartSupport.computeFingerprint(Arrays.asList(otherDirectory, this.classDirectory)));
+    }
+
+    @Test
+    public void fingerprintChangesWhenFileModified() throws IOException {
+        long fingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        this.writeFile("a/A.class", "A", MODIFICATION_MILLIS + 1000);
+        assertNotEquals(fingerprint, WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    @Test
+    public void fingerprintChangesWhenFileRewrittenWithSameTimestamp() throws IOException {
+        long fingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        this.writeFile("a/A.class", "AA", MODIFICATION_MILLIS);
+        assertNotEquals(fingerprint, WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    @Test
+    public void fingerprintChangesWhenModificationsWouldCancelOut() throws IOException {
+        long fingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        this.writeFile("a/A.class", "A", MODIFICATION_MILLIS + 1000);
+        this.writeFile("a/B.class", "B", MODIFICATION_MILLIS - 1000);
+        assertNotEquals(fingerprint, WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    @Test
+    public void fingerprintChangesWhenFileAddedOrRemoved() throws IOException {
+        long fingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        this.writeFile("a/C.class", "C", MODIFICATION_MILLIS);
+        long addedFingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        assertNotEquals(fingerprint, addedFingerprint);
+        Files.delete(this.classDirectory.resolve("a/C.class"));
+        assertEquals(fingerprint, WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    @Test
+    public void fingerprintChangesWhenFileRenamed() throws IOException {
+        long fingerprint = WebappRestartSupport.computeFingerprint(this.classDirectories);
+        Files.move(this.classDirectory.resolve("a/B.class"), this.classDirectory.resolve("a/C.class"));
+        assertNotEquals(fingerprint, WebappRestartSupport.computeFingerprint(this.classDirectories));
+    }
+
+    private void writeFile(String relativePath, String content, long modificationMillis) throws IOException {
+        Path file = this.classDirectory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modificationMillis));
+    }
+
+}
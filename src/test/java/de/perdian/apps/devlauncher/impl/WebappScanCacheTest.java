@@ -0,0 +1,160 @@
+/*
+ * DevLauncher
+ * Copyright 2013 Christian Robert
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.perdian.apps.devlauncher.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for remembering empty JAR scans across launches within the
+ * {@link WebappScanCache}
+ *
+ * @author Christian Robert
+ */
+
+public class WebappScanCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path cacheFile = null;
+
+    @Before
+    public void setUp() {
+        this.cacheFile = WebappScanCache.resolveCacheFile(this.temporaryFolder.getRoot().toPath(), "/simple");
+    }
+
+    @Test
+    public void resolveCacheFilePerContext() {
+        Path workingDirectory = this.temporaryFolder.getRoot().toPath();
+        assertEquals(this.cacheFile, WebappScanCache.resolveCacheFile(workingDirectory, "/simple"));
+        assertFalse(this.cacheFile.equals(WebappScanCache.resolveCacheFile(workingDirectory, "/other")));
+        assertEquals(workingDirectory.resolve("scancache"), this.cacheFile.getParent());
+    }
+
+    @Test
+    public void reuseEmptyScansAfterReload() throws IOException {
+        Path emptyJar = this.createJar("empty.jar", "de/example/Empty.class");
+        Path tldJar = this.createJar("tld.jar", "META-INF/example.tld");
+        WebappScanCache scanCache = WebappScanCache.load(this.cacheFile);
+        assertFalse(scanCache.isScanEmpty(emptyJar, WebappScanCache.SCAN_TYPE_TLD));
+        scanCache.recordScan(emptyJar, WebappScanCache.SCAN_TYPE_TLD, true);
+        scanCache.recordScan(tldJar, WebappScanCache.SCAN_TYPE_TLD, false);
+        scanCache.recordScan(emptyJar, "annotations", false);
+        assertEquals(3, scanCache.getPerformedScanCount());
+        scanCache.save();
+
+        WebappScanCache reloadedCache = WebappScanCache.load(this.cacheFile);
+        assertTrue(reloadedCache.isScanEmpty(emptyJar, WebappScanCache.SCAN_TYPE_TLD));
+        assertFalse(reloadedCache.isScanEmpty(emptyJar, "annotations"));
+        assertFalse(reloadedCache.isScanEmpty(tldJar, WebappScanCache.SCAN_TYPE_TLD));
+        assertEquals(1, reloadedCache.getSkippedScanCount());
+        reloadedCache.resetScanCounts();
+        assertEquals(0, reloadedCache.getSkippedScanCount());
+    }
+
+    @Test
+    public void keepEntryForTouchedJar() throws IOException {
+        Path jarFile = this.createJar("touched.jar", "de/example/Touched.class");
+        WebappScanCache scanCache = WebappScanCache.load(this.cacheFile);
+        scanCache.recordScan(jarFile, WebappScanCache.SCAN_TYPE_TLD, true);
+        scanCache.save();
+        Files.setLastModifiedTime(jarFile, FileTime.fromMillis(Files.getLastModifiedTime(jarFile).toMillis() + 10000));
+        assertTrue(WebappScanCache.load(this.cacheFile).isScanEmpty(jarFile, WebappScanCache.SCAN_TYPE_TLD));
+    }
+
+    @Test
+    public void invalidateEntryForModifiedJar() throws IOException {
+        Path jarFile = this.createJar("modified.jar", "de/example/First.class");
+        WebappScanCache scanCache = WebappScanCache.load(this.cacheFile);
+        scanCache.recordScan(jarFile, WebappScanCache.SCAN_TYPE_TLD, true);
+        scanCache.save();
+        this.createJar("modified.jar", "de/example/Second.class");
+        Files.setLastModifiedTime(jarFile, FileTime.fromMillis(Files.getLastModifiedTime(jarFile).toMillis() + 10000));
+        assertFalse(WebappScanCache.load(this.cacheFile).isScanEmpty(jarFile, WebappScanCache.SCAN_TYPE_TLD));
+    }
+
+    @Test
+    public void dropUnusedJarsOnSave() throws IOException {
+        Path usedJar = this.createJar("used.jar", "de/example/Used.class");
+        Path removedJar = this.createJar("removed.jar", "de/example/Removed.class");
+        WebappScanCache scanCache = WebappScanCache.load(this.cacheFile);
+        scanCache.recordScan(usedJar, WebappScanCache.SCAN_TYPE_TLD, true);
+        scanCache.recordScan(removedJar, WebappScanCache.SCAN_TYPE_TLD, true);
+        scanCache.save();
+
+        WebappScanCache secondCache = WebappScanCache.load(this.cacheFile);
+        assertTrue(secondCache.isScanEmpty(usedJar, WebappScanCache.SCAN_TYPE_TLD));
+        secondCache.save();
+        assertFalse(WebappScanCache.load(this.cacheFile).isScanEmpty(removedJar, WebappScanCache.SCAN_TYPE_TLD));
+    }
+
+    @Test
+    public void ignoreCorruptCacheFile() throws IOException {
+        Path jarFile = this.createJar("corrupt.jar", "de/example/Corrupt.class");
+        Files.createDirectories(this.cacheFile.getParent());
+        Files.write(this.cacheFile, new byte[] { 0, 0, 0, 1, 0, 0, 0, 5, 0 });
+        WebappScanCache scanCache = WebappScanCache.load(this.cacheFile);
+        assertFalse(scanCache.isScanEmpty(jarFile, WebappScanCache.SCAN_TYPE_TLD));
+        Files.write(this.cacheFile, new byte[] { 0, 0, 0, 99 });
+        assertFalse(WebappScanCache.load(this.cacheFile).isScanEmpty(jarFile, WebappScanCache.SCAN_TYPE_TLD));
+    }
+
+    @Test
+    public void resolveJarFile() throws IOException {
+        Path jarFile = this.createJar("resolved.jar", "de/example/Resolved.class");
+        URL fileUrl = jarFile.toUri().toURL();
+        assertEquals(jarFile.toAbsolutePath().normalize(), WebappScanCache.resolveJarFile(fileUrl));
+        assertEquals(jarFile.toAbsolutePath().normalize(), WebappScanCache.resolveJarFile(new URL("jar:" + fileUrl + "!/")));
+        assertNull(WebappScanCache.resolveJarFile(this.temporaryFolder.getRoot().toURI().toURL()));
+        assertNull(WebappScanCache.resolveJarFile(new URL("http://localhost/example.jar")));
+    }
+
+    @Test
+    public void containsTlds() throws IOException {
+        assertTrue(WebappScanCache.containsTlds(this.createJar("tld.jar", "META-INF/tags/example.tld")));
+        assertFalse(WebappScanCache.containsTlds(this.createJar("classes.jar", "de/example/example.tld")));
+    }
+
+    private Path createJar(String fileName, String entryName) throws IOException {
+        Path jarFile = this.temporaryFolder.getRoot().toPath().resolve(fileName);
+        try (OutputStream fileStream = Files.newOutputStream(jarFile); JarOutputStream jarStream = new JarOutputStream(fileStream)) {
+            jarStream.putNextEntry(new JarEntry(entryName));
+            jarStream.write(entryName.getBytes(StandardCharsets.UTF_8));
+            jarStream.closeEntry();
+        }
+        return jarFile;
+    }
+
+}